@@ -13,6 +13,7 @@ import org.mozilla.javascript.UintMap;
 
 import java.io.*;
 import java.util.Arrays;
+import java.util.Map;
 
 /**
  * ClassFileWriter
@@ -72,6 +73,16 @@ public class ClassFileWriter {
         return generatedClassName;
     }
 
+    /**
+     * Makes this writer load all constants with wide indexes, so that the
+     * methods it writes can be added to another writer of the same class
+     * with {@link #addMethods(ClassFileWriter, Map)}.
+     */
+    public void setWideConstantIndexes()
+    {
+        itsWideConstantIndexes = true;
+    }
+
     /**
      * Add an interface implemented by this class.
      *
@@ -448,6 +459,223 @@ public class ClassFileWriter {
         itsJumpFroms = null;
     }
 
+    /**
+     * Add the methods written by another writer of the same class, which
+     * must load its constants with wide indexes, after the methods of this
+     * writer. The constants the methods use are added to the constant pool
+     * of this writer in the order the methods use them, so the class is the
+     * same for the same sequence of calls, whichever thread wrote the
+     * methods.
+     *
+     * @param methodWriter the writer of the methods
+     * @param renamedFields the new names of fields of the class that the
+     *        methods use, or null
+     */
+    public void addMethods(ClassFileWriter methodWriter,
+                           Map<String,String> renamedFields)
+    {
+        if (itsCurrentMethod != null || methodWriter.itsCurrentMethod != null)
+            throw new IllegalStateException("Method not stopped");
+        if (!methodWriter.itsWideConstantIndexes
+            || !generatedClassName.equals(methodWriter.generatedClassName))
+        {
+            throw new IllegalArgumentException("Bad method writer");
+        }
+        ConstantRelocation relocation =
+            new ConstantRelocation(methodWriter.itsConstantPool, renamedFields);
+        ObjArray methods = methodWriter.itsMethods;
+        for (int i = 0; i < methods.size(); i++) {
+            ClassFileMethod method = (ClassFileMethod)methods.get(i);
+            short nameIndex = itsConstantPool.addUtf8(method.getName());
+            short typeIndex = itsConstantPool.addUtf8(method.getType());
+            ClassFileMethod copy = new ClassFileMethod(method.getName(),
+                                                       nameIndex,
+                                                       method.getType(),
+                                                       typeIndex,
+                                                       method.getFlags());
+            byte[] codeAttribute = method.getCodeAttribute().clone();
+            relocation.relocateCode(codeAttribute);
+            copy.setCodeAttribute(codeAttribute);
+            itsMethods.add(copy);
+        }
+    }
+
+    /**
+     * Changes the constant pool indexes in the code attributes of methods
+     * written by another writer into the indexes of the same constants in
+     * the pool of this writer.
+     */
+    private final class ConstantRelocation
+    {
+        ConstantRelocation(ConstantPool pool,
+                           Map<String,String> renamedFields)
+        {
+            this.pool = pool;
+            this.renamedFields = renamedFields;
+            indexes = new int[pool.getIndexCount()];
+        }
+
+        void relocateCode(byte[] data)
+        {
+            relocate(data, 0); // "Code"
+            int codeStart = 14;
+            int codeLength = getInt32(data, 10);
+            int pc = 0;
+            while (pc < codeLength) {
+                int offset = codeStart + pc;
+                int opcode = data[offset] & 0xFF;
+                int length;
+                switch (opcode) {
+                    case ByteCode.LDC:
+                        throw new IllegalStateException("Narrow constant");
+                    case ByteCode.LDC_W:
+                    case ByteCode.LDC2_W:
+                    case ByteCode.GETSTATIC:
+                    case ByteCode.PUTSTATIC:
+                    case ByteCode.GETFIELD:
+                    case ByteCode.PUTFIELD:
+                    case ByteCode.INVOKEVIRTUAL:
+                    case ByteCode.INVOKESPECIAL:
+                    case ByteCode.INVOKESTATIC:
+                    case ByteCode.INVOKEINTERFACE:
+                    case ByteCode.NEW:
+                    case ByteCode.ANEWARRAY:
+                    case ByteCode.CHECKCAST:
+                    case ByteCode.INSTANCEOF:
+                    case ByteCode.MULTIANEWARRAY:
+                        relocate(data, offset + 1);
+                        length = opcodeLength(opcode, false);
+                        break;
+                    case ByteCode.TABLESWITCH: {
+                        int switchStart = codeStart + pc + 1 + (3 & ~pc);
+                        int low = getInt32(data, switchStart + 4);
+                        int high = getInt32(data, switchStart + 8);
+                        length = switchStart + 4 * (high - low + 4) - offset;
+                        break;
+                    }
+                    case ByteCode.LOOKUPSWITCH: {
+                        int switchStart = codeStart + pc + 1 + (3 & ~pc);
+                        int pairCount = getInt32(data, switchStart + 4);
+                        length = switchStart + 8 * (pairCount + 1) - offset;
+                        break;
+                    }
+                    case ByteCode.WIDE:
+                        length = 1 + opcodeLength(data[offset + 1] & 0xFF,
+                                                  true);
+                        break;
+                    default:
+                        length = opcodeLength(opcode, false);
+                        break;
+                }
+                pc += length;
+            }
+
+            int index = codeStart + codeLength;
+            int exceptionCount = getInt16(data, index);
+            index += 2;
+            for (int i = 0; i < exceptionCount; i++) {
+                if (getInt16(data, index + 6) != 0) {
+                    relocate(data, index + 6); // catch_type
+                }
+                index += 8;
+            }
+
+            int attributeCount = getInt16(data, index);
+            index += 2;
+            for (int i = 0; i < attributeCount; i++) {
+                String name = (String)pool.getConstantData(
+                    getInt16(data, index));
+                relocate(data, index);
+                int end = index + 6 + getInt32(data, index + 2);
+                index += 6;
+                if ("LocalVariableTable".equals(name)) {
+                    int count = getInt16(data, index);
+                    index += 2;
+                    for (int j = 0; j < count; j++) {
+                        relocate(data, index + 4); // name_index
+                        relocate(data, index + 6); // descriptor_index
+                        index += 10;
+                    }
+                } else if ("StackMapTable".equals(name)) {
+                    int count = getInt16(data, index);
+                    index += 2;
+                    for (int j = 0; j < count; j++) {
+                        index = relocateFrame(data, index);
+                    }
+                }
+                index = end;
+            }
+        }
+
+        private int relocateFrame(byte[] data, int index)
+        {
+            int frameType = data[index++] & 0xFF;
+            if (frameType < 64) {
+                // same_frame
+            } else if (frameType < 128) {
+                // same_locals_1_stack_item_frame
+                index = relocateType(data, index);
+            } else if (frameType == 247) {
+                // same_locals_1_stack_item_frame_extended
+                index = relocateType(data, index + 2);
+            } else if (frameType >= 248 && frameType <= 251) {
+                // chop_frame, same_frame_extended
+                index += 2;
+            } else if (frameType >= 252 && frameType <= 254) {
+                // append_frame
+                index += 2;
+                for (int i = 251; i < frameType; i++) {
+                    index = relocateType(data, index);
+                }
+            } else if (frameType == 255) {
+                // full_frame
+                index += 2;
+                int localCount = getInt16(data, index);
+                index += 2;
+                for (int i = 0; i < localCount; i++) {
+                    index = relocateType(data, index);
+                }
+                int stackCount = getInt16(data, index);
+                index += 2;
+                for (int i = 0; i < stackCount; i++) {
+                    index = relocateType(data, index);
+                }
+            } else {
+                throw new IllegalArgumentException("bad frame type: "
+                                                   + frameType);
+            }
+            return index;
+        }
+
+        private int relocateType(byte[] data, int index)
+        {
+            int tag = data[index++];
+            if (tag == TypeInfo.OBJECT_TAG) {
+                relocate(data, index);
+                index += 2;
+            } else if (tag == TypeInfo.UNINITIALIZED_VAR_TAG) {
+                index += 2;
+            }
+            return index;
+        }
+
+        private void relocate(byte[] data, int offset)
+        {
+            int index = getInt16(data, offset);
+            int relocated = indexes[index];
+            if (relocated == 0) {
+                relocated = itsConstantPool.addConstant(pool, index,
+                                                        renamedFields);
+                indexes[index] = relocated;
+            }
+            putInt16(relocated, data, offset);
+        }
+
+        private final ConstantPool pool;
+        private final Map<String,String> renamedFields;
+        private final int[] indexes;
+    }
+
     /**
      * Add the single-byte opcode to the current method.
      *
@@ -581,6 +809,7 @@ public class ClassFileWriter {
                 if (!(0 <= theOperand && theOperand < 65536))
                     throw new IllegalArgumentException("out of range index");
                 if (theOperand >= 256
+                    || itsWideConstantIndexes
                     || theOpCode == ByteCode.LDC_W
                     || theOpCode == ByteCode.LDC2_W)
                 {
@@ -2829,6 +3058,22 @@ public class ClassFileWriter {
         return data;
     }
 
+    static int getInt16(byte[] array, int offset)
+    {
+        return ((array[offset] & 0xFF) << 8) | (array[offset + 1] & 0xFF);
+    }
+
+    static int getInt32(byte[] array, int offset)
+    {
+        return (getInt16(array, offset) << 16) | getInt16(array, offset + 2);
+    }
+
+    static long getInt64(byte[] array, int offset)
+    {
+        return ((long)getInt32(array, offset) << 32)
+               | (getInt32(array, offset + 4) & 0xFFFFFFFFL);
+    }
+
     static int putInt64(long value, byte[] array, int offset)
     {
         offset = putInt32((int)(value >>> 32), array, offset);
@@ -4267,6 +4512,8 @@ public class ClassFileWriter {
     private ObjArray itsVarDescriptors;
 
     private char[] tmpCharBuffer = new char[64];
+
+    private boolean itsWideConstantIndexes;
 }
 
 final class ExceptionTableEntry
@@ -4362,6 +4609,11 @@ final class ClassFileMethod
         itsCodeAttribute = codeAttribute;
     }
 
+    byte[] getCodeAttribute()
+    {
+        return itsCodeAttribute;
+    }
+
     int write(byte[] data, int offset)
     {
         offset = ClassFileWriter.putInt16(itsFlags, data, offset);
@@ -4693,6 +4945,103 @@ final class ConstantPool
         return (short)(itsTopIndex++);
     }
 
+    int getIndexCount()
+    {
+        return itsTopIndex;
+    }
+
+    /**
+     * Adds the constant at the index of another pool and returns its index
+     * in this pool. References to fields of the class of this pool use the
+     * new names of renamed fields.
+     */
+    int addConstant(ConstantPool pool, int index,
+                    Map<String,String> renamedFields)
+    {
+        int offset = pool.getOffset(index);
+        byte[] data = pool.itsPool;
+        switch (data[offset]) {
+          case CONSTANT_Utf8:
+            return addUtf8((String)pool.getConstantData(index));
+          case CONSTANT_Class:
+            return addClass((String)pool.getConstantData(index));
+          case CONSTANT_String: {
+            int utf8Index = ClassFileWriter.getInt16(data, offset + 1);
+            return addConstant((String)pool.getConstantData(utf8Index));
+          }
+          case CONSTANT_Integer:
+            return addConstant(ClassFileWriter.getInt32(data, offset + 1));
+          case CONSTANT_Float:
+            return addConstant(Float.intBitsToFloat(
+                ClassFileWriter.getInt32(data, offset + 1)));
+          case CONSTANT_Long:
+            return addConstant(ClassFileWriter.getInt64(data, offset + 1));
+          case CONSTANT_Double:
+            return addConstant(Double.longBitsToDouble(
+                ClassFileWriter.getInt64(data, offset + 1)));
+          case CONSTANT_Fieldref: {
+            FieldOrMethodRef ref =
+                (FieldOrMethodRef)pool.getConstantData(index);
+            String fieldName = ref.getName();
+            if (renamedFields != null
+                && renamedFields.containsKey(fieldName)
+                && ClassFileWriter.getSlashedForm(ref.getClassName()).equals(
+                       ClassFileWriter.getSlashedForm(cfw.getClassName())))
+            {
+                fieldName = renamedFields.get(fieldName);
+            }
+            return addFieldRef(ref.getClassName(), fieldName, ref.getType());
+          }
+          case CONSTANT_Methodref: {
+            FieldOrMethodRef ref =
+                (FieldOrMethodRef)pool.getConstantData(index);
+            return addMethodRef(ref.getClassName(), ref.getName(),
+                                ref.getType());
+          }
+          case CONSTANT_InterfaceMethodref: {
+            FieldOrMethodRef ref =
+                (FieldOrMethodRef)pool.getConstantData(index);
+            return addInterfaceMethodRef(ref.getClassName(), ref.getName(),
+                                         ref.getType());
+          }
+        }
+        throw new IllegalArgumentException("Bad constant index: " + index);
+    }
+
+    /**
+     * Returns the offset of the constant at the index in the pool bytes.
+     */
+    private int getOffset(int index)
+    {
+        if (itsOffsets == null || itsOffsets.length != itsTopIndex) {
+            itsOffsets = new int[itsTopIndex];
+            int offset = 0;
+            for (int i = 1; i < itsTopIndex; i++) {
+                itsOffsets[i] = offset;
+                switch (itsPool[offset]) {
+                  case CONSTANT_Utf8:
+                    offset += 3 + ClassFileWriter.getInt16(itsPool,
+                                                           offset + 1);
+                    break;
+                  case CONSTANT_Class:
+                  case CONSTANT_String:
+                    offset += 3;
+                    break;
+                  case CONSTANT_Long:
+                  case CONSTANT_Double:
+                    // takes two entries
+                    offset += 9;
+                    i++;
+                    break;
+                  default:
+                    offset += 5;
+                    break;
+                }
+            }
+        }
+        return itsOffsets[index];
+    }
+
     Object getConstantData(int index)
     {
         return itsConstantData.getObject(index);
@@ -4736,6 +5085,7 @@ final class ConstantPool
     private UintMap itsConstantData = new UintMap();
     private UintMap itsPoolTypes = new UintMap();
     private byte itsPool[];
+    private int[] itsOffsets;
 }
 
 final class FieldOrMethodRef
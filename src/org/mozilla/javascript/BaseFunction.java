@@ -377,7 +377,10 @@ public class BaseFunction extends IdScriptableObject implements Function
      */
     public Scriptable createObject(Context cx, Scriptable scope)
     {
-        Scriptable newInstance = new NativeObject();
+        NativeObject newInstance = new NativeObject();
+        if (cx.hasFeature(Context.FEATURE_OBJECT_SHAPES)) {
+            newInstance.useShapes();
+        }
         newInstance.setPrototype(getClassPrototype());
         newInstance.setParentScope(getParentScope());
         return newInstance;
@@ -422,6 +425,14 @@ public class BaseFunction extends IdScriptableObject implements Function
     }
 
     protected Object getPrototypeProperty() {
+        if (forkState == FORK_COPIES) {
+            ScriptableObject copy = getForkCopy();
+            if (copy != null) {
+                // A template scope fork may have replaced the prototype
+                Object result = copy.get("prototype", this);
+                return result != NOT_FOUND ? result : Undefined.instance;
+            }
+        }
         Object result = prototypeProperty;
         if (result == null) {
             // only create default prototype on native JavaScript functions,
@@ -0,0 +1,218 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+// API class
+
+package org.mozilla.javascript;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Class CompiledScriptCache keeps compiled scripts and functions in a
+ * directory, so that compiling the same source again, even in another
+ * JVM, loads the result of the first compilation instead of parsing the
+ * source and generating code.
+ * <p>
+ * A cache is used by a Context once it is set with
+ * {@link Context#setCompiledScriptCache(CompiledScriptCache)}. Entries
+ * are found by a hash of the source, its name and first line number, the
+ * options of the {@link CompilerEnvirons} the Context compiles with and
+ * the Rhino version. An entry holds the class generated for optimization
+ * levels 0 and above or the serialized interpreter code for optimization
+ * level -1. Entries written by a different Rhino version, or that cannot
+ * be read, are ignored and replaced.
+ * <p>
+ * Sources are not compiled while a debugger is attached. Warnings are
+ * only reported when a source is actually compiled, not when it is loaded
+ * from the cache. Several JVMs can share a directory: entries are written
+ * to a temporary file and renamed.
+ *
+ * @since 1.7 Release 5
+ */
+public class CompiledScriptCache
+{
+    private static final int MAGIC = 0x52484e43; // "RHNC"
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte CLASS_ENTRY = 0;
+    private static final byte INTERPRETED_ENTRY = 1;
+
+    private final File directory;
+
+    /**
+     * Creates a cache keeping its entries in the directory, which is
+     * created when the first entry is written.
+     */
+    public CompiledScriptCache(File directory)
+    {
+        if (directory == null) throw new IllegalArgumentException();
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the directory of the cache.
+     */
+    public final File getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * Returns the key of the result of compiling the source with the
+     * given options, which names its entry.
+     */
+    String getKey(Context cx, CompilerEnvirons compilerEnv, String source,
+                  String sourceName, int lineno, boolean returnFunction)
+    {
+        StringBuilder options = new StringBuilder();
+        options.append(cx.getImplementationVersion())
+               .append('\n').append(sourceName)
+               .append('\n').append(lineno)
+               .append(' ').append(returnFunction)
+               .append(' ').append(compilerEnv.getLanguageVersion())
+               .append(' ').append(compilerEnv.getOptimizationLevel())
+               .append(' ').append(compilerEnv.isGenerateDebugInfo())
+               .append(' ').append(compilerEnv.isReservedKeywordAsIdentifier())
+               .append(' ').append(compilerEnv.isAllowMemberExprAsFunctionName())
+               .append(' ').append(compilerEnv.isXmlAvailable())
+               .append(' ').append(compilerEnv.isGeneratingSource())
+               .append(' ').append(compilerEnv.isStrictMode())
+               .append(' ').append(compilerEnv.reportWarningAsError())
+               .append(' ').append(compilerEnv.isGenerateObserverCount())
+               .append(' ').append(compilerEnv.isGeneratePropertyCaches())
+               .append(' ').append(compilerEnv.isRecordingComments())
+               .append(' ').append(compilerEnv.isRecordingLocalJsDocComments())
+               .append(' ').append(compilerEnv.recoverFromErrors())
+               .append(' ').append(compilerEnv.isIdeMode())
+               .append(' ').append(compilerEnv.getAllowSharpComments());
+        Set<String> activationNames = compilerEnv.getActivationNames();
+        if (activationNames != null) {
+            options.append(' ').append(new TreeSet<String>(activationNames));
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+        try {
+            digest.update(options.toString().getBytes("UTF-8"));
+            digest.update((byte)0);
+            digest.update(source.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException ex) {
+            throw new RuntimeException(ex);
+        }
+        byte[] hash = digest.digest();
+        StringBuilder key = new StringBuilder(hash.length * 2);
+        for (int i = 0; i < hash.length; i++) {
+            key.append(Character.forDigit((hash[i] >> 4) & 0xf, 16));
+            key.append(Character.forDigit(hash[i] & 0xf, 16));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the compiled script or function of the entry with the key,
+     * which is a class name and bytes pair as Codegen returns it or an
+     * InterpreterData, or null if there is no valid entry.
+     */
+    Object load(Context cx, String key)
+    {
+        File file = new File(directory, key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC
+                    || in.readInt() != FORMAT_VERSION
+                    || !in.readUTF().equals(cx.getImplementationVersion())
+                    || !in.readUTF().equals(key))
+                {
+                    return null;
+                }
+                byte type = in.readByte();
+                if (type == CLASS_ENTRY) {
+                    String className = in.readUTF();
+                    byte[] classBytes = new byte[in.readInt()];
+                    in.readFully(classBytes);
+                    return new Object[] { className, classBytes };
+                } else if (type == INTERPRETED_ENTRY) {
+                    ObjectInputStream objects = new ObjectInputStream(in);
+                    return (InterpreterData)objects.readObject();
+                }
+                return null;
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            return null;
+        } catch (ClassNotFoundException ex) {
+            return null;
+        } catch (ClassCastException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the compiled script or function as the entry with the key,
+     * ignoring failures, as the source can always be compiled again.
+     */
+    void store(Context cx, String key, Object bytecode)
+    {
+        File tmp = null;
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                return;
+            }
+            tmp = File.createTempFile(key, ".tmp", directory);
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(cx.getImplementationVersion());
+                out.writeUTF(key);
+                if (bytecode instanceof InterpreterData) {
+                    out.writeByte(INTERPRETED_ENTRY);
+                    ObjectOutputStream objects = new ObjectOutputStream(out);
+                    objects.writeObject(bytecode);
+                    objects.flush();
+                } else {
+                    Object[] nameBytesPair = (Object[])bytecode;
+                    byte[] classBytes = (byte[])nameBytesPair[1];
+                    out.writeByte(CLASS_ENTRY);
+                    out.writeUTF((String)nameBytesPair[0]);
+                    out.writeInt(classBytes.length);
+                    out.write(classBytes);
+                }
+            } finally {
+                out.close();
+            }
+            File file = new File(directory, key);
+            if (!tmp.renameTo(file)) {
+                // Some platforms do not rename over existing files
+                file.delete();
+                if (!tmp.renameTo(file)) {
+                    return;
+                }
+            }
+            tmp = null;
+        } catch (IOException ex) {
+            // the entry is written again on the next compilation
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+}
@@ -25,6 +25,7 @@ public class CompilerEnvirons
         strictMode = false;
         warningAsError = false;
         generateObserverCount = false;
+        generatePropertyCaches = false;
         allowSharpComments = false;
     }
 
@@ -51,6 +52,10 @@ public class CompilerEnvirons
 
         // Observer code generation in compiled code :
         generateObserverCount = cx.generateObserverCount;
+
+        // Inline caches only hit objects in shape mode
+        generatePropertyCaches
+            = cx.hasFeature(Context.FEATURE_OBJECT_SHAPES);
     }
 
     public final ErrorReporter getErrorReporter()
@@ -195,6 +200,27 @@ public class CompilerEnvirons
         this.generateObserverCount = generateObserverCount;
     }
 
+    /**
+     * @return true iff compiled code will cache property lookups
+     * @see #setGeneratePropertyCaches(boolean)
+     */
+    public boolean isGeneratePropertyCaches() {
+        return generatePropertyCaches;
+    }
+
+    /**
+     * Turn on or off generation of inline caches for the named property
+     * accesses of JVM byte code. The caches only speed up accesses to
+     * objects in shape mode, so this is turned on by
+     * {@link #initFromContext(Context)} if the Context has
+     * {@link Context#FEATURE_OBJECT_SHAPES} and off otherwise.
+     * @param generatePropertyCaches if true, generated code will keep a
+     * {@link PropertyCache} for each named property access.
+     */
+    public void setGeneratePropertyCaches(boolean generatePropertyCaches) {
+        this.generatePropertyCaches = generatePropertyCaches;
+    }
+
     public boolean isRecordingComments() {
         return recordingComments;
     }
@@ -285,6 +311,7 @@ public class CompilerEnvirons
     private boolean strictMode;
     private boolean warningAsError;
     private boolean generateObserverCount;
+    private boolean generatePropertyCaches;
     private boolean recordingComments;
     private boolean recordingLocalJsDocComments;
     private boolean recoverFromErrors;
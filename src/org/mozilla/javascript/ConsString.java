@@ -15,8 +15,13 @@ import java.io.Serializable;
  * <p>This string representation is optimized for concatenation using the "+"
  * operator. Instead of immediately copying both components to a new character
  * array, ConsString keeps references to the original components and only
- * converts them to a String if either toString() is called or a certain depth
- * level is reached.</p>
+ * converts them to a String if toString() is called. When the tree of
+ * components grows higher than a certain depth level, it is rebalanced.</p>
+ *
+ * <p>charAt, subSequence and indexOf work on the tree of components without
+ * converting it. They walk the tree iteratively, and charAt remembers the
+ * component it last read from so that reading characters in order does not
+ * walk the tree for each character.</p>
  *
  * <p>Note that instances of this class are only immutable if both parts are
  * immutable, i.e. either Strings or ConsStrings that are ultimately composed
@@ -28,27 +33,101 @@ public class ConsString implements CharSequence, Serializable {
 
     private static final long serialVersionUID = -8432806714471372570L;
 
-    private CharSequence s1, s2;
+    // Ropes higher than this are rebalanced
+    private static final int MAX_DEPTH = 2000;
+
+    // Rebalancing joins neighbouring leaves shorter than this
+    private static final int MIN_LEAF_LENGTH = 1024;
+
+    // subSequence shares the leaves of ranges at least this long whose
+    // leaves have this average length, and copies other ranges
+    private static final int MIN_SHARED_LENGTH = 1024;
+    private static final int MIN_SHARED_LEAF_LENGTH = 64;
+
+    // s2 is read before s1 and flatten() writes s1 before s2, so that a
+    // reader which sees the flattened s2 also sees the flattened s1.
+    private volatile CharSequence s1, s2;
     private final int length;
     private int depth;
 
+    // The leaf of the last charAt call
+    private transient volatile Cursor cursor;
+
     public ConsString(CharSequence str1, CharSequence str2) {
         s1 = str1;
         s2 = str2;
         length = str1.length() + str2.length();
-        depth = 1;
-        if (str1 instanceof ConsString) {
-            depth += ((ConsString)str1).depth;
+        int depth1 = str1 instanceof ConsString ? ((ConsString)str1).depth : 0;
+        int depth2 = str2 instanceof ConsString ? ((ConsString)str2).depth : 0;
+        depth = 1 + Math.max(depth1, depth2);
+        // Don't let it grow too deep, indexed access walks down the tree
+        if (depth > MAX_DEPTH) {
+            rebalance();
         }
-        if (str2 instanceof ConsString) {
-            depth += ((ConsString)str2).depth;
+    }
+
+    /**
+     * Replaces the components with a balanced tree of the leaves, where
+     * neighbouring short leaves are copied to one. Strings built by
+     * appending to them in a loop are copied once per MAX_DEPTH appends
+     * only as far as their leaves are short.
+     */
+    private void rebalance() {
+        ObjArray pieces = new ObjArray();
+        StringBuilder chunk = new StringBuilder();
+        Leaves leaves = new Leaves(this, 0);
+        do {
+            CharSequence leaf = leaves.leaf;
+            if (leaf.length() < MIN_LEAF_LENGTH) {
+                chunk.append(leaf);
+                if (chunk.length() < MIN_LEAF_LENGTH) {
+                    continue;
+                }
+                leaf = chunk.toString();
+                chunk.setLength(0);
+            } else if (chunk.length() > 0) {
+                pieces.add(chunk.toString());
+                chunk.setLength(0);
+            }
+            pieces.add(leaf);
+        } while (leaves.next());
+        if (chunk.length() > 0) {
+            pieces.add(chunk.toString());
         }
-        // Don't let it grow too deep, can cause stack overflows
-        if (depth > 2000) {
-            flatten();
+        CharSequence tree = pieces.size() == 0
+                ? "" : join(pieces.toArray(), pieces.size());
+        if (tree instanceof ConsString) {
+            ConsString cs = (ConsString)tree;
+            s1 = cs.s1;
+            s2 = cs.s2;
+            depth = cs.depth;
+        } else {
+            s1 = tree.toString();
+            s2 = "";
+            depth = 0;
         }
     }
 
+    /**
+     * Joins the first count pieces in the array to a tree whose height is
+     * the logarithm of count, overwriting the array.
+     */
+    static CharSequence join(Object[] pieces, int count) {
+        while (count > 1) {
+            int n = 0;
+            for (int i = 0; i < count; i += 2) {
+                if (i + 1 < count) {
+                    pieces[n++] = new ConsString((CharSequence)pieces[i],
+                                                 (CharSequence)pieces[i + 1]);
+                } else {
+                    pieces[n++] = pieces[i];
+                }
+            }
+            count = n;
+        }
+        return (CharSequence)pieces[0];
+    }
+
     // Replace with string representation when serializing
     private Object writeReplace() {
         return this.toString();
@@ -61,39 +140,197 @@ public class ConsString implements CharSequence, Serializable {
     private synchronized String flatten() {
         if (depth > 0) {
             StringBuilder b = new StringBuilder(length);
-            appendTo(b);
+            Leaves leaves = new Leaves(this, 0);
+            do {
+                b.append(leaves.leaf);
+            } while (leaves.next());
             s1 = b.toString();
             s2 = "";
             depth = 0;
+            cursor = null;
         }
         return (String)s1;
     }
 
-    private synchronized void appendTo(StringBuilder b) {
-        appendFragment(s1, b);
-        appendFragment(s2, b);
+    public int length() {
+        return length;
     }
 
-    private static void appendFragment(CharSequence s, StringBuilder b) {
-        if (s instanceof ConsString) {
-            ((ConsString)s).appendTo(b);
-        } else {
-            b.append(s);
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new StringIndexOutOfBoundsException(index);
+        }
+        Cursor c = cursor;
+        if (c != null && index >= c.start && index - c.start < c.leaf.length()) {
+            return c.leaf.charAt(index - c.start);
+        }
+        CharSequence node = this;
+        int start = 0;
+        while (node instanceof ConsString) {
+            ConsString cs = (ConsString)node;
+            CharSequence right = cs.s2;
+            CharSequence left = cs.s1;
+            int leftLength = left.length();
+            if (index - start < leftLength) {
+                node = left;
+            } else {
+                start += leftLength;
+                node = right;
+            }
         }
+        cursor = new Cursor(node, start);
+        return node.charAt(index - start);
     }
 
-    public int length() {
-        return length;
+    /**
+     * Returns the characters from start to end. Short ranges and ranges
+     * within one leaf are copied to a String, longer ones are returned as
+     * a balanced ConsString which shares the leaves inside the range.
+     */
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new StringIndexOutOfBoundsException(
+                "start " + start + ", end " + end + ", length " + length);
+        }
+        Leaves leaves = new Leaves(this, start);
+        int offset = start - leaves.start;
+        if (end - leaves.start <= leaves.leaf.length()) {
+            return leaves.leaf.subSequence(offset, end - leaves.start);
+        }
+        ObjArray pieces = new ObjArray();
+        do {
+            CharSequence leaf = leaves.leaf;
+            int leafEnd = Math.min(leaf.length(), end - leaves.start);
+            if (offset > 0 || leafEnd < leaf.length()) {
+                leaf = leaf.subSequence(offset, leafEnd);
+            }
+            if (leaf.length() > 0) {
+                pieces.add(leaf);
+            }
+            offset = 0;
+        } while (leaves.start + leaves.leaf.length() < end && leaves.next());
+        int count = pieces.size();
+        if (end - start < MIN_SHARED_LENGTH ||
+            (end - start) / count < MIN_SHARED_LEAF_LENGTH) {
+            StringBuilder b = new StringBuilder(end - start);
+            for (int i = 0; i != count; ++i) {
+                b.append((CharSequence)pieces.get(i));
+            }
+            return b.toString();
+        }
+        return join(pieces.toArray(), count);
     }
 
-    public char charAt(int index) {
-        String str = depth == 0 ? (String)s1 : flatten();
-        return str.charAt(index);
+    /**
+     * Like String.indexOf, but searches the leaves of the rope without
+     * flattening it.
+     */
+    int indexOf(String search, int fromIndex) {
+        int searchLength = search.length();
+        if (fromIndex < 0) {
+            fromIndex = 0;
+        }
+        if (fromIndex >= length) {
+            return searchLength == 0 ? length : -1;
+        }
+        if (searchLength == 0) {
+            return fromIndex;
+        }
+        Leaves leaves = new Leaves(this, fromIndex);
+        // The up to searchLength - 1 characters before the current leaf,
+        // where matches may begin which continue in the leaf
+        String tail = "";
+        int tailStart = fromIndex;
+        int offset = fromIndex - leaves.start;
+        do {
+            String leaf = leaves.leaf.toString();
+            int leafLength = leaf.length();
+            if (tail.length() > 0) {
+                String joint = tail.concat(leaf.substring(offset,
+                        Math.min(leafLength, offset + searchLength - 1)));
+                int i = joint.indexOf(search);
+                if (i >= 0) {
+                    return tailStart + i;
+                }
+            }
+            int i = leaf.indexOf(search, offset);
+            if (i >= 0) {
+                return leaves.start + i;
+            }
+            int keep = Math.min(searchLength - 1, leafLength - offset);
+            if (keep == searchLength - 1) {
+                tail = leaf.substring(leafLength - keep);
+            } else {
+                tail = tail.concat(leaf.substring(offset));
+                if (tail.length() > searchLength - 1) {
+                    tail = tail.substring(tail.length() - (searchLength - 1));
+                }
+            }
+            tailStart = leaves.start + leafLength - tail.length();
+            offset = 0;
+        } while (leaves.next());
+        return -1;
     }
 
-    public CharSequence subSequence(int start, int end) {
-        String str = depth == 0 ? (String)s1 : flatten();
-        return str.substring(start, end);
+    private static final class Cursor {
+        final CharSequence leaf;
+        final int start;
+
+        Cursor(CharSequence leaf, int start) {
+            this.leaf = leaf;
+            this.start = start;
+        }
+    }
+
+    /**
+     * Iterates over the leaves of a rope from the one that contains a
+     * given index, keeping the right subtrees still to visit on a stack.
+     */
+    private static final class Leaves {
+        private CharSequence[] stack = new CharSequence[16];
+        private int top;
+
+        // The current leaf and the index of its first character
+        CharSequence leaf;
+        int start;
+
+        Leaves(ConsString root, int index) {
+            descend(root, 0, index);
+        }
+
+        boolean next() {
+            if (top == 0) {
+                return false;
+            }
+            int nextStart = start + leaf.length();
+            CharSequence node = stack[--top];
+            stack[top] = null;
+            descend(node, nextStart, nextStart);
+            return true;
+        }
+
+        private void descend(CharSequence node, int nodeStart, int index) {
+            while (node instanceof ConsString) {
+                ConsString cs = (ConsString)node;
+                CharSequence right = cs.s2;
+                CharSequence left = cs.s1;
+                int leftLength = left.length();
+                if (index - nodeStart < leftLength) {
+                    if (top == stack.length) {
+                        CharSequence[] newStack = new CharSequence[top * 2];
+                        System.arraycopy(stack, 0, newStack, 0, top);
+                        stack = newStack;
+                    }
+                    stack[top++] = right;
+                    node = left;
+                } else {
+                    nodeStart += leftLength;
+                    node = right;
+                }
+            }
+            leaf = node;
+            start = nodeStart;
+        }
     }
 
 }
@@ -18,6 +18,7 @@ import java.io.StringWriter;
 import java.io.Writer;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Set;
@@ -28,6 +29,7 @@ import org.mozilla.javascript.ast.AstRoot;
 import org.mozilla.javascript.ast.ScriptNode;
 import org.mozilla.javascript.debug.DebuggableScript;
 import org.mozilla.javascript.debug.Debugger;
+import org.mozilla.javascript.typedarrays.NativeArrayBuffer;
 import org.mozilla.javascript.xml.XMLLib;
 
 /**
@@ -292,6 +294,18 @@ public class Context
      */
     public static final int FEATURE_FALLBACK_TO_INTERPRETER = 14;
 
+    /**
+     * Controls whether objects created by scripts store their properties
+     * using shared shapes. Objects with the same properties added in the
+     * same order then share a single layout descriptor, which reduces
+     * their memory footprint considerably.
+     * <p>
+     * By default {@link #hasFeature(int)} returns false.
+     * @see ScriptableObject#useShapes()
+     * @since 1.7 Release 5
+     */
+    public static final int FEATURE_OBJECT_SHAPES = 15;
+
     public static final String languageVersionProperty = "language version";
     public static final String errorReporterProperty   = "error reporter";
 
@@ -1464,6 +1478,9 @@ public class Context
     public Scriptable newObject(Scriptable scope)
     {
         NativeObject result = new NativeObject();
+        if (hasFeature(FEATURE_OBJECT_SHAPES)) {
+            result.useShapes();
+        }
         ScriptRuntime.setBuiltinProtoAndParent(result, scope,
                 TopLevel.Builtins.Object);
         return result;
@@ -1549,6 +1566,26 @@ public class Context
         return result;
     }
 
+    /**
+     * Create an ArrayBuffer that shares the bytes of a buffer.
+     * <p>
+     * The ArrayBuffer views the bytes between the position and the limit
+     * of the buffer without copying them, so changes made by scripts are
+     * visible in the buffer and vice versa. The buffer may be a direct
+     * buffer.
+     *
+     * @param scope the scope to create the object in.
+     * @param buffer the buffer whose bytes are shared.
+     * @return the new ArrayBuffer object.
+     * @since 1.7 Release 5
+     */
+    public Scriptable newArrayBuffer(Scriptable scope, ByteBuffer buffer)
+    {
+        NativeArrayBuffer result = new NativeArrayBuffer(buffer);
+        ScriptRuntime.setObjectProtoAndParent(result, scope);
+        return result;
+    }
+
     /**
      * Get the elements of a JavaScript array.
      * <p>
@@ -2072,6 +2109,28 @@ public class Context
         return wrapFactory;
     }
 
+    /**
+     * Set the cache this Context keeps compiled scripts and functions in,
+     * or null to compile every source.
+     * @see CompiledScriptCache
+     * @since 1.7 Release 5
+     */
+    public final void setCompiledScriptCache(CompiledScriptCache cache)
+    {
+        if (sealed) onSealedMutation();
+        compiledScriptCache = cache;
+    }
+
+    /**
+     * Return the compiled script cache, or null if none is set.
+     * @see CompiledScriptCache
+     * @since 1.7 Release 5
+     */
+    public final CompiledScriptCache getCompiledScriptCache()
+    {
+        return compiledScriptCache;
+    }
+
     /**
      * Return the current debugger.
      * @return the debugger, or null if none is attached.
@@ -2142,6 +2201,7 @@ public class Context
      * @see #FEATURE_STRICT_MODE
      * @see #FEATURE_WARNING_AS_ERROR
      * @see #FEATURE_ENHANCED_JAVA_ACCESS
+     * @see #FEATURE_OBJECT_SHAPES
      */
     public boolean hasFeature(int featureIndex)
     {
@@ -2348,6 +2408,30 @@ public class Context
             }
         }
 
+        CompiledScriptCache cache = null;
+        String cacheKey = null;
+        if (compiledScriptCache != null && compiler == null
+            && debugger == null)
+        {
+            if (sourceReader != null) {
+                sourceString = Kit.readReader(sourceReader);
+                sourceReader = null;
+            }
+            cache = compiledScriptCache;
+            cacheKey = cache.getKey(this, compilerEnv, sourceString,
+                                    sourceName, lineno, returnFunction);
+            Object bytecode = cache.load(this, cacheKey);
+            if (bytecode != null) {
+                compiler = bytecode instanceof InterpreterData
+                           ? createInterpreter() : createCompiler();
+                if (returnFunction) {
+                    return compiler.createFunctionObject(this, scope, bytecode,
+                                                         securityDomain);
+                }
+                return compiler.createScriptObject(bytecode, securityDomain);
+            }
+        }
+
         Parser p = new Parser(compilerEnv, compilationErrorReporter);
         if (returnFunction) {
             p.calledByCompileFunction = true;
@@ -2410,6 +2494,9 @@ public class Context
                 throw reportRuntimeError(msg, sourceName, lineno, null, 0);
             }
         }
+        if (cache != null) {
+            cache.store(this, cacheKey, bytecode);
+        }
         if (debugger != null) {
             if (sourceString == null) Kit.codeBug();
             if (bytecode instanceof DebuggableScript) {
@@ -2619,6 +2706,7 @@ public class Context
     private int optimizationLevel;
     private int maximumInterpreterStackDepth;
     private WrapFactory wrapFactory;
+    private CompiledScriptCache compiledScriptCache;
     Debugger debugger;
     private Object debuggerData;
     private int enterCount;
@@ -282,6 +282,9 @@ public class ContextFactory
 
           case Context.FEATURE_FALLBACK_TO_INTERPRETER:
             return true;
+
+          case Context.FEATURE_OBJECT_SHAPES:
+            return false;
         }
         // It is a bug to call the method with unknown featureIndex
         throw new IllegalArgumentException(String.valueOf(featureIndex));
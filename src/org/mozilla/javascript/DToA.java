@@ -27,6 +27,10 @@ package org.mozilla.javascript;
 
 import java.math.BigInteger;
 
+import org.mozilla.javascript.v8dtoa.FastDtoa;
+import org.mozilla.javascript.v8dtoa.FastDtoaBuilder;
+import org.mozilla.javascript.v8dtoa.FastFixedDtoa;
+
 class DToA {
 
 
@@ -276,26 +280,36 @@ class DToA {
             int word0 = (int)(dBits >> 32);
             int word1 = (int)(dBits);
 
+            int s2 = -(word0 >>> Exp_shift1 & Exp_mask >> Exp_shift1);
+            if (s2 == 0)
+                s2 = -1;
+            s2 += Bias + P;
+            /* 1/2^s2 = (nextDouble(d) - d)/2 */
+            boolean special = (word1 == 0) && ((word0 & Bndry_mask) == 0)
+                && ((word0 & (Exp_mask & Exp_mask << 1)) != 0);
+            if (special) {
+                /* The special case.  Here we want to be within a quarter of the last input
+                   significant digit instead of one half of it when the output string's value is less than d.  */
+                s2 += Log2P;
+            }
+
+            if (s2 <= MAX_LONG_BASE_S2) {
+                /* df * 2^s2 is an integer below 2^s2 and the double product is exact */
+                long lb = (long)(df * (double)(1L << s2));
+                appendBaseFraction(buffer, base, lb, s2, special ? 1<<Log2P : 1, word1);
+                return buffer.toString();
+            }
+
             int[] e = new int[1];
             int[] bbits = new int[1];
 
             b = d2b(df, e, bbits);
 //            JS_ASSERT(e < 0);
             /* At this point df = b * 2^e.  e must be less than zero because 0 < df < 1. */
-
-            int s2 = -(word0 >>> Exp_shift1 & Exp_mask >> Exp_shift1);
-            if (s2 == 0)
-                s2 = -1;
-            s2 += Bias + P;
-            /* 1/2^s2 = (nextDouble(d) - d)/2 */
 //            JS_ASSERT(-s2 < e);
             BigInteger mlo = BigInteger.valueOf(1);
             BigInteger mhi = mlo;
-            if ((word1 == 0) && ((word0 & Bndry_mask) == 0)
-                && ((word0 & (Exp_mask & Exp_mask << 1)) != 0)) {
-                /* The special case.  Here we want to be within a quarter of the last input
-                   significant digit instead of one half of it when the output string's value is less than d.  */
-                s2 += Log2P;
+            if (special) {
                 mhi = BigInteger.valueOf(1<<Log2P);
             }
 
@@ -357,6 +371,59 @@ class DToA {
 
     }
 
+    /* The greatest s2 for which appendBaseFraction computes with longs:
+       b*base, mlo*base and mhi*base stay below 2^57 * 36 < 2^63. */
+    private static final int MAX_LONG_BASE_S2 = 57;
+
+    /* The digit loop of JS_dtobasestr for the fraction b/2^s2 of d, with
+       the same quantities kept in longs instead of BigIntegers. */
+    private static void appendBaseFraction(StringBuilder buffer, int base,
+                                           long b, int s2, long mhi, int word1)
+    {
+        long s = 1L << s2;
+        long mlo = 1;
+        boolean done = false;
+        do {
+            b *= base;
+            int digit = (int)(b >>> s2);
+            b &= s - 1;
+            mlo *= base;
+            mhi *= base;
+
+            /* Do we yet have the shortest string that will round to d? */
+            int j = compare(b, mlo);
+            /* j is b/2^s2 compared with mlo/2^s2. */
+            long delta = s - mhi;
+            int j1 = (delta <= 0) ? 1 : compare(b, delta);
+            /* j1 is b/2^s2 compared with 1 - mhi/2^s2. */
+            if (j1 == 0 && ((word1 & 1) == 0)) {
+                if (j > 0)
+                    digit++;
+                done = true;
+            } else
+            if (j < 0 || (j == 0 && ((word1 & 1) == 0))) {
+                if (j1 > 0) {
+                    /* Either dig or dig+1 would work here as the least significant digit.
+                       Use whichever would produce an output value closer to d. */
+                    b <<= 1;
+                    j1 = compare(b, s);
+                    if (j1 > 0)
+                        digit++;
+                }
+                done = true;
+            } else if (j1 > 0) {
+                digit++;
+                done = true;
+            }
+            buffer.append(BASEDIGIT(digit));
+        } while (!done);
+    }
+
+    private static int compare(long x, long y)
+    {
+        return x < y ? -1 : (x == y ? 0 : 1);
+    }
+
     /* dtoa for IEEE arithmetic (dmg): convert double to ASCII string.
      *
      * Inspired by "How to Print Floating-Point Numbers Accurately" by
@@ -1128,6 +1195,46 @@ class DToA {
         2,   /* DTOSTR_EXPONENTIAL, */
         2};  /* DTOSTR_PRECISION */
 
+    /* Smallest positive normal double */
+    private static final double MIN_NORMAL = 2.2250738585072014E-308;
+
+    /*
+     * Generates the digits of JS_dtoa for the given mode with the V8 dtoa
+     * code, which only uses long arithmetic. Returns false for zero and
+     * special values, and if the digits could not be generated that way.
+     */
+    private static boolean
+    fastDtoa(double d, int mode, int precision, FastDtoaBuilder buffer)
+    {
+        if (d == 0 || d != d || Double.isInfinite(d))
+            return false;
+        double v = Math.abs(d);
+        switch (mode) {
+            case DTOSTR_STANDARD:
+            case DTOSTR_STANDARD_EXPONENTIAL:
+                buffer.reset();
+                return FastDtoa.dtoa(v, buffer);
+
+            case DTOSTR_FIXED:
+                return precision >= 0 && FastFixedDtoa.dtoa(v, precision, buffer);
+
+            case DTOSTR_EXPONENTIAL:
+            case DTOSTR_PRECISION:
+                /* The shortest digits that read back as v differ from v by at
+                 * most 2^-53 * v if v is normal, which is less than half a unit
+                 * of the 15th significant digit. If there are no more than
+                 * precision <= 15 of them, they are v rounded to precision
+                 * digits. */
+                if (precision <= 15 && v >= MIN_NORMAL) {
+                    buffer.reset();
+                    if (FastDtoa.dtoa(v, buffer) && buffer.length() <= precision)
+                        return true;
+                }
+                return FastDtoa.dtoa(v, precision, buffer);
+        }
+        return false;
+    }
+
     static void
     JS_dtostr(StringBuilder buffer, int mode, int precision, double d)
     {
@@ -1141,7 +1248,20 @@ class DToA {
         if (mode == DTOSTR_FIXED && (d >= 1e21 || d <= -1e21))
             mode = DTOSTR_STANDARD; /* Change mode here rather than below because the buffer may not be large enough to hold a large integer. */
 
-        decPt = JS_dtoa(d, dtoaModes[mode], mode >= DTOSTR_FIXED, precision, sign, buffer);
+        FastDtoaBuilder fastBuffer = new FastDtoaBuilder();
+        if (fastDtoa(d, mode, precision, fastBuffer)) {
+            sign[0] = d < 0;
+            if (fastBuffer.length() == 0) {
+                /* Like JS_dtoa, round to zero as "0" */
+                buffer.append('0');
+                decPt = 1;
+            } else {
+                fastBuffer.appendTo(buffer);
+                decPt = fastBuffer.decimalPoint();
+            }
+        } else {
+            decPt = JS_dtoa(d, dtoaModes[mode], mode >= DTOSTR_FIXED, precision, sign, buffer);
+        }
         nDigits = buffer.length();
 
         /* If Infinity, -Infinity, or NaN, return the string regardless of the mode. */
@@ -303,6 +303,12 @@ public abstract class IdScriptableObject extends ScriptableObject
     @Override
     public boolean has(String name, Scriptable start)
     {
+        if (forkState == FORK_COPIES) {
+            ScriptableObject copy = getForkCopy();
+            if (copy != null) {
+                return copy.has(name, start);
+            }
+        }
         int info = findInstanceIdInfo(name);
         if (info != 0) {
             int attr = (info >>> 16);
@@ -324,6 +330,12 @@ public abstract class IdScriptableObject extends ScriptableObject
     @Override
     public Object get(String name, Scriptable start)
     {
+        if (forkState == FORK_COPIES) {
+            ScriptableObject copy = getForkCopy();
+            if (copy != null) {
+                return copy.get(name, start);
+            }
+        }
         // Check for slot first for performance. This is a very hot code
         // path that should be further optimized.
         Object value = super.get(name, start);
@@ -349,6 +361,13 @@ public abstract class IdScriptableObject extends ScriptableObject
     @Override
     public void put(String name, Scriptable start, Object value)
     {
+        if (forkState != 0) {
+            ScriptableObject copy = getForkCopyForWrite(start == this);
+            if (copy != null) {
+                copy.put(name, start == this ? copy : start, value);
+                return;
+            }
+        }
         int info = findInstanceIdInfo(name);
         if (info != 0) {
             if (start == this && isSealed()) {
@@ -384,6 +403,13 @@ public abstract class IdScriptableObject extends ScriptableObject
     @Override
     public void delete(String name)
     {
+        if (forkState != 0) {
+            ScriptableObject copy = getForkCopyForWrite(true);
+            if (copy != null) {
+                copy.delete(name);
+                return;
+            }
+        }
         int info = findInstanceIdInfo(name);
         if (info != 0) {
             // Let the super class to throw exceptions for sealed objects
@@ -411,6 +437,12 @@ public abstract class IdScriptableObject extends ScriptableObject
     @Override
     public int getAttributes(String name)
     {
+        if (forkState == FORK_COPIES) {
+            ScriptableObject copy = getForkCopy();
+            if (copy != null) {
+                return copy.getAttributes(name);
+            }
+        }
         int info = findInstanceIdInfo(name);
         if (info != 0) {
             int attr = (info >>> 16);
@@ -428,6 +460,13 @@ public abstract class IdScriptableObject extends ScriptableObject
     @Override
     public void setAttributes(String name, int attributes)
     {
+        if (forkState != 0) {
+            ScriptableObject copy = getForkCopyForWrite(true);
+            if (copy != null) {
+                copy.setAttributes(name, attributes);
+                return;
+            }
+        }
         ScriptableObject.checkValidAttributes(attributes);
         int info = findInstanceIdInfo(name);
         if (info != 0) {
@@ -451,6 +490,12 @@ public abstract class IdScriptableObject extends ScriptableObject
     @Override
     Object[] getIds(boolean getAll)
     {
+        if (forkState == FORK_COPIES) {
+            ScriptableObject copy = getForkCopy();
+            if (copy != null) {
+                return copy.getIds(getAll);
+            }
+        }
         Object[] result = super.getIds(getAll);
 
         if (prototypeValues != null) {
@@ -691,6 +736,13 @@ public abstract class IdScriptableObject extends ScriptableObject
 
     @Override
     public void defineOwnProperty(Context cx, Object key, ScriptableObject desc) {
+      if (forkState != 0) {
+        ScriptableObject copy = getForkCopyForWrite(true);
+        if (copy != null) {
+          copy.defineOwnProperty(cx, key, desc);
+          return;
+        }
+      }
       if (key instanceof String) {
         String name = (String) key;
         int info = findInstanceIdInfo(name);
@@ -743,6 +795,12 @@ public abstract class IdScriptableObject extends ScriptableObject
 
     @Override
     protected ScriptableObject getOwnPropertyDescriptor(Context cx, Object id) {
+      if (forkState == FORK_COPIES) {
+        ScriptableObject copy = getForkCopy();
+        if (copy != null) {
+          return copy.getOwnPropertyDescriptor(cx, id);
+        }
+      }
       ScriptableObject desc = super.getOwnPropertyDescriptor(cx, id);
       if (desc == null && id instanceof String) {
         desc = getBuiltInDescriptor((String) id);
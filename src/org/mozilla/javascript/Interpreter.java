@@ -15,6 +15,7 @@ import org.mozilla.javascript.ast.FunctionNode;
 import org.mozilla.javascript.ast.ScriptNode;
 import org.mozilla.javascript.ScriptRuntime.NoSuchMethodShim;
 import org.mozilla.javascript.debug.DebugFrame;
+import org.mozilla.javascript.typedarrays.NativeTypedArrayView;
 
 import static org.mozilla.javascript.UniqueTag.DOUBLE_MARK;
 
@@ -197,11 +198,13 @@ public final class Interpreter extends Icode implements Evaluator
 
     public Script createScriptObject(Object bytecode, Object staticSecurityDomain)
     {
-        if(bytecode != itsData)
+        // bytecode is itsData, or was compiled before and read from a
+        // CompiledScriptCache
+        if(!(bytecode instanceof InterpreterData))
         {
             Kit.codeBug();
         }
-        return InterpretedFunction.createScript(itsData,
+        return InterpretedFunction.createScript((InterpreterData)bytecode,
                                                 staticSecurityDomain);
     }
 
@@ -213,11 +216,12 @@ public final class Interpreter extends Icode implements Evaluator
     public Function createFunctionObject(Context cx, Scriptable scope,
             Object bytecode, Object staticSecurityDomain)
     {
-        if(bytecode != itsData)
+        if(!(bytecode instanceof InterpreterData))
         {
             Kit.codeBug();
         }
-        return InterpretedFunction.createFunction(cx, scope, itsData,
+        return InterpretedFunction.createFunction(cx, scope,
+                                                  (InterpreterData)bytecode,
                                                   staticSecurityDomain);
     }
 
@@ -1230,13 +1234,15 @@ switch (op) {
     case Token.GETPROPNOWARN : {
         Object lhs = stack[stackTop];
         if (lhs == DBL_MRK) lhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
-        stack[stackTop] = ScriptRuntime.getObjectPropNoWarn(lhs, stringReg, cx);
+        stack[stackTop] = getPropertyCache(frame, stringReg)
+                              .getObjectPropNoWarn(lhs, cx);
         continue Loop;
     }
     case Token.GETPROP : {
         Object lhs = stack[stackTop];
         if (lhs == DBL_MRK) lhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
-        stack[stackTop] = ScriptRuntime.getObjectProp(lhs, stringReg, cx, frame.scope);
+        stack[stackTop] = getPropertyCache(frame, stringReg)
+                              .getObjectProp(lhs, cx, frame.scope);
         continue Loop;
     }
     case Token.SETPROP : {
@@ -1245,7 +1251,8 @@ switch (op) {
         --stackTop;
         Object lhs = stack[stackTop];
         if (lhs == DBL_MRK) lhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
-        stack[stackTop] = ScriptRuntime.setObjectProp(lhs, stringReg, rhs, cx);
+        stack[stackTop] = getPropertyCache(frame, stringReg)
+                              .setObjectProp(lhs, rhs, cx);
         continue Loop;
     }
     case Icode_PROP_INC_DEC : {
@@ -1314,8 +1321,8 @@ switch (op) {
         Object obj = stack[stackTop];
         if (obj == DBL_MRK) obj = ScriptRuntime.wrapNumber(sDbl[stackTop]);
         // stringReg: property
-        stack[stackTop] = ScriptRuntime.getPropFunctionAndThis(obj, stringReg,
-                                                               cx, frame.scope);
+        stack[stackTop] = getPropertyCache(frame, stringReg)
+                              .getPropFunctionAndThis(obj, cx, frame.scope);
         ++stackTop;
         stack[stackTop] = ScriptRuntime.lastStoredScriptable(cx);
         continue Loop;
@@ -1549,7 +1556,8 @@ switch (op) {
         sDbl[stackTop] = frame.idata.itsDoubleTable[indexReg];
         continue Loop;
     case Token.NAME :
-        stack[++stackTop] = ScriptRuntime.name(cx, frame.scope, stringReg);
+        stack[++stackTop] = getPropertyCache(frame, stringReg)
+                                .name(cx, frame.scope);
         continue Loop;
     case Icode_NAME_INC_DEC :
         stack[++stackTop] = ScriptRuntime.nameIncrDecr(frame.scope, stringReg,
@@ -2182,6 +2190,29 @@ switch (op) {
         return stackTop;
     }
 
+    /**
+     * Returns the inline cache of the property or name access instruction
+     * that is currently being executed in the frame.
+     */
+    private static PropertyCache getPropertyCache(CallFrame frame,
+                                                  String name)
+    {
+        InterpreterData idata = frame.idata;
+        PropertyCache[] caches = idata.itsPropertyCaches;
+        if (caches == null) {
+            caches = new PropertyCache[idata.itsICode.length];
+            idata.itsPropertyCaches = caches;
+        }
+        // frame.pc already points past the instruction
+        int pc = frame.pc - 1;
+        PropertyCache cache = caches[pc];
+        if (cache == null) {
+            cache = new PropertyCache(name);
+            caches[pc] = cache;
+        }
+        return cache;
+    }
+
     private static int doDelName(Context cx, int op, Object[] stack,
                                  double[] sDbl, int stackTop) {
         Object rhs = stack[stackTop];
@@ -2206,6 +2237,24 @@ switch (op) {
             value = ScriptRuntime.getObjectElem(lhs, id, cx, frame.scope);
         } else {
             double d = sDbl[stackTop + 1];
+            if (lhs instanceof NativeArray) {
+                // read number elements without boxing them
+                NativeArray array = (NativeArray) lhs;
+                int index = (int) d;
+                if (index == d && array.isNumberElement(index)) {
+                    stack[stackTop] = DOUBLE_MARK;
+                    sDbl[stackTop] = array.getNumberElement(index);
+                    return stackTop;
+                }
+            } else if (lhs instanceof NativeTypedArrayView) {
+                NativeTypedArrayView array = (NativeTypedArrayView) lhs;
+                int index = (int) d;
+                if (index == d && array.isNumberElement(index)) {
+                    stack[stackTop] = DOUBLE_MARK;
+                    sDbl[stackTop] = array.getNumberElement(index);
+                    return stackTop;
+                }
+            }
             value = ScriptRuntime.getObjectIndex(lhs, d, cx);
         }
         stack[stackTop] = value;
@@ -2215,6 +2264,33 @@ switch (op) {
     private static int doSetElem(Context cx, Object[] stack, double[] sDbl,
                                  int stackTop) {
         stackTop -= 2;
+        if (stack[stackTop + 2] == DOUBLE_MARK &&
+            stack[stackTop + 1] == DOUBLE_MARK)
+        {
+            // write number elements without boxing them
+            Object array = stack[stackTop];
+            double d = sDbl[stackTop + 1];
+            double number = sDbl[stackTop + 2];
+            int index = (int) d;
+            boolean written = false;
+            if (index == d) {
+                if (array instanceof NativeArray) {
+                    written = ((NativeArray) array)
+                        .putNumberElement(index, number);
+                } else if (array instanceof NativeTypedArrayView) {
+                    NativeTypedArrayView view = (NativeTypedArrayView) array;
+                    if (view.isNumberElement(index)) {
+                        view.setNumberElement(index, number);
+                        written = true;
+                    }
+                }
+            }
+            if (written) {
+                stack[stackTop] = DOUBLE_MARK;
+                sDbl[stackTop] = number;
+                return stackTop;
+            }
+        }
         Object rhs = stack[stackTop + 2];
         if (rhs == DOUBLE_MARK) {
             rhs = ScriptRuntime.wrapNumber(sDbl[stackTop + 2]);
@@ -2237,6 +2313,43 @@ switch (op) {
 
     private static int doElemIncDec(Context cx, CallFrame frame, byte[] iCode,
                                     Object[] stack, double[] sDbl, int stackTop) {
+        if (stack[stackTop] == DOUBLE_MARK) {
+            // change number elements without boxing them
+            Object array = stack[stackTop - 1];
+            double d = sDbl[stackTop];
+            int index = (int) d;
+            int incrDecrMask = iCode[frame.pc];
+            double number = 0;
+            boolean isNumber = false;
+            if (index == d) {
+                if (array instanceof NativeArray) {
+                    NativeArray a = (NativeArray) array;
+                    if (a.isNumberElement(index)) {
+                        number = a.getNumberElement(index);
+                        a.putNumberElement(index,
+                            ScriptRuntime.incrDecr(number, incrDecrMask));
+                        isNumber = true;
+                    }
+                } else if (array instanceof NativeTypedArrayView) {
+                    NativeTypedArrayView view = (NativeTypedArrayView) array;
+                    if (view.isNumberElement(index)) {
+                        number = view.getNumberElement(index);
+                        view.setNumberElement(index,
+                            ScriptRuntime.incrDecr(number, incrDecrMask));
+                        isNumber = true;
+                    }
+                }
+            }
+            if (isNumber) {
+                --stackTop;
+                stack[stackTop] = DOUBLE_MARK;
+                sDbl[stackTop] = (incrDecrMask & Node.POST_FLAG) != 0
+                                 ? number
+                                 : ScriptRuntime.incrDecr(number, incrDecrMask);
+                ++frame.pc;
+                return stackTop;
+            }
+        }
         Object rhs = stack[stackTop];
         if (rhs == DOUBLE_MARK) rhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
         --stackTop;
@@ -2676,10 +2789,33 @@ switch (op) {
         }
         CallFrame calleeFrame = new CallFrame();
         if(BaseFunction.isApply(ifun)) {
-            Object[] callArgs = indexReg < 2 ? ScriptRuntime.emptyArgs :
-                ScriptRuntime.getApplyArguments(cx, stack[stackTop + 3]);
-            initFrame(cx, calleeScope, applyThis, callArgs, null, 0,
-                    callArgs.length, iApplyCallable, frame, calleeFrame);
+            Object argArray = indexReg < 2 ? null : stack[stackTop + 3];
+            if (argArray instanceof NativeArray &&
+                ((NativeArray) argArray).isNumberElement(0))
+            {
+                // pass number elements without boxing them
+                NativeArray array = (NativeArray) argArray;
+                int length = (int) array.getLength();
+                Object[] callArgs = new Object[length];
+                double[] callArgsDbl = new double[length];
+                for (int i = 0; i != length; ++i) {
+                    if (array.isNumberElement(i)) {
+                        callArgs[i] = DOUBLE_MARK;
+                        callArgsDbl[i] = array.getNumberElement(i);
+                    } else {
+                        Object elem = ScriptableObject.getProperty(array, i);
+                        callArgs[i] = (elem == Scriptable.NOT_FOUND)
+                                      ? Undefined.instance : elem;
+                    }
+                }
+                initFrame(cx, calleeScope, applyThis, callArgs, callArgsDbl,
+                        0, length, iApplyCallable, frame, calleeFrame);
+            } else {
+                Object[] callArgs = indexReg < 2 ? ScriptRuntime.emptyArgs :
+                    ScriptRuntime.getApplyArguments(cx, argArray);
+                initFrame(cx, calleeScope, applyThis, callArgs, null, 0,
+                        callArgs.length, iApplyCallable, frame, calleeFrame);
+            }
         }
         else {
             // Shift args left
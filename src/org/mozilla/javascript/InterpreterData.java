@@ -56,6 +56,10 @@ final class InterpreterData implements Serializable, DebuggableScript
 
     byte[] itsICode;
 
+    // Inline caches of property and name lookups indexed by the pc of the
+    // accessing instruction, allocated on first use
+    transient PropertyCache[] itsPropertyCaches;
+
     int[] itsExceptionTable;
 
     int itsMaxVars;
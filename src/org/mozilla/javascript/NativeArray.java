@@ -6,6 +6,9 @@
 
 package org.mozilla.javascript;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
@@ -61,8 +64,15 @@ public class NativeArray extends IdScriptableObject implements List
             int intLength = (int) lengthArg;
             if (intLength < DEFAULT_INITIAL_CAPACITY)
                 intLength = DEFAULT_INITIAL_CAPACITY;
-            dense = new Object[intLength];
-            Arrays.fill(dense, Scriptable.NOT_FOUND);
+            if (lengthArg == 0) {
+                elementKind = INT_ELEMENTS;
+                intDense = new int[intLength];
+            } else {
+                // new Array(n) has n holes
+                elementKind = DOUBLE_ELEMENTS;
+                doubleDense = new double[intLength];
+                Arrays.fill(doubleDense, DOUBLE_HOLE);
+            }
         }
         length = lengthArg;
     }
@@ -70,8 +80,31 @@ public class NativeArray extends IdScriptableObject implements List
     public NativeArray(Object[] array)
     {
         denseOnly = true;
-        dense = array;
         length = array.length;
+        int kind = INT_ELEMENTS;
+        for (Object value : array) {
+            if (value == NOT_FOUND || !isIntElement(value)) {
+                if (value != NOT_FOUND && !isDoubleElement(value)) {
+                    kind = OBJECT_ELEMENTS;
+                    break;
+                }
+                kind = DOUBLE_ELEMENTS;
+            }
+        }
+        elementKind = kind;
+        if (kind == INT_ELEMENTS) {
+            intDense = new int[array.length];
+            for (int i = 0; i < array.length; i++) {
+                intDense[i] = ((Number) array[i]).intValue();
+            }
+        } else if (kind == DOUBLE_ELEMENTS) {
+            doubleDense = new double[array.length];
+            for (int i = 0; i < array.length; i++) {
+                storeDense(i, array[i]);
+            }
+        } else {
+            dense = array;
+        }
     }
 
     @Override
@@ -327,20 +360,78 @@ public class NativeArray extends IdScriptableObject implements List
     @Override
     public Object get(int index, Scriptable start)
     {
-        if (!denseOnly && isGetterOrSetter(null, index, false))
-            return super.get(index, start);
-        if (dense != null && 0 <= index && index < dense.length)
-            return dense[index];
+        if (forkState == FORK_COPIES) {
+            ScriptableObject copy = getForkCopy();
+            if (copy != null) {
+                return copy.get(index, start);
+            }
+        }
+        if (!denseOnly) {
+            // the sparse elements are never getters or setters
+            if (sparse != null && 0 <= index) {
+                Object value = sparse.get(index, NOT_FOUND);
+                if (value != NOT_FOUND)
+                    return value;
+            }
+            if (isGetterOrSetter(null, index, false))
+                return super.get(index, start);
+        }
+        // getDense(), with the capacity check folded in
+        if (0 <= index) {
+            switch (elementKind) {
+              case OBJECT_ELEMENTS:
+                if (dense != null && index < dense.length - denseStart)
+                    return dense[denseStart + index];
+                break;
+              case DOUBLE_ELEMENTS:
+                if (index < doubleDense.length - denseStart) {
+                    double d = doubleDense[denseStart + index];
+                    return isHole(d) ? NOT_FOUND : ScriptRuntime.wrapNumber(d);
+                }
+                break;
+              default:
+                if (index < intDense.length - denseStart) {
+                    return index < length
+                           ? ScriptRuntime.wrapNumber(
+                                 intDense[denseStart + index])
+                           : NOT_FOUND;
+                }
+            }
+        }
         return super.get(index, start);
     }
 
     @Override
     public boolean has(int index, Scriptable start)
     {
-        if (!denseOnly && isGetterOrSetter(null, index, false))
-            return super.has(index, start);
-        if (dense != null && 0 <= index && index < dense.length)
-            return dense[index] != NOT_FOUND;
+        if (forkState == FORK_COPIES) {
+            ScriptableObject copy = getForkCopy();
+            if (copy != null) {
+                return copy.has(index, start);
+            }
+        }
+        if (!denseOnly) {
+            if (sparse != null && 0 <= index && sparse.has(index))
+                return true;
+            if (isGetterOrSetter(null, index, false))
+                return super.has(index, start);
+        }
+        // isDenseHole(), with the capacity check folded in
+        if (0 <= index) {
+            switch (elementKind) {
+              case OBJECT_ELEMENTS:
+                if (dense != null && index < dense.length - denseStart)
+                    return dense[denseStart + index] != NOT_FOUND;
+                break;
+              case DOUBLE_ELEMENTS:
+                if (index < doubleDense.length - denseStart)
+                    return !isHole(doubleDense[denseStart + index]);
+                break;
+              default:
+                if (index < intDense.length - denseStart)
+                    return index < length;
+            }
+        }
         return super.has(index, start);
     }
 
@@ -384,55 +475,474 @@ public class NativeArray extends IdScriptableObject implements List
     @Override
     public void put(String id, Scriptable start, Object value)
     {
+        if (forkState != 0) {
+            ScriptableObject copy = getForkCopyForWrite(start == this);
+            if (copy != null) {
+                copy.put(id, start == this ? copy : start, value);
+                return;
+            }
+        }
         super.put(id, start, value);
         if (start == this) {
             // If the object is sealed, super will throw exception
             long index = toArrayIndex(id);
             if (index >= length) {
+                setDenseOnly(false);
                 length = index + 1;
-                denseOnly = false;
             }
         }
     }
 
     private boolean ensureCapacity(int capacity)
     {
-        if (capacity > dense.length) {
+        int oldCapacity = denseCapacity();
+        if (capacity > oldCapacity) {
             if (capacity > MAX_PRE_GROW_SIZE) {
-                denseOnly = false;
+                setDenseOnly(false);
                 return false;
             }
-            capacity = Math.max(capacity, (int)(dense.length * GROW_FACTOR));
-            Object[] newDense = new Object[capacity];
-            System.arraycopy(dense, 0, newDense, 0, dense.length);
-            Arrays.fill(newDense, dense.length, newDense.length,
+            capacity = Math.max(capacity, (int)(oldCapacity * GROW_FACTOR));
+            reallocateDense(0, capacity);
+        }
+        return true;
+    }
+
+    /**
+     * Makes room for count elements in front of the dense elements, so
+     * that lowering denseStart by count makes them the first elements.
+     * Like ensureCapacity(), this returns false and stops using dense
+     * storage if it would get too large.
+     */
+    private boolean ensureFrontCapacity(int count)
+    {
+        if (count <= denseStart) {
+            return true;
+        }
+        int capacity = denseCapacity();
+        // leave room in proportion to the length so that repeated
+        // unshifts only copy the elements a constant number of times
+        int start = Math.max(count, (int) (length / 2));
+        if ((long) start + capacity > MAX_PRE_GROW_SIZE) {
+            setDenseOnly(false);
+            return false;
+        }
+        reallocateDense(start, capacity);
+        return true;
+    }
+
+    /**
+     * Copies the dense elements to new storage where they start at start
+     * and that can hold capacity of them, which must not be less than the
+     * current capacity.
+     */
+    private void reallocateDense(int start, int capacity)
+    {
+        int oldCapacity = denseCapacity();
+        int size = start + capacity;
+        switch (elementKind) {
+          case INT_ELEMENTS:
+            int[] newInts = new int[size];
+            System.arraycopy(intDense, denseStart, newInts, start,
+                             oldCapacity);
+            intDense = newInts;
+            break;
+          case DOUBLE_ELEMENTS:
+            double[] newDoubles = new double[size];
+            System.arraycopy(doubleDense, denseStart, newDoubles, start,
+                             oldCapacity);
+            Arrays.fill(newDoubles, 0, start, DOUBLE_HOLE);
+            Arrays.fill(newDoubles, start + oldCapacity, size, DOUBLE_HOLE);
+            doubleDense = newDoubles;
+            break;
+          default:
+            Object[] newDense = new Object[size];
+            System.arraycopy(dense, denseStart, newDense, start, oldCapacity);
+            Arrays.fill(newDense, 0, start, Scriptable.NOT_FOUND);
+            Arrays.fill(newDense, start + oldCapacity, size,
                         Scriptable.NOT_FOUND);
             dense = newDense;
         }
+        denseStart = start;
+    }
+
+    /**
+     * Returns the number of elements the dense storage can hold from
+     * denseStart on, or -1 if there is no dense storage.
+     */
+    private int denseCapacity()
+    {
+        switch (elementKind) {
+          case INT_ELEMENTS:
+            return intDense.length - denseStart;
+          case DOUBLE_ELEMENTS:
+            return doubleDense.length - denseStart;
+          default:
+            return dense == null ? -1 : dense.length - denseStart;
+        }
+    }
+
+    /**
+     * Returns the dense element at index, which must be less than the
+     * dense capacity, or NOT_FOUND if there is no element.
+     */
+    private Object getDense(int index)
+    {
+        switch (elementKind) {
+          case INT_ELEMENTS:
+            return index < length
+                   ? ScriptRuntime.wrapNumber(intDense[denseStart + index])
+                   : NOT_FOUND;
+          case DOUBLE_ELEMENTS:
+            double d = doubleDense[denseStart + index];
+            return isHole(d) ? NOT_FOUND : ScriptRuntime.wrapNumber(d);
+          default:
+            return dense[denseStart + index];
+        }
+    }
+
+    private boolean isDenseHole(int index)
+    {
+        switch (elementKind) {
+          case INT_ELEMENTS:
+            return index >= length;
+          case DOUBLE_ELEMENTS:
+            return isHole(doubleDense[denseStart + index]);
+          default:
+            return dense[denseStart + index] == NOT_FOUND;
+        }
+    }
+
+    /**
+     * Stores value at index, which must be less than the dense capacity,
+     * changing the element kind first if the value or the hole it leaves
+     * does not fit. Storing NOT_FOUND makes a hole.
+     */
+    private void putDense(int index, Object value)
+    {
+        // the common cases first, to keep this small enough to be inlined
+        switch (elementKind) {
+          case OBJECT_ELEMENTS:
+            dense[denseStart + index] = value;
+            return;
+          case DOUBLE_ELEMENTS:
+            if (value instanceof Double) {
+                doubleDense[denseStart + index] =
+                    toDoubleElement(((Double) value).doubleValue());
+                return;
+            }
+            break;
+          default:
+            if (value instanceof Integer && index <= length) {
+                intDense[denseStart + index] = ((Integer) value).intValue();
+                return;
+            }
+        }
+        changeAndPutDense(index, value);
+    }
+
+    private void changeAndPutDense(int index, Object value)
+    {
+        if (elementKind == INT_ELEMENTS &&
+            (index > length || value == NOT_FOUND))
+        {
+            // int elements can not have holes
+            toDoubleElements();
+        }
+        if (value != NOT_FOUND) {
+            fitElement(value);
+        }
+        storeDense(index, value);
+    }
+
+    // The element kind must fit the value.
+    private void storeDense(int index, Object value)
+    {
+        switch (elementKind) {
+          case INT_ELEMENTS:
+            intDense[denseStart + index] = ((Number) value).intValue();
+            break;
+          case DOUBLE_ELEMENTS:
+            doubleDense[denseStart + index] = value == NOT_FOUND
+                ? DOUBLE_HOLE : toDoubleElement(((Number) value).doubleValue());
+            break;
+          default:
+            dense[denseStart + index] = value;
+        }
+    }
+
+    /**
+     * Makes holes of the dense elements from start to end. This does
+     * nothing for int elements, for which the caller must lower length
+     * to start instead.
+     */
+    private void clearDense(int start, int end)
+    {
+        switch (elementKind) {
+          case INT_ELEMENTS:
+            // elements at or above length are holes already
+            break;
+          case DOUBLE_ELEMENTS:
+            Arrays.fill(doubleDense, denseStart + start, denseStart + end,
+                        DOUBLE_HOLE);
+            break;
+          default:
+            Arrays.fill(dense, denseStart + start, denseStart + end,
+                        NOT_FOUND);
+        }
+    }
+
+    /**
+     * Changes the element kind so that the dense storage can hold value.
+     */
+    private void fitElement(Object value)
+    {
+        if (elementKind == INT_ELEMENTS) {
+            if (!isIntElement(value)) {
+                if (isDoubleElement(value)) {
+                    toDoubleElements();
+                } else {
+                    toObjectElements();
+                }
+            }
+        } else if (elementKind == DOUBLE_ELEMENTS) {
+            if (!isDoubleElement(value)) {
+                toObjectElements();
+            }
+        }
+    }
+
+    private void toDoubleElements()
+    {
+        // keeps denseStart, with holes in front of the elements
+        int n = (int) Math.min(length, denseCapacity());
+        int end = denseStart + n;
+        double[] values = new double[intDense.length];
+        Arrays.fill(values, 0, denseStart, DOUBLE_HOLE);
+        for (int i = denseStart; i < end; i++) {
+            values[i] = intDense[i];
+        }
+        Arrays.fill(values, end, values.length, DOUBLE_HOLE);
+        doubleDense = values;
+        intDense = null;
+        elementKind = DOUBLE_ELEMENTS;
+    }
+
+    private void toObjectElements()
+    {
+        if (elementKind == OBJECT_ELEMENTS) {
+            return;
+        }
+        int capacity = denseCapacity();
+        Object[] values = new Object[denseStart + capacity];
+        Arrays.fill(values, 0, denseStart, NOT_FOUND);
+        for (int i = 0; i < capacity; i++) {
+            values[denseStart + i] = getDense(i);
+        }
+        dense = values;
+        intDense = null;
+        doubleDense = null;
+        elementKind = OBJECT_ELEMENTS;
+    }
+
+    private static boolean isIntElement(Object value)
+    {
+        if (value instanceof Integer) {
+            return true;
+        }
+        if (value instanceof Double) {
+            double d = ((Double) value).doubleValue();
+            int i = (int) d;
+            // -0 must stay a double
+            return i == d && (i != 0 || 1 / d > 0);
+        }
+        return false;
+    }
+
+    private static boolean isDoubleElement(Object value)
+    {
+        return value instanceof Double || value instanceof Integer;
+    }
+
+    private static double toDoubleElement(double d)
+    {
+        // NaNs from arithmetic could look like holes
+        return d != d ? Double.NaN : d;
+    }
+
+    private static boolean isHole(double d)
+    {
+        return Double.doubleToRawLongBits(d) == DOUBLE_HOLE_BITS;
+    }
+
+    /**
+     * Returns true if the element at index is a number that can be read
+     * without boxing by {@link #getNumberElement(int)}.
+     */
+    final boolean isNumberElement(int index)
+    {
+        if (!denseOnly || index < 0 || getClass() != NativeArray.class) {
+            return false;
+        }
+        switch (elementKind) {
+          case INT_ELEMENTS:
+            return index < length;
+          case DOUBLE_ELEMENTS:
+            return index < doubleDense.length - denseStart &&
+                   !isHole(doubleDense[denseStart + index]);
+          default:
+            return false;
+        }
+    }
+
+    /**
+     * Returns the number element at index. Must only be called if
+     * {@link #isNumberElement(int)} is true.
+     */
+    final double getNumberElement(int index)
+    {
+        return elementKind == INT_ELEMENTS
+               ? intDense[denseStart + index] : doubleDense[denseStart + index];
+    }
+
+    /**
+     * Replaces the existing element at index with a number without
+     * boxing it. Returns false, without changing anything, if the array
+     * has no such element or it is not a number; the caller must use
+     * the generic put then, which also covers the prototype chain.
+     */
+    final boolean putNumberElement(int index, double value)
+    {
+        if (!isNumberElement(index)) {
+            return false;
+        }
+        if (elementKind == INT_ELEMENTS) {
+            int i = (int) value;
+            if (i == value && (i != 0 || 1 / value > 0)) {
+                intDense[denseStart + index] = i;
+                return true;
+            }
+            toDoubleElements();
+        }
+        doubleDense[denseStart + index] = toDoubleElement(value);
         return true;
     }
 
+    // The array that holds the dense elements from denseStart on, for
+    // System.arraycopy
+    private Object denseStorage()
+    {
+        switch (elementKind) {
+          case INT_ELEMENTS:
+            return intDense;
+          case DOUBLE_ELEMENTS:
+            return doubleDense;
+          default:
+            return dense;
+        }
+    }
+
+    private void swapDense(int i, int j)
+    {
+        i += denseStart;
+        j += denseStart;
+        switch (elementKind) {
+          case INT_ELEMENTS:
+            int tempInt = intDense[i];
+            intDense[i] = intDense[j];
+            intDense[j] = tempInt;
+            break;
+          case DOUBLE_ELEMENTS:
+            double tempDouble = doubleDense[i];
+            doubleDense[i] = doubleDense[j];
+            doubleDense[j] = tempDouble;
+            break;
+          default:
+            Object temp = dense[i];
+            dense[i] = dense[j];
+            dense[j] = temp;
+        }
+    }
+
+    /**
+     * Copies the dense elements of from to the dense elements of this
+     * array starting at cursor, which must have the capacity for them,
+     * and updates length.
+     */
+    private void copyDense(NativeArray from, int cursor)
+    {
+        int count = (int) from.length;
+        if (from.elementKind == elementKind &&
+            (elementKind != INT_ELEMENTS || cursor <= length))
+        {
+            System.arraycopy(from.denseStorage(), from.denseStart,
+                             denseStorage(), denseStart + cursor, count);
+            if (length < cursor + count) {
+                length = cursor + count;
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                putDense(cursor + i, from.getDense(i));
+                if (length <= cursor + i) {
+                    length = cursor + i + 1;
+                }
+            }
+        }
+    }
+
+    private boolean denseEquals(int index, Object value)
+    {
+        switch (elementKind) {
+          case INT_ELEMENTS:
+            return index < length && value instanceof Number &&
+                   intDense[denseStart + index] == ((Number) value).doubleValue();
+          case DOUBLE_ELEMENTS:
+            double d = doubleDense[denseStart + index];
+            return !isHole(d) && value instanceof Number &&
+                   d == ((Number) value).doubleValue();
+          default:
+            Object element = dense[denseStart + index];
+            return element != NOT_FOUND &&
+                   ScriptRuntime.shallowEq(element, value);
+        }
+    }
+
     @Override
     public void put(int index, Scriptable start, Object value)
     {
-        if (start == this && !isSealed() && dense != null && 0 <= index &&
+        if (forkState != 0) {
+            ScriptableObject copy = getForkCopyForWrite(start == this);
+            if (copy != null) {
+                copy.put(index, start == this ? copy : start, value);
+                return;
+            }
+        }
+        int capacity;
+        if (start == this && !isSealed() && 0 <= index &&
+            (capacity = denseCapacity()) >= 0 &&
             (denseOnly || !isGetterOrSetter(null, index, true)))
         {
-            if (index < dense.length) {
-                dense[index] = value;
+            if (index < capacity) {
+                putDense(index, value);
                 if (this.length <= index)
                     this.length = (long)index + 1;
                 return;
-            } else if (denseOnly && index < dense.length * GROW_FACTOR &&
+            } else if (denseOnly && index < capacity * GROW_FACTOR &&
                        ensureCapacity(index+1))
             {
-                dense[index] = value;
+                putDense(index, value);
                 this.length = (long)index + 1;
                 return;
             } else {
-                denseOnly = false;
+                setDenseOnly(false);
             }
         }
+        if (start == this && 0 <= index && !isSealed() &&
+            putSparse(index, value))
+        {
+            if (this.length <= index && (lengthAttr & READONLY) == 0)
+                this.length = (long)index + 1;
+            return;
+        }
         super.put(index, start, value);
         if (start == this && (lengthAttr & READONLY) == 0) {
             // only set the array length if given an array index (ECMA 15.4.0)
@@ -443,14 +953,46 @@ public class NativeArray extends IdScriptableObject implements List
         }
     }
 
+    /**
+     * Stores an element that is not in the dense storage in the sparse
+     * elements, unless it is a property of its own with attributes or
+     * a getter or setter. Returns false if the element was not stored.
+     */
+    private boolean putSparse(int index, Object value)
+    {
+        if (sparse != null && sparse.has(index)) {
+            sparse.put(index, value);
+            return true;
+        }
+        if (index < denseCapacity() || !isExtensible() ||
+            super.has(index, this))
+        {
+            return false;
+        }
+        if (sparse == null) {
+            sparse = new SortedUintMap();
+        }
+        sparse.put(index, value);
+        return true;
+    }
+
     @Override
     public void delete(int index)
     {
-        if (dense != null && 0 <= index && index < dense.length &&
+        if (forkState != 0) {
+            ScriptableObject copy = getForkCopyForWrite(true);
+            if (copy != null) {
+                copy.delete(index);
+                return;
+            }
+        }
+        if (0 <= index && index < denseCapacity() &&
             !isSealed() && (denseOnly || !isGetterOrSetter(null, index, true)))
         {
-            dense[index] = NOT_FOUND;
-        } else {
+            putDense(index, NOT_FOUND);
+        } else if (index < 0 || sparse == null || isSealed() ||
+                   !sparse.remove(index))
+        {
             super.delete(index);
         }
     }
@@ -458,21 +1000,36 @@ public class NativeArray extends IdScriptableObject implements List
     @Override
     public Object[] getIds()
     {
+        if (forkState == FORK_COPIES) {
+            ScriptableObject copy = getForkCopy();
+            if (copy != null) {
+                return copy.getIds();
+            }
+        }
         Object[] superIds = super.getIds();
-        if (dense == null) { return superIds; }
-        int N = dense.length;
+        if (sparse != null && sparse.size() > 0) {
+            // the sparse elements come after the dense ones
+            int[] keys = sparse.getKeys();
+            Object[] ids = new Object[keys.length + superIds.length];
+            for (int i = 0; i != keys.length; ++i) {
+                ids[i] = Integer.valueOf(keys[i]);
+            }
+            System.arraycopy(superIds, 0, ids, keys.length, superIds.length);
+            superIds = ids;
+        }
+        int N = denseCapacity();
         long currentLength = length;
         if (N > currentLength) {
             N = (int)currentLength;
         }
-        if (N == 0) { return superIds; }
+        if (N <= 0) { return superIds; }
         int superLength = superIds.length;
         Object[] ids = new Object[N + superLength];
 
         int presentCount = 0;
         for (int i = 0; i != N; ++i) {
             // Replace existing elements by their indexes
-            if (dense[i] != NOT_FOUND) {
+            if (!isDenseHole(i)) {
                 ids[presentCount] = Integer.valueOf(i);
                 ++presentCount;
             }
@@ -487,9 +1044,101 @@ public class NativeArray extends IdScriptableObject implements List
         return ids;
     }
 
+    @Override
+    Object[] getEnumIds()
+    {
+        if (forkState == FORK_COPIES) {
+            ScriptableObject copy = getForkCopy();
+            if (copy != null) {
+                return copy.getEnumIds();
+            }
+        }
+        // Subclasses may override getIds()
+        if (getClass() != NativeArray.class || hasPrototypeMap() ||
+            (sparse != null && sparse.size() > 0))
+        {
+            return super.getEnumIds();
+        }
+        Object[] slotIds = getCachedIds();
+        int N = (int)Math.min(denseCapacity(), length);
+        if (N <= 0) {
+            return slotIds;
+        }
+        if (elementKind != INT_ELEMENTS) {
+            for (int i = 0; i != N; ++i) {
+                if (isDenseHole(i)) {
+                    // arrays with holes are not cached
+                    return getIds();
+                }
+            }
+        }
+        Object[] ids = denseEnumIds;
+        if (ids == null || !hasEnumIds(ids, N, slotIds)) {
+            ids = new Object[N + slotIds.length];
+            for (int i = 0; i != N; ++i) {
+                ids[i] = Integer.valueOf(i);
+            }
+            System.arraycopy(slotIds, 0, ids, N, slotIds.length);
+            denseEnumIds = ids;
+        }
+        return ids;
+    }
+
+    private static boolean hasEnumIds(Object[] ids, int denseLength,
+                                      Object[] slotIds)
+    {
+        if (ids.length != denseLength + slotIds.length) {
+            return false;
+        }
+        for (int i = 0; i != slotIds.length; ++i) {
+            if (ids[denseLength + i] != slotIds[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException
+    {
+        out.defaultWriteObject();
+        if (elementKind == DOUBLE_ELEMENTS) {
+            out.writeInt(doubleDense.length);
+            for (double d : doubleDense) {
+                out.writeLong(Double.doubleToRawLongBits(d));
+            }
+        }
+    }
+
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        if (elementKind == DOUBLE_ELEMENTS) {
+            doubleDense = new double[in.readInt()];
+            for (int i = 0; i < doubleDense.length; i++) {
+                doubleDense[i] = Double.longBitsToDouble(in.readLong());
+            }
+        }
+    }
+
+    @Override
+    void setForkTemplate()
+    {
+        // The array methods read and write the dense elements directly,
+        // make them use get and put which check for template scope forks.
+        setDenseOnly(false);
+        super.setForkTemplate();
+    }
+
     @Override
     public Object[] getAllIds()
     {
+      if (forkState == FORK_COPIES) {
+        ScriptableObject copy = getForkCopy();
+        if (copy != null) {
+          return copy.getAllIds();
+        }
+      }
       Set<Object> allIds = new LinkedHashSet<Object>(
             Arrays.asList(this.getIds()));
       allIds.addAll(Arrays.asList(super.getAllIds()));
@@ -533,8 +1182,16 @@ public class NativeArray extends IdScriptableObject implements List
 
     @Override
     public int getAttributes(int index) {
-        if (dense != null && index >= 0 && index < dense.length
-                && dense[index] != NOT_FOUND) {
+        if (forkState == FORK_COPIES) {
+            ScriptableObject copy = getForkCopy();
+            if (copy != null) {
+                return copy.getAttributes(index);
+            }
+        }
+        if (index >= 0 && index < denseCapacity() && !isDenseHole(index)) {
+            return EMPTY;
+        }
+        if (index >= 0 && sparse != null && sparse.has(index)) {
             return EMPTY;
         }
         return super.getAttributes(index);
@@ -542,13 +1199,20 @@ public class NativeArray extends IdScriptableObject implements List
 
     @Override
     protected ScriptableObject getOwnPropertyDescriptor(Context cx, Object id) {
-      if (dense != null) {
-        int index = toDenseIndex(id);
-        if (0 <= index && index < dense.length && dense[index] != NOT_FOUND) {
-          Object value = dense[index];
-          return defaultIndexPropertyDescriptor(value);
+      if (forkState == FORK_COPIES) {
+        ScriptableObject copy = getForkCopy();
+        if (copy != null) {
+          return copy.getOwnPropertyDescriptor(cx, id);
         }
       }
+      int index = toDenseIndex(id);
+      if (0 <= index && index < denseCapacity() && !isDenseHole(index)) {
+        Object value = getDense(index);
+        return defaultIndexPropertyDescriptor(value);
+      }
+      if (0 <= index && sparse != null && sparse.has(index)) {
+        return defaultIndexPropertyDescriptor(sparse.get(index, null));
+      }
       return super.getOwnPropertyDescriptor(cx, id);
     }
 
@@ -556,16 +1220,33 @@ public class NativeArray extends IdScriptableObject implements List
     protected void defineOwnProperty(Context cx, Object id,
                                      ScriptableObject desc,
                                      boolean checkValid) {
-      if (dense != null) {
+      if (forkState != 0) {
+        ScriptableObject copy = getForkCopyForWrite(true);
+        if (copy != null) {
+          ((NativeArray) copy).defineOwnProperty(cx, id, desc, checkValid);
+          return;
+        }
+      }
+      if (denseCapacity() >= 0) {
+        toObjectElements();
         Object[] values = dense;
+        int start = denseStart;
         dense = null;
+        denseStart = 0;
         denseOnly = false;
-        for (int i = 0; i < values.length; i++) {
+        for (int i = start; i < values.length; i++) {
           if (values[i] != NOT_FOUND) {
-            put(i, this, values[i]);
+            put(i - start, this, values[i]);
           }
         }
       }
+      int denseIndex = toDenseIndex(id);
+      if (denseIndex >= 0 && sparse != null && sparse.has(denseIndex)) {
+        // the element gets attributes of its own
+        Object value = sparse.get(denseIndex, null);
+        sparse.remove(denseIndex);
+        super.put(denseIndex, this, value);
+      }
       long index = toArrayIndex(id);
       if (index >= length) {
         length = index + 1;
@@ -603,6 +1284,12 @@ public class NativeArray extends IdScriptableObject implements List
     }
 
     public long getLength() {
+        if (forkState == FORK_COPIES) {
+            ScriptableObject copy = getForkCopy();
+            if (copy != null) {
+                return ((NativeArray) copy).getLength();
+            }
+        }
         return length;
     }
 
@@ -623,6 +1310,10 @@ public class NativeArray extends IdScriptableObject implements List
     void setDenseOnly(boolean denseOnly) {
         if (denseOnly && !this.denseOnly)
             throw new IllegalArgumentException();
+        if (!denseOnly && elementKind == INT_ELEMENTS) {
+            // int elements rely on length being within the dense storage
+            toDoubleElements();
+        }
         this.denseOnly = denseOnly;
     }
 
@@ -647,20 +1338,26 @@ public class NativeArray extends IdScriptableObject implements List
         if (denseOnly) {
             if (longVal < length) {
                 // downcast okay because denseOnly
-                Arrays.fill(dense, (int) longVal, dense.length, NOT_FOUND);
+                clearDense((int) longVal, denseCapacity());
                 length = longVal;
                 return;
             } else if (longVal < MAX_PRE_GROW_SIZE &&
                        longVal < (length * GROW_FACTOR) &&
                        ensureCapacity((int)longVal))
             {
+                if (elementKind == INT_ELEMENTS && longVal > length) {
+                    toDoubleElements();
+                }
                 length = longVal;
                 return;
             } else {
-                denseOnly = false;
+                setDenseOnly(false);
             }
         }
         if (longVal < length) {
+            if (sparse != null && longVal <= Integer.MAX_VALUE) {
+                sparse.removeFrom((int) longVal);
+            }
             // remove all properties between longVal and length
             if (length - longVal > 0x1000) {
                 // assume that the representation is sparse
@@ -884,8 +1581,8 @@ public class NativeArray extends IdScriptableObject implements List
                     if (i != 0) {
                         sb.append(separator);
                     }
-                    if (i < na.dense.length) {
-                        Object temp = na.dense[i];
+                    if (i < na.denseCapacity()) {
+                        Object temp = na.getDense(i);
                         if (temp != null && temp != Undefined.instance &&
                             temp != Scriptable.NOT_FOUND)
                         {
@@ -934,9 +1631,7 @@ public class NativeArray extends IdScriptableObject implements List
             NativeArray na = (NativeArray) thisObj;
             if (na.denseOnly) {
                 for (int i=0, j=((int)na.length)-1; i < j; i++,j--) {
-                    Object temp = na.dense[i];
-                    na.dense[i] = na.dense[j];
-                    na.dense[j] = temp;
+                    na.swapDense(i, j);
                 }
                 return thisObj;
             }
@@ -993,24 +1688,7 @@ public class NativeArray extends IdScriptableObject implements List
                 }
             };
         } else {
-            comparator = new Comparator<Object>() {
-                public int compare(final Object x, final Object y) {
-                    // sort undefined to end
-                    if (x == NOT_FOUND) {
-                        return y == NOT_FOUND ? 0 : 1;
-                    } else if (y == NOT_FOUND) {
-                        return -1;
-                    } else if (x == Undefined.instance) {
-                        return y == Undefined.instance ? 0 : 1;
-                    } else if (y == Undefined.instance) {
-                        return -1;
-                    }
-
-                    final String a = ScriptRuntime.toString(x);
-                    final String b = ScriptRuntime.toString(y);
-                    return a.compareTo(b);
-                }
-            };
+            comparator = DEFAULT_COMPARATOR;
         }
 
         long llength = getLengthProperty(cx, thisObj);
@@ -1019,6 +1697,13 @@ public class NativeArray extends IdScriptableObject implements List
             throw Context.reportRuntimeError1(
                 "msg.arraylength.too.big", String.valueOf(llength));
         }
+        if (comparator == DEFAULT_COMPARATOR &&
+            thisObj instanceof NativeArray &&
+            ((NativeArray) thisObj).sortDense(length))
+        {
+            return thisObj;
+        }
+
         // copy the JS array into a working array, so it can be
         // sorted cheaply.
         final Object[] working = new Object[length];
@@ -1026,7 +1711,7 @@ public class NativeArray extends IdScriptableObject implements List
             working[i] = getRawElem(thisObj, i);
         }
 
-        Arrays.sort(working, comparator);
+        Sorting.mergeSort(working, length, comparator);
 
         // copy the working array back into thisObj
         for (int i = 0; i < length; ++i) {
@@ -1036,6 +1721,77 @@ public class NativeArray extends IdScriptableObject implements List
         return thisObj;
     }
 
+    private static final Comparator<Object> DEFAULT_COMPARATOR =
+        new Comparator<Object>() {
+            public int compare(final Object x, final Object y) {
+                // sort undefined to end
+                if (x == NOT_FOUND) {
+                    return y == NOT_FOUND ? 0 : 1;
+                } else if (y == NOT_FOUND) {
+                    return -1;
+                } else if (x == Undefined.instance) {
+                    return y == Undefined.instance ? 0 : 1;
+                } else if (y == Undefined.instance) {
+                    return -1;
+                }
+
+                final String a = ScriptRuntime.toString(x);
+                final String b = ScriptRuntime.toString(y);
+                return a.compareTo(b);
+            }
+        };
+
+    /**
+     * Sorts the elements in place in the default order, which compares
+     * their string values, if they are all numbers or all strings. Numbers
+     * are not converted to strings for every comparison, and int elements
+     * are not converted at all. Returns false if the array has holes or
+     * other elements, which are sorted by the general algorithm.
+     */
+    private boolean sortDense(int n)
+    {
+        if (!denseOnly || n != length || getClass() != NativeArray.class) {
+            return false;
+        }
+        switch (elementKind) {
+          case INT_ELEMENTS:
+            Sorting.sortAsStrings(intDense, denseStart, denseStart + n);
+            return true;
+
+          case DOUBLE_ELEMENTS: {
+            // Numbers convert to strings and back without loss, except
+            // for -0 which is equal to 0 as a string
+            String[] keys = new String[n];
+            for (int i = 0; i < n; i++) {
+                double d = doubleDense[denseStart + i];
+                if (isHole(d) || (d == 0 && 1 / d < 0)) {
+                    return false;
+                }
+                keys[i] = ScriptRuntime.numberToString(d, 10);
+            }
+            Arrays.sort(keys);
+            for (int i = 0; i < n; i++) {
+                doubleDense[denseStart + i] = ScriptRuntime.toNumber(keys[i]);
+            }
+            return true;
+          }
+
+          default:
+            int end = denseStart + n;
+            for (int i = denseStart; i < end; i++) {
+                Object value = dense[i];
+                if (!(value instanceof String)) {
+                    if (!(value instanceof ConsString)) {
+                        return false;
+                    }
+                    dense[i] = value.toString();
+                }
+            }
+            Arrays.sort(dense, denseStart, end);
+            return true;
+        }
+    }
+
     /**
      * Non-ECMA methods.
      */
@@ -1049,7 +1805,8 @@ public class NativeArray extends IdScriptableObject implements List
                 na.ensureCapacity((int) na.length + args.length))
             {
                 for (int i = 0; i < args.length; i++) {
-                    na.dense[(int)na.length++] = args[i];
+                    na.putDense((int)na.length, args[i]);
+                    na.length++;
                 }
                 return ScriptRuntime.wrapNumber(na.length);
             }
@@ -1083,9 +1840,10 @@ public class NativeArray extends IdScriptableObject implements List
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
             if (na.denseOnly && na.length > 0) {
-                na.length--;
-                result = na.dense[(int)na.length];
-                na.dense[(int)na.length] = NOT_FOUND;
+                int index = (int)na.length - 1;
+                result = na.getDense(index);
+                na.length = index;
+                na.clearDense(index, index + 1);
                 return result;
             }
         }
@@ -1114,10 +1872,16 @@ public class NativeArray extends IdScriptableObject implements List
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
             if (na.denseOnly && na.length > 0) {
+                // the remaining elements stay where they are
+                Object result = na.getDense(0);
+                na.clearDense(0, 1);
                 na.length--;
-                Object result = na.dense[0];
-                System.arraycopy(na.dense, 1, na.dense, 0, (int)na.length);
-                na.dense[(int)na.length] = NOT_FOUND;
+                if (na.length == 0) {
+                    // all of the storage is holes
+                    na.denseStart = 0;
+                } else {
+                    na.denseStart++;
+                }
                 return result == NOT_FOUND ? Undefined.instance : result;
             }
         }
@@ -1154,13 +1918,14 @@ public class NativeArray extends IdScriptableObject implements List
     {
         if (thisObj instanceof NativeArray) {
             NativeArray na = (NativeArray) thisObj;
-            if (na.denseOnly &&
-                na.ensureCapacity((int)na.length + args.length))
+            if (na.denseOnly && na.ensureFrontCapacity(args.length))
             {
-                System.arraycopy(na.dense, 0, na.dense, args.length,
-                                 (int) na.length);
                 for (int i = 0; i < args.length; i++) {
-                    na.dense[i] = args[i];
+                    na.fitElement(args[i]);
+                }
+                na.denseStart -= args.length;
+                for (int i = 0; i < args.length; i++) {
+                    na.storeDense(i, args[i]);
                 }
                 na.length += args.length;
                 return ScriptRuntime.wrapNumber(na.length);
@@ -1251,7 +2016,9 @@ public class NativeArray extends IdScriptableObject implements List
             	if (denseMode) {
                     int intLen = (int) (end - begin);
                     Object[] copy = new Object[intLen];
-                    System.arraycopy(na.dense, (int) begin, copy, 0, intLen);
+                    for (int i = 0; i < intLen; i++) {
+                        copy[i] = na.getDense((int) begin + i);
+                    }
                     result = cx.newArray(scope, copy);
                 } else {
                     Scriptable resultArray = cx.newArray(scope, 0);
@@ -1277,17 +2044,35 @@ public class NativeArray extends IdScriptableObject implements List
 
         /* Find the direction (up or down) to copy and make way for argv. */
         long delta = argc - count;
+        // Move the elements in front of the splice instead of those
+        // after it if there are fewer of them and there is room
+        boolean moveFront = denseMode && delta != 0 && begin < length - end &&
+                            (delta < 0 || delta <= na.denseStart);
         if (denseMode && length + delta < Integer.MAX_VALUE &&
-            na.ensureCapacity((int) (length + delta)))
+            (moveFront || na.ensureCapacity((int) (length + delta))))
         {
-            System.arraycopy(na.dense, (int) end, na.dense,
-                             (int) (begin + argc), (int) (length - end));
-            if (argc > 0) {
-                System.arraycopy(args, 2, na.dense, (int) begin, argc);
+            for (int i = 0; i < argc; i++) {
+                na.fitElement(args[i + 2]);
+            }
+            Object storage = na.denseStorage();
+            int start = na.denseStart;
+            if (moveFront) {
+                System.arraycopy(storage, start, storage,
+                                 (int) (start - delta), (int) begin);
+                if (delta < 0) {
+                    na.clearDense(0, (int) -delta);
+                }
+                na.denseStart = (int) (start - delta);
+            } else {
+                System.arraycopy(storage, (int) (start + end), storage,
+                                 (int) (start + begin + argc),
+                                 (int) (length - end));
+                if (delta < 0) {
+                    na.clearDense((int) (length + delta), (int) length);
+                }
             }
-            if (delta < 0) {
-                Arrays.fill(na.dense, (int) (length + delta), (int) length,
-                            NOT_FOUND);
+            for (int i = 0; i < argc; i++) {
+                na.storeDense((int) begin + i, args[i + 2]);
             }
             na.length = length + delta;
             return result;
@@ -1345,18 +2130,18 @@ public class NativeArray extends IdScriptableObject implements List
                     }
                 }
                 if (canUseDense && denseResult.ensureCapacity(length)) {
-                    System.arraycopy(denseThis.dense, 0, denseResult.dense,
-                                     0, (int) denseThis.length);
+                    denseResult.copyDense(denseThis, 0);
                     int cursor = (int) denseThis.length;
                     for (int i = 0; i < args.length && canUseDense; i++) {
                         if (args[i] instanceof NativeArray) {
                             NativeArray arg = (NativeArray) args[i];
-                            System.arraycopy(arg.dense, 0,
-                                    denseResult.dense, cursor,
-                                    (int)arg.length);
+                            denseResult.copyDense(arg, cursor);
                             cursor += (int)arg.length;
                         } else {
-                            denseResult.dense[cursor++] = args[i];
+                            denseResult.putDense(cursor++, args[i]);
+                            if (denseResult.length < cursor) {
+                                denseResult.length = cursor;
+                            }
                         }
                     }
                     denseResult.length = length;
@@ -1518,17 +2303,13 @@ public class NativeArray extends IdScriptableObject implements List
             if (na.denseOnly) {
                 if (isLast) {
                   for (int i=(int)start; i >= 0; i--) {
-                      if (na.dense[i] != Scriptable.NOT_FOUND &&
-                          ScriptRuntime.shallowEq(na.dense[i], compareTo))
-                      {
+                      if (na.denseEquals(i, compareTo)) {
                           return Long.valueOf(i);
                       }
                   }
                 } else {
                   for (int i=(int)start; i < length; i++) {
-                      if (na.dense[i] != Scriptable.NOT_FOUND &&
-                          ScriptRuntime.shallowEq(na.dense[i], compareTo))
-                      {
+                      if (na.denseEquals(i, compareTo)) {
                           return Long.valueOf(i);
                       }
                   }
@@ -1669,7 +2450,7 @@ public class NativeArray extends IdScriptableObject implements List
     }
 
     public Object[] toArray(Object[] a) {
-        long longLen = length;
+        long longLen = getLength();
         if (longLen > Integer.MAX_VALUE) {
             throw new IllegalStateException();
         }
@@ -1691,7 +2472,7 @@ public class NativeArray extends IdScriptableObject implements List
     }
 
     public int size() {
-        long longLen = length;
+        long longLen = getLength();
         if (longLen > Integer.MAX_VALUE) {
             throw new IllegalStateException();
         }
@@ -1699,7 +2480,7 @@ public class NativeArray extends IdScriptableObject implements List
     }
 
     public Object get(long index) {
-        if (index < 0 || index >= length) {
+        if (index < 0 || index >= getLength()) {
             throw new IndexOutOfBoundsException();
         }
         Object value = getRawElem(this, index);
@@ -1717,7 +2498,7 @@ public class NativeArray extends IdScriptableObject implements List
     }
 
     public int indexOf(Object o) {
-        long longLen = length;
+        long longLen = getLength();
         if (longLen > Integer.MAX_VALUE) {
             throw new IllegalStateException();
         }
@@ -1739,7 +2520,7 @@ public class NativeArray extends IdScriptableObject implements List
     }
 
     public int lastIndexOf(Object o) {
-        long longLen = length;
+        long longLen = getLength();
         if (longLen > Integer.MAX_VALUE) {
             throw new IllegalStateException();
         }
@@ -1769,7 +2550,7 @@ public class NativeArray extends IdScriptableObject implements List
     }
 
     public ListIterator listIterator(final int start) {
-        long longLen = length;
+        long longLen = getLength();
         if (longLen > Integer.MAX_VALUE) {
             throw new IllegalStateException();
         }
@@ -1987,15 +2768,75 @@ public class NativeArray extends IdScriptableObject implements List
 
     /**
      * Fast storage for dense arrays. Sparse arrays will use the superclass's
-     * hashtable storage scheme.
+     * hashtable storage scheme. Dense arrays of numbers store them
+     * unboxed in <code>intDense</code> or <code>doubleDense</code>
+     * instead, as selected by <code>elementKind</code>.
      */
     private Object[] dense;
 
+    /**
+     * Storage for int elements, which can not have holes: the elements
+     * are exactly those below <code>length</code>. Only used while
+     * <code>denseOnly</code> is true. The elements are read as Doubles,
+     * like all other numbers in arrays.
+     */
+    private int[] intDense;
+
+    /**
+     * Storage for number elements, with holes marked by
+     * <code>DOUBLE_HOLE</code>. Written by writeObject() as
+     * ObjectOutputStream would turn the holes into NaNs.
+     */
+    private transient double[] doubleDense;
+
+    /**
+     * Elements that are not in the dense storage once <code>denseOnly</code>
+     * is false, in ascending order of their indices, which are at least
+     * the dense capacity. Elements with attributes or getters or setters
+     * are properties of the superclass instead.
+     */
+    private SortedUintMap sparse;
+
+    /**
+     * The kind of elements the dense storage holds. It only ever changes
+     * from INT_ELEMENTS to DOUBLE_ELEMENTS to OBJECT_ELEMENTS, when an
+     * element is written that does not fit. Arrays without dense storage
+     * have OBJECT_ELEMENTS and a null <code>dense</code>.
+     */
+    private int elementKind;
+
+    /**
+     * The index in the dense storage of element 0. Shifting and
+     * unshifting move it rather than the elements, so arrays used as
+     * queues do not copy all their elements each time. The storage in
+     * front of it is holes.
+     */
+    private int denseStart;
+
+    private static final int
+        OBJECT_ELEMENTS = 0,
+        DOUBLE_ELEMENTS = 1,
+        INT_ELEMENTS    = 2;
+
+    /**
+     * A NaN that is never stored as a value, since NaN values are stored
+     * as Double.NaN.
+     */
+    private static final long DOUBLE_HOLE_BITS = 0xfff8000000000badL;
+    private static final double DOUBLE_HOLE =
+        Double.longBitsToDouble(DOUBLE_HOLE_BITS);
+
     /**
      * True if all numeric properties are stored in <code>dense</code>.
      */
     private boolean denseOnly;
 
+    /**
+     * The ids of the last for-in loop over an array without holes, see
+     * getEnumIds().
+     */
+    private transient volatile Object[] denseEnumIds;
+
     /**
      * The maximum size of <code>dense</code> that will be allocated initially.
      */
@@ -8,6 +8,7 @@ package org.mozilla.javascript;
 
 import java.io.Serializable;
 
+import org.mozilla.javascript.v8dtoa.FastStrtod;
 import org.mozilla.javascript.xml.XMLLib;
 import static org.mozilla.javascript.ScriptableObject.DONTENUM;
 import static org.mozilla.javascript.ScriptableObject.READONLY;
@@ -363,9 +364,8 @@ public class NativeGlobal implements Serializable, IdFunctionCall
         if (exponent != -1 && !exponentValid) {
             i = exponent;
         }
-        s = s.substring(start, i);
         try {
-            return Double.valueOf(s);
+            return ScriptRuntime.wrapNumber(FastStrtod.parseDouble(s, start, i));
         }
         catch (NumberFormatException ex) {
             return ScriptRuntime.NaNobj;
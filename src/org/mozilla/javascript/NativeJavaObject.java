@@ -690,7 +690,7 @@ WrapFactory#wrap(Context, Scriptable, Object, Class)}
             type == ScriptRuntime.DoubleClass || type == Double.TYPE) {
             return valueClass == ScriptRuntime.DoubleClass
                 ? value
-                : new Double(toDouble(value));
+                : ScriptRuntime.wrapDouble(toDouble(value));
         }
 
         if (type == ScriptRuntime.FloatClass || type == Float.TYPE) {
@@ -777,7 +777,7 @@ WrapFactory#wrap(Context, Scriptable, Object, Class)}
             }
         }
 
-        return new Double(toDouble(value));
+        return ScriptRuntime.wrapDouble(toDouble(value));
     }
 
 
@@ -43,6 +43,17 @@ public class NativeObject extends IdScriptableObject implements Map
         return ScriptRuntime.defaultObjectToString(this);
     }
 
+    @Override
+    Object[] getEnumIds()
+    {
+        // Plain objects only have the ids of their slots, which can be
+        // cached. Subclasses may override getIds().
+        if (getClass() == NativeObject.class && !hasPrototypeMap()) {
+            return getCachedIds();
+        }
+        return super.getEnumIds();
+    }
+
     @Override
     protected void fillConstructorProperties(IdFunctionObject ctor)
     {
@@ -120,7 +131,11 @@ public class NativeObject extends IdScriptableObject implements Map
             if (args.length == 0 || args[0] == null
                 || args[0] == Undefined.instance)
             {
-                return new NativeObject();
+                NativeObject obj = new NativeObject();
+                if (cx.hasFeature(Context.FEATURE_OBJECT_SHAPES)) {
+                    obj.useShapes();
+                }
+                return obj;
             }
             return ScriptRuntime.toObject(cx, scope, args[0]);
           }
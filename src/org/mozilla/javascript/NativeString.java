@@ -258,7 +258,7 @@ final class NativeString extends IdScriptableObject
 
               case Id_indexOf:
                 return ScriptRuntime.wrapInt(js_indexOf(
-                    ScriptRuntime.toString(thisObj), args));
+                    ScriptRuntime.toCharSequence(thisObj), args));
 
               case Id_lastIndexOf:
                 return ScriptRuntime.wrapInt(js_lastIndexOf(
@@ -461,10 +461,11 @@ final class NativeString extends IdScriptableObject
 
     /*
      *
-     * See ECMA 15.5.4.6.  Uses Java String.indexOf()
+     * See ECMA 15.5.4.6.  Uses Java String.indexOf(), or searches the
+     * leaves of a ConsString without flattening it.
      * OPT to add - BMH searching from jsstr.c.
      */
-    private static int js_indexOf(String target, Object[] args) {
+    private static int js_indexOf(CharSequence target, Object[] args) {
         String search = ScriptRuntime.toString(args, 0);
         double begin = ScriptRuntime.toInteger(args, 1);
 
@@ -473,7 +474,10 @@ final class NativeString extends IdScriptableObject
         } else {
             if (begin < 0)
                 begin = 0;
-            return target.indexOf(search, (int)begin);
+            if (target instanceof ConsString) {
+                return ((ConsString)target).indexOf(search, (int)begin);
+            }
+            return target.toString().indexOf(search, (int)begin);
         }
     }
 
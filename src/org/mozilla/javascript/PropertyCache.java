@@ -0,0 +1,450 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+// API class
+
+package org.mozilla.javascript;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An inline cache for the accesses to a named property or variable at a
+ * single site in compiled or interpreted code.
+ * <p>
+ * The cache remembers the receiver shapes of the last few lookups together
+ * with the offset of the property in the receiver or the prototype that
+ * held it. A lookup on a receiver with a known shape skips the hash table
+ * probe and the prototype chain walk. Only plain script objects in shape
+ * mode are cached, see {@link ScriptableObject#useShapes()}; everything
+ * else takes the generic path of {@link ScriptRuntime}.
+ * <p>
+ * A cached lookup is validated on every use: adding, deleting or
+ * reconfiguring a property changes the shape of the object in shape mode,
+ * prototypes are compared by identity, and properties held in a slot table
+ * are only used while their slot has not been deleted. Sites that see too
+ * many different shapes stop caching. Objects of a template scope that
+ * have private copies in forks are never cached, see {@link TopLevel#fork()}.
+ * <p>
+ * Variable lookups remember the scope and slot table entry the name was
+ * last found in, and are only cached for names defined directly in the
+ * innermost scope, such as global variables accessed from top level code
+ * and functions without an activation.
+ * <p>
+ * Caches may be shared by multiple threads. Prototypes and slots are only
+ * weakly referenced so that a cache does not keep scopes alive.
+ *
+ * @see org.mozilla.javascript.optimizer.OptRuntime
+ * @see Interpreter
+ * @since 1.7 Release 5
+ */
+public final class PropertyCache
+{
+    // Number of receiver shapes a site remembers before it is considered
+    // megamorphic and stops caching
+    private static final int MAX_ENTRIES = 4;
+
+    // Maximum prototype chain depth at which holders are cached
+    private static final int MAX_DEPTH = 4;
+
+    // Number of times a name lookup site may see a different scope or a
+    // name that is not held by the innermost scope before it stops caching
+    private static final int MAX_NAME_MISSES = 8;
+
+    // Whether the get method of a scope class is the one of
+    // ScriptableObject, see hasPlainGet
+    private static final ConcurrentHashMap<Class<?>,Boolean> plainGetClasses =
+        new ConcurrentHashMap<Class<?>,Boolean>();
+
+    private static final Entry[] MEGAMORPHIC = new Entry[0];
+    private static final NameEntry MEGAMORPHIC_NAME =
+        new NameEntry(null, null);
+
+    private final String name;
+    private volatile Entry[] entries;
+
+    // Scope and slot of the last resolved name lookup
+    private volatile NameEntry nameEntry;
+    private int nameMisses;
+
+    public PropertyCache(String name)
+    {
+        if (name == null) throw new IllegalArgumentException();
+        this.name = name;
+    }
+
+    /**
+     * Returns the name of the property accessed at this site.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Cached version of
+     * {@link ScriptRuntime#getObjectProp(Object, String, Context, Scriptable)}.
+     * If <code>scope</code> is null primitive values are converted to
+     * objects using the top call scope.
+     */
+    public Object getObjectProp(Object obj, Context cx, Scriptable scope)
+    {
+        Object value = getCached(obj);
+        if (value != Scriptable.NOT_FOUND) {
+            return value;
+        }
+        if (scope == null) {
+            value = ScriptRuntime.getObjectProp(obj, name, cx);
+        } else {
+            value = ScriptRuntime.getObjectProp(obj, name, cx, scope);
+        }
+        addEntry(obj, false);
+        return value;
+    }
+
+    /**
+     * Cached version of
+     * {@link ScriptRuntime#getObjectPropNoWarn(Object, String, Context)}.
+     */
+    public Object getObjectPropNoWarn(Object obj, Context cx)
+    {
+        Object value = getCached(obj);
+        if (value != Scriptable.NOT_FOUND) {
+            return value;
+        }
+        value = ScriptRuntime.getObjectPropNoWarn(obj, name, cx);
+        addEntry(obj, false);
+        return value;
+    }
+
+    /**
+     * Cached version of
+     * {@link ScriptRuntime#getPropFunctionAndThis(Object, String, Context, Scriptable)}.
+     * As with the uncached version, the caller must call
+     * {@link ScriptRuntime#lastStoredScriptable(Context)} immediately after
+     * calling this method.
+     */
+    public Callable getPropFunctionAndThis(Object obj, Context cx,
+                                           Scriptable scope)
+    {
+        Object value = getCached(obj);
+        if (value instanceof Callable) {
+            ScriptRuntime.storeScriptable(cx, (Scriptable)obj);
+            return (Callable)value;
+        }
+        Callable f = ScriptRuntime.getPropFunctionAndThis(obj, name, cx,
+                                                          scope);
+        addEntry(obj, false);
+        return f;
+    }
+
+    /**
+     * Cached version of
+     * {@link ScriptRuntime#setObjectProp(Object, String, Object, Context)}.
+     * Only assignments to existing properties of the receiver are cached.
+     */
+    public Object setObjectProp(Object obj, Object value, Context cx)
+    {
+        Entry[] cached = entries;
+        Shape shape = null;
+        if (obj != null && obj.getClass() == NativeObject.class) {
+            ScriptableObject so = (ScriptableObject)obj;
+            shape = so.getShape();
+            if (cached != null && shape != null && !so.isSealed()) {
+                for (Entry e : cached) {
+                    if (e.shape == shape && e.depth == 0
+                        && (shape.getAttributes(e.offset)
+                            & ScriptableObject.READONLY) == 0)
+                    {
+                        so.getShapeValues()[e.offset] = value;
+                        return value;
+                    }
+                }
+            }
+        }
+        ScriptRuntime.setObjectProp(obj, name, value, cx);
+        // Assignments that add a property change the shape and can not
+        // be cached, so only remember stores to existing properties.
+        if (shape != null && ((ScriptableObject)obj).getShape() == shape) {
+            addEntry(obj, true);
+        }
+        return value;
+    }
+
+    /**
+     * Cached version of
+     * {@link ScriptRuntime#name(Context, Scriptable, String)}.
+     * Only names found directly in <code>scope</code> are cached.
+     */
+    public Object name(Context cx, Scriptable scope)
+    {
+        NameEntry e = nameEntry;
+        if (e != null && e.scope.get() == scope && !cx.useDynamicScope) {
+            ScriptableObject.Slot slot = e.slot.get();
+            if (slot != null && !slot.wasDeleted
+                && !((ScriptableObject)scope).hasForkCopies())
+            {
+                return slot.value;
+            }
+        }
+        Object value = ScriptRuntime.name(cx, scope, name);
+        if (e != MEGAMORPHIC_NAME) {
+            addNameEntry(cx, scope, e);
+        }
+        return value;
+    }
+
+    private Object getCached(Object obj)
+    {
+        Entry[] cached = entries;
+        if (cached != null && obj != null
+            && obj.getClass() == NativeObject.class)
+        {
+            ScriptableObject so = (ScriptableObject)obj;
+            Shape shape = so.getShape();
+            if (shape != null) {
+                for (Entry e : cached) {
+                    if (e.shape == shape) {
+                        return e.getValue(so);
+                    }
+                }
+            }
+        }
+        return Scriptable.NOT_FOUND;
+    }
+
+    private void addEntry(Object obj, boolean forWrite)
+    {
+        Entry[] cached = entries;
+        if (cached == MEGAMORPHIC || obj == null
+            || obj.getClass() != NativeObject.class)
+        {
+            return;
+        }
+        Entry entry = createEntry((ScriptableObject)obj, forWrite);
+        if (entry == null) {
+            return;
+        }
+        int n = 0;
+        Entry[] newEntries;
+        if (cached == null) {
+            newEntries = new Entry[1];
+        } else {
+            newEntries = new Entry[cached.length + 1];
+            for (Entry e : cached) {
+                // Drop outdated entries for the same shape
+                if (e.shape != entry.shape) {
+                    newEntries[n++] = e;
+                }
+            }
+            if (n == MAX_ENTRIES) {
+                entries = MEGAMORPHIC;
+                return;
+            }
+        }
+        newEntries[n++] = entry;
+        if (n != newEntries.length) {
+            Entry[] tmp = new Entry[n];
+            System.arraycopy(newEntries, 0, tmp, 0, n);
+            newEntries = tmp;
+        }
+        entries = newEntries;
+    }
+
+    private void addNameEntry(Context cx, Scriptable scope, NameEntry e)
+    {
+        ScriptableObject.Slot slot = null;
+        if (!cx.useDynamicScope && scope instanceof ScriptableObject
+            && hasPlainGet(scope.getClass()))
+        {
+            slot = ((ScriptableObject)scope).getDataSlot(name);
+        }
+        if (slot == null || e != null) {
+            // Names found in outer scopes, such as globals read from a
+            // function activation, and lookups in a new activation on each
+            // call can not be cached
+            if (++nameMisses > MAX_NAME_MISSES) {
+                nameEntry = MEGAMORPHIC_NAME;
+                return;
+            }
+            if (slot == null) {
+                return;
+            }
+        }
+        nameEntry = new NameEntry(scope, slot);
+    }
+
+    /**
+     * Returns true if get(String, Scriptable) of the given class returns
+     * the values of data slots unchanged.
+     */
+    private static boolean hasPlainGet(Class<?> cl)
+    {
+        Boolean plain = plainGetClasses.get(cl);
+        if (plain == null) {
+            plain = Boolean.valueOf(findPlainGet(cl));
+            // Do not keep classes of other class loaders alive
+            if (cl.getClassLoader() == PropertyCache.class.getClassLoader()) {
+                plainGetClasses.put(cl, plain);
+            }
+        }
+        return plain.booleanValue();
+    }
+
+    private static boolean findPlainGet(Class<?> cl)
+    {
+        Class<?> declaring;
+        try {
+            declaring = cl.getMethod("get", String.class, Scriptable.class)
+                          .getDeclaringClass();
+        } catch (NoSuchMethodException e) {
+            return false;
+        } catch (SecurityException e) {
+            return false;
+        }
+        return declaring == ScriptableObject.class
+               || declaring == IdScriptableObject.class
+               || declaring == ImporterTopLevel.class;
+    }
+
+    private Entry createEntry(ScriptableObject obj, boolean forWrite)
+    {
+        Shape shape = obj.getShape();
+        if (shape == null) {
+            return null;
+        }
+        int offset = shape.indexOf(name);
+        if (offset >= 0) {
+            if (forWrite
+                && (shape.getAttributes(offset) & ScriptableObject.READONLY) != 0)
+            {
+                return null;
+            }
+            return new Entry(shape, offset);
+        }
+        if (forWrite) {
+            return null;
+        }
+        Shape[] shapes = new Shape[MAX_DEPTH];
+        ScriptableObject[] chain = new ScriptableObject[MAX_DEPTH];
+        Scriptable current = obj;
+        for (int depth = 0; depth != MAX_DEPTH; ++depth) {
+            Scriptable proto = current.getPrototype();
+            if (proto == null || proto.getClass() != NativeObject.class) {
+                return null;
+            }
+            ScriptableObject holder = (ScriptableObject)proto;
+            chain[depth] = holder;
+            Shape holderShape = holder.getShape();
+            if (holderShape != null) {
+                shapes[depth] = holderShape;
+                offset = holderShape.indexOf(name);
+                if (offset >= 0) {
+                    return new Entry(shape, depth + 1, chain, shapes,
+                                     offset, null);
+                }
+            } else {
+                // Objects without a shape can hold the property but
+                // can not be validated as intermediate prototypes.
+                ScriptableObject.Slot slot = holder.getDataSlot(name);
+                if (slot == null) {
+                    return null;
+                }
+                return new Entry(shape, depth + 1, chain, shapes, -1, slot);
+            }
+            current = holder;
+        }
+        return null;
+    }
+
+    private static final class NameEntry
+    {
+        // Compiled scripts may be executed in many scopes, so the scope
+        // must not be kept alive by the cache either
+        final WeakReference<Scriptable> scope;
+        final WeakReference<ScriptableObject.Slot> slot;
+
+        NameEntry(Scriptable scope, ScriptableObject.Slot slot)
+        {
+            this.scope = new WeakReference<Scriptable>(scope);
+            this.slot = new WeakReference<ScriptableObject.Slot>(slot);
+        }
+    }
+
+    private static final class Entry
+    {
+        // Shape of the receiver
+        final Shape shape;
+        // Number of prototypes between the receiver and the holder,
+        // 0 for own properties
+        final int depth;
+        // Offset of the property in the holder's values if the holder
+        // is in shape mode
+        final int offset;
+        final WeakReference<?>[] prototypes;
+        final Shape[] prototypeShapes;
+        // Slot of the property if the holder uses a slot table
+        final WeakReference<ScriptableObject.Slot> slot;
+
+        Entry(Shape shape, int offset)
+        {
+            this.shape = shape;
+            this.depth = 0;
+            this.offset = offset;
+            this.prototypes = null;
+            this.prototypeShapes = null;
+            this.slot = null;
+        }
+
+        Entry(Shape shape, int depth, ScriptableObject[] chain,
+              Shape[] shapes, int offset, ScriptableObject.Slot slot)
+        {
+            this.shape = shape;
+            this.depth = depth;
+            this.offset = offset;
+            this.prototypes = new WeakReference<?>[depth];
+            this.prototypeShapes = new Shape[depth];
+            for (int i = 0; i != depth; ++i) {
+                prototypes[i] = new WeakReference<ScriptableObject>(chain[i]);
+                prototypeShapes[i] = shapes[i];
+            }
+            this.slot = (slot == null)
+                ? null : new WeakReference<ScriptableObject.Slot>(slot);
+        }
+
+        /**
+         * Returns the cached property value for a receiver with a matching
+         * shape or NOT_FOUND if the entry is no longer valid.
+         */
+        Object getValue(ScriptableObject receiver)
+        {
+            if (depth == 0) {
+                return receiver.getShapeValues()[offset];
+            }
+            ScriptableObject holder = receiver;
+            for (int i = 0; i != depth; ++i) {
+                Scriptable proto = holder.getPrototype();
+                if (proto == null || proto != prototypes[i].get()) {
+                    return Scriptable.NOT_FOUND;
+                }
+                holder = (ScriptableObject)proto;
+                if (prototypeShapes[i] != null
+                    && holder.getShape() != prototypeShapes[i])
+                {
+                    return Scriptable.NOT_FOUND;
+                }
+            }
+            if (slot == null) {
+                return holder.getShapeValues()[offset];
+            }
+            ScriptableObject.Slot s = slot.get();
+            if (s == null || s.wasDeleted || holder.hasForkCopies()) {
+                return Scriptable.NOT_FOUND;
+            }
+            return s.value;
+        }
+    }
+}
@@ -13,7 +13,9 @@ import java.util.Locale;
 import java.util.ResourceBundle;
 
 import org.mozilla.javascript.ast.FunctionNode;
+import org.mozilla.javascript.typedarrays.NativeTypedArrayView;
 import org.mozilla.javascript.v8dtoa.FastDtoa;
+import org.mozilla.javascript.v8dtoa.FastStrtod;
 import org.mozilla.javascript.xml.XMLObject;
 import org.mozilla.javascript.xml.XMLLib;
 
@@ -203,6 +205,16 @@ public class ScriptRuntime {
         new LazilyLoadedCtor(scope, "Continuation",
                 "org.mozilla.javascript.NativeContinuation", sealed, true);
 
+        new LazilyLoadedCtor(scope, "ArrayBuffer",
+                "org.mozilla.javascript.typedarrays.NativeArrayBuffer", sealed, true);
+        new LazilyLoadedCtor(scope, "DataView",
+                "org.mozilla.javascript.typedarrays.NativeDataView", sealed, true);
+        for (String typedArray : TYPED_ARRAY_NAMES) {
+            new LazilyLoadedCtor(scope, typedArray,
+                    "org.mozilla.javascript.typedarrays.Native" + typedArray,
+                    sealed, true);
+        }
+
         for (String packageName : getTopPackageNames()) {
             new LazilyLoadedCtor(scope, packageName,
                     "org.mozilla.javascript.NativeJavaTopPackage", sealed, true);
@@ -223,6 +235,12 @@ public class ScriptRuntime {
         return scope;
     }
     
+    private static final String[] TYPED_ARRAY_NAMES = {
+        "Int8Array", "Uint8Array", "Uint8ClampedArray", "Int16Array",
+        "Uint16Array", "Int32Array", "Uint32Array", "Float32Array",
+        "Float64Array"
+    };
+
     static String[] getTopPackageNames() {
         // Include "android" top package if running on Android
         return "Dalvik".equals(System.getProperty("java.vm.name")) ?
@@ -299,10 +317,25 @@ public class ScriptRuntime {
 
     public static Number wrapNumber(double x)
     {
+        return wrapDouble(x);
+    }
+
+    /**
+     * Returns a Double for x. Small integers, NaN and negative zero are
+     * shared Doubles, other values are newly allocated.
+     */
+    public static Double wrapDouble(double x)
+    {
+        int i = (int)x;
+        if (i == x && i >= MIN_CACHED_DOUBLE && i <= MAX_CACHED_DOUBLE) {
+            return (i != 0 || 1 / x > 0)
+                   ? doubleCache[i - MIN_CACHED_DOUBLE]
+                   : negativeZeroObj;
+        }
         if (x != x) {
-            return ScriptRuntime.NaNobj;
+            return NaNobj;
         }
-        return new Double(x);
+        return Double.valueOf(x);
     }
 
     /**
@@ -392,6 +425,21 @@ public class ScriptRuntime {
 
     public static final Double NaNobj = new Double(NaN);
 
+    public static final Double negativeZeroObj = Double.valueOf(negativeZero);
+
+    // wrapDouble shares the Doubles for the integers in this range
+    private static final int MIN_CACHED_DOUBLE = -128;
+    private static final int MAX_CACHED_DOUBLE = 1023;
+
+    private static final Double[] doubleCache
+        = new Double[MAX_CACHED_DOUBLE - MIN_CACHED_DOUBLE + 1];
+
+    static {
+        for (int i = 0; i != doubleCache.length; ++i) {
+            doubleCache[i] = Double.valueOf(i + MIN_CACHED_DOUBLE);
+        }
+    }
+
     /*
      * Helper function for toNumber, parseInt, and TokenStream.getToken.
      */
@@ -433,7 +481,7 @@ public class ScriptRuntime {
                  * answer.
                  */
                 try {
-                    return Double.parseDouble(s.substring(start, end));
+                    return FastStrtod.parseDouble(s, start, end);
                 } catch (NumberFormatException nfe) {
                     return NaN;
                 }
@@ -600,11 +648,10 @@ public class ScriptRuntime {
         }
         // A non-hexadecimal, non-infinity number:
         // just try a normal floating point conversion
-        String sub = s.substring(start, end+1);
         // Quick test to check string contains only valid characters because
         // Double.parseDouble() can be slow and accept input we want to reject
-        for (int i = sub.length() - 1; i >= 0; i--) {
-            char c = sub.charAt(i);
+        for (int i = end; i >= start; i--) {
+            char c = s.charAt(i);
             if (('0' <= c && c <= '9') || c == '.' ||
                     c == 'e' || c == 'E'  ||
                     c == '+' || c == '-')
@@ -612,7 +659,7 @@ public class ScriptRuntime {
             return NaN;
         }
         try {
-            return Double.parseDouble(sub);
+            return FastStrtod.parseDouble(s, start, end + 1);
         } catch (NumberFormatException ex) {
             return NaN;
         }
@@ -1627,6 +1674,89 @@ public class ScriptRuntime {
         return value;
     }
 
+    /**
+     * Version of getObjectIndex for elements that are converted to numbers,
+     * which reads the number elements of arrays and typed arrays without
+     * boxing them.
+     */
+    public static double getObjectIndexNumber(Object obj, double dblIndex,
+                                              Context cx)
+    {
+        if (obj instanceof NativeArray) {
+            NativeArray array = (NativeArray)obj;
+            int index = (int)dblIndex;
+            if (index == dblIndex && array.isNumberElement(index)) {
+                return array.getNumberElement(index);
+            }
+        } else if (obj instanceof NativeTypedArrayView) {
+            NativeTypedArrayView array = (NativeTypedArrayView)obj;
+            int index = (int)dblIndex;
+            if (index == dblIndex && array.isNumberElement(index)) {
+                return array.getNumberElement(index);
+            }
+        }
+        return toNumber(getObjectIndex(obj, dblIndex, cx));
+    }
+
+    /**
+     * Version of getObjectElem for elements that are converted to numbers,
+     * which reads the number elements of arrays and typed arrays without
+     * boxing them.
+     */
+    public static double getObjectElemNumber(Object obj, Object elem,
+                                             Context cx, Scriptable scope)
+    {
+        if (elem instanceof Number && (obj instanceof NativeArray ||
+                                       obj instanceof NativeTypedArrayView))
+        {
+            return getObjectIndexNumber(obj, ((Number)elem).doubleValue(), cx);
+        }
+        return toNumber(getObjectElem(obj, elem, cx, scope));
+    }
+
+    /**
+     * Version of setObjectIndex for number values whose result is not
+     * used, which replaces the number elements of arrays and typed arrays
+     * without boxing the value.
+     */
+    public static void setObjectIndexNumber(Object obj, double dblIndex,
+                                            double value, Context cx)
+    {
+        if (obj instanceof NativeArray) {
+            int index = (int)dblIndex;
+            if (index == dblIndex &&
+                ((NativeArray)obj).putNumberElement(index, value))
+            {
+                return;
+            }
+        } else if (obj instanceof NativeTypedArrayView) {
+            NativeTypedArrayView array = (NativeTypedArrayView)obj;
+            int index = (int)dblIndex;
+            if (index == dblIndex && array.isNumberElement(index)) {
+                array.setNumberElement(index, value);
+                return;
+            }
+        }
+        setObjectIndex(obj, dblIndex, wrapNumber(value), cx);
+    }
+
+    /**
+     * Version of setObjectElem for number values whose result is not
+     * used, which replaces the number elements of arrays and typed arrays
+     * without boxing the value.
+     */
+    public static void setObjectElemNumber(Object obj, Object elem,
+                                           double value, Context cx)
+    {
+        if (elem instanceof Number && (obj instanceof NativeArray ||
+                                       obj instanceof NativeTypedArrayView))
+        {
+            setObjectIndexNumber(obj, ((Number)elem).doubleValue(), value, cx);
+            return;
+        }
+        setObjectElem(obj, elem, wrapNumber(value), cx);
+    }
+
     public static boolean deleteObjectElem(Scriptable target, Object elem,
                                            Context cx)
     {
@@ -2137,7 +2267,10 @@ public class ScriptRuntime {
     {
         Object[] ids = null;
         while (x.obj != null) {
-            ids = x.obj.getIds();
+            // ScriptableObjects may return cached ids, which are only read
+            ids = x.obj instanceof ScriptableObject
+                ? ((ScriptableObject)x.obj).getEnumIds()
+                : x.obj.getIds();
             if (ids.length != 0) {
                 break;
             }
@@ -2586,13 +2719,49 @@ public class ScriptRuntime {
     }
 
     public static CharSequence add(CharSequence val1, Object val2) {
-        return new ConsString(val1, toCharSequence(val2));
+        return new ConsString(val1, toConcatOperand(val2));
     }
 
     public static CharSequence add(Object val1, CharSequence val2) {
-        return new ConsString(toCharSequence(val1), val2);
+        return new ConsString(toConcatOperand(val1), val2);
+    }
+
+    /**
+     * Converts an operand of a chain of string additions like the addition
+     * operator does, calling getDefaultValue of objects without a hint.
+     */
+    public static CharSequence toConcatOperand(Object val) {
+        if (val instanceof CharSequence) {
+            return (CharSequence)val;
+        }
+        if (val instanceof Scriptable) {
+            val = ((Scriptable) val).getDefaultValue(null);
+        }
+        return toCharSequence(val);
     }
 
+    /**
+     * Concatenates the converted operands of a chain of string additions.
+     * Short results are copied to one String, the operands of longer ones
+     * are joined to a balanced ConsString. The array is overwritten.
+     */
+    public static CharSequence concat(CharSequence[] operands) {
+        int length = 0;
+        for (int i = 0; i != operands.length; ++i) {
+            length += operands[i].length();
+        }
+        if (length < 0 || length > MAX_COPIED_CONCAT_LENGTH) {
+            return ConsString.join(operands, operands.length);
+        }
+        StringBuilder b = new StringBuilder(length);
+        for (int i = 0; i != operands.length; ++i) {
+            b.append(operands[i]);
+        }
+        return b.toString();
+    }
+
+    private static final int MAX_COPIED_CONCAT_LENGTH = 4096;
+
     /**
      * @deprecated The method is only present for compatibility.
      */
@@ -2690,6 +2859,18 @@ public class ScriptRuntime {
 
     public static Object elemIncrDecr(Object obj, Object index,
                                       Context cx, int incrDecrMask)
+    {
+        if (index instanceof Number && (obj instanceof NativeArray ||
+                                        obj instanceof NativeTypedArrayView))
+        {
+            return elemIncrDecr(obj, ((Number)index).doubleValue(), cx,
+                                incrDecrMask);
+        }
+        return genericElemIncrDecr(obj, index, cx, incrDecrMask);
+    }
+
+    private static Object genericElemIncrDecr(Object obj, Object index,
+                                              Context cx, int incrDecrMask)
     {
         Object value = getObjectElem(obj, index, cx);
         boolean post = ((incrDecrMask & Node.POST_FLAG) != 0);
@@ -2717,6 +2898,54 @@ public class ScriptRuntime {
         }
     }
 
+    /**
+     * Version of elemIncrDecr for a number index, which replaces the
+     * number elements of arrays and typed arrays without boxing them.
+     */
+    public static Object elemIncrDecr(Object obj, double dblIndex,
+                                      Context cx, int incrDecrMask)
+    {
+        int index = (int)dblIndex;
+        if (index == dblIndex) {
+            double number;
+            if (obj instanceof NativeArray) {
+                NativeArray array = (NativeArray)obj;
+                if (!array.isNumberElement(index)) {
+                    return genericElemIncrDecr(array, wrapInt(index), cx,
+                                               incrDecrMask);
+                }
+                number = array.getNumberElement(index);
+                array.putNumberElement(index,
+                                       incrDecr(number, incrDecrMask));
+            } else if (obj instanceof NativeTypedArrayView) {
+                NativeTypedArrayView array = (NativeTypedArrayView)obj;
+                if (!array.isNumberElement(index)) {
+                    return genericElemIncrDecr(array, wrapInt(index), cx,
+                                               incrDecrMask);
+                }
+                number = array.getNumberElement(index);
+                array.setNumberElement(index,
+                                       incrDecr(number, incrDecrMask));
+            } else {
+                return genericElemIncrDecr(obj, wrapInt(index), cx,
+                                           incrDecrMask);
+            }
+            return wrapDouble((incrDecrMask & Node.POST_FLAG) != 0
+                              ? number : incrDecr(number, incrDecrMask));
+        }
+        return genericElemIncrDecr(obj, wrapDouble(dblIndex), cx,
+                                   incrDecrMask);
+    }
+
+    /**
+     * Returns the new value of a number that ++ or -- changes.
+     */
+    static double incrDecr(double number, int incrDecrMask)
+    {
+        return (incrDecrMask & Node.DECR_FLAG) == 0 ? number + 1
+                                                   : number - 1;
+    }
+
     public static Object refIncrDecr(Ref ref, Context cx, int incrDecrMask)
     {
         Object value = ref.get(cx);
@@ -3932,7 +4161,7 @@ public class ScriptRuntime {
         return value;
     }
 
-    private static void storeScriptable(Context cx, Scriptable value)
+    static void storeScriptable(Context cx, Scriptable value)
     {
         // The previously stored scratchScriptable should be consumed
         if (cx.scratchScriptable != null)
@@ -21,7 +21,11 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import org.mozilla.javascript.debug.DebuggableObject;
 import org.mozilla.javascript.annotations.JSConstructor;
@@ -109,18 +113,53 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      */
     private Scriptable parentScopeObject;
 
-    private transient Slot[] slots;
+    // The slot table is read and changed without locking: each bucket is
+    // only changed with compare-and-set of its head, and the table grows
+    // by moving the buckets one by one to a new table, see SlotTable.
+    // Removing slots synchronizes on this object to prune the
+    // definition-order list.
+    private transient volatile SlotTable slots;
     // If count >= 0, it gives number of keys or if count < 0,
     // it indicates sealed object where ~count gives number of keys
-    private int count;
+    private volatile int count;
 
-    // gateways into the definition-order linked list of slots
-    private transient Slot firstAdded;
+    // gateways into the definition-order linked list of slots. Slots are
+    // appended with compare-and-set on the orderedNext link of the last
+    // slot; lastAdded is only a hint where to start looking for it.
+    private transient volatile Slot firstAdded;
     private transient Slot lastAdded;
 
+    // In shape mode the property layout is described by a shared shape
+    // and the values are stored in shapeValues. The shape is written after
+    // shapeValues so readers that see a shape also see large enough values.
+    // Shape mode is left for good by switching to the slot table, which is
+    // always null while shape is set.
+    private transient volatile Shape shape;
+    private transient Object[] shapeValues;
+
+    // The ids of the enumerable slots returned by the last call of
+    // getCachedIds() when not in shape mode
+    private transient volatile Object[] enumIds;
 
     private volatile Map<Object,Object> associatedValues;
 
+    private static final AtomicReferenceFieldUpdater<ScriptableObject,SlotTable>
+        SLOTS_UPDATER = AtomicReferenceFieldUpdater.newUpdater(
+                ScriptableObject.class, SlotTable.class, "slots");
+    private static final AtomicIntegerFieldUpdater<ScriptableObject>
+        COUNT_UPDATER = AtomicIntegerFieldUpdater.newUpdater(
+                ScriptableObject.class, "count");
+    private static final AtomicReferenceFieldUpdater<ScriptableObject,Slot>
+        FIRST_ADDED_UPDATER = AtomicReferenceFieldUpdater.newUpdater(
+                ScriptableObject.class, Slot.class, "firstAdded");
+    @SuppressWarnings("unchecked")
+    private static final AtomicReferenceFieldUpdater<ScriptableObject,
+                                                     Map<Object,Object>>
+        ASSOCIATED_VALUES_UPDATER = AtomicReferenceFieldUpdater.newUpdater(
+                ScriptableObject.class,
+                (Class<Map<Object,Object>>) (Class<?>) Map.class,
+                "associatedValues");
+
     private static final int SLOT_QUERY = 1;
     private static final int SLOT_MODIFY = 2;
     private static final int SLOT_MODIFY_CONST = 3;
@@ -132,7 +171,17 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
 
     private boolean isExtensible = true;
 
-    private static class Slot implements Serializable
+    // FORK_TEMPLATE for objects of a template scope and FORK_COPIES once
+    // a fork made a private copy of this object. Property accesses of
+    // such objects check for the copy of the fork the current Context
+    // runs in, see TopLevel#fork(). The entry points test this flag
+    // before looking for a copy, so all other objects only read it.
+    transient byte forkState;
+
+    static final byte FORK_TEMPLATE = 1;
+    static final byte FORK_COPIES = 2;
+
+    static class Slot implements Serializable
     {
         private static final long serialVersionUID = -6090581677123995491L;
         String name; // This can change due to caching
@@ -143,6 +192,10 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
         transient Slot next; // next in hash table bucket
         transient volatile Slot orderedNext; // next in linked list
 
+        static final AtomicReferenceFieldUpdater<Slot,Slot>
+            ORDERED_NEXT_UPDATER = AtomicReferenceFieldUpdater.newUpdater(
+                    Slot.class, Slot.class, "orderedNext");
+
         Slot(String name, int indexOrHash, int attributes)
         {
             this.name = name;
@@ -180,7 +233,7 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
             return attributes;
         }
 
-        synchronized void setAttributes(int value)
+        void setAttributes(int value)
         {
             checkValidAttributes(value);
             attributes = (short)value;
@@ -192,6 +245,12 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
             name = null;
         }
 
+        // Replacing a slot does not lock, so unlike markDeleted() this
+        // keeps the fields for readers of the old slot and writeObject.
+        void markReplaced() {
+            wasDeleted = true;
+        }
+
         ScriptableObject getPropertyDescriptor(Context cx, Scriptable scope) {
             return buildDataDescriptor(scope, value, attributes);
         }
@@ -320,6 +379,40 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
         }
     }
 
+    /**
+     * The hash table of slots. Slots are prepended to their bucket with
+     * compare-and-set, and replacing or removing a slot sets the bucket to
+     * a copy of its chain without that slot, so the chains readers follow
+     * never change.
+     * <p>
+     * A full table grows by a single thread that claims
+     * {@link #nextTable} and moves the buckets there one at a time, each
+     * one by replacing its head with {@link #MOVED}. Meanwhile other
+     * threads keep using the buckets that were not moved yet and follow
+     * moved ones to the next table, so no thread waits for another.
+     */
+    private static final class SlotTable extends AtomicReferenceArray<Slot>
+    {
+        private static final long serialVersionUID = 1326290216377785271L;
+
+        /**
+         * Head of a bucket that was moved to the next table.
+         */
+        static final Slot MOVED = new Slot(null, 0, 0);
+
+        static final AtomicReferenceFieldUpdater<SlotTable,SlotTable>
+            NEXT_TABLE_UPDATER = AtomicReferenceFieldUpdater.newUpdater(
+                    SlotTable.class, SlotTable.class, "nextTable");
+
+        // The table of twice the size this one is being moved to
+        volatile SlotTable nextTable;
+
+        SlotTable(int length)
+        {
+            super(length);
+        }
+    }
+
     /**
      * A wrapper around a slot that allows the slot to be used in a new slot
      * table while keeping it functioning in its old slot table/linked list
@@ -368,6 +461,12 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
             slot.markDeleted();
         }
 
+        @Override
+        void markReplaced() {
+            super.markReplaced();
+            slot.markReplaced();
+        }
+
         private void writeObject(ObjectOutputStream out) throws IOException {
             out.writeObject(slot);  // just serialize the wrapped slot
         }
@@ -422,6 +521,16 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      */
     public boolean has(String name, Scriptable start)
     {
+        if (forkState == FORK_COPIES) {
+            ScriptableObject copy = getForkCopy();
+            if (copy != null) {
+                return copy.has(name, start);
+            }
+        }
+        Shape s = shape;
+        if (s != null) {
+            return s.indexOf(name) >= 0;
+        }
         return null != getSlot(name, 0, SLOT_QUERY);
     }
 
@@ -434,6 +543,12 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      */
     public boolean has(int index, Scriptable start)
     {
+        if (forkState == FORK_COPIES) {
+            ScriptableObject copy = getForkCopy();
+            if (copy != null) {
+                return copy.has(index, start);
+            }
+        }
         return null != getSlot(null, index, SLOT_QUERY);
     }
 
@@ -449,6 +564,17 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      */
     public Object get(String name, Scriptable start)
     {
+        if (forkState == FORK_COPIES) {
+            ScriptableObject copy = getForkCopy();
+            if (copy != null) {
+                return copy.get(name, start);
+            }
+        }
+        Shape s = shape;
+        if (s != null) {
+            int offset = s.indexOf(name);
+            return offset < 0 ? Scriptable.NOT_FOUND : shapeValues[offset];
+        }
         Slot slot = getSlot(name, 0, SLOT_QUERY);
         if (slot == null) {
             return Scriptable.NOT_FOUND;
@@ -465,6 +591,12 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      */
     public Object get(int index, Scriptable start)
     {
+        if (forkState == FORK_COPIES) {
+            ScriptableObject copy = getForkCopy();
+            if (copy != null) {
+                return copy.get(index, start);
+            }
+        }
         Slot slot = getSlot(null, index, SLOT_QUERY);
         if (slot == null) {
             return Scriptable.NOT_FOUND;
@@ -489,6 +621,13 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      */
     public void put(String name, Scriptable start, Object value)
     {
+        if (forkState != 0) {
+            ScriptableObject copy = getForkCopyForWrite(start == this);
+            if (copy != null) {
+                copy.put(name, start == this ? copy : start, value);
+                return;
+            }
+        }
         if (putImpl(name, 0, start, value))
             return;
 
@@ -505,6 +644,13 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      */
     public void put(int index, Scriptable start, Object value)
     {
+        if (forkState != 0) {
+            ScriptableObject copy = getForkCopyForWrite(start == this);
+            if (copy != null) {
+                copy.put(index, start == this ? copy : start, value);
+                return;
+            }
+        }
         if (putImpl(null, index, start, value))
             return;
 
@@ -522,6 +668,13 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      */
     public void delete(String name)
     {
+        if (forkState != 0) {
+            ScriptableObject copy = getForkCopyForWrite(true);
+            if (copy != null) {
+                copy.delete(name);
+                return;
+            }
+        }
         checkNotSealed(name, 0);
         removeSlot(name, 0);
     }
@@ -536,6 +689,13 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      */
     public void delete(int index)
     {
+        if (forkState != 0) {
+            ScriptableObject copy = getForkCopyForWrite(true);
+            if (copy != null) {
+                copy.delete(index);
+                return;
+            }
+        }
         checkNotSealed(null, index);
         removeSlot(null, index);
     }
@@ -557,6 +717,13 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      */
     public void putConst(String name, Scriptable start, Object value)
     {
+        if (forkState != 0) {
+            ScriptableObject copy = getForkCopyForWrite(start == this);
+            if (copy != null) {
+                copy.putConst(name, start == this ? copy : start, value);
+                return;
+            }
+        }
         if (putConstImpl(name, 0, start, value, READONLY))
             return;
 
@@ -569,6 +736,13 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
 
     public void defineConst(String name, Scriptable start)
     {
+        if (forkState != 0) {
+            ScriptableObject copy = getForkCopyForWrite(start == this);
+            if (copy != null) {
+                copy.defineConst(name, start == this ? copy : start);
+                return;
+            }
+        }
         if (putConstImpl(name, 0, start, Undefined.instance, UNINITIALIZED_CONST))
             return;
 
@@ -584,6 +758,19 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      */
     public boolean isConst(String name)
     {
+        if (forkState == FORK_COPIES) {
+            ScriptableObject copy = getForkCopy();
+            if (copy != null) {
+                return copy.isConst(name);
+            }
+        }
+        Shape s = shape;
+        if (s != null) {
+            int offset = s.indexOf(name);
+            return offset >= 0 &&
+                (s.getAttributes(offset) & (PERMANENT|READONLY)) ==
+                                           (PERMANENT|READONLY);
+        }
         Slot slot = getSlot(name, 0, SLOT_QUERY);
         if (slot == null) {
             return false;
@@ -647,6 +834,19 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      */
     public int getAttributes(String name)
     {
+        if (forkState == FORK_COPIES) {
+            ScriptableObject copy = getForkCopy();
+            if (copy != null) {
+                return copy.getAttributes(name);
+            }
+        }
+        Shape s = shape;
+        if (s != null) {
+            int offset = s.indexOf(name);
+            if (offset >= 0) {
+                return s.getAttributes(offset);
+            }
+        }
         return findAttributeSlot(name, 0, SLOT_QUERY).getAttributes();
     }
 
@@ -665,6 +865,12 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      */
     public int getAttributes(int index)
     {
+        if (forkState == FORK_COPIES) {
+            ScriptableObject copy = getForkCopy();
+            if (copy != null) {
+                return copy.getAttributes(index);
+            }
+        }
         return findAttributeSlot(null, index, SLOT_QUERY).getAttributes();
     }
 
@@ -691,7 +897,17 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      */
     public void setAttributes(String name, int attributes)
     {
+        if (forkState != 0) {
+            ScriptableObject copy = getForkCopyForWrite(true);
+            if (copy != null) {
+                copy.setAttributes(name, attributes);
+                return;
+            }
+        }
         checkNotSealed(name, 0);
+        if (shape != null && setShapeAttributes(name, attributes)) {
+            return;
+        }
         findAttributeSlot(name, 0, SLOT_MODIFY).setAttributes(attributes);
     }
 
@@ -709,6 +925,13 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      */
     public void setAttributes(int index, int attributes)
     {
+        if (forkState != 0) {
+            ScriptableObject copy = getForkCopyForWrite(true);
+            if (copy != null) {
+                copy.setAttributes(index, attributes);
+                return;
+            }
+        }
         checkNotSealed(null, index);
         findAttributeSlot(null, index, SLOT_MODIFY).setAttributes(attributes);
     }
@@ -719,6 +942,13 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
     public void setGetterOrSetter(String name, int index,
                                   Callable getterOrSetter, boolean isSetter)
     {
+        if (forkState != 0) {
+            ScriptableObject copy = getForkCopyForWrite(true);
+            if (copy != null) {
+                copy.setGetterOrSetter(name, index, getterOrSetter, isSetter);
+                return;
+            }
+        }
         setGetterOrSetter(name, index, getterOrSetter, isSetter, false);
     }
 
@@ -773,6 +1003,17 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
     {
         if (name != null && index != 0)
             throw new IllegalArgumentException(name);
+        if (forkState == FORK_COPIES) {
+            ScriptableObject copy = getForkCopy();
+            if (copy != null) {
+                return copy.getGetterOrSetter(name, index, isSetter);
+            }
+        }
+        Shape s = shape;
+        if (s != null && name != null) {
+            // shapes only describe data properties
+            return s.indexOf(name) < 0 ? null : Undefined.instance;
+        }
         Slot slot = unwrapSlot(getSlot(name, index, SLOT_QUERY));
         if (slot == null)
             return null;
@@ -792,6 +1033,15 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      * @return whether the property is a getter or a setter
      */
     protected boolean isGetterOrSetter(String name, int index, boolean setter) {
+        if (forkState == FORK_COPIES) {
+            ScriptableObject copy = getForkCopy();
+            if (copy != null) {
+                return copy.isGetterOrSetter(name, index, setter);
+            }
+        }
+        if (shape != null) {
+            return false;
+        }
         Slot slot = unwrapSlot(getSlot(name, index, SLOT_QUERY));
         if (slot instanceof GetterSlot) {
             if (setter && ((GetterSlot)slot).setter != null) return true;
@@ -819,6 +1069,12 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      */
     public Scriptable getPrototype()
     {
+        if (forkState == FORK_COPIES) {
+            ScriptableObject copy = getForkCopy();
+            if (copy != null) {
+                return copy.getPrototype();
+            }
+        }
         return prototypeObject;
     }
 
@@ -827,6 +1083,13 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      */
     public void setPrototype(Scriptable m)
     {
+        if (forkState != 0) {
+            ScriptableObject copy = getForkCopyForWrite(true);
+            if (copy != null) {
+                copy.setPrototype(m);
+                return;
+            }
+        }
         prototypeObject = m;
     }
 
@@ -1782,6 +2045,13 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      */
     protected void defineOwnProperty(Context cx, Object id, ScriptableObject desc,
                                      boolean checkValid) {
+        if (forkState != 0) {
+            ScriptableObject copy = getForkCopyForWrite(true);
+            if (copy != null) {
+                copy.defineOwnProperty(cx, id, desc, checkValid);
+                return;
+            }
+        }
 
         Slot slot = getSlot(cx, id, SLOT_QUERY);
         boolean isNew = slot == null;
@@ -2108,13 +2378,66 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
     }
 
     public boolean isExtensible() {
+      if (forkState == FORK_COPIES) {
+          ScriptableObject copy = getForkCopy();
+          if (copy != null) {
+              return copy.isExtensible();
+          }
+      }
       return isExtensible;
     }
 
     public void preventExtensions() {
+      if (forkState != 0) {
+          ScriptableObject copy = getForkCopyForWrite(true);
+          if (copy != null) {
+              copy.preventExtensions();
+              return;
+          }
+      }
       isExtensible = false;
     }
 
+    /**
+     * Store the properties of this object using shared shapes.
+     *
+     * In shape mode the names and attributes of named data properties are
+     * kept in an immutable layout descriptor that is shared by all objects
+     * that had the same properties added in the same order, and only the
+     * property values are stored in the object itself. This considerably
+     * reduces the footprint of many objects with the same layout.
+     * <p>
+     * The object transparently switches back to the ordinary slot table
+     * when a property is deleted, an indexed or accessor property is
+     * added, or the object grows too large. The method has no effect if
+     * the object already has properties.
+     * <p>
+     * Unlike the slot table, shape mode does not guard against concurrent
+     * modification of the same object by multiple threads, so objects
+     * shared between threads should be sealed or externally synchronized.
+     *
+     * @see Context#FEATURE_OBJECT_SHAPES
+     * @since 1.7 Release 5
+     */
+    public synchronized void useShapes() {
+        if (count == 0 && shape == null) {
+            slots = null;
+            firstAdded = lastAdded = null;
+            shape = Shape.EMPTY;
+        }
+    }
+
+    /**
+     * Returns true if this object currently stores its properties using
+     * shared shapes.
+     *
+     * @see #useShapes()
+     * @since 1.7 Release 5
+     */
+    public final boolean usesShapes() {
+        return shape != null;
+    }
+
     /**
      * Seal this object.
      *
@@ -2124,7 +2447,7 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      *
      * @since 1.4R3
      */
-    public synchronized void sealObject() {
+    public void sealObject() {
         if (count >= 0) {
             // Make sure all LazilyLoadedCtors are initialized before sealing.
             Slot slot = firstAdded;
@@ -2140,7 +2463,12 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
                 }
                 slot = slot.orderedNext;
             }
-            count = ~count;
+            for (;;) {
+                int c = count;
+                if (c < 0 || COUNT_UPDATER.compareAndSet(this, c, ~c)) {
+                    break;
+                }
+            }
         }
     }
 
@@ -2599,15 +2927,25 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      * given key or old value for any subsequent calls.
      * @see #getAssociatedValue(Object key)
      */
-    public synchronized final Object associateValue(Object key, Object value)
+    public final Object associateValue(Object key, Object value)
     {
         if (value == null) throw new IllegalArgumentException();
-        Map<Object,Object> h = associatedValues;
-        if (h == null) {
-            h = new HashMap<Object,Object>();
-            associatedValues = h;
+        for (;;) {
+            Map<Object,Object> h = associatedValues;
+            Object old = (h == null) ? null : h.get(key);
+            if (old != null) {
+                return old;
+            }
+            // Maps are copied on write so readers never see one that
+            // is being modified
+            Map<Object,Object> newMap = (h == null)
+                ? new HashMap<Object,Object>()
+                : new HashMap<Object,Object>(h);
+            newMap.put(key, value);
+            if (ASSOCIATED_VALUES_UPDATER.compareAndSet(this, h, newMap)) {
+                return value;
+            }
         }
-        return Kit.initHash(h, key, value);
     }
 
     /**
@@ -2624,6 +2962,25 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
     {
         // This method is very hot (basically called on each assignment)
         // so we inline the extensible/sealed checks below.
+        Shape s = shape;
+        if (s != null && name != null) {
+            int offset = s.indexOf(name);
+            if (this != start) {
+                // Same as Slot.setValue for a slot owned by another object
+                return offset >= 0 && (s.getAttributes(offset) & READONLY) != 0;
+            }
+            if (isExtensible && count < 0) checkNotSealed(name, index);
+            if (offset >= 0) {
+                if ((s.getAttributes(offset) & READONLY) == 0) {
+                    shapeValues[offset] = value;
+                }
+                return true;
+            }
+            if (!isExtensible || addShapeProperty(s, name, value)) {
+                return true;
+            }
+            // The object has left shape mode, continue with slots
+        }
         Slot slot;
         if (this != start) {
             slot = getSlot(name, index, SLOT_QUERY);
@@ -2710,26 +3067,25 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
      */
     private Slot getSlot(String name, int index, int accessType)
     {
-        // Check the hashtable without using synchronization
-        Slot[] slotsLocalRef = slots; // Get stable local reference
-        if (slotsLocalRef == null && accessType == SLOT_QUERY) {
+        Shape s = shape;
+        if (s != null) {
+            if (accessType == SLOT_QUERY
+                    && (name == null || s.indexOf(name) < 0)) {
+                return null;
+            }
+            // The caller needs a real slot for an existing property or
+            // wants to add a property shapes can not describe.
+            convertShapeToSlots();
+        }
+        // Check the hashtable without locking
+        SlotTable table = slots; // Get stable local reference
+        if (table == null && accessType == SLOT_QUERY) {
             return null;
         }
 
         int indexOrHash = (name != null ? name.hashCode() : index);
-        if (slotsLocalRef != null) {
-            Slot slot;
-            int slotIndex = getSlotIndex(slotsLocalRef.length, indexOrHash);
-            for (slot = slotsLocalRef[slotIndex];
-                 slot != null;
-                 slot = slot.next) {
-                Object sname = slot.name;
-                if (indexOrHash == slot.indexOrHash &&
-                        (sname == name ||
-                                (name != null && name.equals(sname)))) {
-                    break;
-                }
-            }
+        if (table != null) {
+            Slot slot = findSlot(table, name, indexOrHash);
             switch (accessType) {
                 case SLOT_QUERY:
                     return slot;
@@ -2752,23 +3108,189 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
         }
 
         // A new slot has to be inserted or the old has to be replaced
-        // by GetterSlot. Time to synchronize.
+        // by GetterSlot.
         return createSlot(name, indexOrHash, accessType);
     }
 
-    private synchronized Slot createSlot(String name, int indexOrHash, int accessType) {
-        Slot[] slotsLocalRef = slots;
-        int insertPos;
-        if (count == 0) {
-            // Always throw away old slots if any on empty insert.
-            slotsLocalRef = new Slot[INITIAL_SLOT_SIZE];
-            slots = slotsLocalRef;
-            insertPos = getSlotIndex(slotsLocalRef.length, indexOrHash);
-        } else {
-            int tableSize = slotsLocalRef.length;
-            insertPos = getSlotIndex(tableSize, indexOrHash);
-            Slot prev = slotsLocalRef[insertPos];
-            Slot slot = prev;
+    private static Slot findSlot(SlotTable table, String name,
+                                 int indexOrHash)
+    {
+        for (;;) {
+            Slot slot = table.get(getSlotIndex(table.length(), indexOrHash));
+            if (slot == SlotTable.MOVED) {
+                table = table.nextTable;
+                continue;
+            }
+            for (; slot != null; slot = slot.next) {
+                Object sname = slot.name;
+                if (indexOrHash == slot.indexOrHash &&
+                        (sname == name ||
+                                (name != null && name.equals(sname)))) {
+                    return slot;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static Slot newSlot(String name, int indexOrHash, int accessType)
+    {
+        Slot newSlot = (accessType == SLOT_MODIFY_GETTER_SETTER
+                ? new GetterSlot(name, indexOrHash, 0)
+                : new Slot(name, indexOrHash, 0));
+        if (accessType == SLOT_MODIFY_CONST)
+            newSlot.setAttributes(CONST);
+        return newSlot;
+    }
+
+    /**
+     * Returns a copy of the bucket chain starting at head with slot
+     * replaced, or removed if replacement is null. Slots before the
+     * replaced one are wrapped, the rest of the chain is shared.
+     */
+    private static Slot replaceInBucket(Slot head, Slot slot,
+                                        Slot replacement)
+    {
+        Slot chain = slot.next;
+        if (replacement != null) {
+            replacement.next = chain;
+            chain = replacement;
+        }
+        int n = 0;
+        for (Slot s = head; s != slot; s = s.next) {
+            ++n;
+        }
+        Slot[] prefix = new Slot[n];
+        n = 0;
+        for (Slot s = head; s != slot; s = s.next) {
+            prefix[n++] = s;
+        }
+        while (n != 0) {
+            chain = relinkSlot(prefix[--n], chain);
+        }
+        return chain;
+    }
+
+    /**
+     * Returns slot if it is already followed by next, or else a new
+     * wrapper of slot followed by next.
+     */
+    private static Slot relinkSlot(Slot slot, Slot next)
+    {
+        if (slot.next == next) {
+            return slot;
+        }
+        Slot relinked = new RelinkedSlot(slot);
+        relinked.next = next;
+        return relinked;
+    }
+
+    private void addToOrderedList(Slot slot)
+    {
+        Slot last = lastAdded;
+        if (last == null) {
+            if (FIRST_ADDED_UPDATER.compareAndSet(this, null, slot)) {
+                lastAdded = slot;
+                return;
+            }
+            last = firstAdded;
+        }
+        for (;;) {
+            // Removed slots keep their orderedNext link, so the end of
+            // the list can be reached from any slot that was part of it
+            Slot next = last.orderedNext;
+            if (next != null) {
+                last = next;
+            } else if (Slot.ORDERED_NEXT_UPDATER.compareAndSet(last, null,
+                                                               slot)) {
+                lastAdded = slot;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Unlinks deleted slots from the ordered list. The last slot stays
+     * in the list even if deleted, since concurrent inserts append to it.
+     * Must be called while synchronized on this.
+     */
+    private void pruneOrderedList()
+    {
+        Slot slot = firstAdded;
+        while (slot != null && slot.wasDeleted && slot.orderedNext != null) {
+            slot = slot.orderedNext;
+        }
+        if (slot == null) {
+            return;
+        }
+        firstAdded = slot;
+        Slot prev = slot;
+        Slot next = prev.orderedNext;
+        while (next != null) {
+            Slot after = next.orderedNext;
+            if (next.wasDeleted && after != null) {
+                prev.orderedNext = after;
+            } else {
+                prev = next;
+            }
+            next = after;
+        }
+    }
+
+    private void incrementCount()
+    {
+        for (;;) {
+            int c = count;
+            if (COUNT_UPDATER.compareAndSet(this, c, c < 0 ? c - 1 : c + 1)) {
+                return;
+            }
+        }
+    }
+
+    private void decrementCount()
+    {
+        for (;;) {
+            int c = count;
+            if (COUNT_UPDATER.compareAndSet(this, c, c < 0 ? c + 1 : c - 1)) {
+                return;
+            }
+        }
+    }
+
+    private Slot createSlot(String name, int indexOrHash, int accessType) {
+        for (;;) {
+            SlotTable table = slots;
+            if (table == null) {
+                SlotTable initial = new SlotTable(INITIAL_SLOT_SIZE);
+                Slot newSlot = newSlot(name, indexOrHash, accessType);
+                initial.set(getSlotIndex(INITIAL_SLOT_SIZE, indexOrHash),
+                            newSlot);
+                if (!SLOTS_UPDATER.compareAndSet(this, null, initial)) {
+                    continue;
+                }
+                addToOrderedList(newSlot);
+                incrementCount();
+                return newSlot;
+            }
+            int size = count;
+            if (size < 0) size = ~size;
+            // Check if the table is not too full before inserting.
+            if (4 * (size + 1) > 3 * table.length()
+                    && table.nextTable == null) {
+                growTable(table);
+                continue;
+            }
+            int insertPos;
+            Slot head;
+            for (;;) {
+                insertPos = getSlotIndex(table.length(), indexOrHash);
+                head = table.get(insertPos);
+                if (head != SlotTable.MOVED) {
+                    break;
+                }
+                table = table.nextTable;
+            }
+            Slot slot = head;
             while (slot != null) {
                 if (slot.indexOrHash == indexOrHash &&
                         (slot.name == name ||
@@ -2776,7 +3298,6 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
                 {
                     break;
                 }
-                prev = slot;
                 slot = slot.next;
             }
 
@@ -2803,62 +3324,94 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
                 }
 
                 newSlot.value = inner.value;
-                newSlot.next = slot.next;
-                // add new slot to linked list
-                if (lastAdded != null) {
-                    lastAdded.orderedNext = newSlot;
-                }
-                if (firstAdded == null) {
-                    firstAdded = newSlot;
-                }
-                lastAdded = newSlot;
-                // add new slot to hash table
-                if (prev == slot) {
-                    slotsLocalRef[insertPos] = newSlot;
-                } else {
-                    prev.next = newSlot;
+                // replace the slot in the hash table
+                if (!table.compareAndSet(insertPos, head,
+                        replaceInBucket(head, slot, newSlot))) {
+                    continue;
                 }
+                // add new slot to linked list
+                addToOrderedList(newSlot);
                 // other housekeeping
-                slot.markDeleted();
+                slot.markReplaced();
                 return newSlot;
-            } else {
-                // Check if the table is not too full before inserting.
-                if (4 * (count + 1) > 3 * slotsLocalRef.length) {
-                    // table size must be a power of 2, always grow by x2
-                    slotsLocalRef = new Slot[slotsLocalRef.length * 2];
-                    copyTable(slots, slotsLocalRef, count);
-                    slots = slotsLocalRef;
-                    insertPos = getSlotIndex(slotsLocalRef.length,
-                            indexOrHash);
+            }
+            Slot newSlot = newSlot(name, indexOrHash, accessType);
+            // add new slot to hash table and linked list, return it
+            newSlot.next = head;
+            if (!table.compareAndSet(insertPos, head, newSlot)) {
+                // Lost a race for the bucket, start over
+                continue;
+            }
+            addToOrderedList(newSlot);
+            incrementCount();
+            return newSlot;
+        }
+    }
+
+    /**
+     * Moves all slots of the table to a new table of twice the size,
+     * unless another thread already does. Meanwhile other threads can
+     * still look up and change the slots, see SlotTable.
+     */
+    private void growTable(SlotTable table)
+    {
+        int oldSize = table.length();
+        // table size must be a power of 2, always grow by x2
+        SlotTable newTable = new SlotTable(oldSize * 2);
+        if (!SlotTable.NEXT_TABLE_UPDATER.compareAndSet(table, null,
+                                                        newTable)) {
+            return;
+        }
+        for (int i = 0; i != oldSize; ++i) {
+            // Nobody uses the buckets i and i + oldSize of the new table
+            // before bucket i is moved, so they can be set directly
+            for (;;) {
+                Slot head = table.get(i);
+                Slot low = null, high = null;
+                for (Slot slot = head; slot != null; slot = slot.next) {
+                    if ((slot.indexOrHash & oldSize) == 0) {
+                        low = relinkSlot(slot, low);
+                    } else {
+                        high = relinkSlot(slot, high);
+                    }
+                }
+                newTable.set(i, low);
+                newTable.set(i + oldSize, high);
+                if (table.compareAndSet(i, head, SlotTable.MOVED)) {
+                    break;
                 }
             }
         }
-        Slot newSlot = (accessType == SLOT_MODIFY_GETTER_SETTER
-                ? new GetterSlot(name, indexOrHash, 0)
-                : new Slot(name, indexOrHash, 0));
-        if (accessType == SLOT_MODIFY_CONST)
-            newSlot.setAttributes(CONST);
-        ++count;
-        // add new slot to linked list
-        if (lastAdded != null)
-            lastAdded.orderedNext = newSlot;
-        if (firstAdded == null)
-            firstAdded = newSlot;
-        lastAdded = newSlot;
-        // add new slot to hash table, return it
-        addKnownAbsentSlot(slotsLocalRef, newSlot, insertPos);
-        return newSlot;
+        SLOTS_UPDATER.compareAndSet(this, table, newTable);
     }
 
     private synchronized void removeSlot(String name, int index) {
+        Shape s = shape;
+        if (s != null) {
+            int offset = name == null ? -1 : s.indexOf(name);
+            if (offset < 0 || (s.getAttributes(offset) & PERMANENT) != 0) {
+                return;
+            }
+            convertShapeToSlots();
+        }
         int indexOrHash = (name != null ? name.hashCode() : index);
 
-        Slot[] slotsLocalRef = slots;
-        if (count != 0) {
-            int tableSize = slotsLocalRef.length;
-            int slotIndex = getSlotIndex(tableSize, indexOrHash);
-            Slot prev = slotsLocalRef[slotIndex];
-            Slot slot = prev;
+        for (;;) {
+            SlotTable table = slots;
+            if (table == null || count == 0) {
+                return;
+            }
+            int slotIndex;
+            Slot head;
+            for (;;) {
+                slotIndex = getSlotIndex(table.length(), indexOrHash);
+                head = table.get(slotIndex);
+                if (head != SlotTable.MOVED) {
+                    break;
+                }
+                table = table.nextTable;
+            }
+            Slot slot = head;
             while (slot != null) {
                 if (slot.indexOrHash == indexOrHash &&
                         (slot.name == name ||
@@ -2866,85 +3419,283 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
                 {
                     break;
                 }
-                prev = slot;
                 slot = slot.next;
             }
-            if (slot != null && (slot.getAttributes() & PERMANENT) == 0) {
-                count--;
-                // remove slot from hash table
-                if (prev == slot) {
-                    slotsLocalRef[slotIndex] = slot.next;
-                } else {
-                    prev.next = slot.next;
-                }
+            if (slot == null || (slot.getAttributes() & PERMANENT) != 0) {
+                return;
+            }
+            // remove slot from hash table
+            if (!table.compareAndSet(slotIndex, head,
+                    replaceInBucket(head, slot, null))) {
+                // Changed concurrently, start over
+                continue;
+            }
+            decrementCount();
+
+            // Mark the slot as removed and remove it from the ordered
+            // list. Previously this was done lazily in getIds() but
+            // delete is an infrequent operation so O(n) should be ok
+            slot.markDeleted();
+            pruneOrderedList();
+            return;
+        }
+    }
+
+    /**
+     * Adds a new data property in shape mode. Returns false if this object
+     * had to switch to the slot table instead, in which case the caller has
+     * to add the property there.
+     */
+    private boolean addShapeProperty(Shape s, String name, Object value)
+    {
+        if (s != shape) {
+            // The shape changed since the caller looked it up, start over
+            putImpl(name, 0, this, value);
+            return true;
+        }
+        Shape newShape = s.addProperty(name, EMPTY);
+        if (newShape == null) {
+            convertShapeToSlots();
+            return false;
+        }
+        int offset = s.size();
+        Object[] values = shapeValues;
+        if (values == null || offset == values.length) {
+            Object[] newValues = new Object[offset < 4 ? 4 : offset * 2];
+            if (values != null) {
+                System.arraycopy(values, 0, newValues, 0, offset);
+            }
+            values = newValues;
+        }
+        values[offset] = value;
+        shapeValues = values;
+        ++count;
+        shape = newShape;
+        return true;
+    }
 
-                // remove from ordered list. Previously this was done lazily in
-                // getIds() but delete is an infrequent operation so O(n)
-                // should be ok
+    /**
+     * Changes property attributes in shape mode. Returns false if the
+     * property is not described by the shape.
+     */
+    private synchronized boolean setShapeAttributes(String name,
+                                                    int attributes)
+    {
+        Shape s = shape;
+        int offset = (s == null) ? -1 : s.indexOf(name);
+        if (offset < 0) {
+            return false;
+        }
+        checkValidAttributes(attributes);
+        Shape newShape = s.changeAttributes(offset, attributes);
+        if (newShape == null) {
+            convertShapeToSlots();
+            return false;
+        }
+        shape = newShape;
+        return true;
+    }
 
-                // ordered list always uses the actual slot
-                Slot deleted = unwrapSlot(slot);
-                if (deleted == firstAdded) {
-                    prev = null;
-                    firstAdded = deleted.orderedNext;
+    /**
+     * Leaves shape mode by copying all properties into a new slot table.
+     */
+    private synchronized void convertShapeToSlots()
+    {
+        Shape s = shape;
+        if (s == null) {
+            return;
+        }
+        int n = s.size();
+        if (n != 0) {
+            SlotTable newSlots = new SlotTable(slotTableSize(n));
+            Slot prev = null;
+            for (int i = 0; i != n; ++i) {
+                Slot slot = newShapeSlot(s, i);
+                if (prev == null) {
+                    firstAdded = slot;
                 } else {
-                    prev = firstAdded;
-                    while (prev.orderedNext != deleted) {
-                        prev = prev.orderedNext;
-                    }
-                    prev.orderedNext = deleted.orderedNext;
+                    prev.orderedNext = slot;
                 }
-                if (deleted == lastAdded) {
-                    lastAdded = prev;
-                }
-
-                // Mark the slot as removed.
-                slot.markDeleted();
+                addKnownAbsentSlot(newSlots, slot,
+                        getSlotIndex(newSlots.length(), slot.indexOrHash));
+                prev = slot;
             }
+            lastAdded = prev;
+            slots = newSlots;
         }
+        shapeValues = null;
+        shape = null;
     }
 
-    private static int getSlotIndex(int tableSize, int indexOrHash)
+    private Slot newShapeSlot(Shape s, int offset)
     {
-        // tableSize is a power of 2
-        return indexOrHash & (tableSize - 1);
+        String name = s.getName(offset);
+        Slot slot = new Slot(name, name.hashCode(), s.getAttributes(offset));
+        slot.value = shapeValues[offset];
+        return slot;
     }
 
-    // Must be inside synchronized (this)
-    private static void copyTable(Slot[] oldSlots, Slot[] newSlots, int count)
+    // Returns a power of 2 slot table size that does not need to grow
+    // before the next insert
+    private static int slotTableSize(int count)
     {
-        if (count == 0) throw Kit.codeBug();
+        int tableSize = INITIAL_SLOT_SIZE;
+        while (4 * (count + 1) > 3 * tableSize) {
+            tableSize <<= 1;
+        }
+        return tableSize;
+    }
 
-        int tableSize = newSlots.length;
-        int i = oldSlots.length;
-        for (;;) {
-            --i;
-            Slot slot = oldSlots[i];
-            while (slot != null) {
-                int insertPos = getSlotIndex(tableSize, slot.indexOrHash);
-                // If slot has next chain in old table use a new
-                // RelinkedSlot wrapper to keep old table valid
-                Slot insSlot = slot.next == null ? slot : new RelinkedSlot(slot);
-                addKnownAbsentSlot(newSlots, insSlot, insertPos);
-                slot = slot.next;
-                if (--count == 0)
-                    return;
+    final Shape getShape()
+    {
+        // Objects with fork copies can not be cached by shape
+        return forkState == FORK_COPIES ? null : shape;
+    }
+
+    final Object[] getShapeValues()
+    {
+        return shapeValues;
+    }
+
+    /**
+     * Returns the slot of the named property if this object uses the slot
+     * table and the property is a plain data property, or null otherwise.
+     * The slot stays valid for the property until its wasDeleted flag
+     * is set.
+     */
+    final Slot getDataSlot(String name)
+    {
+        if (shape != null || forkState == FORK_COPIES) {
+            return null;
+        }
+        Slot slot = unwrapSlot(getSlot(name, 0, SLOT_QUERY));
+        if (slot instanceof GetterSlot) {
+            return null;
+        }
+        return slot;
+    }
+
+    /**
+     * Returns true if a fork of a template scope made a private copy of
+     * this object, in which case its slots may not hold the values seen
+     * by scripts running in the fork.
+     */
+    final boolean hasForkCopies()
+    {
+        return forkState == FORK_COPIES;
+    }
+
+    /**
+     * Returns the private copy of this object of the template scope fork
+     * the current Context runs in, or null if there is none. Outside of
+     * script execution there is no top call scope, so Java code reads the
+     * template object itself. Callers test {@link #forkState} first.
+     *
+     * @see TopLevel#fork()
+     */
+    final ScriptableObject getForkCopy()
+    {
+        if (forkState != FORK_COPIES) {
+            return null;
+        }
+        Context cx = Context.getCurrentContext();
+        if (cx == null || !(cx.topCallScope instanceof TopLevel)) {
+            return null;
+        }
+        return ((TopLevel)cx.topCallScope).getForkCopy(this, false);
+    }
+
+    /**
+     * Like {@link #getForkCopy()}, but if the change is to this object
+     * itself and it is an object of the template of the current fork, the
+     * copy is created on first use.
+     */
+    final ScriptableObject getForkCopyForWrite(boolean ownChange)
+    {
+        byte state = forkState;
+        if (state == 0 || (state == FORK_TEMPLATE && !ownChange)) {
+            return null;
+        }
+        Context cx = Context.getCurrentContext();
+        if (cx == null || !(cx.topCallScope instanceof TopLevel)) {
+            return null;
+        }
+        return ((TopLevel)cx.topCallScope).getForkCopy(this, ownChange);
+    }
+
+    /**
+     * Copies the own properties, prototype and parent scope of this object
+     * into a plain object or array that stands in for it in a template
+     * scope fork.
+     */
+    final ScriptableObject createForkCopy(Context cx)
+    {
+        ScriptableObject copy = this instanceof NativeArray
+                ? new NativeArray(0) : new NativeObject();
+        copy.setParentScope(parentScopeObject);
+        copy.setPrototype(prototypeObject);
+        for (Object id : getAllIds()) {
+            ScriptableObject desc = getOwnPropertyDescriptor(cx, id);
+            if (desc == null) {
+                continue;
             }
+            if (!isDataDescriptor(desc) && !isAccessorDescriptor(desc)) {
+                // Lazily loaded constructors have neither a value nor
+                // accessors in their descriptor, copy their slot's value
+                Slot slot = getSlot(cx, id, SLOT_QUERY);
+                if (slot != null) {
+                    desc.defineProperty("value", slot.getValue(this), EMPTY);
+                    desc.defineProperty("writable",
+                            (slot.getAttributes() & READONLY) == 0, EMPTY);
+                }
+            }
+            copy.defineOwnProperty(cx, id, desc);
+        }
+        if (!isExtensible()) {
+            copy.preventExtensions();
+        }
+        return copy;
+    }
+
+    /**
+     * Marks this object as an object of a template scope, which forks
+     * copy on their first change. Called by
+     * {@link TopLevel#sealTemplate()} before the object is sealed.
+     */
+    void setForkTemplate()
+    {
+        if (forkState == 0) {
+            forkState = FORK_TEMPLATE;
         }
     }
 
+    /**
+     * Marks this object as having a private copy in some fork. Must be
+     * called after the copy is registered with the fork.
+     */
+    final void setHasForkCopies()
+    {
+        forkState = FORK_COPIES;
+    }
+
+    private static int getSlotIndex(int tableSize, int indexOrHash)
+    {
+        // tableSize is a power of 2
+        return indexOrHash & (tableSize - 1);
+    }
+
     /**
      * Add slot with keys that are known to absent from the table.
-     * This is an optimization to use when inserting into empty table,
-     * after table growth or during deserialization.
+     * This is an optimization to use when filling a table that is not
+     * published yet, when leaving shape mode or during deserialization.
      */
-    private static void addKnownAbsentSlot(Slot[] slots, Slot slot,
+    private static void addKnownAbsentSlot(SlotTable slots, Slot slot,
                                            int insertPos)
     {
-        if (slots[insertPos] == null) {
-            slots[insertPos] = slot;
+        if (slots.get(insertPos) == null) {
+            slots.set(insertPos, slot);
         } else {
-            Slot prev = slots[insertPos];
+            Slot prev = slots.get(insertPos);
             Slot next = prev.next;
             while (next != null) {
                 prev = next;
@@ -2955,7 +3706,78 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
     }
 
     Object[] getIds(boolean getAll) {
-        Slot[] s = slots;
+        if (forkState == FORK_COPIES) {
+            ScriptableObject copy = getForkCopy();
+            if (copy != null) {
+                return copy.getIds(getAll);
+            }
+        }
+        Shape shape = this.shape;
+        if (shape != null) {
+            return shape.getIds(getAll);
+        }
+        return getSlotIds(getAll);
+    }
+
+    /**
+     * Returns the ids to enumerate in for-in loops, which are the same as
+     * those returned by {@link #getIds()}. The array may be shared between
+     * calls and must not be modified by the caller.
+     */
+    Object[] getEnumIds() {
+        return getIds();
+    }
+
+    /**
+     * Returns the same ids as {@code ScriptableObject.getIds(false)}, but
+     * reuses the array of the previous call as long as the enumerable
+     * properties did not change. The array must not be modified.
+     */
+    final Object[] getCachedIds() {
+        if (forkState == FORK_COPIES) {
+            ScriptableObject copy = getForkCopy();
+            if (copy != null) {
+                return copy.getCachedIds();
+            }
+        }
+        Shape shape = this.shape;
+        if (shape != null) {
+            return shape.getEnumIds();
+        }
+        Object[] ids = enumIds;
+        if (ids == null || !hasSlotIds(ids)) {
+            ids = getSlotIds(false);
+            enumIds = ids;
+        }
+        return ids;
+    }
+
+    // Checks that the enumerable slots still have the given ids in the
+    // same order without allocating anything
+    private boolean hasSlotIds(Object[] ids) {
+        int c = 0;
+        for (Slot slot = firstAdded; slot != null; slot = slot.orderedNext) {
+            if (slot.wasDeleted || (slot.getAttributes() & DONTENUM) != 0) {
+                continue;
+            }
+            if (c == ids.length) {
+                return false;
+            }
+            Object id = ids[c++];
+            if (slot.name != null) {
+                if (!slot.name.equals(id)) {
+                    return false;
+                }
+            } else if (!(id instanceof Integer) ||
+                       ((Integer)id).intValue() != slot.indexOrHash) {
+                return false;
+            }
+        }
+        return c == ids.length;
+    }
+
+    private Object[] getSlotIds(boolean getAll) {
+        SlotTable s = slots;
         Object[] a = ScriptRuntime.emptyArgs;
         if (s == null)
             return a;
@@ -2970,8 +3792,14 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
         }
         while (slot != null) {
             if (getAll || (slot.getAttributes() & DONTENUM) == 0) {
-                if (c == 0)
-                    a = new Object[s.length];
+                if (c == 0) {
+                    a = new Object[s.length()];
+                } else if (c == a.length) {
+                    // the table may be overfull after concurrent inserts
+                    Object[] tmp = new Object[c * 2];
+                    System.arraycopy(a, 0, tmp, 0, c);
+                    a = tmp;
+                }
                 a[c++] = slot.name != null
                         ? slot.name
                         : Integer.valueOf(slot.indexOrHash);
@@ -2992,32 +3820,56 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
     private synchronized void writeObject(ObjectOutputStream out)
         throws IOException
     {
-        out.defaultWriteObject();
-        int objectsCount = count;
-        if (objectsCount < 0) {
-            // "this" was sealed
-            objectsCount = ~objectsCount;
-        }
-        if (objectsCount == 0) {
-            out.writeInt(0);
+        // Slots can be added and replaced concurrently even though this
+        // method is synchronized, so the count is written from the slots
+        // collected here instead of the field.
+        int c = count;
+        Shape s = shape;
+        Slot[] written;
+        int tableSize;
+        if (s != null) {
+            // Write the same form as for the slot table so that
+            // deserialized objects simply use slots.
+            int n = s.size();
+            written = new Slot[n];
+            for (int i = 0; i != n; ++i) {
+                written[i] = newShapeSlot(s, i);
+            }
+            tableSize = slotTableSize(n);
         } else {
-            out.writeInt(slots.length);
-            Slot slot = firstAdded;
-            while (slot != null && slot.wasDeleted) {
-                // as long as we're traversing the order-added linked list,
-                // remove deleted slots
-                slot = slot.orderedNext;
+            // A replaced slot is only marked deleted after its replacement
+            // was appended, so keep the last slot for each property. Slots
+            // are only removed while synchronized on this object.
+            Map<Object,Slot> live = new LinkedHashMap<Object,Slot>();
+            for (Slot slot = firstAdded; slot != null; slot = slot.orderedNext) {
+                if (!slot.wasDeleted) {
+                    Object key = slot.name != null
+                            ? slot.name : Integer.valueOf(slot.indexOrHash);
+                    live.remove(key);
+                    live.put(key, slot);
+                }
             }
-            firstAdded = slot;
-            while (slot != null) {
+            written = live.values().toArray(new Slot[live.size()]);
+            SlotTable table = slots;
+            tableSize = table == null ? 0 : table.length();
+            if (written.length > 0) {
+                tableSize = Math.max(tableSize, slotTableSize(written.length));
+            }
+        }
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("prototypeObject", prototypeObject);
+        fields.put("parentScopeObject", parentScopeObject);
+        // keep the sign of count, which tells if "this" was sealed
+        fields.put("count", c < 0 ? ~written.length : written.length);
+        fields.put("associatedValues", associatedValues);
+        fields.put("isExtensible", isExtensible);
+        out.writeFields();
+        if (written.length == 0) {
+            out.writeInt(0);
+        } else {
+            out.writeInt(tableSize);
+            for (Slot slot : written) {
                 out.writeObject(slot);
-                Slot next = slot.orderedNext;
-                while (next != null && next.wasDeleted) {
-                    // remove deleted slots
-                    next = next.orderedNext;
-                }
-                slot.orderedNext = next;
-                slot = next;
             }
         }
     }
@@ -3039,7 +3891,7 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
                     newSize <<= 1;
                 tableSize = newSize;
             }
-            slots = new Slot[tableSize];
+            SlotTable table = new SlotTable(tableSize);
             int objectsCount = count;
             if (objectsCount < 0) {
                 // "this" was sealed
@@ -3054,13 +3906,30 @@ public abstract class ScriptableObject implements Scriptable, Serializable,
                     prev.orderedNext = lastAdded;
                 }
                 int slotIndex = getSlotIndex(tableSize, lastAdded.indexOrHash);
-                addKnownAbsentSlot(slots, lastAdded, slotIndex);
+                addKnownAbsentSlot(table, lastAdded, slotIndex);
                 prev = lastAdded;
             }
+            slots = table;
         }
     }
 
     protected ScriptableObject getOwnPropertyDescriptor(Context cx, Object id) {
+        if (forkState == FORK_COPIES) {
+            ScriptableObject copy = getForkCopy();
+            if (copy != null) {
+                return copy.getOwnPropertyDescriptor(cx, id);
+            }
+        }
+        Shape s = shape;
+        if (s != null && id instanceof String) {
+            int offset = s.indexOf((String)id);
+            if (offset >= 0) {
+                Scriptable scope = getParentScope();
+                return buildDataDescriptor(scope == null ? this : scope,
+                                           shapeValues[offset],
+                                           s.getAttributes(offset));
+            }
+        }
         Slot slot = getSlot(cx, id, SLOT_QUERY);
         if (slot == null) return null;
         Scriptable scope = getParentScope();
@@ -0,0 +1,330 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable property layout shared by all ScriptableObjects that had
+ * the same named properties added in the same order with the same
+ * attributes. A shape maps each property name to an offset into the
+ * owning object's value array, so objects in shape mode only need to
+ * store their property values.
+ * <p>
+ * Shapes form a tree rooted at {@link #EMPTY}: adding a property to an
+ * object moves it to a child shape, which is looked up in the transition
+ * table of the current shape and created on first use. Children are only
+ * weakly reachable from their parent so shapes that are no longer used by
+ * any object can be collected.
+ * <p>
+ * Objects that grow too large or are used like hash maps with many
+ * different keys get no shape from {@link #addProperty} and have to fall
+ * back to the ordinary slot table.
+ *
+ * @see ScriptableObject#useShapes()
+ */
+final class Shape
+{
+    /**
+     * The root shape without any properties.
+     */
+    static final Shape EMPTY = new Shape();
+
+    /**
+     * Maximum number of properties an object may have in shape mode.
+     */
+    static final int MAX_PROPERTIES = 64;
+
+    /**
+     * Maximum number of distinct transitions from a single shape. Objects
+     * exceeding this are likely used as dictionaries where shapes do not
+     * pay off.
+     */
+    static final int MAX_TRANSITIONS = 32;
+
+    // Shapes up to this size are searched linearly
+    private static final int LINEAR_SEARCH_LIMIT = 8;
+
+    private final Shape parent;
+    private final String[] names;
+    private final int[] attributes;
+    private final int size;
+
+    // Lazily built open addressing table mapping name hashes to
+    // (offset + 1), only used for shapes above LINEAR_SEARCH_LIMIT
+    private volatile int[] hashIndex;
+
+    // The most recently used transition and all transitions, both read
+    // without locking. A transition is only published once, so threads
+    // adding the same property always get the same child.
+    private volatile WeakReference<Shape> lastTransition;
+    private volatile ConcurrentHashMap<Object,WeakReference<Shape>> transitions;
+
+    // The ids of the enumerable properties, built on first use
+    private volatile Object[] enumIds;
+
+    private Shape()
+    {
+        this.parent = null;
+        this.names = new String[0];
+        this.attributes = new int[0];
+        this.size = 0;
+    }
+
+    private Shape(Shape parent, String name, int attributes)
+    {
+        int n = parent.size;
+        this.parent = parent;
+        this.names = new String[n + 1];
+        this.attributes = new int[n + 1];
+        System.arraycopy(parent.names, 0, this.names, 0, n);
+        System.arraycopy(parent.attributes, 0, this.attributes, 0, n);
+        this.names[n] = name;
+        this.attributes[n] = attributes;
+        this.size = n + 1;
+    }
+
+    /**
+     * Returns the number of properties described by this shape.
+     */
+    int size()
+    {
+        return size;
+    }
+
+    Shape getParent()
+    {
+        return parent;
+    }
+
+    String getName(int offset)
+    {
+        return names[offset];
+    }
+
+    int getAttributes(int offset)
+    {
+        return attributes[offset];
+    }
+
+    /**
+     * Returns the value array offset of the named property or -1 if
+     * the shape does not contain it.
+     */
+    int indexOf(String name)
+    {
+        String[] keys = names;
+        int n = size;
+        if (n <= LINEAR_SEARCH_LIMIT) {
+            for (int i = 0; i != n; ++i) {
+                String key = keys[i];
+                if (key == name || key.equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        int[] table = hashIndex;
+        if (table == null) {
+            table = buildHashIndex();
+            hashIndex = table;
+        }
+        int mask = table.length - 1;
+        int pos = name.hashCode() & mask;
+        for (;;) {
+            int entry = table[pos];
+            if (entry == 0) {
+                return -1;
+            }
+            String key = keys[entry - 1];
+            if (key == name || key.equals(name)) {
+                return entry - 1;
+            }
+            pos = (pos + 1) & mask;
+        }
+    }
+
+    private int[] buildHashIndex()
+    {
+        // table size is a power of 2 at least twice the number of keys
+        int tableSize = Integer.highestOneBit(size * 2 - 1) << 1;
+        int[] table = new int[tableSize];
+        int mask = tableSize - 1;
+        for (int i = 0; i != size; ++i) {
+            int pos = names[i].hashCode() & mask;
+            while (table[pos] != 0) {
+                pos = (pos + 1) & mask;
+            }
+            table[pos] = i + 1;
+        }
+        return table;
+    }
+
+    /**
+     * Returns the shape resulting from adding the named property with the
+     * given attributes to this shape, or null if objects of that layout
+     * should not use shapes. The property must not be part of this shape.
+     */
+    Shape addProperty(String name, int attributes)
+    {
+        if (size >= MAX_PROPERTIES) {
+            return null;
+        }
+        // Objects created by the same constructor usually take the same
+        // transition as the previous one
+        WeakReference<Shape> last = lastTransition;
+        Shape child = last == null ? null : last.get();
+        if (child != null && child.isTransition(name, attributes)) {
+            return child;
+        }
+        ConcurrentHashMap<Object,WeakReference<Shape>> table = transitions;
+        if (table == null) {
+            synchronized (this) {
+                table = transitions;
+                if (table == null) {
+                    table = new ConcurrentHashMap<Object,WeakReference<Shape>>(4);
+                    transitions = table;
+                }
+            }
+        }
+        Object key = transitionKey(name, attributes);
+        for (;;) {
+            WeakReference<Shape> ref = table.get(key);
+            child = ref == null ? null : ref.get();
+            if (child != null) {
+                lastTransition = ref;
+                return child;
+            }
+            if (ref == null && table.size() >= MAX_TRANSITIONS) {
+                // Remove collected children before giving up
+                Iterator<WeakReference<Shape>> iter =
+                    table.values().iterator();
+                while (iter.hasNext()) {
+                    if (iter.next().get() == null) {
+                        iter.remove();
+                    }
+                }
+                if (table.size() >= MAX_TRANSITIONS) {
+                    return null;
+                }
+            }
+            child = new Shape(this, name, attributes);
+            WeakReference<Shape> newRef = new WeakReference<Shape>(child);
+            boolean published = (ref == null)
+                ? table.putIfAbsent(key, newRef) == null
+                : table.replace(key, ref, newRef);
+            if (published) {
+                lastTransition = newRef;
+                return child;
+            }
+            // Another thread added the transition first, use its child
+        }
+    }
+
+    /**
+     * Returns the shape with the same properties as this shape but with
+     * the attributes of the property at offset changed, or null if objects
+     * of that layout should not use shapes.
+     */
+    Shape changeAttributes(int offset, int newAttributes)
+    {
+        if (attributes[offset] == newAttributes) {
+            return this;
+        }
+        Shape shape = EMPTY;
+        for (int i = 0; i != size && shape != null; ++i) {
+            shape = shape.addProperty(names[i],
+                    i == offset ? newAttributes : attributes[i]);
+        }
+        return shape;
+    }
+
+    /**
+     * Returns the property names of this shape in insertion order.
+     *
+     * @param getAll if false, properties with the DONTENUM attribute
+     *        are omitted
+     */
+    Object[] getIds(boolean getAll)
+    {
+        int c = 0;
+        for (int i = 0; i != size; ++i) {
+            if (getAll || (attributes[i] & ScriptableObject.DONTENUM) == 0)
+                ++c;
+        }
+        if (c == 0) {
+            return ScriptRuntime.emptyArgs;
+        }
+        Object[] ids = new Object[c];
+        c = 0;
+        for (int i = 0; i != size; ++i) {
+            if (getAll || (attributes[i] & ScriptableObject.DONTENUM) == 0)
+                ids[c++] = names[i];
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the same ids as {@code getIds(false)}, but the array is
+     * shared by all objects of this shape and must not be modified.
+     */
+    Object[] getEnumIds()
+    {
+        Object[] ids = enumIds;
+        if (ids == null) {
+            ids = getIds(false);
+            enumIds = ids;
+        }
+        return ids;
+    }
+
+    private boolean isTransition(String name, int attrs)
+    {
+        int last = size - 1;
+        return attributes[last] == attrs && names[last].equals(name);
+    }
+
+    private static Object transitionKey(String name, int attributes)
+    {
+        // Plain data properties are keyed by their name alone so that
+        // the common case does not allocate a key.
+        if (attributes == ScriptableObject.EMPTY) {
+            return name;
+        }
+        return new AttributedName(name, attributes);
+    }
+
+    private static final class AttributedName
+    {
+        final String name;
+        final int attributes;
+
+        AttributedName(String name, int attributes)
+        {
+            this.name = name;
+            this.attributes = attributes;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof AttributedName)) {
+                return false;
+            }
+            AttributedName other = (AttributedName)obj;
+            return attributes == other.attributes && name.equals(other.name);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return name.hashCode() * 31 + attributes;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Map to associate non-negative integers to objects, which keeps the keys
+ * in ascending order. It holds the elements of sparse arrays.
+ * <p>
+ * The entries are kept in blocks of sorted keys and values, so that
+ * inserting a key only moves the entries of one block and removing all
+ * keys from some key on only drops blocks. Inserting keys in ascending or
+ * descending order fills the blocks completely.
+ * <p>
+ * Like {@link UintMap}, the map does not synchronize any of its operations.
+ */
+final class SortedUintMap implements Serializable
+{
+    static final long serialVersionUID = -3425367497287651372L;
+
+    private static final int MIN_BLOCK_CAPACITY = 8;
+    private static final int MAX_BLOCK_CAPACITY = 256;
+
+    SortedUintMap()
+    {
+    }
+
+    int size()
+    {
+        return keyCount;
+    }
+
+    boolean has(int key)
+    {
+        if (key < 0) Kit.codeBug();
+        if (blockCount == 0) {
+            return false;
+        }
+        int b = findBlock(key);
+        return search(keys[b], sizes[b], key) >= 0;
+    }
+
+    /**
+     * Returns the value of the key, or defaultValue if the key is absent.
+     */
+    Object get(int key, Object defaultValue)
+    {
+        if (key < 0) Kit.codeBug();
+        if (blockCount == 0) {
+            return defaultValue;
+        }
+        int b = findBlock(key);
+        int i = search(keys[b], sizes[b], key);
+        return i >= 0 ? values[b][i] : defaultValue;
+    }
+
+    void put(int key, Object value)
+    {
+        if (key < 0) Kit.codeBug();
+        if (blockCount == 0) {
+            insertBlock(0, MIN_BLOCK_CAPACITY);
+        }
+        int b = findBlock(key);
+        int n = sizes[b];
+        int i = search(keys[b], n, key);
+        if (i >= 0) {
+            values[b][i] = value;
+            return;
+        }
+        i = -(i + 1);
+        if (n == keys[b].length) {
+            if (n < MAX_BLOCK_CAPACITY) {
+                int capacity = Math.min(n * 2, MAX_BLOCK_CAPACITY);
+                int[] newKeys = new int[capacity];
+                Object[] newValues = new Object[capacity];
+                System.arraycopy(keys[b], 0, newKeys, 0, n);
+                System.arraycopy(values[b], 0, newValues, 0, n);
+                keys[b] = newKeys;
+                values[b] = newValues;
+            } else if (i == n && b == blockCount - 1) {
+                // a new greatest key starts a new block
+                b++;
+                insertBlock(b, MAX_BLOCK_CAPACITY);
+                i = 0;
+                n = 0;
+            } else if (i == 0 && b == 0) {
+                // as does a new least key
+                insertBlock(0, MAX_BLOCK_CAPACITY);
+                n = 0;
+            } else {
+                // split the block in halves
+                int half = n / 2;
+                insertBlock(b + 1, MAX_BLOCK_CAPACITY);
+                System.arraycopy(keys[b], half, keys[b + 1], 0, n - half);
+                System.arraycopy(values[b], half, values[b + 1], 0, n - half);
+                Arrays.fill(values[b], half, n, null);
+                sizes[b] = half;
+                sizes[b + 1] = n - half;
+                if (i > half) {
+                    b++;
+                    i -= half;
+                    n -= half;
+                } else {
+                    n = half;
+                }
+            }
+        }
+        int[] blockKeys = keys[b];
+        Object[] blockValues = values[b];
+        System.arraycopy(blockKeys, i, blockKeys, i + 1, n - i);
+        System.arraycopy(blockValues, i, blockValues, i + 1, n - i);
+        blockKeys[i] = key;
+        blockValues[i] = value;
+        sizes[b] = n + 1;
+        keyCount++;
+    }
+
+    /**
+     * Removes the key and returns true if it was present.
+     */
+    boolean remove(int key)
+    {
+        if (key < 0) Kit.codeBug();
+        if (blockCount == 0) {
+            return false;
+        }
+        int b = findBlock(key);
+        int n = sizes[b];
+        int i = search(keys[b], n, key);
+        if (i < 0) {
+            return false;
+        }
+        n--;
+        System.arraycopy(keys[b], i + 1, keys[b], i, n - i);
+        System.arraycopy(values[b], i + 1, values[b], i, n - i);
+        values[b][n] = null;
+        sizes[b] = n;
+        keyCount--;
+        if (n == 0) {
+            removeBlocks(b, b + 1);
+        }
+        return true;
+    }
+
+    /**
+     * Removes all keys that are greater than or equal to key.
+     */
+    void removeFrom(int key)
+    {
+        if (key < 0) Kit.codeBug();
+        if (blockCount == 0) {
+            return;
+        }
+        int b = findBlock(key);
+        int n = sizes[b];
+        int i = search(keys[b], n, key);
+        if (i < 0) {
+            i = -(i + 1);
+        }
+        for (int j = b + 1; j < blockCount; j++) {
+            keyCount -= sizes[j];
+        }
+        removeBlocks(b + 1, blockCount);
+        keyCount -= n - i;
+        if (i == 0) {
+            removeBlocks(b, b + 1);
+        } else {
+            Arrays.fill(values[b], i, n, null);
+            sizes[b] = i;
+        }
+    }
+
+    /**
+     * Returns all keys in ascending order.
+     */
+    int[] getKeys()
+    {
+        int[] result = new int[keyCount];
+        int cursor = 0;
+        for (int b = 0; b < blockCount; b++) {
+            System.arraycopy(keys[b], 0, result, cursor, sizes[b]);
+            cursor += sizes[b];
+        }
+        return result;
+    }
+
+    // Returns the last block whose least key is not greater than key, or
+    // the first block if there is none. There must be at least one block.
+    private int findBlock(int key)
+    {
+        // elements are mostly read in order, try the last block first
+        int b = lastBlock;
+        if (b < blockCount && keys[b][0] <= key &&
+            (b == blockCount - 1 || key < keys[b + 1][0]))
+        {
+            return b;
+        }
+        int lo = 0, hi = blockCount - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (keys[mid][0] <= key) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        lastBlock = lo;
+        return lo;
+    }
+
+    // Like Arrays.binarySearch on the first n elements.
+    private static int search(int[] a, int n, int key)
+    {
+        int lo = 0, hi = n - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int k = a[mid];
+            if (k < key) {
+                lo = mid + 1;
+            } else if (k > key) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    private void insertBlock(int b, int capacity)
+    {
+        if (blockCount == keys.length) {
+            int N = blockCount * 2;
+            int[][] newKeys = new int[N][];
+            Object[][] newValues = new Object[N][];
+            int[] newSizes = new int[N];
+            System.arraycopy(keys, 0, newKeys, 0, blockCount);
+            System.arraycopy(values, 0, newValues, 0, blockCount);
+            System.arraycopy(sizes, 0, newSizes, 0, blockCount);
+            keys = newKeys;
+            values = newValues;
+            sizes = newSizes;
+        }
+        System.arraycopy(keys, b, keys, b + 1, blockCount - b);
+        System.arraycopy(values, b, values, b + 1, blockCount - b);
+        System.arraycopy(sizes, b, sizes, b + 1, blockCount - b);
+        keys[b] = new int[capacity];
+        values[b] = new Object[capacity];
+        sizes[b] = 0;
+        blockCount++;
+    }
+
+    private void removeBlocks(int from, int to)
+    {
+        int count = to - from;
+        System.arraycopy(keys, to, keys, from, blockCount - to);
+        System.arraycopy(values, to, values, from, blockCount - to);
+        System.arraycopy(sizes, to, sizes, from, blockCount - to);
+        blockCount -= count;
+        Arrays.fill(keys, blockCount, blockCount + count, null);
+        Arrays.fill(values, blockCount, blockCount + count, null);
+    }
+
+    // keys[b] and values[b] hold the sizes[b] entries of block b in
+    // ascending key order. The keys of a block are less than those of
+    // the next one and no block is empty.
+    private int[][] keys = new int[2][];
+    private Object[][] values = new Object[2][];
+    private int[] sizes = new int[2];
+    private int blockCount;
+    private int keyCount;
+    private transient int lastBlock;
+}
@@ -0,0 +1,122 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Sorting algorithms used by Array.prototype.sort.
+ */
+final class Sorting
+{
+    private static final int INSERTION_SORT_THRESHOLD = 7;
+
+    private static final long[] POWERS_OF_TEN = new long[11];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private Sorting()
+    {
+    }
+
+    /**
+     * Sorts the first length elements of the array with a stable merge
+     * sort. Unlike {@link Arrays#sort(Object[], Comparator)} this does
+     * not throw if the comparator is inconsistent, as the comparison
+     * functions of scripts may be.
+     */
+    static void mergeSort(Object[] a, int length, Comparator<Object> c)
+    {
+        if (length < 2) {
+            return;
+        }
+        Object[] src = new Object[length];
+        System.arraycopy(a, 0, src, 0, length);
+        mergeSort(src, a, 0, length, c);
+    }
+
+    // Sorts dst from lo to hi, where src has the same elements as dst in
+    // that range and is used as the buffer for merging.
+    private static void mergeSort(Object[] src, Object[] dst, int lo, int hi,
+                                  Comparator<Object> c)
+    {
+        if (hi - lo <= INSERTION_SORT_THRESHOLD) {
+            for (int i = lo + 1; i < hi; i++) {
+                Object x = dst[i];
+                int j = i;
+                while (j > lo && c.compare(dst[j - 1], x) > 0) {
+                    dst[j] = dst[j - 1];
+                    j--;
+                }
+                dst[j] = x;
+            }
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        mergeSort(dst, src, lo, mid, c);
+        mergeSort(dst, src, mid, hi, c);
+        if (c.compare(src[mid - 1], src[mid]) <= 0) {
+            // the halves are already in order
+            System.arraycopy(src, lo, dst, lo, hi - lo);
+            return;
+        }
+        int p = lo, q = mid;
+        for (int i = lo; i < hi; i++) {
+            if (q >= hi || (p < mid && c.compare(src[p], src[q]) <= 0)) {
+                dst[i] = src[p++];
+            } else {
+                dst[i] = src[q++];
+            }
+        }
+    }
+
+    /**
+     * Sorts the elements of the array from fromIndex to toIndex in the
+     * order of their decimal string values, which is the default order of
+     * Array.prototype.sort, without converting them to strings.
+     */
+    static void sortAsStrings(int[] a, int fromIndex, int toIndex)
+    {
+        int length = toIndex - fromIndex;
+        long[] keys = new long[length];
+        for (int i = 0; i < length; i++) {
+            keys[i] = stringOrderKey(a[fromIndex + i]);
+        }
+        Arrays.sort(keys);
+        for (int i = 0; i < length; i++) {
+            a[fromIndex + i] = fromStringOrderKey(keys[i]);
+        }
+    }
+
+    // The key of a number is its absolute value padded with zeros to ten
+    // digits, followed by the number of digits in the low four bits, so
+    // that a shorter number sorts before a longer one that starts with
+    // the same digits. Negative numbers sort first, as '-' is less than
+    // the digits.
+    private static long stringOrderKey(int value)
+    {
+        long abs = Math.abs((long)value);
+        int digits = 1;
+        while (digits < 10 && abs >= POWERS_OF_TEN[digits]) {
+            digits++;
+        }
+        long key = (abs * POWERS_OF_TEN[10 - digits]) << 4 | digits;
+        return value < 0 ? key : key | (1L << 40);
+    }
+
+    private static int fromStringOrderKey(long key)
+    {
+        int digits = (int)key & 0xf;
+        long abs = ((key & ((1L << 40) - 1)) >> 4) / POWERS_OF_TEN[10 - digits];
+        return (int)((key & (1L << 40)) != 0 ? abs : -abs);
+    }
+}
@@ -8,6 +8,8 @@ package org.mozilla.javascript;
 
 import java.io.*;
 
+import org.mozilla.javascript.v8dtoa.FastStrtod;
+
 /**
  * This class implements the JavaScript scanner.
  *
@@ -484,7 +486,8 @@ class TokenStream
                 if (base == 10 && !isInteger) {
                     try {
                         // Use Java conversion to number from string...
-                        dval = Double.parseDouble(numString);
+                        dval = FastStrtod.parseDouble(numString, 0,
+                                                      numString.length());
                     }
                     catch (NumberFormatException ex) {
                         parser.addError("msg.caught.nfe");
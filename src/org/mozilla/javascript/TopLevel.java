@@ -7,6 +7,8 @@
  package org.mozilla.javascript;
 
 import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 /**
  * A top-level scope object that provides special means to cache and preserve
@@ -34,6 +36,10 @@ import java.util.EnumMap;
  * (e.g. with dynamic scopes) embeddings should explicitly call
  * {@link #cacheBuiltins()} to initialize the class cache for each top-level
  * scope.</p>
+ *
+ * <p>A fully initialized top-level scope can also serve as a template for
+ * cheaply created, isolated scopes, see {@link #sealTemplate()} and
+ * {@link #fork()}.</p>
  */
 public class TopLevel extends IdScriptableObject {
 
@@ -63,6 +69,12 @@ public class TopLevel extends IdScriptableObject {
 
     private EnumMap<Builtins, BaseFunction> ctors;
 
+    private boolean isTemplate;
+    // The template this scope was forked from, or null
+    private TopLevel template;
+    // Private copies of the template objects this fork changed
+    private Map<ScriptableObject, ScriptableObject> forkCopies;
+
     @Override
     public String getClassName() {
         return "global";
@@ -86,6 +98,163 @@ public class TopLevel extends IdScriptableObject {
         }
     }
 
+    /**
+     * Turns this scope into a template for {@link #fork()}. The standard
+     * objects and any properties defined by scripts should be set up
+     * before, as all objects that belong to this scope and can be reached
+     * from it are sealed. Lazily loaded constructors and the default
+     * prototypes of functions are created in the process, so this method
+     * must be called with a current Context.
+     * <p>
+     * After this call the template itself must not be modified anymore.
+     * Scripts should run in forks, where changes to template objects are
+     * isolated from other forks. Java packages and objects that belong to
+     * other scopes are shared as they are.
+     *
+     * @since 1.7 Release 5
+     */
+    public void sealTemplate() {
+        if (template != null) {
+            throw new IllegalStateException("Forks can not be templates");
+        }
+        Map<Object, Object> seen = new IdentityHashMap<Object, Object>();
+        ObjArray stack = new ObjArray();
+        ObjArray objects = new ObjArray();
+        addTemplateObject(this, seen, stack);
+        while (!stack.isEmpty()) {
+            ScriptableObject obj = (ScriptableObject) stack.pop();
+            objects.add(obj);
+            addTemplateObject(obj.getPrototype(), seen, stack);
+            addTemplateObject(obj.getParentScope(), seen, stack);
+            for (Object id : obj.getAllIds()) {
+                String name = id instanceof String ? (String) id : null;
+                int index = name == null ? ((Integer) id).intValue() : 0;
+                Object getter = obj.getGetterOrSetter(name, index, false);
+                Object setter = obj.getGetterOrSetter(name, index, true);
+                if (getter instanceof Scriptable
+                        || setter instanceof Scriptable) {
+                    // Do not call accessors
+                    addTemplateObject(getter, seen, stack);
+                    addTemplateObject(setter, seen, stack);
+                } else {
+                    addTemplateObject(name != null ? obj.get(name, obj)
+                                                   : obj.get(index, obj),
+                                      seen, stack);
+                }
+            }
+            if (obj instanceof BaseFunction) {
+                Object proto = ((BaseFunction) obj).getPrototypeProperty();
+                if (proto instanceof ScriptableObject
+                        && ((Scriptable) proto).getParentScope() == null) {
+                    // Default prototypes have no parent scope, they
+                    // belong to the scope of their function
+                    ((Scriptable) proto).setParentScope(this);
+                }
+                addTemplateObject(proto, seen, stack);
+            }
+        }
+        for (int i = 0; i != objects.size(); ++i) {
+            ScriptableObject obj = (ScriptableObject) objects.get(i);
+            obj.setForkTemplate();
+            obj.sealObject();
+        }
+        isTemplate = true;
+    }
+
+    private void addTemplateObject(Object value, Map<Object, Object> seen,
+                                   ObjArray stack) {
+        if (value instanceof ScriptableObject
+                && !(value instanceof NativeJavaPackage)
+                && !seen.containsKey(value)
+                && getTopLevelScope((Scriptable) value) == this) {
+            seen.put(value, value);
+            stack.push(value);
+        }
+    }
+
+    /**
+     * Returns true if {@link #sealTemplate()} was called on this scope.
+     *
+     * @since 1.7 Release 5
+     */
+    public boolean isTemplate() {
+        return isTemplate;
+    }
+
+    /**
+     * Returns the template this scope was forked from, or null.
+     *
+     * @since 1.7 Release 5
+     */
+    public TopLevel getTemplate() {
+        return template;
+    }
+
+    /**
+     * Creates a new top-level scope that shares the objects of this
+     * template. Creating a fork is much cheaper than initializing the
+     * standard objects for every scope.
+     * <p>
+     * The template is the prototype of the fork, so variables and
+     * functions defined by scripts become properties of the fork. The
+     * first time a script running in the fork changes an object of the
+     * template, such as <code>Array.prototype</code> or a global variable
+     * updated by a template function, the fork gets a private copy of the
+     * object's properties. Later property accesses to the object from
+     * scripts running in the same fork see the copy, while other forks
+     * keep seeing the template. The object itself keeps its identity.
+     * Changes are attributed to the fork that is the top-level scope of
+     * the current top call, so objects of the template must not be changed
+     * by Java code outside of script execution. Likewise Java code that
+     * reads objects of the template outside of script execution sees the
+     * values of the template, not those of a fork. To read the values a
+     * fork sees, read them in a script or function that runs in the fork,
+     * for example with <code>cx.evaluateString(fork, ...)</code>.
+     * <p>
+     * Functions of the template resolve names in the template scope unless
+     * {@link Context#FEATURE_DYNAMIC_SCOPE} is enabled.
+     *
+     * @return the new scope
+     * @throws IllegalStateException if this scope is not a template
+     * @since 1.7 Release 5
+     */
+    public TopLevel fork() {
+        if (!isTemplate) {
+            throw new IllegalStateException("Not a template");
+        }
+        TopLevel fork = new TopLevel();
+        fork.template = this;
+        fork.ctors = ctors;
+        fork.setPrototype(this);
+        return fork;
+    }
+
+    /**
+     * Returns the private copy of a template object for this fork. If
+     * create is true and obj is a sealed object of the template, the copy
+     * is created if it does not exist yet.
+     */
+    ScriptableObject getForkCopy(ScriptableObject obj, boolean create) {
+        if (template == null) {
+            return null;
+        }
+        ScriptableObject copy = null;
+        if (forkCopies != null) {
+            copy = forkCopies.get(obj);
+        }
+        if (copy == null && create && obj.isSealed()
+                && getTopLevelScope(obj) == template) {
+            copy = obj.createForkCopy(Context.getContext());
+            if (forkCopies == null) {
+                forkCopies = new IdentityHashMap<ScriptableObject,
+                                                 ScriptableObject>();
+            }
+            forkCopies.put(obj, copy);
+            obj.setHasForkCopies();
+        }
+        return copy;
+    }
+
     /**
      * Static helper method to get a built-in object constructor with the given
      * <code>type</code> from the given <code>scope</code>. If the scope is not
@@ -9,6 +9,7 @@ package org.mozilla.javascript.json;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptRuntime;
+import org.mozilla.javascript.v8dtoa.FastStrtod;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -306,8 +307,7 @@ public class JsonParser {
                 readDigits();
             }
         }
-        String num = src.substring(numberStart, pos);
-        final double dval = Double.parseDouble(num);
+        final double dval = FastStrtod.parseDouble(src, numberStart, pos);
         final int ival = (int)dval;
         if (ival == dval) {
             return Integer.valueOf(ival);
@@ -93,9 +93,14 @@ class Block
             }
         }
 
+        boolean[] constDeclarations = fn.fnode.getParamAndVarConst();
         for (int i = paramCount; i != varCount; i++) {
-            if (varTypes[i] == Optimizer.NumberType) {
+            int type = varTypes[i];
+            if (type == Optimizer.NumberType || type == Optimizer.Int32Type) {
                 fn.setIsNumberVar(i);
+                if (type == Optimizer.Int32Type && !constDeclarations[i]) {
+                    fn.setIsInt32Var(i);
+                }
             }
         }
 
@@ -454,13 +459,20 @@ class Block
         about are -
             Literals,
             Arithmetic operations - always return a Number
+            Bitwise operations except >>> - always return an int32
     */
     private static int findExpressionType(OptFunctionNode fn, Node n,
                                           int[] varTypes)
     {
         switch (n.getType()) {
-            case Token.NUMBER:
+            case Token.NUMBER: {
+                double d = n.getDouble();
+                int i = (int)d;
+                if (i == d && (i != 0 || 1 / d > 0)) {
+                    return Optimizer.Int32Type;
+                }
                 return Optimizer.NumberType;
+            }
 
             case Token.CALL:
             case Token.NEW:
@@ -481,17 +493,19 @@ class Block
             case Token.MUL:
             case Token.DIV:
             case Token.MOD:
+            case Token.URSH:
+            case Token.SUB:
+            case Token.POS:
+            case Token.NEG:
+                return Optimizer.NumberType;
+
             case Token.BITOR:
             case Token.BITXOR:
             case Token.BITAND:
             case Token.BITNOT:
             case Token.LSH:
             case Token.RSH:
-            case Token.URSH:
-            case Token.SUB:
-            case Token.POS:
-            case Token.NEG:
-                return Optimizer.NumberType;
+                return Optimizer.Int32Type;
 
             case Token.VOID:
                 // NYI: undefined type
@@ -535,7 +549,9 @@ class Block
                 Node child = n.getFirstChild();
                 int lType = findExpressionType(fn, child, varTypes);
                 int rType = findExpressionType(fn, child.getNext(), varTypes);
-                return lType | rType;    // we're not distinguishing strings yet
+                int type = lType | rType;    // we're not distinguishing strings yet
+                // the sum of two int32 values may not be one
+                return type == Optimizer.Int32Type ? Optimizer.NumberType : type;
             }
 
             case Token.HOOK: {
@@ -15,6 +15,12 @@ import org.mozilla.javascript.ast.ScriptNode;
 import org.mozilla.classfile.*;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.lang.reflect.Constructor;
 
 import static org.mozilla.classfile.ClassFileWriter.ACC_FINAL;
@@ -146,6 +152,10 @@ public class Codegen implements Evaluator
     {
         this.compilerEnv = compilerEnv;
 
+        Context cx = Context.getCurrentContext();
+        enhancedJavaAccess = cx != null
+            && cx.hasFeature(Context.FEATURE_ENHANCED_JAVA_ACCESS);
+
         transform(scriptOrFn);
 
         if (Token.printTrees) {
@@ -275,31 +285,216 @@ public class Codegen implements Evaluator
         generateNativeFunctionOverrides(cfw, encodedSource);
 
         int count = scriptOrFnNodes.length;
-        for (int i = 0; i != count; ++i) {
-            ScriptNode n = scriptOrFnNodes[i];
+        if (count >= PARALLEL_FUNCTION_COUNT) {
+            generateMethodsInParallel(cfw, sourceFile);
+        } else {
+            for (int i = 0; i != count; ++i) {
+                generateMethods(cfw, i);
+            }
+        }
 
-            BodyCodegen bodygen = new BodyCodegen();
-            bodygen.cfw = cfw;
-            bodygen.codegen = this;
-            bodygen.compilerEnv = compilerEnv;
-            bodygen.scriptOrFn = n;
-            bodygen.scriptOrFnIndex = i;
+        emitRegExpInit(cfw);
+        emitConstantDudeInitializers(cfw);
 
-            bodygen.generateBodyCode();
+        return cfw.toByteArray();
+    }
 
-            if (n.getType() == Token.FUNCTION) {
-                OptFunctionNode ofn = OptFunctionNode.get(n);
-                generateFunctionInit(cfw, ofn);
-                if (ofn.isTargetOfDirectCall()) {
-                    emitDirectConstructor(cfw, ofn);
+    private void generateMethods(ClassFileWriter cfw, int index)
+    {
+        ScriptNode n = scriptOrFnNodes[index];
+
+        BodyCodegen bodygen = new BodyCodegen();
+        bodygen.cfw = cfw;
+        bodygen.codegen = this;
+        bodygen.compilerEnv = compilerEnv;
+        bodygen.scriptOrFn = n;
+        bodygen.scriptOrFnIndex = index;
+
+        bodygen.generateBodyCode();
+
+        if (n.getType() == Token.FUNCTION) {
+            OptFunctionNode ofn = OptFunctionNode.get(n);
+            generateFunctionInit(cfw, ofn);
+            if (ofn.isTargetOfDirectCall()) {
+                emitDirectConstructor(cfw, ofn);
+            }
+        }
+    }
+
+    /**
+     * Generates the methods of every script or function with a writer of
+     * its own, in the compiler threads, and adds them to the class in the
+     * order of the serial generation. The number constants and property
+     * caches of a function are numbered apart and renumbered when its
+     * methods are added, so the class does not depend on which thread
+     * generated which methods, or when.
+     */
+    private void generateMethodsInParallel(ClassFileWriter cfw,
+                                           final String sourceFile)
+    {
+        int count = scriptOrFnNodes.length;
+
+        // Reserve the room of the static fields before generating any
+        // methods, as the code depends on whether a constant gets a field
+        reservedNumberConstants = new ObjToIntMap();
+        final int[] cacheLimits = new int[count];
+        int cacheRoom = MAX_STATIC_CONSTANTS;
+        for (int i = 0; i != count; ++i) {
+            int cacheSites = reserveStaticConstants_r(scriptOrFnNodes[i]);
+            cacheLimits[i] = Math.min(cacheSites, cacheRoom);
+            cacheRoom -= cacheLimits[i];
+        }
+
+        ExecutorService threads = getCompilerThreads();
+        List<Future<Codegen>> results = new ArrayList<Future<Codegen>>(count);
+        if (threads != null) {
+            for (int i = 0; i != count; ++i) {
+                final int index = i;
+                results.add(threads.submit(new Callable<Codegen>() {
+                    public Codegen call() {
+                        return generateMethodsApart(index, sourceFile,
+                                                    cacheLimits[index]);
+                    }
+                }));
+            }
+        }
+        try {
+            for (int i = 0; i != count; ++i) {
+                Codegen codegen = (threads != null)
+                                  ? getResult(results.get(i))
+                                  : generateMethodsApart(i, sourceFile,
+                                                         cacheLimits[i]);
+                addMethods(cfw, codegen);
+            }
+        } finally {
+            // Do not generate the rest after a failure
+            for (Future<Codegen> result : results) {
+                result.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Reserves a static field for each number of the tree that is not
+     * reserved yet, while there is room, and returns the number of
+     * property accesses that may get a cache.
+     */
+    private int reserveStaticConstants_r(Node parent)
+    {
+        int cacheSites = 0;
+        for (Node node = parent.getFirstChild();
+             node != null;
+             node = node.getNext())
+        {
+            int type = node.getType();
+            if (type == Token.NUMBER) {
+                double num = node.getDouble();
+                int reservedCount = reservedNumberConstants.size();
+                // Same numbers as in pushNumberAsObject
+                if (num != 0.0 && num != 1.0 && num != -1.0 && num == num
+                    && reservedCount < MAX_STATIC_CONSTANTS)
+                {
+                    Double key = Double.valueOf(num);
+                    if (!reservedNumberConstants.has(key)) {
+                        reservedNumberConstants.put(key, reservedCount);
+                    }
+                }
+            } else if (type == Token.STRING) {
+                switch (parent.getType()) {
+                  case Token.GETPROP:
+                  case Token.GETPROPNOWARN:
+                  case Token.SETPROP:
+                  case Token.SETPROP_OP:
+                    ++cacheSites;
+                    break;
                 }
             }
+            cacheSites += reserveStaticConstants_r(node);
         }
+        return cacheSites;
+    }
 
-        emitRegExpInit(cfw);
-        emitConstantDudeInitializers(cfw);
+    /**
+     * Returns a Codegen whose method writer holds the methods of the
+     * script or function with the index.
+     */
+    private Codegen generateMethodsApart(int index, String sourceFile,
+                                         int cacheLimit)
+    {
+        Codegen codegen = new Codegen();
+        codegen.compilerEnv = compilerEnv;
+        codegen.reservedNumberConstants = reservedNumberConstants;
+        codegen.itsPropertyCacheLimit = cacheLimit;
+        codegen.enhancedJavaAccess = enhancedJavaAccess;
+        codegen.directCallTargets = directCallTargets;
+        codegen.scriptOrFnNodes = scriptOrFnNodes;
+        codegen.scriptOrFnIndexes = scriptOrFnIndexes;
+        codegen.mainMethodClass = mainMethodClass;
+        codegen.mainClassName = mainClassName;
+        codegen.mainClassSignature = mainClassSignature;
+        codegen.methodWriter = new ClassFileWriter(mainClassName,
+                                                   SUPER_CLASS_NAME,
+                                                   sourceFile);
+        codegen.methodWriter.setWideConstantIndexes();
+        codegen.generateMethods(codegen.methodWriter, index);
+        return codegen;
+    }
 
-        return cfw.toByteArray();
+    private void addMethods(ClassFileWriter cfw, Codegen codegen)
+    {
+        Map<String,String> renamedFields = new HashMap<String,String>();
+        for (int i = 0; i != codegen.itsConstantListSize; ++i) {
+            double num = codegen.itsConstantList[i];
+            int reserved = reservedNumberConstants.getExisting(Double.valueOf(num));
+            renamedFields.put("_k" + reserved, "_k" + addNumberConstant(num));
+        }
+        for (int i = 0; i != codegen.itsPropertyCacheCount; ++i) {
+            String cacheField =
+                newPropertyCache(codegen.itsPropertyCacheNames[i]);
+            renamedFields.put("_pc" + i, cacheField);
+        }
+        cfw.addMethods(codegen.methodWriter, renamedFields);
+    }
+
+    private static Codegen getResult(Future<Codegen> result)
+    {
+        try {
+            return result.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Returns the threads generating methods in parallel, or null if there
+     * is only one processor.
+     */
+    private static synchronized ExecutorService getCompilerThreads()
+    {
+        if (compilerThreads == null) {
+            int threadCount = Runtime.getRuntime().availableProcessors();
+            if (threadCount < 2) {
+                return null;
+            }
+            compilerThreads = Executors.newFixedThreadPool(threadCount,
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "Rhino compiler");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        }
+        return compilerThreads;
     }
 
     private void emitDirectConstructor(ClassFileWriter cfw,
@@ -1000,11 +1195,26 @@ public class Codegen implements Evaluator
     private void emitConstantDudeInitializers(ClassFileWriter cfw)
     {
         int N = itsConstantListSize;
-        if (N == 0)
+        int cacheCount = itsPropertyCacheCount;
+        if (N == 0 && cacheCount == 0)
             return;
 
         cfw.startMethod("<clinit>", "()V", (short)(ACC_STATIC | ACC_FINAL));
 
+        String[] names = itsPropertyCacheNames;
+        for (int i = 0; i != cacheCount; ++i) {
+            String fieldName = "_pc" + i;
+            cfw.addField(fieldName, PROPERTY_CACHE_SIGNATURE,
+                         (short)(ACC_STATIC | ACC_PRIVATE | ACC_FINAL));
+            cfw.add(ByteCode.NEW, PROPERTY_CACHE_CLASS);
+            cfw.add(ByteCode.DUP);
+            cfw.addPush(names[i]);
+            cfw.addInvoke(ByteCode.INVOKESPECIAL, PROPERTY_CACHE_CLASS,
+                          "<init>", "(Ljava/lang/String;)V");
+            cfw.add(ByteCode.PUTSTATIC, mainClassName,
+                    fieldName, PROPERTY_CACHE_SIGNATURE);
+        }
+
         double[] array = itsConstantList;
         for (int i = 0; i != N; ++i) {
             double num = array[i];
@@ -1058,45 +1268,104 @@ public class Codegen implements Evaluator
                     "org/mozilla/javascript/ScriptRuntime",
                     "NaNobj", "Ljava/lang/Double;");
 
-        } else if (itsConstantListSize >= 2000) {
-            // There appears to be a limit in the JVM on either the number
-            // of static fields in a class or the size of the class
-            // initializer. Either way, we can't have any more than 2000
-            // statically init'd constants.
-            cfw.addPush(num);
-            addDoubleWrap(cfw);
-
         } else {
-            int N = itsConstantListSize;
-            int index = 0;
-            if (N == 0) {
-                itsConstantList = new double[64];
+            int index = getNumberConstantIndex(num);
+            if (index < 0) {
+                // There appears to be a limit in the JVM on either the number
+                // of static fields in a class or the size of the class
+                // initializer. Either way, we can't have any more than 2000
+                // statically init'd constants.
+                cfw.addPush(num);
+                addDoubleWrap(cfw);
             } else {
-                double[] array = itsConstantList;
-                while (index != N && array[index] != num) {
-                    ++index;
-                }
-                if (N == array.length) {
-                    array = new double[N * 2];
-                    System.arraycopy(itsConstantList, 0, array, 0, N);
-                    itsConstantList = array;
-                }
+                String constantName = "_k" + index;
+                String constantType = getStaticConstantWrapperType(num);
+                cfw.add(ByteCode.GETSTATIC, mainClassName,
+                        constantName, constantType);
             }
-            if (index == N) {
-                itsConstantList[N] = num;
-                itsConstantListSize = N + 1;
+        }
+    }
+
+    /**
+     * Returns the index of the static field holding the number, or -1 if
+     * the class has no room for more constants.
+     */
+    private int getNumberConstantIndex(double num)
+    {
+        if (reservedNumberConstants != null) {
+            // Methods generated apart use the reserved fields, which are
+            // renumbered when the methods are added to the class
+            int index = reservedNumberConstants.get(Double.valueOf(num), -1);
+            if (index >= 0) {
+                addNumberConstant(num);
+            }
+            return index;
+        }
+        if (itsConstantListSize >= MAX_STATIC_CONSTANTS) {
+            return -1;
+        }
+        return addNumberConstant(num);
+    }
+
+    private int indexOfNumberConstant(double num)
+    {
+        double[] array = itsConstantList;
+        for (int index = 0; index != itsConstantListSize; ++index) {
+            if (array[index] == num) {
+                return index;
             }
-            String constantName = "_k" + index;
-            String constantType = getStaticConstantWrapperType(num);
-            cfw.add(ByteCode.GETSTATIC, mainClassName,
-                    constantName, constantType);
         }
+        return -1;
+    }
+
+    private int addNumberConstant(double num)
+    {
+        int N = itsConstantListSize;
+        int index = indexOfNumberConstant(num);
+        if (index >= 0) {
+            return index;
+        }
+        if (N == 0) {
+            itsConstantList = new double[64];
+        } else if (N == itsConstantList.length) {
+            double[] array = new double[N * 2];
+            System.arraycopy(itsConstantList, 0, array, 0, N);
+            itsConstantList = array;
+        }
+        itsConstantList[N] = num;
+        itsConstantListSize = N + 1;
+        return N;
+    }
+
+    /**
+     * Allocates a new inline cache for an access to the named property and
+     * returns the name of the static field holding it, or null if the class
+     * has no room for more caches.
+     */
+    String newPropertyCache(String name)
+    {
+        // Same limit on static fields as for constants, see
+        // pushNumberAsObject
+        int N = itsPropertyCacheCount;
+        if (N >= itsPropertyCacheLimit) {
+            return null;
+        }
+        if (N == 0) {
+            itsPropertyCacheNames = new String[64];
+        } else if (N == itsPropertyCacheNames.length) {
+            String[] array = new String[N * 2];
+            System.arraycopy(itsPropertyCacheNames, 0, array, 0, N);
+            itsPropertyCacheNames = array;
+        }
+        itsPropertyCacheNames[N] = name;
+        itsPropertyCacheCount = N + 1;
+        return "_pc" + N;
     }
 
     private static void addDoubleWrap(ClassFileWriter cfw)
     {
         cfw.addInvoke(ByteCode.INVOKESTATIC,
-                      "org/mozilla/javascript/optimizer/OptRuntime",
+                      "org/mozilla/javascript/ScriptRuntime",
                       "wrapDouble", "(D)Ljava/lang/Double;");
     }
 
@@ -1211,10 +1480,19 @@ public class Codegen implements Evaluator
         = "(Lorg/mozilla/javascript/Scriptable;"
           +"Lorg/mozilla/javascript/Context;I)V";
 
+    private static final int MAX_STATIC_CONSTANTS = 2000;
+
+    // Scripts with at least this many functions and scripts have the
+    // methods of each generated in parallel
+    private static final int PARALLEL_FUNCTION_COUNT = 32;
+
     private static final Object globalLock = new Object();
     private static int globalSerialClassCounter;
 
+    private static ExecutorService compilerThreads;
+
     private CompilerEnvirons compilerEnv;
+    boolean enhancedJavaAccess;
 
     private ObjArray directCallTargets;
     ScriptNode[] scriptOrFnNodes;
@@ -1227,6 +1505,19 @@ public class Codegen implements Evaluator
 
     private double[] itsConstantList;
     private int itsConstantListSize;
+
+    static final String PROPERTY_CACHE_CLASS =
+        "org.mozilla.javascript.PropertyCache";
+    static final String PROPERTY_CACHE_SIGNATURE =
+        "Lorg/mozilla/javascript/PropertyCache;";
+
+    private String[] itsPropertyCacheNames;
+    private int itsPropertyCacheCount;
+
+    private int itsPropertyCacheLimit = MAX_STATIC_CONSTANTS;
+
+    private ObjToIntMap reservedNumberConstants;
+    private ClassFileWriter methodWriter;
 }
 
 
@@ -1549,6 +1840,10 @@ class BodyCodegen
                         cfw.add(ByteCode.AALOAD);
                         cfw.addAStore(reg);
                     }
+                } else if (fnCurrent.isInt32Var(i)) {
+                    reg = getNewWordLocal();
+                    cfw.addPush(0);
+                    cfw.addIStore(reg);
                 } else if (fnCurrent.isNumberVar(i)) {
                     reg = getNewWordPairLocal(constDeclarations[i]);
                     cfw.addPush(0.0);
@@ -1574,8 +1869,9 @@ class BodyCodegen
                 // Add debug table entry if we're generating debug info
                 if (compilerEnv.isGenerateDebugInfo()) {
                     String name = fnCurrent.fnode.getParamOrVarName(i);
-                    String type = fnCurrent.isNumberVar(i)
-                                      ? "D" : "Ljava/lang/Object;";
+                    String type = fnCurrent.isInt32Var(i) ? "I"
+                                  : fnCurrent.isNumberVar(i) ? "D"
+                                  : "Ljava/lang/Object;";
                     int startPC = cfw.getCurrentCodeOffset();
                     if (reg < 0) {
                         reg = varRegisters[i];
@@ -2008,6 +2304,13 @@ class BodyCodegen
                 else if (child.getType() == Token.YIELD) {
                     generateYieldPoint(child, false);
                 }
+                else if (child.getType() == Token.SETELEM &&
+                         isDoubleExpression(child.getLastChild()))
+                {
+                    /* special case this so that number elements are
+                    stored without boxing them */
+                    visitSetElemNumber(child, child.getFirstChild());
+                }
                 else {
                     generateExpression(child, node);
                     if (node.getIntProp(Node.ISNUMBER_PROP, -1) != -1)
@@ -2320,12 +2623,18 @@ class BodyCodegen
               }
 
               case Token.BITNOT:
-                generateExpression(child, node);
-                addScriptRuntimeInvoke("toInt32", "(Ljava/lang/Object;)I");
+                if (node.getIntProp(Node.ISNUMBER_PROP, -1) != -1) {
+                    generateInt32Expression(child, node);
+                } else {
+                    generateExpression(child, node);
+                    addScriptRuntimeInvoke("toInt32", "(Ljava/lang/Object;)I");
+                }
                 cfw.addPush(-1);         // implement ~a as (a ^ -1)
                 cfw.add(ByteCode.IXOR);
                 cfw.add(ByteCode.I2D);
-                addDoubleWrap();
+                if (node.getIntProp(Node.ISNUMBER_PROP, -1) == -1) {
+                    addDoubleWrap();
+                }
                 break;
 
               case Token.VOID:
@@ -2386,6 +2695,9 @@ class BodyCodegen
                 break;
 
               case Token.ADD: {
+                    if (!isGenerator && visitStringConcatenation(node)) {
+                        break;
+                    }
                     generateExpression(child, node);
                     generateExpression(child.getNext(), node);
                     switch (node.getIntProp(Node.ISNUMBER_PROP, -1)) {
@@ -2459,8 +2771,7 @@ class BodyCodegen
 
               case Token.TO_DOUBLE:
                 // cnvt to double (not Double)
-                generateExpression(child, node);
-                addObjectToDouble();
+                generateDoubleExpression(child, node);
                 break;
 
               case Token.TO_OBJECT: {
@@ -3263,6 +3574,20 @@ class BodyCodegen
                 Node propTarget = child.getFirstChild();
                 generateExpression(propTarget, node);
                 Node id = propTarget.getNext();
+                String cacheField = newPropertyCache(id);
+                if (cacheField != null) {
+                    cfw.addALoad(contextLocal);
+                    cfw.addALoad(variableObjectLocal);
+                    addLoadPropertyCache(cacheField);
+                    addOptRuntimeInvoke(
+                        "callProp0",
+                        "(Ljava/lang/Object;"
+                        +"Lorg/mozilla/javascript/Context;"
+                        +"Lorg/mozilla/javascript/Scriptable;"
+                        +Codegen.PROPERTY_CACHE_SIGNATURE
+                        +")Ljava/lang/Object;");
+                    return;
+                }
                 String property = id.getString();
                 cfw.addPush(property);
                 methodName = "callProp0";
@@ -3552,7 +3877,20 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
             Node target = node.getFirstChild();
             generateExpression(target, node);
             Node id = target.getNext();
-            if (type == Token.GETPROP) {
+            String cacheField = type == Token.GETPROP
+                                ? newPropertyCache(id) : null;
+            if (cacheField != null) {
+                cfw.addALoad(contextLocal);
+                cfw.addALoad(variableObjectLocal);
+                addLoadPropertyCache(cacheField);
+                addOptRuntimeInvoke(
+                    "getPropFunctionAndThis",
+                    "(Ljava/lang/Object;"
+                    +"Lorg/mozilla/javascript/Context;"
+                    +"Lorg/mozilla/javascript/Scriptable;"
+                    +Codegen.PROPERTY_CACHE_SIGNATURE
+                    +")Lorg/mozilla/javascript/Callable;");
+            } else if (type == Token.GETPROP) {
                 String property = id.getString();
                 cfw.addPush(property);
                 cfw.addALoad(contextLocal);
@@ -3654,9 +3992,7 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
             handlerLabels[JAVASCRIPT_EXCEPTION] = cfw.acquireLabel();
             handlerLabels[EVALUATOR_EXCEPTION] = cfw.acquireLabel();
             handlerLabels[ECMAERROR_EXCEPTION] = cfw.acquireLabel();
-            Context cx = Context.getCurrentContext();
-            if (cx != null &&
-                cx.hasFeature(Context.FEATURE_ENHANCED_JAVA_ACCESS)) {
+            if (codegen.enhancedJavaAccess) {
                 handlerLabels[THROWABLE_EXCEPTION] = cfw.acquireLabel();
             }
         }
@@ -3728,10 +4064,7 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
                                catchLabel, exceptionLocal,
                                handlerLabels[ECMAERROR_EXCEPTION]);
 
-            Context cx = Context.getCurrentContext();
-            if (cx != null &&
-                cx.hasFeature(Context.FEATURE_ENHANCED_JAVA_ACCESS))
-            {
+            if (codegen.enhancedJavaAccess) {
                 generateCatchBlock(THROWABLE_EXCEPTION, savedVariableObject,
                                    catchLabel, exceptionLocal,
                                    handlerLabels[THROWABLE_EXCEPTION]);
@@ -4366,7 +4699,7 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
             cfw.addALoad(contextLocal);
             cfw.addPush(incrDecrMask);
             if (elemChild.getNext().getIntProp(Node.ISNUMBER_PROP, -1) != -1) {
-              addOptRuntimeInvoke("elemIncrDecr",
+              addScriptRuntimeInvoke("elemIncrDecr",
                   "(Ljava/lang/Object;"
                   +"D"
                   +"Lorg/mozilla/javascript/Context;"
@@ -4408,6 +4741,136 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
                               || (type == Token.MUL);
     }
 
+    /**
+     * Returns true if node is known to evaluate to a number that
+     * generateDoubleExpression() can leave as a double without boxing it.
+     */
+    private static boolean isDoubleExpression(Node node)
+    {
+        int type = node.getType();
+        if (type == Token.TO_OBJECT) {
+            Node child = node.getFirstChild();
+            return child.getType() != Token.NUMBER
+                || child.getIntProp(Node.ISNUMBER_PROP, -1) != -1;
+        }
+        return type == Token.NUMBER || isArithmeticNode(node);
+    }
+
+    /**
+     * Generates node so that it leaves a double on the stack. Number
+     * elements of arrays are read without boxing them.
+     */
+    private void generateDoubleExpression(Node node, Node parent)
+    {
+        int type = node.getType();
+        if (type == Token.GETELEM) {
+            Node child = node.getFirstChild();
+            generateExpression(child, node); // object
+            generateExpression(child.getNext(), node);  // id
+            cfw.addALoad(contextLocal);
+            if (node.getIntProp(Node.ISNUMBER_PROP, -1) != -1) {
+                addScriptRuntimeInvoke(
+                    "getObjectIndexNumber",
+                    "(Ljava/lang/Object;D"
+                    +"Lorg/mozilla/javascript/Context;"
+                    +")D");
+            } else {
+                cfw.addALoad(variableObjectLocal);
+                addScriptRuntimeInvoke(
+                    "getObjectElemNumber",
+                    "(Ljava/lang/Object;"
+                    +"Ljava/lang/Object;"
+                    +"Lorg/mozilla/javascript/Context;"
+                    +"Lorg/mozilla/javascript/Scriptable;"
+                    +")D");
+            }
+        } else if (type == Token.NUMBER) {
+            cfw.addPush(node.getDouble());
+        } else if (type == Token.TO_OBJECT && isDoubleExpression(node)) {
+            generateExpression(node.getFirstChild(), node);
+        } else if (isArithmeticNode(node)) {
+            // arithmetic nodes leave a double for an arithmetic parent
+            generateExpression(node, node);
+        } else {
+            generateExpression(node, parent);
+            addObjectToDouble();
+        }
+    }
+
+    /**
+     * Generates a chain of additions like a + b + 'c' + d + e, whose results
+     * are strings from the first string literal on, as one concatenation of
+     * a + b, 'c', d and e. Each operand is converted to a string when it has
+     * been evaluated, as the additions would do. Returns false without
+     * generating code if the chain has fewer than three such operands.
+     * Generators keep the additions, as the array of operands could not
+     * be kept on the stack across a yield.
+     */
+    private boolean visitStringConcatenation(Node node)
+    {
+        // additions.get(i) adds the operands 0 to count - 1 - i, and its
+        // second child is operand count - 1 - i
+        ObjArray additions = new ObjArray();
+        for (Node n = node; n.getType() == Token.ADD; n = n.getFirstChild()) {
+            additions.add(n);
+        }
+        int count = additions.size() + 1;
+        Node innermost = (Node)additions.get(count - 2);
+        int first = innermost.getFirstChild().getType() == Token.STRING
+                    ? 0 : -1;
+        for (int i = 1; first < 0 && i != count; ++i) {
+            Node addition = (Node)additions.get(count - 1 - i);
+            if (addition.getLastChild().getType() == Token.STRING) {
+                first = i;
+            }
+        }
+        // the operands before the one preceding the first string literal
+        // are added as a number or a string by the first operand
+        int start = first > 1 ? first - 1 : 0;
+        if (first < 0 || count - start < 3) {
+            return false;
+        }
+        cfw.addPush(count - start);
+        cfw.add(ByteCode.ANEWARRAY, "java/lang/CharSequence");
+        for (int i = start; i != count; ++i) {
+            Node parent, operand;
+            boolean isNumber;
+            int numberFlag;
+            if (i == 0) {
+                parent = innermost;
+                operand = parent.getFirstChild();
+                numberFlag = parent.getIntProp(Node.ISNUMBER_PROP, -1);
+                isNumber = numberFlag == Node.LEFT || numberFlag == Node.BOTH;
+            } else if (i == start) {
+                // the addition of the operands 0 to start
+                parent = (Node)additions.get(count - 2 - start);
+                operand = parent.getFirstChild();
+                numberFlag = parent.getIntProp(Node.ISNUMBER_PROP, -1);
+                isNumber = numberFlag == Node.LEFT || numberFlag == Node.BOTH;
+            } else {
+                parent = (Node)additions.get(count - 1 - i);
+                operand = parent.getLastChild();
+                numberFlag = parent.getIntProp(Node.ISNUMBER_PROP, -1);
+                isNumber = numberFlag == Node.RIGHT || numberFlag == Node.BOTH;
+            }
+            cfw.add(ByteCode.DUP);
+            cfw.addPush(i - start);
+            generateExpression(operand, parent);
+            if (isNumber) {
+                addScriptRuntimeInvoke("toString", "(D)Ljava/lang/String;");
+            } else if (operand.getType() != Token.STRING) {
+                addScriptRuntimeInvoke("toConcatOperand",
+                                       "(Ljava/lang/Object;"
+                                       +")Ljava/lang/CharSequence;");
+            }
+            cfw.add(ByteCode.AASTORE);
+        }
+        addScriptRuntimeInvoke("concat",
+                               "([Ljava/lang/CharSequence;"
+                               +")Ljava/lang/CharSequence;");
+        return true;
+    }
+
     private void visitArithmetic(Node node, int opCode, Node child,
                                  Node parent)
     {
@@ -4419,12 +4882,8 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
         }
         else {
             boolean childOfArithmetic = isArithmeticNode(parent);
-            generateExpression(child, node);
-            if (!isArithmeticNode(child))
-                addObjectToDouble();
-            generateExpression(child.getNext(), node);
-            if (!isArithmeticNode(child.getNext()))
-                  addObjectToDouble();
+            generateDoubleExpression(child, node);
+            generateDoubleExpression(child.getNext(), node);
             cfw.add(opCode);
             if (!childOfArithmetic) {
                 addDoubleWrap();
@@ -4435,12 +4894,12 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
     private void visitBitOp(Node node, int type, Node child)
     {
         int childNumberFlag = node.getIntProp(Node.ISNUMBER_PROP, -1);
-        generateExpression(child, node);
 
         // special-case URSH; work with the target arg as a long, so
         // that we can return a 32-bit unsigned value, and call
         // toUint32 instead of toInt32.
         if (type == Token.URSH) {
+            generateExpression(child, node);
             addScriptRuntimeInvoke("toUint32", "(Ljava/lang/Object;)J");
             generateExpression(child.getNext(), node);
             addScriptRuntimeInvoke("toInt32", "(Ljava/lang/Object;)I");
@@ -4453,15 +4912,28 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
             addDoubleWrap();
             return;
         }
+        generateIntBitOp(node, type, child);
+        cfw.add(ByteCode.I2D);
         if (childNumberFlag == -1) {
+            addDoubleWrap();
+        }
+    }
+
+    /**
+     * Generates a bitwise operation other than URSH so that it leaves
+     * its int result on the stack.
+     */
+    private void generateIntBitOp(Node node, int type, Node child)
+    {
+        if (node.getIntProp(Node.ISNUMBER_PROP, -1) == -1) {
+            generateExpression(child, node);
             addScriptRuntimeInvoke("toInt32", "(Ljava/lang/Object;)I");
             generateExpression(child.getNext(), node);
             addScriptRuntimeInvoke("toInt32", "(Ljava/lang/Object;)I");
         }
         else {
-            addScriptRuntimeInvoke("toInt32", "(D)I");
-            generateExpression(child.getNext(), node);
-            addScriptRuntimeInvoke("toInt32", "(D)I");
+            generateInt32Expression(child, node);
+            generateInt32Expression(child.getNext(), node);
         }
         switch (type) {
           case Token.BITOR:
@@ -4482,10 +4954,105 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
           default:
             throw Codegen.badTree();
         }
-        cfw.add(ByteCode.I2D);
-        if (childNumberFlag == -1) {
-            addDoubleWrap();
+    }
+
+    /**
+     * Returns true if node, which leaves a double in a number context,
+     * always evaluates to an int32 value.
+     */
+    private boolean isInt32Expression(Node node)
+    {
+        switch (node.getType()) {
+          case Token.NUMBER: {
+            double d = node.getDouble();
+            return d == (int)d && (d != 0 || 1 / d > 0);
+          }
+          case Token.GETVAR:
+            return hasVarsInRegs
+                && fnCurrent.isInt32Var(fnCurrent.getVarIndex(node));
+          case Token.BITOR:
+          case Token.BITXOR:
+          case Token.BITAND:
+          case Token.BITNOT:
+          case Token.RSH:
+          case Token.LSH:
+            return node.getIntProp(Node.ISNUMBER_PROP, -1) != -1;
         }
+        return false;
+    }
+
+    /**
+     * Returns true if node is a sum or difference of int32 values, or of
+     * other such sums nested at most depth times. The sum is then exact
+     * as a double, so ToInt32 of it is the wrapped int sum.
+     */
+    private boolean isInt32Sum(Node node, int depth)
+    {
+        int type = node.getType();
+        if ((type != Token.ADD && type != Token.SUB)
+            || node.getIntProp(Node.ISNUMBER_PROP, -1) != Node.BOTH
+            || depth == 0)
+        {
+            return false;
+        }
+        Node child = node.getFirstChild();
+        Node rChild = child.getNext();
+        return (isInt32Expression(child) || isInt32Sum(child, depth - 1))
+            && (isInt32Expression(rChild) || isInt32Sum(rChild, depth - 1));
+    }
+
+    /**
+     * Generates node, which leaves a double in a number context, so that
+     * it leaves ToInt32 of its value as an int instead. Int32 variables,
+     * bitwise operations and sums of those do not go through doubles.
+     */
+    private void generateInt32Expression(Node node, Node parent)
+    {
+        int type = node.getType();
+        switch (type) {
+          case Token.NUMBER:
+            cfw.addPush(ScriptRuntime.toInt32(node.getDouble()));
+            return;
+          case Token.GETVAR:
+            if (hasVarsInRegs) {
+                int varIndex = fnCurrent.getVarIndex(node);
+                if (fnCurrent.isInt32Var(varIndex)) {
+                    cfw.addILoad(varRegisters[varIndex]);
+                    return;
+                }
+            }
+            break;
+          case Token.BITOR:
+          case Token.BITXOR:
+          case Token.BITAND:
+          case Token.RSH:
+          case Token.LSH:
+            if (node.getIntProp(Node.ISNUMBER_PROP, -1) != -1) {
+                generateIntBitOp(node, type, node.getFirstChild());
+                return;
+            }
+            break;
+          case Token.BITNOT:
+            if (node.getIntProp(Node.ISNUMBER_PROP, -1) != -1) {
+                generateInt32Expression(node.getFirstChild(), node);
+                cfw.addPush(-1);
+                cfw.add(ByteCode.IXOR);
+                return;
+            }
+            break;
+          case Token.ADD:
+          case Token.SUB:
+            if (isInt32Sum(node, MAX_INT32_SUM_DEPTH)) {
+                Node child = node.getFirstChild();
+                generateInt32Expression(child, node);
+                generateInt32Expression(child.getNext(), node);
+                cfw.add(type == Token.ADD ? ByteCode.IADD : ByteCode.ISUB);
+                return;
+            }
+            break;
+        }
+        generateExpression(node, parent);
+        addScriptRuntimeInvoke("toInt32", "(D)I");
     }
 
     private int nodeIsDirectCallParameter(Node node)
@@ -4535,6 +5102,30 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
             cfw.add(ByteCode.GOTO, falseGOTO);
     }
 
+    private void genSimpleIntCompare(int type, int trueGOTO, int falseGOTO)
+    {
+        if (trueGOTO == -1) throw Codegen.badTree();
+        switch (type) {
+            case Token.LE :
+                cfw.add(ByteCode.IF_ICMPLE, trueGOTO);
+                break;
+            case Token.GE :
+                cfw.add(ByteCode.IF_ICMPGE, trueGOTO);
+                break;
+            case Token.LT :
+                cfw.add(ByteCode.IF_ICMPLT, trueGOTO);
+                break;
+            case Token.GT :
+                cfw.add(ByteCode.IF_ICMPGT, trueGOTO);
+                break;
+            default :
+                throw Codegen.badTree();
+
+        }
+        if (falseGOTO != -1)
+            cfw.add(ByteCode.GOTO, falseGOTO);
+    }
+
     private void visitIfJumpRelOp(Node node, Node child,
                                   int trueGOTO, int falseGOTO)
     {
@@ -4562,6 +5153,15 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
             // Force numeric context on both parameters and optimize
             // direct call case as Optimizer currently does not handle it
 
+            if (childNumberFlag == Node.BOTH
+                && isInt32Expression(child) && isInt32Expression(rChild))
+            {
+                generateInt32Expression(child, node);
+                generateInt32Expression(rChild, node);
+                genSimpleIntCompare(type, trueGOTO, falseGOTO);
+                return;
+            }
+
             if (childNumberFlag != Node.RIGHT) {
                 // Left already has number content
                 generateExpression(child, node);
@@ -4813,6 +5413,9 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
             } else {
                 dcpLoadAsObject(reg);
             }
+        } else if (fnCurrent.isInt32Var(varIndex)) {
+            cfw.addILoad(reg);
+            cfw.add(ByteCode.I2D);
         } else if (fnCurrent.isNumberVar(varIndex)) {
             cfw.addDLoad(reg);
         } else {
@@ -4824,6 +5427,14 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
     {
         if (!hasVarsInRegs) Kit.codeBug();
         int varIndex = fnCurrent.getVarIndex(node);
+        if (fnCurrent.isInt32Var(varIndex)) {
+            // int32 variables are neither constants nor parameters
+            generateInt32Expression(child.getNext(), node);
+            if (needValue) cfw.add(ByteCode.DUP);
+            cfw.addIStore(varRegisters[varIndex]);
+            if (needValue) cfw.add(ByteCode.I2D);
+            return;
+        }
         generateExpression(child.getNext(), node);
         boolean isNumber = (node.getIntProp(Node.ISNUMBER_PROP, -1) != -1);
         short reg = varRegisters[varIndex];
@@ -4928,6 +5539,30 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
     {
         generateExpression(child, node); // object
         Node nameChild = child.getNext();
+        String cacheField = newPropertyCache(nameChild);
+        if (cacheField != null) {
+            cfw.addALoad(contextLocal);
+            if (node.getType() == Token.GETPROPNOWARN) {
+                addLoadPropertyCache(cacheField);
+                addOptRuntimeInvoke(
+                    "getObjectPropNoWarn",
+                    "(Ljava/lang/Object;"
+                    +"Lorg/mozilla/javascript/Context;"
+                    +Codegen.PROPERTY_CACHE_SIGNATURE
+                    +")Ljava/lang/Object;");
+            } else {
+                cfw.addALoad(variableObjectLocal);
+                addLoadPropertyCache(cacheField);
+                addOptRuntimeInvoke(
+                    "getObjectProp",
+                    "(Ljava/lang/Object;"
+                    +"Lorg/mozilla/javascript/Context;"
+                    +"Lorg/mozilla/javascript/Scriptable;"
+                    +Codegen.PROPERTY_CACHE_SIGNATURE
+                    +")Ljava/lang/Object;");
+            }
+            return;
+        }
         generateExpression(nameChild, node);  // the name
         if (node.getType() == Token.GETPROPNOWARN) {
             cfw.addALoad(contextLocal);
@@ -4973,6 +5608,32 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
         if (type == Token.SETPROP_OP) {
             cfw.add(ByteCode.DUP);
         }
+        String cacheField = newPropertyCache(child);
+        if (cacheField != null) {
+            child = child.getNext();
+            if (type == Token.SETPROP_OP) {
+                // stack: ... object object -> ... object value
+                cfw.addALoad(contextLocal);
+                addLoadPropertyCache(cacheField);
+                addOptRuntimeInvoke(
+                    "getObjectProp",
+                    "(Ljava/lang/Object;"
+                    +"Lorg/mozilla/javascript/Context;"
+                    +Codegen.PROPERTY_CACHE_SIGNATURE
+                    +")Ljava/lang/Object;");
+            }
+            generateExpression(child, node);
+            cfw.addALoad(contextLocal);
+            addLoadPropertyCache(cacheField);
+            addOptRuntimeInvoke(
+                "setObjectProp",
+                "(Ljava/lang/Object;"
+                +"Ljava/lang/Object;"
+                +"Lorg/mozilla/javascript/Context;"
+                +Codegen.PROPERTY_CACHE_SIGNATURE
+                +")Ljava/lang/Object;");
+            return;
+        }
         Node nameChild = child;
         generateExpression(child, node);
         child = child.getNext();
@@ -5067,6 +5728,37 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
         }
     }
 
+    /**
+     * Stores a number element whose value is not used, see
+     * isDoubleExpression().
+     */
+    private void visitSetElemNumber(Node node, Node child)
+    {
+        generateExpression(child, node);
+        child = child.getNext();
+        generateExpression(child, node);
+        child = child.getNext();
+        generateDoubleExpression(child, node);
+        cfw.addALoad(contextLocal);
+        if (node.getIntProp(Node.ISNUMBER_PROP, -1) != -1) {
+            addScriptRuntimeInvoke(
+                "setObjectIndexNumber",
+                "(Ljava/lang/Object;"
+                +"D"
+                +"D"
+                +"Lorg/mozilla/javascript/Context;"
+                +")V");
+        } else {
+            addScriptRuntimeInvoke(
+                "setObjectElemNumber",
+                "(Ljava/lang/Object;"
+                +"Ljava/lang/Object;"
+                +"D"
+                +"Lorg/mozilla/javascript/Context;"
+                +")V");
+        }
+    }
+
     private void visitDotQuery(Node node, Node child)
     {
         updateLineNumber(node);
@@ -5184,6 +5876,27 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
                       methodSignature);
     }
 
+    /**
+     * Returns the field of a new inline cache for the named property, or
+     * null if caches are not generated, the property name is not a
+     * constant or no more caches can be allocated.
+     */
+    private String newPropertyCache(Node nameChild)
+    {
+        if (!compilerEnv.isGeneratePropertyCaches()
+            || nameChild.getType() != Token.STRING)
+        {
+            return null;
+        }
+        return codegen.newPropertyCache(nameChild.getString());
+    }
+
+    private void addLoadPropertyCache(String cacheField)
+    {
+        cfw.add(ByteCode.GETSTATIC, codegen.mainClassName, cacheField,
+                Codegen.PROPERTY_CACHE_SIGNATURE);
+    }
+
     private void addOptRuntimeInvoke(String methodName,
                                      String methodSignature)
     {
@@ -5209,7 +5922,7 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
 
     private void addDoubleWrap()
     {
-        addOptRuntimeInvoke("wrapDouble", "(D)Ljava/lang/Double;");
+        addScriptRuntimeInvoke("wrapDouble", "(D)Ljava/lang/Double;");
     }
 
     /**
@@ -5337,6 +6050,9 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
     private OptFunctionNode fnCurrent;
 
     private static final int MAX_LOCALS = 1024;
+
+    // Sums of up to 2^16 int32 values are exact as doubles
+    private static final int MAX_INT32_SUM_DEPTH = 16;
     private int[] locals;
     private short firstFreeLocal;
     private short localsMax;
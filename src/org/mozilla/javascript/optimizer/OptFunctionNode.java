@@ -87,6 +87,31 @@ public final class OptFunctionNode
         numberVarFlags[varIndex] = true;
     }
 
+    /**
+     * Returns true if the variable is a number variable that only ever
+     * holds int32 values, which Codegen keeps in an int local.
+     */
+    public boolean isInt32Var(int varIndex)
+    {
+        varIndex -= fnode.getParamCount();
+        if (varIndex >= 0 && int32VarFlags != null) {
+            return int32VarFlags[varIndex];
+        }
+        return false;
+    }
+
+    void setIsInt32Var(int varIndex)
+    {
+        varIndex -= fnode.getParamCount();
+        // Can only be used with non-parameters
+        if (varIndex < 0) Kit.codeBug();
+        if (int32VarFlags == null) {
+            int size = fnode.getParamAndVarCount() - fnode.getParamCount();
+            int32VarFlags = new boolean[size];
+        }
+        int32VarFlags[varIndex] = true;
+    }
+
     public int getVarIndex(Node n)
     {
         int index = n.getIntProp(Node.VARIABLE_PROP, -1);
@@ -111,6 +136,7 @@ public final class OptFunctionNode
     public final FunctionNode fnode;
 
     private boolean[] numberVarFlags;
+    private boolean[] int32VarFlags;
     private int directTargetIndex = -1;
     private boolean itsParameterNumberContext;
     boolean itsContainsCalls0;
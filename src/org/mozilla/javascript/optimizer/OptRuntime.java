@@ -10,9 +10,9 @@ import org.mozilla.javascript.*;
 public final class OptRuntime extends ScriptRuntime
 {
 
-    public static final Double zeroObj = new Double(0.0);
-    public static final Double oneObj = new Double(1.0);
-    public static final Double minusOneObj = new Double(-1.0);
+    public static final Double zeroObj = wrapDouble(0.0);
+    public static final Double oneObj = wrapDouble(1.0);
+    public static final Double minusOneObj = wrapDouble(-1.0);
 
     /**
      * Implement ....() call shrinking optimizer code.
@@ -85,6 +85,48 @@ public final class OptRuntime extends ScriptRuntime
         return f.call(cx, scope, thisObj, ScriptRuntime.emptyArgs);
     }
 
+    /**
+     * Implement x.property() call using the inline cache of the call site.
+     */
+    public static Object callProp0(Object value, Context cx,
+                                   Scriptable scope, PropertyCache cache)
+    {
+        Callable f = cache.getPropFunctionAndThis(value, cx, scope);
+        Scriptable thisObj = lastStoredScriptable(cx);
+        return f.call(cx, scope, thisObj, ScriptRuntime.emptyArgs);
+    }
+
+    public static Callable getPropFunctionAndThis(Object obj, Context cx,
+                                                  Scriptable scope,
+                                                  PropertyCache cache)
+    {
+        return cache.getPropFunctionAndThis(obj, cx, scope);
+    }
+
+    public static Object getObjectProp(Object obj, Context cx,
+                                       Scriptable scope, PropertyCache cache)
+    {
+        return cache.getObjectProp(obj, cx, scope);
+    }
+
+    public static Object getObjectProp(Object obj, Context cx,
+                                       PropertyCache cache)
+    {
+        return cache.getObjectProp(obj, cx, null);
+    }
+
+    public static Object getObjectPropNoWarn(Object obj, Context cx,
+                                             PropertyCache cache)
+    {
+        return cache.getObjectPropNoWarn(obj, cx);
+    }
+
+    public static Object setObjectProp(Object obj, Object value, Context cx,
+                                       PropertyCache cache)
+    {
+        return cache.setObjectProp(obj, value, cx);
+    }
+
     public static Object add(Object val1, double val2)
     {
         if (val1 instanceof Scriptable)
@@ -103,13 +145,6 @@ public final class OptRuntime extends ScriptRuntime
         return new ConsString(toString(val1), (CharSequence)val2);
     }
 
-    public static Object elemIncrDecr(Object obj, double index,
-                                      Context cx, int incrDecrMask)
-    {
-        return ScriptRuntime.elemIncrDecr(obj, new Double(index), cx,
-                                          incrDecrMask);
-    }
-
     public static Object[] padStart(Object[] currentArgs, int count) {
         Object[] result = new Object[currentArgs.length + count];
         System.arraycopy(currentArgs, 0, result, count, currentArgs.length);
@@ -140,23 +175,6 @@ public final class OptRuntime extends ScriptRuntime
         return ScriptRuntime.newSpecial(cx, fun, args, scope, callType);
     }
 
-    public static Double wrapDouble(double num)
-    {
-        if (num == 0.0) {
-            if (1 / num > 0) {
-                // +0.0
-                return zeroObj;
-            }
-        } else if (num == 1.0) {
-            return oneObj;
-        } else if (num == -1.0) {
-            return minusOneObj;
-        } else if (num != num) {
-            return NaNobj;
-        }
-        return new Double(num);
-    }
-
     static String encodeIntArray(int[] array)
     {
         // XXX: this extremely inefficient for small integers
@@ -13,10 +13,12 @@ class Optimizer
 {
 
     static final int NoType = 0;
-    static final int NumberType = 1;
-    static final int AnyType = 3;
+    static final int Int32Type = 1;
+    static final int NumberType = 3;
+    static final int AnyType = 7;
 
-    // It is assumed that (NumberType | AnyType) == AnyType
+    // It is assumed that (Int32Type | NumberType) == NumberType
+    // and (NumberType | AnyType) == AnyType
 
     void optimize(ScriptNode scriptOrFn)
     {
@@ -345,6 +347,17 @@ class Optimizer
                         }
                     }
                 }
+            case Token.BITNOT : {
+                    Node child = n.getFirstChild();
+                    int type = rewriteForNumberVariables(child, NumberType);
+                    markDCPNumberContext(child);
+                    if (type != NumberType) {
+                        n.removeChild(child);
+                        n.addChildToBack(new Node(Token.TO_DOUBLE, child));
+                    }
+                    n.putIntProp(Node.ISNUMBER_PROP, Node.BOTH);
+                    return NumberType;
+                }
             case Token.SETELEM :
             case Token.SETELEM_OP : {
                     Node arrayBase = n.getFirstChild();
@@ -0,0 +1,326 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.regexp;
+
+/**
+ * Base class of the matchers {@link RegExpCodegen} generates for hot
+ * regular expressions.
+ * <p>
+ * A generated matcher runs the bytecode of one regular expression the way
+ * NativeRegExp.executeREBytecode does, with every opcode turned into JVM
+ * code. The stacks of quantifier states and backtrack points the
+ * interpreter builds from REProgState and REBackTrackData objects are
+ * kept here in int arrays. A state is an index into the state array, and
+ * since states and backtrack points are only dropped in the reverse order
+ * of their creation, taking a backtrack point frees all states created
+ * after it.
+ * <p>
+ * This class is public only because the generated classes are defined by
+ * their own class loaders and cannot extend a package-private class.
+ */
+public abstract class CompiledRegExp
+{
+    protected CompiledRegExp()
+    {
+    }
+
+    /**
+     * Returns a new matcher of the same class, for one match.
+     */
+    protected abstract CompiledRegExp newMatcher();
+
+    /**
+     * Matches the regular expression at {@link #cp}, or at any later
+     * position if the regular expression starts with a simple opcode,
+     * adding the skipped characters to {@link #skipped}.
+     */
+    protected abstract boolean execute(String input, int end);
+
+    boolean match(REGlobalData gData, String input, int end)
+    {
+        cp = gData.cp;
+        skipped = gData.skipped;
+        multiline = gData.multiline;
+        parens = gData.parens;
+        stateTop = -1;
+        stateHeapTop = 0;
+        backTrackTop = 0;
+        boolean result = execute(input, end);
+        gData.cp = cp;
+        gData.skipped = skipped;
+        gData.parens = parens;
+        return result;
+    }
+
+    protected final int parensIndex(int i)
+    {
+        return (int)(parens[i]);
+    }
+
+    protected final void setParens(int i, int index, int length)
+    {
+        // clone parens array if it is shared with backtrack state
+        if (backTrackTop != 0 && backTrackParens[backTrackTop - 1] == parens) {
+            parens = parens.clone();
+        }
+        parens[i] = (index & 0xffffffffL) | ((long)length << 32);
+    }
+
+    protected final void pushState(int min, int max, int index,
+                                   int continuation)
+    {
+        pushState(min, max, index, continuation, -1);
+    }
+
+    /**
+     * Pushes the state of a lookahead assertion, which remembers the
+     * backtrack points to restore once the assertion is decided.
+     */
+    protected final void pushAssertState(int index, int continuation)
+    {
+        pushState(0, 0, index, continuation, backTrackTop);
+    }
+
+    private void pushState(int min, int max, int index, int continuation,
+                           int backTrack)
+    {
+        int state = stateHeapTop;
+        if (states == null) {
+            states = new int[16 * STATE_SIZE];
+        } else if (state + STATE_SIZE > states.length) {
+            int[] tmp = new int[states.length * 2];
+            System.arraycopy(states, 0, tmp, 0, state);
+            states = tmp;
+        }
+        states[state] = stateTop;
+        states[state + 1] = min;
+        states[state + 2] = max;
+        states[state + 3] = index;
+        states[state + 4] = continuation;
+        states[state + 5] = backTrack;
+        stateTop = state;
+        stateHeapTop = state + STATE_SIZE;
+    }
+
+    protected final int popState()
+    {
+        int state = stateTop;
+        stateTop = states[state];
+        return state;
+    }
+
+    /**
+     * Pops the state of a lookahead assertion, dropping the backtrack
+     * points of the assertion child.
+     */
+    protected final int popAssertState()
+    {
+        int state = popState();
+        backTrackTop = states[state + 5];
+        return state;
+    }
+
+    protected final int stateMin(int state)
+    {
+        return states[state + 1];
+    }
+
+    protected final int stateMax(int state)
+    {
+        return states[state + 2];
+    }
+
+    protected final int stateIndex(int state)
+    {
+        return states[state + 3];
+    }
+
+    protected final int stateContinuation(int state)
+    {
+        return states[state + 4];
+    }
+
+    protected final int topStateContinuation()
+    {
+        return states[stateTop + 4];
+    }
+
+    protected final void pushBackTrack(int target, int cp, int continuation)
+    {
+        pushBackTrack(target, cp, continuation, 0);
+    }
+
+    /**
+     * Pushes a backtrack point with an int the code at target finds in
+     * {@link #backTrackData}.
+     */
+    protected final void pushBackTrack(int target, int cp, int continuation,
+                                       int data)
+    {
+        int top = backTrackTop;
+        int i = top * BACKTRACK_SIZE;
+        if (backTracks == null) {
+            backTracks = new int[16 * BACKTRACK_SIZE];
+            backTrackParens = new long[16][];
+        } else if (i == backTracks.length) {
+            int[] tmp = new int[i * 2];
+            System.arraycopy(backTracks, 0, tmp, 0, i);
+            backTracks = tmp;
+            long[][] parensTmp = new long[top * 2][];
+            System.arraycopy(backTrackParens, 0, parensTmp, 0, top);
+            backTrackParens = parensTmp;
+        }
+        backTracks[i] = target;
+        backTracks[i + 1] = cp;
+        backTracks[i + 2] = continuation;
+        backTracks[i + 3] = stateTop;
+        backTracks[i + 4] = stateHeapTop;
+        backTracks[i + 5] = data;
+        backTrackParens[top] = parens;
+        backTrackTop = top + 1;
+    }
+
+    /**
+     * Restores the last backtrack point and returns where to continue, or
+     * returns -1 if there is none.
+     */
+    protected final int backTrack()
+    {
+        if (backTrackTop == 0) {
+            return -1;
+        }
+        int top = --backTrackTop;
+        int i = top * BACKTRACK_SIZE;
+        parens = backTrackParens[top];
+        backTrackParens[top] = null;
+        cp = backTracks[i + 1];
+        continuation = backTracks[i + 2];
+        stateTop = backTracks[i + 3];
+        stateHeapTop = backTracks[i + 4];
+        backTrackData = backTracks[i + 5];
+        return backTracks[i];
+    }
+
+    /**
+     * Matches a back-reference at cp and returns the index after it, or
+     * -1 if it does not match.
+     */
+    protected final int backRef(int parenIndex, String input, int cp, int end)
+    {
+        if (parens == null || parenIndex >= parens.length)
+            return -1;
+        int parenContent = parensIndex(parenIndex);
+        if (parenContent == -1)
+            return cp;
+
+        int len = (int)(parens[parenIndex] >>> 32);
+        if ((cp + len) > end)
+            return -1;
+
+        if ((regexp.flags & NativeRegExp.JSREG_FOLD) != 0) {
+            for (int i = 0; i < len; i++) {
+                char c1 = input.charAt(parenContent + i);
+                char c2 = input.charAt(cp + i);
+                if (c1 != c2 && upcase(c1) != upcase(c2))
+                    return -1;
+            }
+        }
+        else if (!input.regionMatches(parenContent, input, cp, len)) {
+            return -1;
+        }
+        return cp + len;
+    }
+
+    /**
+     * Matches the flat string of the given length at offset in the
+     * regular expression source.
+     */
+    protected final boolean matchFlat(int offset, int length, boolean fold,
+                                      String input, int cp, int end)
+    {
+        if ((cp + length) > end)
+            return false;
+        char[] source = regexp.source;
+        for (int i = 0; i < length; i++) {
+            char c1 = source[offset + i];
+            char c2 = input.charAt(cp + i);
+            if (c1 != c2 && (!fold || upcase(c1) != upcase(c2))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tests a character against a character class whose bitmap has been
+     * built.
+     */
+    protected final boolean matchClass(int index, char ch)
+    {
+        RECharSet charSet = regexp.classList[index];
+        int byteIndex = ch >> 3;
+        return (charSet.length == 0 ||
+                ch >= charSet.length ||
+                (charSet.bits[byteIndex] & (1 << (ch & 0x7))) == 0) ^ charSet.sense;
+    }
+
+    protected static boolean isWordBoundary(String input, int cp, int end)
+    {
+        return (cp == 0 || !isWord(input.charAt(cp - 1)))
+               == ((cp < end) && isWord(input.charAt(cp)));
+    }
+
+    protected static boolean isDigit(char c)
+    {
+        return NativeRegExp.isDigit(c);
+    }
+
+    protected static boolean isWord(char c)
+    {
+        return NativeRegExp.isWord(c);
+    }
+
+    protected static boolean isLineTerm(char c)
+    {
+        return NativeRegExp.isLineTerm(c);
+    }
+
+    protected static boolean isREWhiteSpace(int c)
+    {
+        return NativeRegExp.isREWhiteSpace(c);
+    }
+
+    protected static char upcase(char ch)
+    {
+        return NativeRegExp.upcase(ch);
+    }
+
+    private static final int STATE_SIZE = 6;
+    private static final int BACKTRACK_SIZE = 6;
+
+    RECompiled regexp;
+
+    protected int cp;                 /* char buffer index */
+    protected int skipped;            /* chars skipped anchoring this r.e. */
+    protected boolean multiline;
+    protected int continuation;       /* continuation of last backtrack */
+    protected int backTrackData;      /* data of last backtrack */
+
+    private long[] parens;            /* parens captures */
+
+    /* stack of quantifier states: previous, min, max, index, continuation
+       and backtrack stack depth for assertions */
+    private int[] states;
+    private int stateTop;
+    private int stateHeapTop;
+
+    /* stack of backtrack points: target, cp, continuation, state and state
+       heap top and data, with the captures in backTrackParens */
+    private int[] backTracks;
+    private long[][] backTrackParens;
+    private int backTrackTop;
+}
@@ -6,8 +6,6 @@
 
 package org.mozilla.javascript.regexp;
 
-import java.io.Serializable;
-
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Function;
 import org.mozilla.javascript.IdFunctionObject;
@@ -52,63 +50,74 @@ public class NativeRegExp extends IdScriptableObject implements Function
 
     private static final boolean debug = false;
 
-    private static final byte REOP_SIMPLE_START  = 1;  /* start of 'simple opcodes' */
-    private static final byte REOP_EMPTY         = 1;  /* match rest of input against rest of r.e. */
-    private static final byte REOP_BOL           = 2;  /* beginning of input (or line if multiline) */
-    private static final byte REOP_EOL           = 3;  /* end of input (or line if multiline) */
-    private static final byte REOP_WBDRY         = 4;  /* match "" at word boundary */
-    private static final byte REOP_WNONBDRY      = 5;  /* match "" at word non-boundary */
-    private static final byte REOP_DOT           = 6;  /* stands for any character */
-    private static final byte REOP_DIGIT         = 7;  /* match a digit char: [0-9] */
-    private static final byte REOP_NONDIGIT      = 8;  /* match a non-digit char: [^0-9] */
-    private static final byte REOP_ALNUM         = 9;  /* match an alphanumeric char: [0-9a-z_A-Z] */
-    private static final byte REOP_NONALNUM      = 10; /* match a non-alphanumeric char: [^0-9a-z_A-Z] */
-    private static final byte REOP_SPACE         = 11; /* match a whitespace char */
-    private static final byte REOP_NONSPACE      = 12; /* match a non-whitespace char */
-    private static final byte REOP_BACKREF       = 13; /* back-reference (e.g., \1) to a parenthetical */
-    private static final byte REOP_FLAT          = 14; /* match a flat string */
-    private static final byte REOP_FLAT1         = 15; /* match a single char */
-    private static final byte REOP_FLATi         = 16; /* case-independent REOP_FLAT */
-    private static final byte REOP_FLAT1i        = 17; /* case-independent REOP_FLAT1 */
-    private static final byte REOP_UCFLAT1       = 18; /* single Unicode char */
-    private static final byte REOP_UCFLAT1i      = 19; /* case-independent REOP_UCFLAT1 */
+    static final byte REOP_SIMPLE_START  = 1;  /* start of 'simple opcodes' */
+    static final byte REOP_EMPTY         = 1;  /* match rest of input against rest of r.e. */
+    static final byte REOP_BOL           = 2;  /* beginning of input (or line if multiline) */
+    static final byte REOP_EOL           = 3;  /* end of input (or line if multiline) */
+    static final byte REOP_WBDRY         = 4;  /* match "" at word boundary */
+    static final byte REOP_WNONBDRY      = 5;  /* match "" at word non-boundary */
+    static final byte REOP_DOT           = 6;  /* stands for any character */
+    static final byte REOP_DIGIT         = 7;  /* match a digit char: [0-9] */
+    static final byte REOP_NONDIGIT      = 8;  /* match a non-digit char: [^0-9] */
+    static final byte REOP_ALNUM         = 9;  /* match an alphanumeric char: [0-9a-z_A-Z] */
+    static final byte REOP_NONALNUM      = 10; /* match a non-alphanumeric char: [^0-9a-z_A-Z] */
+    static final byte REOP_SPACE         = 11; /* match a whitespace char */
+    static final byte REOP_NONSPACE      = 12; /* match a non-whitespace char */
+    static final byte REOP_BACKREF       = 13; /* back-reference (e.g., \1) to a parenthetical */
+    static final byte REOP_FLAT          = 14; /* match a flat string */
+    static final byte REOP_FLAT1         = 15; /* match a single char */
+    static final byte REOP_FLATi         = 16; /* case-independent REOP_FLAT */
+    static final byte REOP_FLAT1i        = 17; /* case-independent REOP_FLAT1 */
+    static final byte REOP_UCFLAT1       = 18; /* single Unicode char */
+    static final byte REOP_UCFLAT1i      = 19; /* case-independent REOP_UCFLAT1 */
 //    private static final byte REOP_UCFLAT        = 20; /* flat Unicode string; len immediate counts chars */
 //    private static final byte REOP_UCFLATi       = 21; /* case-independent REOP_UCFLAT */
-    private static final byte REOP_CLASS         = 22; /* character class with index */
-    private static final byte REOP_NCLASS        = 23; /* negated character class with index */
-    private static final byte REOP_SIMPLE_END    = 23; /* end of 'simple opcodes' */
-    private static final byte REOP_QUANT         = 25; /* quantified atom: atom{1,2} */
-    private static final byte REOP_STAR          = 26; /* zero or more occurrences of kid */
-    private static final byte REOP_PLUS          = 27; /* one or more occurrences of kid */
-    private static final byte REOP_OPT           = 28; /* optional subexpression in kid */
-    private static final byte REOP_LPAREN        = 29; /* left paren bytecode: kid is u.num'th sub-regexp */
-    private static final byte REOP_RPAREN        = 30; /* right paren bytecode */
-    private static final byte REOP_ALT           = 31; /* alternative subexpressions in kid and next */
-    private static final byte REOP_JUMP          = 32; /* for deoptimized closure loops */
+    static final byte REOP_CLASS         = 22; /* character class with index */
+    static final byte REOP_NCLASS        = 23; /* negated character class with index */
+    static final byte REOP_SIMPLE_END    = 23; /* end of 'simple opcodes' */
+    static final byte REOP_QUANT         = 25; /* quantified atom: atom{1,2} */
+    static final byte REOP_STAR          = 26; /* zero or more occurrences of kid */
+    static final byte REOP_PLUS          = 27; /* one or more occurrences of kid */
+    static final byte REOP_OPT           = 28; /* optional subexpression in kid */
+    static final byte REOP_LPAREN        = 29; /* left paren bytecode: kid is u.num'th sub-regexp */
+    static final byte REOP_RPAREN        = 30; /* right paren bytecode */
+    static final byte REOP_ALT           = 31; /* alternative subexpressions in kid and next */
+    static final byte REOP_JUMP          = 32; /* for deoptimized closure loops */
 //    private static final byte REOP_DOTSTAR       = 33; /* optimize .* to use a single opcode */
 //    private static final byte REOP_ANCHOR        = 34; /* like .* but skips left context to unanchored r.e. */
 //    private static final byte REOP_EOLONLY       = 35; /* $ not preceded by any pattern */
 //    private static final byte REOP_BACKREFi      = 37; /* case-independent REOP_BACKREF */
 //    private static final byte REOP_LPARENNON     = 40; /* non-capturing version of REOP_LPAREN */
-    private static final byte REOP_ASSERT        = 41; /* zero width positive lookahead assertion */
-    private static final byte REOP_ASSERT_NOT    = 42; /* zero width negative lookahead assertion */
-    private static final byte REOP_ASSERTTEST    = 43; /* sentinel at end of assertion child */
-    private static final byte REOP_ASSERTNOTTEST = 44; /* sentinel at end of !assertion child */
-    private static final byte REOP_MINIMALSTAR   = 45; /* non-greedy version of * */
-    private static final byte REOP_MINIMALPLUS   = 46; /* non-greedy version of + */
-    private static final byte REOP_MINIMALOPT    = 47; /* non-greedy version of ? */
-    private static final byte REOP_MINIMALQUANT  = 48; /* non-greedy version of {} */
-    private static final byte REOP_ENDCHILD      = 49; /* sentinel at end of quantifier child */
-    private static final byte REOP_REPEAT        = 51; /* directs execution of greedy quantifier */
-    private static final byte REOP_MINIMALREPEAT = 52; /* directs execution of non-greedy quantifier */
-    private static final byte REOP_ALTPREREQ     = 53; /* prerequisite for ALT, either of two chars */
-    private static final byte REOP_ALTPREREQi    = 54; /* case-independent REOP_ALTPREREQ */
-    private static final byte REOP_ALTPREREQ2    = 55; /* prerequisite for ALT, a char or a class */
+    static final byte REOP_ASSERT        = 41; /* zero width positive lookahead assertion */
+    static final byte REOP_ASSERT_NOT    = 42; /* zero width negative lookahead assertion */
+    static final byte REOP_ASSERTTEST    = 43; /* sentinel at end of assertion child */
+    static final byte REOP_ASSERTNOTTEST = 44; /* sentinel at end of !assertion child */
+    static final byte REOP_MINIMALSTAR   = 45; /* non-greedy version of * */
+    static final byte REOP_MINIMALPLUS   = 46; /* non-greedy version of + */
+    static final byte REOP_MINIMALOPT    = 47; /* non-greedy version of ? */
+    static final byte REOP_MINIMALQUANT  = 48; /* non-greedy version of {} */
+    static final byte REOP_ENDCHILD      = 49; /* sentinel at end of quantifier child */
+    static final byte REOP_REPEAT        = 51; /* directs execution of greedy quantifier */
+    static final byte REOP_MINIMALREPEAT = 52; /* directs execution of non-greedy quantifier */
+    static final byte REOP_ALTPREREQ     = 53; /* prerequisite for ALT, either of two chars */
+    static final byte REOP_ALTPREREQi    = 54; /* case-independent REOP_ALTPREREQ */
+    static final byte REOP_ALTPREREQ2    = 55; /* prerequisite for ALT, a char or a class */
 //    private static final byte REOP_ENDALT        = 56; /* end of final alternate */
-    private static final byte REOP_END           = 57;
+    static final byte REOP_END           = 57;
 
     private static final int ANCHOR_BOL = -2;
 
+    /* Number of shifts indexOfLiteral keeps, indexed by the low bits of a
+       char, which must be a power of 2 */
+    private static final int LITERAL_SHIFTS_LENGTH = 128;
+
+    /*
+     * Interpreted matches after which a regular expression is compiled to
+     * a JVM class. Each match on 1024 characters of input counts as one
+     * more.
+     */
+    private static final int COMPILE_THRESHOLD = 100;
+
 
     public static void init(Context cx, Scriptable scope, boolean sealed)
     {
@@ -276,6 +285,24 @@ public class NativeRegExp extends IdScriptableObject implements Function
     }
 
     static RECompiled compileRE(Context cx, String str, String global, boolean flat)
+    {
+        // Warnings such as msg.bad.backref are only reported in strict
+        // mode, which compiles every time so that none are lost to the cache
+        if (cx.hasFeature(Context.FEATURE_STRICT_MODE)) {
+            return compileREImpl(cx, str, global, flat);
+        }
+        RECompiled regexp = RegExpCache.get(str, global, flat);
+        if (regexp == null) {
+            regexp = compileREImpl(cx, str, global, flat);
+            if (regexp != null) {
+                RegExpCache.put(str, global, flat, regexp);
+            }
+        }
+        return regexp;
+    }
+
+    private static RECompiled compileREImpl(Context cx, String str,
+                                            String global, boolean flat)
     {
         RECompiled regexp = new RECompiled(str);
         int length = str.length();
@@ -355,10 +382,20 @@ public class NativeRegExp extends IdScriptableObject implements Function
                 break;
         }
 
+        setLiteral(regexp);
+        regexp.automaton = RegExpAutomaton.compile(regexp, state.result);
+
         if (debug) {
             if (regexp.anchorCh >= 0) {
                 System.out.println("Anchor ch = '" + (char)regexp.anchorCh + "'");
             }
+            if (regexp.literal != null) {
+                System.out.println("Literal = \"" + regexp.literal
+                                   + "\"" + (regexp.literalPrefix ? " prefix" : ""));
+            }
+            if (regexp.automaton != null) {
+                System.out.println("Matched by automaton");
+            }
         }
         return regexp;
     }
@@ -368,7 +405,7 @@ public class NativeRegExp extends IdScriptableObject implements Function
         return '0' <= c && c <= '9';
     }
 
-    private static boolean isWord(char c)
+    static boolean isWord(char c)
     {
         return ('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z') || isDigit(c) || c == '_';
     }
@@ -378,12 +415,12 @@ public class NativeRegExp extends IdScriptableObject implements Function
         return ('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z');
     }
 
-    private static boolean isLineTerm(char c)
+    static boolean isLineTerm(char c)
     {
         return ScriptRuntime.isJSLineTerminator(c);
     }
 
-    private static boolean isREWhiteSpace(int c)
+    static boolean isREWhiteSpace(int c)
     {
         return ScriptRuntime.isJSWhitespaceOrLineTerminator(c);
     }
@@ -399,7 +436,7 @@ public class NativeRegExp extends IdScriptableObject implements Function
      *    code point value is less than decimal 128, then return ch.
      * 6. Return cu.
      */
-    private static char upcase(char ch)
+    static char upcase(char ch)
     {
         if (ch < 128) {
             if ('a' <= ch && ch <= 'z') {
@@ -1171,13 +1208,153 @@ public class NativeRegExp extends IdScriptableObject implements Function
         return true;
     }
 
+    /*
+     * Sets the longest string of literal chars every match of re contains,
+     * and for case-insensitive matching the table of shifts indexOfLiteral
+     * searches it with.
+     */
+    private static void setLiteral(RECompiled re)
+    {
+        boolean[] prefix = new boolean[1];
+        String literal = findLiteral(re, 0, prefix);
+        if (literal.length() == 0) {
+            return;
+        }
+        if ((re.flags & JSREG_FOLD) != 0) {
+            char[] chars = literal.toCharArray();
+            int last = chars.length - 1;
+            int[] shifts = new int[LITERAL_SHIFTS_LENGTH];
+            for (int i = 0; i < shifts.length; i++) {
+                shifts[i] = chars.length;
+            }
+            for (int i = 0; i <= last; i++) {
+                chars[i] = upcase(chars[i]);
+                if (i < last) {
+                    shifts[chars[i] & (LITERAL_SHIFTS_LENGTH - 1)] = last - i;
+                }
+            }
+            literal = new String(chars);
+            re.literalShifts = shifts;
+        }
+        re.literal = literal;
+        re.literalPrefix = prefix[0];
+    }
+
+    /*
+     * Returns the longest string of literal chars the opcodes from pc up
+     * to REOP_END or REOP_ENDCHILD match one after another, looking into
+     * parentheses and into the children of quantifiers that must match at
+     * least once. If prefix is not null, sets prefix[0] if every match of
+     * these opcodes starts with the string.
+     */
+    private static String findLiteral(RECompiled re, int pc, boolean[] prefix)
+    {
+        byte[] program = re.program;
+        StringBuilder run = new StringBuilder();
+        String literal = "";
+        boolean atStart = prefix != null;
+        for (;;) {
+            byte op = program[pc++];
+            switch (op) {
+              case REOP_FLAT:
+              case REOP_FLATi:
+                run.append(re.source, getIndex(program, pc),
+                           getIndex(program, pc + INDEX_LEN));
+                pc += 2 * INDEX_LEN;
+                continue;
+              case REOP_FLAT1:
+              case REOP_FLAT1i:
+                run.append((char)(program[pc++] & 0xFF));
+                continue;
+              case REOP_UCFLAT1:
+              case REOP_UCFLAT1i:
+                run.append((char)getIndex(program, pc));
+                pc += INDEX_LEN;
+                continue;
+              case REOP_LPAREN:
+              case REOP_RPAREN:
+                pc += INDEX_LEN;
+                continue;
+            }
+
+            // Any other opcode ends the run of literal chars
+            if (run.length() > literal.length()) {
+                literal = run.toString();
+                if (prefix != null) {
+                    prefix[0] = atStart;
+                }
+            }
+            run.setLength(0);
+            atStart = false;
+
+            int min = 0;
+            switch (op) {
+              case REOP_END:
+              case REOP_ENDCHILD:
+                return literal;
+              case REOP_QUANT:
+              case REOP_MINIMALQUANT:
+              case REOP_STAR:
+              case REOP_OPT:
+              case REOP_MINIMALSTAR:
+              case REOP_MINIMALOPT:
+              case REOP_PLUS:
+              case REOP_MINIMALPLUS:
+                if (op == REOP_QUANT || op == REOP_MINIMALQUANT) {
+                    min = getOffset(program, pc);
+                    pc += 2 * INDEX_LEN;
+                } else if (op == REOP_PLUS || op == REOP_MINIMALPLUS) {
+                    min = 1;
+                }
+                if (min != 0) {
+                    String kid = findLiteral(re, pc + 3 * INDEX_LEN, null);
+                    if (kid.length() > literal.length()) {
+                        literal = kid;
+                        if (prefix != null) {
+                            prefix[0] = false;
+                        }
+                    }
+                }
+                // skip paren count and index to the next term
+                pc += 2 * INDEX_LEN;
+                pc += getOffset(program, pc);
+                break;
+              case REOP_ALTPREREQ:
+              case REOP_ALTPREREQi:
+              case REOP_ALTPREREQ2:
+              case REOP_ALT:
+                if (op != REOP_ALT) {
+                    pc += 2 * INDEX_LEN;
+                }
+                // the first alternative jumps to the next term
+                pc += getOffset(program, pc) - INDEX_LEN;
+                pc += getOffset(program, pc);
+                break;
+              case REOP_ASSERT:
+              case REOP_ASSERT_NOT:
+                pc += getOffset(program, pc);
+                break;
+              case REOP_BACKREF:
+              case REOP_CLASS:
+              case REOP_NCLASS:
+                pc += INDEX_LEN;
+                break;
+              default:
+                if (!reopIsSimple(op)) {
+                    return literal;
+                }
+                break;
+            }
+        }
+    }
+
     private static void resolveForwardJump(byte[] array, int from, int pc)
     {
         if (from > pc) throw Kit.codeBug();
         addIndex(array, from, pc - from);
     }
 
-    private static int getOffset(byte[] array, int pc)
+    static int getOffset(byte[] array, int pc)
     {
         return getIndex(array, pc);
     }
@@ -1192,12 +1369,12 @@ public class NativeRegExp extends IdScriptableObject implements Function
         return pc + 2;
     }
 
-    private static int getIndex(byte[] array, int pc)
+    static int getIndex(byte[] array, int pc)
     {
         return ((array[pc] & 0xFF) << 8) | (array[pc + 1] & 0xFF);
     }
 
-    private static final int INDEX_LEN  = 2;
+    static final int INDEX_LEN  = 2;
 
     private static int
     emitREBytecode(CompilerState state, RECompiled re, int pc, RENode t)
@@ -1504,7 +1681,7 @@ public class NativeRegExp extends IdScriptableObject implements Function
     }
 
     /* Compile the source of the class into a RECharSet */
-    private static void
+    static void
     processCharSet(REGlobalData gData, RECharSet charSet)
     {
         synchronized (charSet) {
@@ -1723,7 +1900,7 @@ public class NativeRegExp extends IdScriptableObject implements Function
                 (charSet.bits[byteIndex] & (1 << (ch & 0x7))) == 0) ^ charSet.sense;
     }
 
-    private static boolean reopIsSimple(int op) {
+    static boolean reopIsSimple(int op) {
         return op >= REOP_SIMPLE_START && op <= REOP_SIMPLE_END;
     }
 
@@ -1912,6 +2089,64 @@ public class NativeRegExp extends IdScriptableObject implements Function
     }
 
 
+    /*
+     * Tests if c can start one of the alternatives of REOP_ALTPREREQ,
+     * REOP_ALTPREREQi or REOP_ALTPREREQ2.
+     */
+    private static boolean
+    altPrereqMatcher(REGlobalData gData, int op, char matchCh1, char matchCh2,
+                     char c)
+    {
+        if (op == REOP_ALTPREREQ2) {
+            return c == matchCh1 ||
+                   classMatcher(gData, gData.regexp.classList[matchCh2], c);
+        }
+        if (op == REOP_ALTPREREQi)
+            c = upcase(c);
+        return c == matchCh1 || c == matchCh2;
+    }
+
+    /*
+     * Returns the first index from start where re.literal is found in
+     * input before end, or -1. Without the 'i' flag this is String.indexOf.
+     * With it, this is the Boyer-Moore-Horspool search: when the literal
+     * does not match at i, the input char under its last char decides how
+     * far to move i, skipping the positions where that char could not be
+     * part of the literal.
+     */
+    private static int
+    indexOfLiteral(RECompiled re, String input, int start, int end)
+    {
+        String literal = re.literal;
+        int last = literal.length() - 1;
+        int[] shifts = re.literalShifts;
+        if (shifts == null) {
+            int i = input.indexOf(literal, start);
+            return i + last < end ? i : -1;
+        }
+        char lastCh = literal.charAt(last);
+        int i = start;
+        while (i + last < end) {
+            char c = upcase(input.charAt(i + last));
+            if (c == lastCh) {
+                int j = last - 1;
+                while (j >= 0) {
+                    char c2 = input.charAt(i + j);
+                    if (c2 != literal.charAt(j) &&
+                            upcase(c2) != literal.charAt(j)) {
+                        break;
+                    }
+                    j--;
+                }
+                if (j < 0) {
+                    return i;
+                }
+            }
+            i += shifts[c & (LITERAL_SHIFTS_LENGTH - 1)];
+        }
+        return -1;
+    }
+
     private static boolean
     executeREBytecode(REGlobalData gData, String input, int end)
     {
@@ -1963,25 +2198,12 @@ public class NativeRegExp extends IdScriptableObject implements Function
                         char matchCh2 = (char)getIndex(program, pc);
                         pc += INDEX_LEN;
 
-                        if (gData.cp == end) {
+                        if (gData.cp == end ||
+                            !altPrereqMatcher(gData, op, matchCh1, matchCh2,
+                                              input.charAt(gData.cp))) {
                             result = false;
                             break;
                         }
-                        char c = input.charAt(gData.cp);
-                        if (op == REOP_ALTPREREQ2) {
-                            if (c != matchCh1 &&
-                                !classMatcher(gData, gData.regexp.classList[matchCh2], c)) {
-                                result = false;
-                                break;
-                            }
-                        } else {
-                            if (op == REOP_ALTPREREQi)
-                                c = upcase(c);
-                            if (c != matchCh1 && c != matchCh2) {
-                                result = false;
-                                break;
-                            }
-                        }
                     }
                     /* else false thru... */
                     case REOP_ALT:
@@ -2334,7 +2556,7 @@ public class NativeRegExp extends IdScriptableObject implements Function
     }
 
     private static boolean
-    matchRegExp(REGlobalData gData, RECompiled re,
+    matchRegExp(REGlobalData gData, RECompiled re, CompiledRegExp matcher,
                 String input, int start, int end, boolean multiline)
     {
         if (re.parenCount != 0) {
@@ -2350,17 +2572,48 @@ public class NativeRegExp extends IdScriptableObject implements Function
         gData.regexp = re;
 
         int anchorCh = gData.regexp.anchorCh;
+        byte[] program = re.program;
+        //
+        // Every match contains the literal, so there is none if it is not
+        // found. A regular expression that is only tried at start is left
+        // alone, as searching could take longer than matching.
+        //
+        boolean literalPrefix = false;
+        int literalIndex = -1;
+        if (re.literal != null &&
+                (anchorCh != ANCHOR_BOL || gData.multiline)) {
+            literalIndex = indexOfLiteral(re, input, start, end);
+            if (literalIndex < 0) {
+                return false;
+            }
+            literalPrefix = re.literalPrefix;
+        }
+        if (re.automaton != null) {
+            return re.automaton.match(gData, input, start, end,
+                                      anchorCh == ANCHOR_BOL && !gData.multiline);
+        }
         //
         // have to include the position beyond the last character
         //  in order to detect end-of-input/line condition
         //
         for (int i = start; i <= end; ++i) {
-            //
-            // If the first node is a literal match, step the index into
-            // the string until that match is made, or fail if it can't be
-            // found at all.
-            //
-            if (anchorCh >= 0) {
+            if (literalIndex >= 0 && i > literalIndex) {
+                literalIndex = indexOfLiteral(re, input, i, end);
+                if (literalIndex < 0) {
+                    return false;
+                }
+            }
+            if (literalPrefix) {
+                //
+                // Matches start with the literal, so skip to where it is.
+                //
+                i = literalIndex;
+            } else if (anchorCh >= 0) {
+                //
+                // If the first node is a literal match, step the index into
+                // the string until that match is made, or fail if it can't
+                // be found at all.
+                //
                 for (;;) {
                     if (i == end) {
                         return false;
@@ -2374,13 +2627,31 @@ public class NativeRegExp extends IdScriptableObject implements Function
                     }
                     ++i;
                 }
+            } else if (program[0] == REOP_ALTPREREQ ||
+                       program[0] == REOP_ALTPREREQi ||
+                       program[0] == REOP_ALTPREREQ2) {
+                //
+                // Skip the chars none of the alternatives starts with.
+                //
+                char matchCh1 = (char)getIndex(program, 1);
+                char matchCh2 = (char)getIndex(program, 1 + INDEX_LEN);
+                while (i < end && !altPrereqMatcher(gData, program[0],
+                                                    matchCh1, matchCh2,
+                                                    input.charAt(i))) {
+                    ++i;
+                }
+                if (i == end) {
+                    return false;
+                }
             }
             gData.cp = i;
             gData.skipped = i - start;
             for (int j = 0; j < re.parenCount; j++) {
                 gData.parens[j] = -1l;
             }
-            boolean result = executeREBytecode(gData, input, end);
+            boolean result = matcher != null
+                             ? matcher.match(gData, input, end)
+                             : executeREBytecode(gData, input, end);
 
             gData.backTrackStackTop = null;
             gData.stateStackTop = null;
@@ -2396,6 +2667,37 @@ public class NativeRegExp extends IdScriptableObject implements Function
         return false;
     }
 
+    /*
+     * Returns a new generated matcher for re, generating its class once the
+     * interpreter has matched re often enough or on enough input, or null
+     * to interpret re.
+     */
+    private static CompiledRegExp getCompiledMatcher(RECompiled re,
+                                                     int inputLength)
+    {
+        CompiledRegExp compiled = re.compiled;
+        if (compiled == null) {
+            int hotness = re.hotness;
+            if (hotness >= COMPILE_THRESHOLD) {
+                // Compiled already or could not be compiled
+                return null;
+            }
+            hotness += 1 + inputLength / 1024;
+            re.hotness = hotness;
+            if (hotness < COMPILE_THRESHOLD) {
+                return null;
+            }
+            compiled = RegExpCodegen.compile(re);
+            if (compiled == null) {
+                return null;
+            }
+            re.compiled = compiled;
+        }
+        CompiledRegExp matcher = compiled.newMatcher();
+        matcher.regexp = re;
+        return matcher;
+    }
+
     /*
      * indexp is assumed to be an array of length 1
      */
@@ -2411,7 +2713,11 @@ public class NativeRegExp extends IdScriptableObject implements Function
         //
         // Call the recursive matcher to do the real work.
         //
-        boolean matches = matchRegExp(gData, re, str, start, end,
+        CompiledRegExp matcher = null;
+        if (cx.getOptimizationLevel() >= 0 && re.automaton == null) {
+            matcher = getCompiledMatcher(re, end - start);
+        }
+        boolean matches = matchRegExp(gData, re, matcher, str, start, end,
                                       res.multiline);
         if (!matches) {
             if (matchType != PREFIX) return null;
@@ -2439,38 +2745,28 @@ public class NativeRegExp extends IdScriptableObject implements Function
              * matches, an index property telling the length of the left context,
              * and an input property referring to the input string.
              */
-            result = cx.newArray(scope, 0);
-            obj = (Scriptable) result;
-
-            String matchstr = str.substring(index, index + matchlen);
-            obj.put(0, obj, matchstr);
-        }
-
-        if (re.parenCount == 0) {
-            res.parens = null;
-            res.lastParen = SubString.emptySubString;
-        } else {
-            SubString parsub = null;
-            int num;
-            res.parens = new SubString[re.parenCount];
-            for (num = 0; num < re.parenCount; num++) {
+            Object[] elements = new Object[re.parenCount + 1];
+            elements[0] = str.substring(index, index + matchlen);
+            for (int num = 0; num < re.parenCount; num++) {
                 int cap_index = gData.parensIndex(num);
-                String parstr;
                 if (cap_index != -1) {
                     int cap_length = gData.parensLength(num);
-                    parsub = new SubString(str, cap_index, cap_length);
-                    res.parens[num] = parsub;
-                    if (matchType != TEST)
-                        obj.put(num+1, obj, parsub.toString());
-                }
-                else {
-                    if (matchType != TEST)
-                        obj.put(num+1, obj, Undefined.instance);
+                    elements[num + 1] = str.substring(cap_index,
+                                                      cap_index + cap_length);
+                } else {
+                    elements[num + 1] = Undefined.instance;
                 }
             }
-            res.lastParen = parsub;
+            result = cx.newArray(scope, elements);
+            obj = (Scriptable) result;
         }
 
+        /*
+         * Keep the captures as they are, RegExpImpl makes strings of the
+         * parens only when they are read.
+         */
+        res.parens = re.parenCount == 0 ? null : gData.parens;
+
         if (! (matchType == TEST)) {
             /*
              * Define the index and input properties last for better for/in loop
@@ -2746,57 +3042,6 @@ public class NativeRegExp extends IdScriptableObject implements Function
 
 }       // class NativeRegExp
 
-class RECompiled implements Serializable
-{
-    static final long serialVersionUID = -6144956577595844213L;
-
-    final char[] source;    /* locked source string, sans // */
-    int parenCount;         /* number of parenthesized submatches */
-    int flags;              /* flags  */
-    byte[] program;         /* regular expression bytecode */
-    int classCount;         /* count [...] bitmaps */
-    RECharSet[] classList;  /* list of [...] bitmaps */
-    int anchorCh = -1;      /* if >= 0, then re starts with this literal char */
-
-    RECompiled(String str) {
-        this.source = str.toCharArray();
-    }
-}
-
-class RENode {
-
-    RENode(byte op)
-    {
-        this.op = op;
-    }
-
-    byte            op;         /* r.e. op bytecode */
-    RENode          next;       /* next in concatenation order */
-    RENode          kid;        /* first operand */
-
-    RENode          kid2;       /* second operand */
-    int             parenIndex; /* or a parenthesis index */
-
-                                /* or a range */
-    int             min;
-    int             max;
-    int             parenCount;
-    boolean         greedy;
-
-                                /* or a character class */
-    int             startIndex;
-    int             kidlen;     /* length of string at kid, in chars */
-    int             bmsize;     /* bitmap size, based on max char code */
-    int             index;      /* index into class list */
-    boolean         sense;
-
-                                /* or a literal sequence */
-    char            chr;        /* of one character */
-    int             length;     /* or many (via the index) */
-    int             flatIndex;  /* which is -1 if not sourced */
-
-}
-
 class CompilerState {
 
     CompilerState(Context cx, char[] source, int length, int flags)
@@ -2822,125 +3067,3 @@ class CompilerState {
     int         progLength;   /* estimated bytecode length */
     RENode      result;
 }
-
-class REProgState
-{
-    REProgState(REProgState previous, int min, int max, int index,
-                REBackTrackData backTrack,
-                int continuationOp, int continuationPc)
-    {
-        this.previous = previous;
-        this.min = min;
-        this.max = max;
-        this.index = index;
-        this.continuationOp = continuationOp;
-        this.continuationPc = continuationPc;
-        this.backTrack = backTrack;
-    }
-
-    final REProgState previous; // previous state in stack
-
-    final int min;                      /* current quantifier min */
-    final int max;                      /* current quantifier max */
-    final int index;                    /* progress in text */
-    final int continuationOp;
-    final int continuationPc;
-    final REBackTrackData backTrack; // used by ASSERT_  to recover state
-}
-
-class REBackTrackData {
-
-    REBackTrackData(REGlobalData gData, int op, int pc, int cp,
-                    int continuationOp, int continuationPc)
-    {
-        previous = gData.backTrackStackTop;
-        this.op = op;
-        this.pc = pc;
-        this.cp = cp;
-        this.continuationOp = continuationOp;
-        this.continuationPc = continuationPc;
-        parens = gData.parens;
-        stateStackTop = gData.stateStackTop;
-    }
-
-    final REBackTrackData previous;
-
-    final int op;                             /* operator */
-    final int pc;                             /* bytecode pointer */
-    final int cp;                             /* char buffer index */
-    final int continuationOp;                 /* continuation op */
-    final int continuationPc;                 /* continuation pc */
-    final long[] parens;                      /* parenthesis captures */
-    final REProgState stateStackTop;          /* state of op that backtracked */
-}
-
-class REGlobalData {
-    boolean multiline;
-    RECompiled regexp;              /* the RE in execution */
-    int skipped;                    /* chars skipped anchoring this r.e. */
-
-    int cp;                         /* char buffer index */
-    long[] parens;                  /* parens captures */
-
-    REProgState stateStackTop;       /* stack of state of current ancestors */
-
-    REBackTrackData backTrackStackTop;  /* last matched-so-far position */
-
-
-    /**
-     * Get start of parenthesis capture contents, -1 for empty.
-     */
-    int parensIndex(int i)
-    {
-        return (int)(parens[i]);
-    }
-
-    /**
-     * Get length of parenthesis capture contents.
-     */
-    int parensLength(int i)
-    {
-        return (int)(parens[i] >>> 32);
-    }
-
-    void setParens(int i, int index, int length)
-    {
-        // clone parens array if it is shared with backtrack state
-        if (backTrackStackTop != null && backTrackStackTop.parens == parens) {
-            parens = parens.clone();
-        }
-        parens[i] = (index & 0xffffffffL) | ((long)length << 32);
-    }
-
-}
-
-/*
- * This struct holds a bitmap representation of a class from a regexp.
- * There's a list of these referenced by the classList field in the NativeRegExp
- * struct below. The initial state has startIndex set to the offset in the
- * original regexp source of the beginning of the class contents. The first
- * use of the class converts the source representation into a bitmap.
- *
- */
-final class RECharSet implements Serializable
-{
-    static final long serialVersionUID = 7931787979395898394L;
-
-    RECharSet(int length, int startIndex, int strlength, boolean sense)
-    {
-        this.length = length;
-        this.startIndex = startIndex;
-        this.strlength = strlength;
-        this.sense = sense;
-    }
-
-    final int length;
-    final int startIndex;
-    final int strlength;
-    final boolean sense;
-
-    volatile transient boolean converted;
-    volatile transient byte[] bits;
-}
-
-
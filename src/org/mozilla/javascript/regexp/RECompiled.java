@@ -0,0 +1,35 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.regexp;
+
+import java.io.Serializable;
+
+class RECompiled implements Serializable
+{
+    static final long serialVersionUID = -6144956577595844213L;
+
+    final char[] source;    /* locked source string, sans // */
+    int parenCount;         /* number of parenthesized submatches */
+    int flags;              /* flags  */
+    byte[] program;         /* regular expression bytecode */
+    int classCount;         /* count [...] bitmaps */
+    RECharSet[] classList;  /* list of [...] bitmaps */
+    int anchorCh = -1;      /* if >= 0, then re starts with this literal char */
+    String literal;         /* chars every match contains, upper case if
+                               JSREG_FOLD, or null */
+    boolean literalPrefix;  /* if every match starts with literal */
+    int[] literalShifts;    /* shifts of indexOfLiteral by low bits of char
+                               if JSREG_FOLD */
+    RegExpAutomaton automaton;  /* matches instead of program if not null */
+
+    transient int hotness;  /* interpreted matches, more for long inputs */
+    transient volatile CompiledRegExp compiled;  /* generated matcher */
+
+    RECompiled(String str) {
+        this.source = str.toCharArray();
+    }
+}
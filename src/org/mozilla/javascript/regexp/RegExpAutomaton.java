@@ -0,0 +1,727 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.regexp;
+
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.mozilla.javascript.regexp.NativeRegExp.*;
+
+/**
+ * Matches a regular expression by simulating a nondeterministic automaton,
+ * in time linear in the length of the input.
+ * <p>
+ * The backtracking interpreter can take time exponential in the length of
+ * the input for regular expressions such as <code>/(a+)+b/</code>, where
+ * quantifiers nested in repeated quantifiers can divide the same input in
+ * many ways. {@link #compile} builds an automaton for such regular
+ * expressions as long as they contain no back-references and no lookahead
+ * assertions, and NativeRegExp matches with the automaton instead.
+ * <p>
+ * The automaton is a program of instructions, which is run as a Pike VM:
+ * all threads of the program advance over the input in step, one
+ * character at a time, and two threads at the same instruction are
+ * merged into the one that comes first. Threads are kept in the order
+ * the backtracking interpreter would try them, so the first thread to
+ * reach MATCH has the match and the captures the interpreter finds. To
+ * make that so, quantifiers are expanded into copies of their child with
+ * the parentheses cleared in the same iterations as the interpreter does,
+ * and an iteration that matches the empty string after the minimum count
+ * of iterations kills its thread, which the interpreter treats as a
+ * failure too. To tell, a thread carries the smallest nesting depth of
+ * the iterations that have not consumed a character yet.
+ */
+final class RegExpAutomaton implements Serializable
+{
+    static final long serialVersionUID = 4307517950215338046L;
+
+    /**
+     * Regular expressions that expand to more instructions than this are
+     * left to the backtracking interpreter.
+     */
+    static final int MAX_INSTRUCTIONS = 10000;
+
+    // instructions that consume a character
+    private static final byte CHAR       = 0;  /* the char in arg1 */
+    private static final byte CHAR_FOLD  = 1;  /* arg1, or upcase arg2 */
+    private static final byte CLASS      = 2;  /* class with index arg1 */
+    private static final byte TEST       = 3;  /* simple opcode arg1 */
+
+    // instructions that do not
+    private static final byte ASSERT     = 4;  /* BOL, EOL or boundary arg1 */
+    private static final byte SPLIT      = 5;  /* arg1 first, then arg2 */
+    private static final byte JUMP       = 6;  /* to arg1 */
+    private static final byte OPEN       = 7;  /* start of paren arg1 */
+    private static final byte CLOSE      = 8;  /* end of paren arg1 */
+    private static final byte CLEAR      = 9;  /* arg2 parens from arg1 */
+    private static final byte LOOP_START = 10; /* iteration at depth arg1 */
+    private static final byte LOOP_CHECK = 11; /* iteration at depth arg1
+                                                  consumed a char */
+    private static final byte MATCH      = 12;
+
+    private final RECompiled re;
+    private byte[] ops;
+    private int[] args1;
+    private int[] args2;
+    private int length;
+    private int maxDepth;
+
+    private RegExpAutomaton(RECompiled re)
+    {
+        this.re = re;
+        ops = new byte[32];
+        args1 = new int[32];
+        args2 = new int[32];
+    }
+
+    /**
+     * Returns an automaton for the regular expression with the given parse
+     * tree, or null if it can be matched by backtracking in good time or
+     * cannot be matched by an automaton.
+     */
+    static RegExpAutomaton compile(RECompiled re, RENode tree)
+    {
+        if (!isRisky(re, tree, false)) {
+            return null;
+        }
+        RegExpAutomaton automaton = new RegExpAutomaton(re);
+        if (!automaton.addSequence(tree, 0)) {
+            return null;
+        }
+        automaton.add(MATCH, 0, 0);
+        return automaton;
+    }
+
+    /**
+     * Returns true if the sequence of nodes contains a repeated quantifier
+     * or an ambiguous alternative inside a repeated quantifier, which the
+     * backtracking interpreter could try in a number of ways exponential
+     * in the length of the input.
+     */
+    private static boolean isRisky(RECompiled re, RENode t, boolean repeated)
+    {
+        for (; t != null; t = t.next) {
+            switch (t.op) {
+            case REOP_QUANT:
+                boolean repeats = t.max == -1 || t.max > 1;
+                if (repeated && repeats) {
+                    return true;
+                }
+                if (isRisky(re, t.kid, repeated || repeats)) {
+                    return true;
+                }
+                break;
+            case REOP_ALT:
+            case REOP_ALTPREREQ:
+            case REOP_ALTPREREQi:
+            case REOP_ALTPREREQ2:
+                if (repeated && !addFirstChars(re, t, new HashSet<Integer>())) {
+                    return true;
+                }
+                if (isRisky(re, t.kid, repeated)
+                        || isRisky(re, t.kid2, repeated)) {
+                    return true;
+                }
+                break;
+            case REOP_LPAREN:
+            case REOP_ASSERT:
+            case REOP_ASSERT_NOT:
+                if (isRisky(re, t.kid, repeated)) {
+                    return true;
+                }
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the char every alternative of the sequence starts with to
+     * chars, upper case if JSREG_FOLD. Returns false if an alternative
+     * does not start with a char or two alternatives start with the same.
+     */
+    private static boolean addFirstChars(RECompiled re, RENode t,
+                                         Set<Integer> chars)
+    {
+        switch (t.op) {
+        case REOP_FLAT:
+            char c = t.flatIndex != -1 ? re.source[t.flatIndex] : t.chr;
+            if ((re.flags & JSREG_FOLD) != 0) {
+                c = upcase(c);
+            }
+            return chars.add(Integer.valueOf(c));
+        case REOP_LPAREN:
+            return addFirstChars(re, t.kid, chars);
+        case REOP_ALT:
+        case REOP_ALTPREREQ:
+        case REOP_ALTPREREQi:
+        case REOP_ALTPREREQ2:
+            return addFirstChars(re, t.kid, chars)
+                   && addFirstChars(re, t.kid2, chars);
+        default:
+            return false;
+        }
+    }
+
+    private static boolean isNullable(RENode t)
+    {
+        for (; t != null; t = t.next) {
+            switch (t.op) {
+            case REOP_EMPTY:
+            case REOP_BOL:
+            case REOP_EOL:
+            case REOP_WBDRY:
+            case REOP_WNONBDRY:
+                break;
+            case REOP_LPAREN:
+                if (!isNullable(t.kid)) {
+                    return false;
+                }
+                break;
+            case REOP_ALT:
+            case REOP_ALTPREREQ:
+            case REOP_ALTPREREQi:
+            case REOP_ALTPREREQ2:
+                if (!isNullable(t.kid) && !isNullable(t.kid2)) {
+                    return false;
+                }
+                break;
+            case REOP_QUANT:
+                if (t.min != 0 && !isNullable(t.kid)) {
+                    return false;
+                }
+                break;
+            default:
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int add(byte op, int arg1, int arg2)
+    {
+        if (length == ops.length) {
+            byte[] opsTmp = new byte[length * 2];
+            System.arraycopy(ops, 0, opsTmp, 0, length);
+            ops = opsTmp;
+            int[] tmp = new int[length * 2];
+            System.arraycopy(args1, 0, tmp, 0, length);
+            args1 = tmp;
+            tmp = new int[length * 2];
+            System.arraycopy(args2, 0, tmp, 0, length);
+            args2 = tmp;
+        }
+        ops[length] = op;
+        args1[length] = arg1;
+        args2[length] = arg2;
+        return length++;
+    }
+
+    /**
+     * Adds the instructions of a sequence of nodes inside quantifier
+     * iterations nested depth deep, or returns false if that cannot be
+     * done.
+     */
+    private boolean addSequence(RENode t, int depth)
+    {
+        for (; t != null; t = t.next) {
+            if (length > MAX_INSTRUCTIONS) {
+                return false;
+            }
+            switch (t.op) {
+            case REOP_EMPTY:
+                break;
+            case REOP_FLAT:
+                if (t.flatIndex != -1) {
+                    for (int i = 0; i < t.length; i++) {
+                        addChar(re.source[t.flatIndex + i]);
+                    }
+                } else {
+                    addChar(t.chr);
+                }
+                break;
+            case REOP_CLASS:
+                RECharSet charSet = re.classList[t.index];
+                if (!charSet.converted) {
+                    REGlobalData gData = new REGlobalData();
+                    gData.regexp = re;
+                    processCharSet(gData, charSet);
+                }
+                add(CLASS, t.index, 0);
+                break;
+            case REOP_DOT:
+            case REOP_DIGIT:
+            case REOP_NONDIGIT:
+            case REOP_ALNUM:
+            case REOP_NONALNUM:
+            case REOP_SPACE:
+            case REOP_NONSPACE:
+                add(TEST, t.op, 0);
+                break;
+            case REOP_BOL:
+            case REOP_EOL:
+            case REOP_WBDRY:
+            case REOP_WNONBDRY:
+                add(ASSERT, t.op, 0);
+                break;
+            case REOP_LPAREN:
+                add(OPEN, t.parenIndex, 0);
+                if (!addSequence(t.kid, depth)) {
+                    return false;
+                }
+                add(CLOSE, t.parenIndex, 0);
+                break;
+            case REOP_ALT:
+            case REOP_ALTPREREQ:
+            case REOP_ALTPREREQi:
+            case REOP_ALTPREREQ2:
+                // the prerequisite only tests the chars the alternatives
+                // start with
+                int split = add(SPLIT, 0, 0);
+                args1[split] = length;
+                if (!addSequence(t.kid, depth)) {
+                    return false;
+                }
+                int jump = add(JUMP, 0, 0);
+                args2[split] = length;
+                if (!addSequence(t.kid2, depth)) {
+                    return false;
+                }
+                args1[jump] = length;
+                break;
+            case REOP_QUANT:
+                if (!addQuantifier(t, depth)) {
+                    return false;
+                }
+                break;
+            default:
+                // back-references and lookahead assertions
+                return false;
+            }
+        }
+        return length <= MAX_INSTRUCTIONS;
+    }
+
+    private void addChar(char c)
+    {
+        if ((re.flags & JSREG_FOLD) != 0) {
+            add(CHAR_FOLD, c, upcase(c));
+        } else {
+            add(CHAR, c, 0);
+        }
+    }
+
+    /**
+     * Adds a copy of the child of the quantifier for each iteration up to
+     * its minimum, then either a loop or a copy for each optional
+     * iteration, each of which can be skipped to the end.
+     */
+    private boolean addQuantifier(RENode t, int depth)
+    {
+        if (t.max == 0) {
+            // the interpreter runs the child once anyway
+            return false;
+        }
+        int i = 1;
+        for (; i <= t.min; i++) {
+            if (length > MAX_INSTRUCTIONS) {
+                return false;
+            }
+            if (clearsParens(t, i)) {
+                add(CLEAR, t.parenIndex, t.parenCount);
+            }
+            if (!addSequence(t.kid, depth)) {
+                return false;
+            }
+        }
+        if (t.max == t.min) {
+            return true;
+        }
+        // Optional iterations that match the empty string are failures,
+        // so count how deep they nest if the child can match it
+        boolean nullable = isNullable(t.kid);
+        int iterationDepth = nullable ? depth + 1 : depth;
+        if (iterationDepth > maxDepth) {
+            maxDepth = iterationDepth;
+        }
+        int firstSplit = -1;
+        int[] splits;
+        if (t.max == -1) {
+            if (clearsParens(t, i) != clearsParens(t, i + 1)) {
+                firstSplit = add(SPLIT, 0, 0);
+                if (!addIteration(t, i, nullable, iterationDepth)) {
+                    return false;
+                }
+                i++;
+            }
+            int loop = add(SPLIT, 0, 0);
+            if (!addIteration(t, i, nullable, iterationDepth)) {
+                return false;
+            }
+            add(JUMP, loop, 0);
+            splits = new int[] { loop };
+        } else {
+            splits = new int[t.max - t.min];
+            for (int k = 0; k < splits.length; k++, i++) {
+                if (length > MAX_INSTRUCTIONS) {
+                    return false;
+                }
+                splits[k] = add(SPLIT, 0, 0);
+                if (!addIteration(t, i, nullable, iterationDepth)) {
+                    return false;
+                }
+            }
+        }
+        if (firstSplit != -1) {
+            setSplit(t, firstSplit);
+        }
+        for (int k = 0; k < splits.length; k++) {
+            setSplit(t, splits[k]);
+        }
+        return true;
+    }
+
+    /**
+     * Adds optional iteration i of the quantifier after its split.
+     */
+    private boolean addIteration(RENode t, int i, boolean nullable,
+                                 int depth)
+    {
+        if (clearsParens(t, i)) {
+            add(CLEAR, t.parenIndex, t.parenCount);
+        }
+        if (nullable) {
+            add(LOOP_START, depth, 0);
+        }
+        if (!addSequence(t.kid, depth)) {
+            return false;
+        }
+        if (nullable) {
+            add(LOOP_CHECK, depth, 0);
+        }
+        return true;
+    }
+
+    /**
+     * Points the split before an optional iteration at the iteration and
+     * at the current end of the program, in the order the quantifier
+     * prefers.
+     */
+    private void setSplit(RENode t, int split)
+    {
+        if (t.greedy) {
+            args1[split] = split + 1;
+            args2[split] = length;
+        } else {
+            args1[split] = length;
+            args2[split] = split + 1;
+        }
+    }
+
+    /**
+     * Returns true if the interpreter clears the parens inside the
+     * quantifier before iteration i, counting from 1.
+     */
+    private static boolean clearsParens(RENode t, int i)
+    {
+        if (t.parenCount == 0) {
+            return false;
+        }
+        if (t.greedy) {
+            return i > t.min && i >= 2;
+        }
+        return i >= 2 || t.min == 0;
+    }
+
+    /**
+     * Matches the regular expression at start or any later position of
+     * input as matchRegExp does, setting cp, skipped and the parens of
+     * gData to the match if there is one.
+     */
+    boolean match(REGlobalData gData, String input, int start, int end,
+                  boolean anchored)
+    {
+        int stride = maxDepth + 1;
+        int[] marks = new int[length * stride];
+        Threads current = new Threads();
+        Threads next = new Threads();
+        Threads stack = new Threads();
+        int capsLength = 1 + 2 * re.parenCount;
+
+        int pos = start;
+        if (!anchored) {
+            pos = skipToAnchor(gData, input, pos, end);
+            if (pos < 0) {
+                return false;
+            }
+        }
+        addThread(gData, current, stack, marks, 0, stride,
+                  newCaps(capsLength, pos), input, pos, start, end);
+
+        int[] matchCaps = null;
+        int matchEnd = -1;
+        for (;;) {
+            next.size = 0;
+            for (int i = 0; i < current.size; i++) {
+                int pc = current.pcs[i];
+                if (ops[pc] == MATCH) {
+                    // drop the threads the interpreter would try later
+                    matchCaps = current.caps[i];
+                    matchEnd = pos;
+                    break;
+                }
+                if (pos < end && consumes(pc, input.charAt(pos))) {
+                    addThread(gData, next, stack, marks, pc + 1, stride,
+                              current.caps[i], input, pos + 1, start, end);
+                }
+            }
+            if (pos == end) {
+                break;
+            }
+            int nextPos = pos + 1;
+            if (matchCaps == null && !anchored) {
+                if (next.size == 0) {
+                    nextPos = skipToAnchor(gData, input, nextPos, end);
+                    if (nextPos < 0) {
+                        break;
+                    }
+                }
+                addThread(gData, next, stack, marks, 0, stride,
+                          newCaps(capsLength, nextPos), input, nextPos,
+                          start, end);
+            }
+            if (next.size == 0 && (matchCaps != null || anchored)) {
+                break;
+            }
+            Threads tmp = current;
+            current = next;
+            next = tmp;
+            pos = nextPos;
+        }
+        if (matchCaps == null) {
+            return false;
+        }
+
+        gData.cp = matchEnd;
+        gData.skipped = matchCaps[0] - start;
+        for (int i = 0; i < re.parenCount; i++) {
+            int index = matchCaps[1 + 2 * i];
+            if (index < 0) {
+                gData.parens[i] = -1L;
+            } else {
+                int len = matchCaps[2 + 2 * i] - index;
+                gData.parens[i] = (index & 0xffffffffL) | ((long)len << 32);
+            }
+        }
+        return true;
+    }
+
+    private static int[] newCaps(int capsLength, int pos)
+    {
+        int[] caps = new int[capsLength];
+        caps[0] = pos;
+        for (int i = 1; i < capsLength; i++) {
+            caps[i] = -1;
+        }
+        return caps;
+    }
+
+    /**
+     * Returns the first position from pos where a match can start, which
+     * is where the first char is if the regular expression starts with
+     * one, or -1 if there is none.
+     */
+    private int skipToAnchor(REGlobalData gData, String input, int pos,
+                             int end)
+    {
+        int anchorCh = re.anchorCh;
+        if (anchorCh < 0) {
+            return pos;
+        }
+        boolean fold = (re.flags & JSREG_FOLD) != 0;
+        for (; pos < end; pos++) {
+            char matchCh = input.charAt(pos);
+            if (matchCh == anchorCh ||
+                    (fold && upcase(matchCh) == upcase((char)anchorCh))) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Follows the instructions that do not consume a character from pc at
+     * pos, adding the threads that reach one that does to the list, in
+     * the order the interpreter would try them.
+     */
+    private void addThread(REGlobalData gData, Threads list, Threads stack,
+                           int[] marks, int pc, int depth, int[] caps,
+                           String input, int pos, int start, int end)
+    {
+        int mark = pos - start + 1;
+        int stride = maxDepth + 1;
+        stack.size = 0;
+        stack.add(pc, depth, caps);
+        while (stack.size != 0) {
+            int top = --stack.size;
+            pc = stack.pcs[top];
+            depth = stack.depths[top];
+            caps = stack.caps[top];
+            stack.caps[top] = null;
+          follow:
+            for (;;) {
+                int key = pc * stride + depth - 1;
+                if (marks[key] == mark) {
+                    break;
+                }
+                marks[key] = mark;
+                switch (ops[pc]) {
+                case JUMP:
+                    pc = args1[pc];
+                    break;
+                case SPLIT:
+                    stack.add(args2[pc], depth, caps);
+                    pc = args1[pc];
+                    break;
+                case OPEN:
+                    caps = caps.clone();
+                    caps[1 + 2 * args1[pc]] = pos;
+                    caps[2 + 2 * args1[pc]] = pos;
+                    pc++;
+                    break;
+                case CLOSE:
+                    caps = caps.clone();
+                    caps[2 + 2 * args1[pc]] = pos;
+                    pc++;
+                    break;
+                case CLEAR:
+                    caps = caps.clone();
+                    for (int i = 1 + 2 * args1[pc],
+                             n = i + 2 * args2[pc]; i < n; i++) {
+                        caps[i] = -1;
+                    }
+                    pc++;
+                    break;
+                case LOOP_START:
+                    if (args1[pc] < depth) {
+                        depth = args1[pc];
+                    }
+                    pc++;
+                    break;
+                case LOOP_CHECK:
+                    if (depth <= args1[pc]) {
+                        // matched an empty string, that'll get us nowhere
+                        break follow;
+                    }
+                    pc++;
+                    break;
+                case ASSERT:
+                    if (!assertion(gData, args1[pc], input, pos, end)) {
+                        break follow;
+                    }
+                    pc++;
+                    break;
+                default:
+                    list.add(pc, depth, caps);
+                    break follow;
+                }
+            }
+        }
+    }
+
+    private boolean consumes(int pc, char ch)
+    {
+        switch (ops[pc]) {
+        case CHAR:
+            return ch == args1[pc];
+        case CHAR_FOLD:
+            return ch == args1[pc] || upcase(ch) == args2[pc];
+        case CLASS:
+            RECharSet charSet = re.classList[args1[pc]];
+            int byteIndex = ch >> 3;
+            return (charSet.length == 0 ||
+                    ch >= charSet.length ||
+                    (charSet.bits[byteIndex] & (1 << (ch & 0x7))) == 0)
+                   ^ charSet.sense;
+        case TEST:
+            switch (args1[pc]) {
+            case REOP_DOT:
+                return !isLineTerm(ch);
+            case REOP_DIGIT:
+                return isDigit(ch);
+            case REOP_NONDIGIT:
+                return !isDigit(ch);
+            case REOP_ALNUM:
+                return isWord(ch);
+            case REOP_NONALNUM:
+                return !isWord(ch);
+            case REOP_SPACE:
+                return isREWhiteSpace(ch);
+            case REOP_NONSPACE:
+                return !isREWhiteSpace(ch);
+            }
+            return false;
+        default:
+            return false;
+        }
+    }
+
+    private static boolean assertion(REGlobalData gData, int op,
+                                     String input, int pos, int end)
+    {
+        switch (op) {
+        case REOP_BOL:
+            return pos == 0 || (gData.multiline
+                                && isLineTerm(input.charAt(pos - 1)));
+        case REOP_EOL:
+            return pos == end || (gData.multiline
+                                  && isLineTerm(input.charAt(pos)));
+        case REOP_WBDRY:
+            return (pos == 0 || !isWord(input.charAt(pos - 1)))
+                   ^ !(pos < end && isWord(input.charAt(pos)));
+        case REOP_WNONBDRY:
+            return (pos == 0 || !isWord(input.charAt(pos - 1)))
+                   ^ (pos < end && isWord(input.charAt(pos)));
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * A list of threads, each at an instruction with the smallest depth
+     * of the iterations it has not consumed a char in, or maxDepth + 1,
+     * and its captures: the start of the match, then the start and end
+     * of every paren or -1.
+     */
+    private static final class Threads
+    {
+        int[] pcs = new int[16];
+        int[] depths = new int[16];
+        int[][] caps = new int[16][];
+        int size;
+
+        void add(int pc, int depth, int[] threadCaps)
+        {
+            if (size == pcs.length) {
+                int[] tmp = new int[size * 2];
+                System.arraycopy(pcs, 0, tmp, 0, size);
+                pcs = tmp;
+                tmp = new int[size * 2];
+                System.arraycopy(depths, 0, tmp, 0, size);
+                depths = tmp;
+                int[][] capsTmp = new int[size * 2][];
+                System.arraycopy(caps, 0, capsTmp, 0, size);
+                caps = capsTmp;
+            }
+            pcs[size] = pc;
+            depths[size] = depth;
+            caps[size] = threadCaps;
+            size++;
+        }
+    }
+}
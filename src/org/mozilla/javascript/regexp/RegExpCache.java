@@ -0,0 +1,186 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.regexp;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of compiled regular expressions shared by all Contexts, which
+ * keeps the recently used ones by source, flags and whether the source
+ * was taken literally.
+ * <p>
+ * A compiled regular expression does not change once it is compiled,
+ * except that the bitmaps of its character classes are built under a
+ * lock when they are first used, so any number of RegExp objects in any
+ * thread can share it. Each RegExp object keeps its own lastIndex.
+ * <p>
+ * Lookups do not lock. The least recently used regular expressions are
+ * dropped when the cache is full, but uses are only told apart if
+ * another regular expression was added between them, so the order is
+ * approximate.
+ * <p>
+ * Regular expressions compiled with {@link
+ * org.mozilla.javascript.Context#FEATURE_STRICT_MODE} are not cached, so
+ * that their warnings are reported each time.
+ */
+public final class RegExpCache
+{
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    private RegExpCache()
+    {
+    }
+
+    /**
+     * Returns the number of compiled regular expressions the cache keeps.
+     */
+    public static int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * Sets the number of compiled regular expressions the cache keeps,
+     * dropping the least recently used ones if there are more. A size of
+     * 0 disables the cache.
+     */
+    public static void setMaxSize(int size)
+    {
+        if (size < 0) throw new IllegalArgumentException();
+        maxSize = size;
+        evict(size);
+    }
+
+    public static int size()
+    {
+        return map.size();
+    }
+
+    /**
+     * Returns how often a regular expression was not found in the cache
+     * and had to be compiled.
+     */
+    public static long getMissCount()
+    {
+        return missCount.get();
+    }
+
+    /**
+     * Removes all regular expressions from the cache and resets the
+     * count of misses.
+     */
+    public static void clear()
+    {
+        map.clear();
+        missCount.set(0);
+    }
+
+    static RECompiled get(String source, String flags, boolean flat)
+    {
+        Entry entry = map.get(new Key(source, flags, flat));
+        if (entry == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        // Only write the entry if another one was added since its last
+        // use, so hits on the same regular expression do not contend
+        long now = clock.get();
+        if (entry.lastUsed != now) {
+            entry.lastUsed = now;
+        }
+        return entry.compiled;
+    }
+
+    static void put(String source, String flags, boolean flat,
+                    RECompiled compiled)
+    {
+        int max = maxSize;
+        if (max > 0) {
+            map.put(new Key(source, flags, flat),
+                    new Entry(compiled, clock.incrementAndGet()));
+            if (map.size() > max) {
+                evict(max);
+            }
+        }
+    }
+
+    /**
+     * Drops the least recently used entries until at most max are left.
+     * Threads that evict at the same time may drop a few more.
+     */
+    private static void evict(int max)
+    {
+        while (map.size() > max) {
+            Map.Entry<Key,Entry> oldest = null;
+            for (Map.Entry<Key,Entry> e : map.entrySet()) {
+                if (oldest == null
+                    || e.getValue().lastUsed < oldest.getValue().lastUsed)
+                {
+                    oldest = e;
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            map.remove(oldest.getKey(), oldest.getValue());
+        }
+    }
+
+    private static final class Entry
+    {
+        final RECompiled compiled;
+        volatile long lastUsed;
+
+        Entry(RECompiled compiled, long lastUsed)
+        {
+            this.compiled = compiled;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    private static final class Key
+    {
+        final String source;
+        final String flags;
+        final boolean flat;
+
+        Key(String source, String flags, boolean flat)
+        {
+            this.source = source;
+            this.flags = flags == null ? "" : flags;
+            this.flat = flat;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return flat == other.flat && source.equals(other.source)
+                   && flags.equals(other.flags);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return source.hashCode() * 31 + flags.hashCode() + (flat ? 1 : 0);
+        }
+    }
+
+    private static volatile int maxSize = DEFAULT_MAX_SIZE;
+    // Advanced by every put, entries record it when they are used
+    private static final AtomicLong clock = new AtomicLong();
+    private static final AtomicLong missCount = new AtomicLong();
+
+    private static final ConcurrentMap<Key,Entry> map =
+        new ConcurrentHashMap<Key,Entry>();
+}
@@ -0,0 +1,1356 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.regexp;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.mozilla.classfile.ByteCode;
+import org.mozilla.classfile.ClassFileWriter;
+import org.mozilla.javascript.ClassLimitException;
+import org.mozilla.javascript.GeneratedClassLoader;
+import org.mozilla.javascript.SecurityController;
+
+import static org.mozilla.classfile.ClassFileWriter.ACC_FINAL;
+import static org.mozilla.classfile.ClassFileWriter.ACC_PROTECTED;
+import static org.mozilla.classfile.ClassFileWriter.ACC_PUBLIC;
+import static org.mozilla.javascript.regexp.NativeRegExp.*;
+
+/**
+ * Generates a JVM class that matches one compiled regular expression.
+ * <p>
+ * The generated execute method does what NativeRegExp.executeREBytecode
+ * does for the program of the regular expression, with the opcodes and
+ * their operands known when the code is generated. Every opcode the
+ * interpreter can continue at, which is every opcode of the program
+ * and the REOP_REPEAT or REOP_MINIMALREPEAT of every quantifier, becomes
+ * a point with its own code and a number. Continuations and backtrack
+ * points hold point numbers, and jumps to them go through a tableswitch.
+ * Everything else the interpreter decides at run time, such as whether a
+ * quantifier is greedy or what the next opcode is, is decided here.
+ *
+ * @see CompiledRegExp
+ */
+final class RegExpCodegen
+{
+    /**
+     * Programs longer than this are left to the interpreter, as their code
+     * could get too big for a method.
+     */
+    static final int MAX_PROGRAM_LENGTH = 4000;
+
+    /**
+     * Flat strings longer than this are matched by a call rather than a
+     * comparison per character.
+     */
+    private static final int MAX_INLINE_FLAT_LENGTH = 16;
+
+    /**
+     * Character classes made of more ranges than this are tested with
+     * their bitmap rather than by comparisons.
+     */
+    private static final int MAX_INLINE_CLASS_RANGES = 4;
+
+    private static final String SUPER_CLASS_NAME =
+        "org.mozilla.javascript.regexp.CompiledRegExp";
+
+    private static final String EXECUTE_SIGNATURE = "(Ljava/lang/String;I)Z";
+
+    // locals of the execute method
+    private static final short THIS = 0;
+    private static final short INPUT = 1;
+    private static final short END = 2;
+    private static final short CP = 3;
+    private static final short RESULT = 4;
+    private static final short CONTINUATION = 5;
+    private static final short TARGET = 6;
+    private static final short SKIPPED = 7;
+    private static final short STATE = 8;
+    private static final short MIN = 9;
+    private static final short MAX = 10;
+    private static final short START_CP = 11;
+    private static final short SAVED_CP = 12;
+    private static final short CH = 13;
+    private static final short SCRATCH = 14;
+    private static final short MAX_LOCALS = 15;
+
+    private static final Object globalLock = new Object();
+    private static int globalSerialClassCounter;
+
+    /**
+     * Generates and loads the class for re, or returns null if re is too
+     * complex or classes cannot be defined.
+     */
+    static CompiledRegExp compile(RECompiled re)
+    {
+        if (re.program.length > MAX_PROGRAM_LENGTH) {
+            return null;
+        }
+        int serial;
+        synchronized (globalLock) {
+            serial = ++globalSerialClassCounter;
+        }
+        String className = "org.mozilla.javascript.gen.RegExp_" + serial;
+        byte[] classBytes;
+        try {
+            classBytes = new RegExpCodegen(re).generate(className);
+        } catch (ClassLimitException e) {
+            return null;
+        }
+        if (classBytes == null) {
+            return null;
+        }
+        try {
+            GeneratedClassLoader loader = SecurityController.createLoader(
+                RegExpCodegen.class.getClassLoader(), null);
+            Class<?> cl = loader.defineClass(className, classBytes);
+            loader.linkClass(cl);
+            return (CompiledRegExp)cl.getDeclaredConstructor().newInstance();
+        } catch (SecurityException e) {
+        } catch (IllegalArgumentException e) {
+        } catch (LinkageError e) {
+        } catch (InstantiationException e) {
+        } catch (IllegalAccessException e) {
+        } catch (InvocationTargetException e) {
+        } catch (NoSuchMethodException e) {
+        }
+        return null;
+    }
+
+    private RegExpCodegen(RECompiled re)
+    {
+        this.re = re;
+        this.program = re.program;
+    }
+
+    private byte[] generate(String className)
+    {
+        findPoints();
+
+        cfw = new ClassFileWriter(className, SUPER_CLASS_NAME, "<regexp>");
+        cfw.setFlags((short)(ACC_PUBLIC | ACC_FINAL));
+
+        cfw.startMethod("<init>", "()V", ACC_PUBLIC);
+        cfw.addLoadThis();
+        cfw.addInvoke(ByteCode.INVOKESPECIAL, SUPER_CLASS_NAME,
+                      "<init>", "()V");
+        cfw.add(ByteCode.RETURN);
+        cfw.stopMethod((short)1);
+
+        cfw.startMethod("newMatcher",
+                        "()L" + SUPER_CLASS_NAME.replace('.', '/') + ";",
+                        ACC_PROTECTED);
+        cfw.add(ByteCode.NEW, className);
+        cfw.add(ByteCode.DUP);
+        cfw.addInvoke(ByteCode.INVOKESPECIAL, className, "<init>", "()V");
+        cfw.add(ByteCode.ARETURN);
+        cfw.stopMethod((short)1);
+
+        cfw.startMethod("execute", EXECUTE_SIGNATURE, ACC_PROTECTED);
+        generateExecute();
+        if (cfw.getCurrentCodeOffset() > Short.MAX_VALUE) {
+            // Backward jumps could not reach the dispatch
+            return null;
+        }
+        cfw.stopMethod(MAX_LOCALS);
+
+        return cfw.toByteArray();
+    }
+
+    /**
+     * Finds the points the interpreter can continue at by walking the
+     * program, whose opcodes follow each other up to REOP_END.
+     */
+    private void findPoints()
+    {
+        byte op = program[0];
+        if (re.anchorCh < 0 && reopIsSimple(op)) {
+            // Scan for the first match of a simple opcode
+            entry = addPoint(SCAN, 0);
+        }
+        endContinuation = addPoint(REOP_END, 0);
+
+        int pc = 0;
+        for (;;) {
+            op = program[pc++];
+            addPoint(op, pc);
+            if (op == REOP_END) {
+                break;
+            }
+            switch (op) {
+              case REOP_QUANT:
+              case REOP_MINIMALQUANT:
+              case REOP_STAR:
+              case REOP_PLUS:
+              case REOP_OPT:
+              case REOP_MINIMALSTAR:
+              case REOP_MINIMALPLUS:
+              case REOP_MINIMALOPT:
+                if (op == REOP_QUANT || op == REOP_MINIMALQUANT) {
+                    pc += 2 * INDEX_LEN;
+                }
+                boolean greedy = op == REOP_QUANT || op == REOP_STAR
+                                 || op == REOP_PLUS || op == REOP_OPT;
+                addPoint(greedy ? REOP_REPEAT : REOP_MINIMALREPEAT, pc);
+                // The interpreter runs the child of {0} once, so leave it
+                // to generateRepeat.
+                if (greedy && isCharLoop(pc)
+                    && (op != REOP_QUANT
+                        || getOffset(program, pc - INDEX_LEN) != 1))
+                {
+                    charLoops.add(Integer.valueOf(pc));
+                }
+                pc += 3 * INDEX_LEN;
+                break;
+              case REOP_FLAT1:
+              case REOP_FLAT1i:
+                pc++;
+                break;
+              case REOP_FLAT:
+              case REOP_FLATi:
+                pc += 2 * INDEX_LEN;
+                break;
+              case REOP_ALTPREREQ:
+              case REOP_ALTPREREQi:
+              case REOP_ALTPREREQ2:
+                pc += 3 * INDEX_LEN;
+                break;
+              case REOP_BACKREF:
+              case REOP_UCFLAT1:
+              case REOP_UCFLAT1i:
+              case REOP_CLASS:
+              case REOP_NCLASS:
+              case REOP_LPAREN:
+              case REOP_RPAREN:
+              case REOP_ALT:
+              case REOP_JUMP:
+              case REOP_ASSERT:
+              case REOP_ASSERT_NOT:
+                pc += INDEX_LEN;
+                break;
+              default:
+                if (!reopIsSimple(op) && op != REOP_ASSERTTEST
+                    && op != REOP_ASSERTNOTTEST && op != REOP_ENDCHILD)
+                {
+                    throw new ClassLimitException("Unknown regexp opcode");
+                }
+                break;
+            }
+        }
+        if (entry == null) {
+            entry = getPoint(program[0], 1);
+        }
+    }
+
+    private Point addPoint(byte op, int pc)
+    {
+        Point point = new Point(op, pc, points.size());
+        points.add(point);
+        pointMap.put(Integer.valueOf(pointKey(op, pc)), point);
+        return point;
+    }
+
+    private Point getPoint(int op, int pc)
+    {
+        Point point = pointMap.get(Integer.valueOf(pointKey(op, pc)));
+        if (point == null) {
+            throw new ClassLimitException("Unknown regexp program point");
+        }
+        return point;
+    }
+
+    private static int pointKey(int op, int pc)
+    {
+        return (pc << 6) | op;
+    }
+
+    private void generateExecute()
+    {
+        cfw.addLoadThis();
+        cfw.add(ByteCode.GETFIELD, SUPER_CLASS_NAME, "cp", "I");
+        cfw.addIStore(CP);
+        cfw.addLoadThis();
+        cfw.add(ByteCode.GETFIELD, SUPER_CLASS_NAME, "skipped", "I");
+        cfw.addIStore(SKIPPED);
+        cfw.addPush(endContinuation.id);
+        cfw.addIStore(CONTINUATION);
+        cfw.addPush(entry.id);
+        cfw.addIStore(TARGET);
+        short[] scratchLocals = { RESULT, STATE, MIN, MAX, START_CP, SAVED_CP,
+                                  CH, SCRATCH };
+        for (short local : scratchLocals) {
+            cfw.add(ByteCode.ICONST_0);
+            cfw.addIStore(local);
+        }
+
+        dispatch = cfw.acquireLabel();
+        fail = cfw.acquireLabel();
+        returnFalse = cfw.acquireLabel();
+        for (Point point : points) {
+            point.label = cfw.acquireLabel();
+        }
+
+        cfw.markLabel(dispatch);
+        cfw.addILoad(TARGET);
+        // The last case is the failure code, which makes it the start of a
+        // block even if no opcode can fail.
+        int switchStart = cfw.addTableSwitch(0, points.size());
+        cfw.markTableSwitchDefault(switchStart);
+        cfw.addInvoke(ByteCode.INVOKESTATIC, "org/mozilla/javascript/Kit",
+                      "codeBug", "()Ljava/lang/RuntimeException;");
+        cfw.add(ByteCode.ATHROW);
+
+        for (Point point : points) {
+            cfw.markTableSwitchCase(switchStart, point.id);
+            cfw.markLabel(point.label);
+            generatePoint(point);
+        }
+
+        // Take the last backtrack point, as the interpreter does when an
+        // opcode fails.
+        cfw.markTableSwitchCase(switchStart, points.size());
+        cfw.markLabel(fail);
+        cfw.add(ByteCode.ICONST_0);
+        cfw.addIStore(RESULT);
+        cfw.addLoadThis();
+        addMatcherInvoke("backTrack", "()I");
+        cfw.addIStore(TARGET);
+        cfw.addILoad(TARGET);
+        cfw.add(ByteCode.IFLT, returnFalse);
+        cfw.addLoadThis();
+        cfw.add(ByteCode.GETFIELD, SUPER_CLASS_NAME, "cp", "I");
+        cfw.addIStore(CP);
+        cfw.addLoadThis();
+        cfw.add(ByteCode.GETFIELD, SUPER_CLASS_NAME, "continuation", "I");
+        cfw.addIStore(CONTINUATION);
+        cfw.add(ByteCode.GOTO, dispatch);
+
+        cfw.markLabel(returnFalse);
+        addReturn(false);
+    }
+
+    private void generatePoint(Point point)
+    {
+        int op = point.op;
+        int pc = point.pc;
+        if (op == SCAN) {
+            generateScan();
+            return;
+        }
+        if (reopIsSimple(op)) {
+            pc = addSimpleMatch(op, pc, fail);
+            addSetResult(true);
+            addGoToOpAt(pc);
+            return;
+        }
+        switch (op) {
+          case REOP_ALTPREREQ:
+          case REOP_ALTPREREQi:
+          case REOP_ALTPREREQ2:
+            {
+                char matchCh1 = (char)getIndex(program, pc);
+                pc += INDEX_LEN;
+                char matchCh2 = (char)getIndex(program, pc);
+                pc += INDEX_LEN;
+
+                cfw.addILoad(CP);
+                cfw.addILoad(END);
+                cfw.add(ByteCode.IF_ICMPEQ, fail);
+                addLoadChar(0);
+                cfw.addIStore(CH);
+                int matched = cfw.acquireLabel();
+                if (op == REOP_ALTPREREQ2) {
+                    cfw.addILoad(CH);
+                    cfw.addPush(matchCh1);
+                    cfw.add(ByteCode.IF_ICMPEQ, matched);
+                    addClassTest(matchCh2, fail);
+                } else {
+                    if (op == REOP_ALTPREREQi) {
+                        cfw.addILoad(CH);
+                        addUpcase();
+                        cfw.addIStore(CH);
+                    }
+                    cfw.addILoad(CH);
+                    cfw.addPush(matchCh1);
+                    cfw.add(ByteCode.IF_ICMPEQ, matched);
+                    cfw.addILoad(CH);
+                    cfw.addPush(matchCh2);
+                    cfw.add(ByteCode.IF_ICMPNE, fail);
+                }
+                cfw.markLabel(matched);
+            }
+            generateAlt(pc);
+            break;
+
+          case REOP_ALT:
+            generateAlt(pc);
+            break;
+
+          case REOP_JUMP:
+            addGoToOpAt(pc + getOffset(program, pc));
+            break;
+
+          case REOP_LPAREN:
+            cfw.addLoadThis();
+            cfw.addPush(getIndex(program, pc));
+            cfw.addILoad(CP);
+            cfw.add(ByteCode.ICONST_0);
+            addMatcherInvoke("setParens", "(III)V");
+            addGoToOpAt(pc + INDEX_LEN);
+            break;
+
+          case REOP_RPAREN:
+            {
+                int parenIndex = getIndex(program, pc);
+                cfw.addLoadThis();
+                cfw.addPush(parenIndex);
+                addMatcherInvoke("parensIndex", "(I)I");
+                cfw.addIStore(SCRATCH);
+                cfw.addLoadThis();
+                cfw.addPush(parenIndex);
+                cfw.addILoad(SCRATCH);
+                cfw.addILoad(CP);
+                cfw.addILoad(SCRATCH);
+                cfw.add(ByteCode.ISUB);
+                addMatcherInvoke("setParens", "(III)V");
+                addGoToOpAt(pc + INDEX_LEN);
+            }
+            break;
+
+          case REOP_ASSERT:
+          case REOP_ASSERT_NOT:
+            {
+                int nextpc = pc + getIndex(program, pc);
+                pc += INDEX_LEN;
+                int childOp = program[pc++];
+                if (reopIsSimple(childOp)) {
+                    cfw.addILoad(CP);
+                    cfw.addIStore(SAVED_CP);
+                    if (op == REOP_ASSERT) {
+                        addSimpleMatch(childOp, pc, fail);
+                        cfw.addILoad(SAVED_CP);
+                        cfw.addIStore(CP);
+                    } else {
+                        int noMatch = cfw.acquireLabel();
+                        int match = addSimpleMatch(childOp, pc, noMatch);
+                        cfw.addILoad(SAVED_CP);
+                        cfw.addIStore(CP);
+                        if (program[match] == REOP_ASSERTNOTTEST) {
+                            cfw.add(ByteCode.GOTO, fail);
+                        }
+                        cfw.markLabel(noMatch);
+                    }
+                }
+                cfw.addLoadThis();
+                cfw.addILoad(CP);
+                cfw.addILoad(CONTINUATION);
+                addMatcherInvoke("pushAssertState", "(II)V");
+                byte testOp = op == REOP_ASSERT ? REOP_ASSERTTEST
+                                                : REOP_ASSERTNOTTEST;
+                addPushBackTrack(getPoint(testOp, nextpc), CP, CONTINUATION);
+                addGoTo(getPoint(childOp, pc));
+            }
+            break;
+
+          case REOP_ASSERTTEST:
+          case REOP_ASSERTNOTTEST:
+            cfw.addLoadThis();
+            addMatcherInvoke("popAssertState", "()I");
+            cfw.addIStore(STATE);
+            addLoadState("stateIndex");
+            cfw.addIStore(CP);
+            addLoadState("stateContinuation");
+            cfw.addIStore(CONTINUATION);
+            if (op == REOP_ASSERTNOTTEST) {
+                cfw.addILoad(RESULT);
+                cfw.add(ByteCode.ICONST_1);
+                cfw.add(ByteCode.IXOR);
+                cfw.addIStore(RESULT);
+            }
+            addBreak(pc);
+            break;
+
+          case REOP_STAR:
+          case REOP_PLUS:
+          case REOP_OPT:
+          case REOP_QUANT:
+          case REOP_MINIMALSTAR:
+          case REOP_MINIMALPLUS:
+          case REOP_MINIMALOPT:
+          case REOP_MINIMALQUANT:
+            generateQuantifier(op, pc);
+            break;
+
+          case REOP_ENDCHILD:
+            addSetResult(true);
+            cfw.addILoad(CONTINUATION);
+            cfw.addIStore(TARGET);
+            cfw.add(ByteCode.GOTO, dispatch);
+            break;
+
+          case REOP_REPEAT:
+            generateRepeat(pc);
+            break;
+
+          case REOP_MINIMALREPEAT:
+            generateMinimalRepeat(pc);
+            break;
+
+          case REOP_END:
+            addReturn(true);
+            break;
+
+          default:
+            throw new ClassLimitException("Unknown regexp opcode");
+        }
+    }
+
+    /**
+     * Steps through the input until the first opcode matches.
+     */
+    private void generateScan()
+    {
+        int scan = cfw.acquireLabel();
+        int next = cfw.acquireLabel();
+        cfw.markLabel(scan);
+        cfw.addILoad(CP);
+        cfw.addILoad(END);
+        cfw.add(ByteCode.IF_ICMPGT, returnFalse);
+        int pc = addSimpleMatch(program[0], 1, next);
+        addGoToOpAt(pc);
+        cfw.markLabel(next);
+        addIncrement(SKIPPED, 1);
+        addIncrement(CP, 1);
+        cfw.add(ByteCode.GOTO, scan);
+    }
+
+    private void generateAlt(int pc)
+    {
+        int nextpc = pc + getOffset(program, pc);
+        pc += INDEX_LEN;
+        int op = program[pc++];
+        cfw.addILoad(CP);
+        cfw.addIStore(START_CP);
+        int nextAlt = -1;
+        if (reopIsSimple(op)) {
+            nextAlt = cfw.acquireLabel();
+            int match = addSimpleMatch(op, pc, nextAlt);
+            addSetResult(true);
+            pc = match;
+            op = program[pc++];
+        }
+        addPushBackTrack(getPoint(program[nextpc], nextpc + 1),
+                         START_CP, CONTINUATION);
+        addGoTo(getPoint(op, pc));
+        if (nextAlt != -1) {
+            cfw.markLabel(nextAlt);
+            addGoToOpAt(nextpc);
+        }
+    }
+
+    private void generateQuantifier(int op, int pc)
+    {
+        int min, max;
+        boolean greedy = op == REOP_STAR || op == REOP_PLUS
+                         || op == REOP_OPT || op == REOP_QUANT;
+        switch (op) {
+          case REOP_STAR:
+          case REOP_MINIMALSTAR:
+            min = 0;
+            max = -1;
+            break;
+          case REOP_PLUS:
+          case REOP_MINIMALPLUS:
+            min = 1;
+            max = -1;
+            break;
+          case REOP_OPT:
+          case REOP_MINIMALOPT:
+            min = 0;
+            max = 1;
+            break;
+          default:
+            min = getOffset(program, pc);
+            pc += INDEX_LEN;
+            // See comments in emitREBytecode for " - 1" reason
+            max = getOffset(program, pc) - 1;
+            pc += INDEX_LEN;
+            break;
+        }
+        if (charLoops.contains(Integer.valueOf(pc))) {
+            generateCharLoop(min, max, pc);
+            return;
+        }
+        cfw.addLoadThis();
+        cfw.addPush(min);
+        cfw.addPush(max);
+        cfw.addILoad(CP);
+        cfw.addILoad(CONTINUATION);
+        addMatcherInvoke("pushState", "(IIII)V");
+        if (greedy) {
+            Point repeat = getPoint(REOP_REPEAT, pc);
+            addPushBackTrack(repeat, CP, CONTINUATION);
+            cfw.addPush(repeat.id);
+            cfw.addIStore(CONTINUATION);
+            addGoToOpAt(pc + 3 * INDEX_LEN);
+        } else {
+            Point repeat = getPoint(REOP_MINIMALREPEAT, pc);
+            if (min != 0) {
+                cfw.addPush(repeat.id);
+                cfw.addIStore(CONTINUATION);
+                addGoToOpAt(pc + 3 * INDEX_LEN);
+            } else {
+                addPushBackTrack(repeat, CP, CONTINUATION);
+                cfw.addLoadThis();
+                addMatcherInvoke("popState", "()I");
+                cfw.add(ByteCode.POP);
+                addGoToOpAt(getNextTerm(pc));
+            }
+        }
+    }
+
+    /**
+     * Tests if the child of the quantifier with its paren count at pc
+     * matches a single character, so that it neither captures nor matches
+     * the empty string.
+     */
+    private boolean isCharLoop(int pc)
+    {
+        int childpc = pc + 3 * INDEX_LEN;
+        int nextpc = childpc + 1;
+        switch (program[childpc]) {
+          case REOP_DOT:
+          case REOP_DIGIT:
+          case REOP_NONDIGIT:
+          case REOP_ALNUM:
+          case REOP_NONALNUM:
+          case REOP_SPACE:
+          case REOP_NONSPACE:
+            break;
+          case REOP_FLAT1:
+          case REOP_FLAT1i:
+            nextpc++;
+            break;
+          case REOP_UCFLAT1:
+          case REOP_UCFLAT1i:
+          case REOP_CLASS:
+          case REOP_NCLASS:
+            nextpc += INDEX_LEN;
+            break;
+          default:
+            return false;
+        }
+        return program[nextpc] == REOP_ENDCHILD;
+    }
+
+    /**
+     * Generates a greedy quantifier of a single character. Where the
+     * interpreter pushes a backtrack point for every match of the child,
+     * this matches as many characters as it can and pushes one backtrack
+     * point at the REOP_REPEAT of the quantifier, which gives back one
+     * character at a time down to the minimum count.
+     */
+    private void generateCharLoop(int min, int max, int pc)
+    {
+        int childpc = pc + 3 * INDEX_LEN;
+        cfw.addILoad(CP);
+        cfw.addIStore(START_CP);
+        int loop = cfw.acquireLabel();
+        int done = cfw.acquireLabel();
+        cfw.markLabel(loop);
+        if (max != -1) {
+            cfw.addILoad(CP);
+            cfw.addILoad(START_CP);
+            cfw.add(ByteCode.ISUB);
+            cfw.addPush(max);
+            cfw.add(ByteCode.IF_ICMPGE, done);
+        }
+        addSimpleMatch(program[childpc], childpc + 1, done);
+        cfw.add(ByteCode.GOTO, loop);
+        cfw.markLabel(done);
+
+        addIncrement(START_CP, min);
+        cfw.addILoad(CP);
+        cfw.addILoad(START_CP);
+        cfw.add(ByteCode.IF_ICMPLT, fail);
+        addPushGiveBack(pc);
+        addSetResult(true);
+        addGoToOpAt(getNextTerm(pc));
+    }
+
+    /**
+     * Gives back the last character a quantifier generated by
+     * generateCharLoop matched, with the index after its minimum count as
+     * the backtrack data.
+     */
+    private void generateGiveBack(int pc)
+    {
+        cfw.addLoadThis();
+        cfw.add(ByteCode.GETFIELD, SUPER_CLASS_NAME, "backTrackData", "I");
+        cfw.addIStore(START_CP);
+        addIncrement(CP, -1);
+        addPushGiveBack(pc);
+        addSetResult(true);
+        addGoToOpAt(getNextTerm(pc));
+    }
+
+    /**
+     * Pushes the backtrack point of generateGiveBack if CP is after
+     * START_CP, the index after the minimum count.
+     */
+    private void addPushGiveBack(int pc)
+    {
+        int skip = cfw.acquireLabel();
+        cfw.addILoad(CP);
+        cfw.addILoad(START_CP);
+        cfw.add(ByteCode.IF_ICMPLE, skip);
+        cfw.addLoadThis();
+        cfw.addPush(getPoint(REOP_REPEAT, pc).id);
+        cfw.addILoad(CP);
+        cfw.addILoad(CONTINUATION);
+        cfw.addILoad(START_CP);
+        addMatcherInvoke("pushBackTrack", "(IIII)V");
+        cfw.markLabel(skip);
+    }
+
+    private void generateRepeat(int pc)
+    {
+        if (charLoops.contains(Integer.valueOf(pc))) {
+            generateGiveBack(pc);
+            return;
+        }
+        Point repeat = getPoint(REOP_REPEAT, pc);
+        int nextTerm = getNextTerm(pc);
+        int childpc = pc + 3 * INDEX_LEN;
+        int childOp = program[childpc];
+
+        int loop = cfw.acquireLabel();
+        cfw.markLabel(loop);
+        cfw.addLoadThis();
+        addMatcherInvoke("popState", "()I");
+        cfw.addIStore(STATE);
+
+        // Failed, see if we have enough children.
+        int matched = cfw.acquireLabel();
+        cfw.addILoad(RESULT);
+        cfw.add(ByteCode.IFNE, matched);
+        int notEnough = cfw.acquireLabel();
+        addLoadState("stateMin");
+        cfw.add(ByteCode.IFNE, notEnough);
+        addSetResult(true);
+        cfw.markLabel(notEnough);
+        addRestoreContinuation();
+        addBreak(nextTerm);
+
+        // Matched an empty string, that'll get us nowhere.
+        cfw.markLabel(matched);
+        addEmptyMatchTest();
+
+        addCountDown();
+        int more = cfw.acquireLabel();
+        cfw.addILoad(MAX);
+        cfw.add(ByteCode.IFNE, more);
+        addSetResult(true);
+        addRestoreContinuation();
+        addGoToOpAt(nextTerm);
+        cfw.markLabel(more);
+
+        cfw.addILoad(CP);
+        cfw.addIStore(START_CP);
+        int nextpc = childpc;
+        int childFailed = -1;
+        if (reopIsSimple(childOp)) {
+            childFailed = cfw.acquireLabel();
+            nextpc = addSimpleMatch(childOp, childpc + 1, childFailed);
+            addSetResult(true);
+        }
+        cfw.addLoadThis();
+        cfw.addILoad(MIN);
+        cfw.addILoad(MAX);
+        cfw.addILoad(START_CP);
+        addLoadState("stateContinuation");
+        addMatcherInvoke("pushState", "(IIII)V");
+        int skipBackTrack = cfw.acquireLabel();
+        cfw.addILoad(MIN);
+        cfw.add(ByteCode.IFNE, skipBackTrack);
+        addLoadState("stateContinuation");
+        cfw.addIStore(SCRATCH);
+        addPushBackTrack(repeat, START_CP, SCRATCH);
+        addClearParens(pc);
+        cfw.markLabel(skipBackTrack);
+        cfw.addPush(repeat.id);
+        cfw.addIStore(CONTINUATION);
+        if (program[nextpc] == REOP_ENDCHILD) {
+            cfw.add(ByteCode.GOTO, loop);
+        } else {
+            addGoToOpAt(nextpc);
+        }
+
+        if (childFailed != -1) {
+            cfw.markLabel(childFailed);
+            int atMin = cfw.acquireLabel();
+            addSetResult(false);
+            cfw.addILoad(MIN);
+            cfw.add(ByteCode.IFNE, atMin);
+            addSetResult(true);
+            cfw.markLabel(atMin);
+            addRestoreContinuation();
+            addBreak(nextTerm);
+        }
+    }
+
+    private void generateMinimalRepeat(int pc)
+    {
+        Point repeat = getPoint(REOP_MINIMALREPEAT, pc);
+        int childpc = pc + 3 * INDEX_LEN;
+
+        cfw.addLoadThis();
+        addMatcherInvoke("popState", "()I");
+        cfw.addIStore(STATE);
+
+        // Non-greedy failure - try to consume another child.
+        int matched = cfw.acquireLabel();
+        cfw.addILoad(RESULT);
+        cfw.add(ByteCode.IFNE, matched);
+        int more = cfw.acquireLabel();
+        addLoadState("stateMax");
+        cfw.addIStore(MAX);
+        cfw.addILoad(MAX);
+        cfw.add(ByteCode.ICONST_M1);
+        cfw.add(ByteCode.IF_ICMPEQ, more);
+        cfw.addILoad(MAX);
+        cfw.add(ByteCode.IFGT, more);
+        addRestoreContinuation();
+        cfw.add(ByteCode.GOTO, fail);
+        cfw.markLabel(more);
+        cfw.addLoadThis();
+        addLoadState("stateMin");
+        cfw.addILoad(MAX);
+        cfw.addILoad(CP);
+        addLoadState("stateContinuation");
+        addMatcherInvoke("pushState", "(IIII)V");
+        cfw.addPush(repeat.id);
+        cfw.addIStore(CONTINUATION);
+        addClearParens(pc);
+        addGoToOpAt(childpc);
+
+        // Matched an empty string, that'll get us nowhere.
+        cfw.markLabel(matched);
+        addEmptyMatchTest();
+
+        addCountDown();
+        cfw.addLoadThis();
+        cfw.addILoad(MIN);
+        cfw.addILoad(MAX);
+        cfw.addILoad(CP);
+        addLoadState("stateContinuation");
+        addMatcherInvoke("pushState", "(IIII)V");
+        int done = cfw.acquireLabel();
+        cfw.addILoad(MIN);
+        cfw.add(ByteCode.IFEQ, done);
+        cfw.addPush(repeat.id);
+        cfw.addIStore(CONTINUATION);
+        addClearParens(pc);
+        addGoToOpAt(childpc);
+        cfw.markLabel(done);
+        addRestoreContinuation();
+        addPushBackTrack(repeat, CP, CONTINUATION);
+        cfw.addLoadThis();
+        addMatcherInvoke("popState", "()I");
+        cfw.add(ByteCode.POP);
+        addGoToOpAt(getNextTerm(pc));
+    }
+
+    /**
+     * Fails if a quantifier with no minimum left matched the empty string.
+     */
+    private void addEmptyMatchTest()
+    {
+        int nonEmpty = cfw.acquireLabel();
+        addLoadState("stateMin");
+        cfw.add(ByteCode.IFNE, nonEmpty);
+        cfw.addILoad(CP);
+        addLoadState("stateIndex");
+        cfw.add(ByteCode.IF_ICMPNE, nonEmpty);
+        addRestoreContinuation();
+        cfw.add(ByteCode.GOTO, fail);
+        cfw.markLabel(nonEmpty);
+    }
+
+    /**
+     * Sets MIN and MAX to the counts of the popped state less one match.
+     */
+    private void addCountDown()
+    {
+        int minDone = cfw.acquireLabel();
+        addLoadState("stateMin");
+        cfw.addIStore(MIN);
+        cfw.addILoad(MIN);
+        cfw.add(ByteCode.IFEQ, minDone);
+        addIncrement(MIN, -1);
+        cfw.markLabel(minDone);
+        int maxDone = cfw.acquireLabel();
+        addLoadState("stateMax");
+        cfw.addIStore(MAX);
+        cfw.addILoad(MAX);
+        cfw.add(ByteCode.ICONST_M1);
+        cfw.add(ByteCode.IF_ICMPEQ, maxDone);
+        addIncrement(MAX, -1);
+        cfw.markLabel(maxDone);
+    }
+
+    private void addClearParens(int pc)
+    {
+        int parenCount = getIndex(program, pc);
+        int parenIndex = getIndex(program, pc + INDEX_LEN);
+        for (int k = 0; k < parenCount; k++) {
+            cfw.addLoadThis();
+            cfw.addPush(parenIndex + k);
+            cfw.add(ByteCode.ICONST_M1);
+            cfw.add(ByteCode.ICONST_0);
+            addMatcherInvoke("setParens", "(III)V");
+        }
+    }
+
+    /**
+     * Returns the pc of the term after a quantifier, given the pc of its
+     * paren count.
+     */
+    private int getNextTerm(int pc)
+    {
+        pc += 2 * INDEX_LEN;
+        return pc + getOffset(program, pc);
+    }
+
+    /**
+     * Generates a simple opcode as simpleMatch does with updatecp set.
+     * Jumps to fail with cp unchanged if the opcode does not match and
+     * returns the pc after its operands.
+     */
+    private int addSimpleMatch(int op, int pc, int fail)
+    {
+        switch (op) {
+          case REOP_EMPTY:
+            break;
+          case REOP_BOL:
+            {
+                int matched = cfw.acquireLabel();
+                cfw.addILoad(CP);
+                cfw.add(ByteCode.IFEQ, matched);
+                addLoadMultiline();
+                cfw.add(ByteCode.IFEQ, fail);
+                addLoadChar(-1);
+                addStaticInvoke("isLineTerm", "(C)Z");
+                cfw.add(ByteCode.IFEQ, fail);
+                cfw.markLabel(matched);
+            }
+            break;
+          case REOP_EOL:
+            {
+                int matched = cfw.acquireLabel();
+                cfw.addILoad(CP);
+                cfw.addILoad(END);
+                cfw.add(ByteCode.IF_ICMPEQ, matched);
+                addLoadMultiline();
+                cfw.add(ByteCode.IFEQ, fail);
+                addLoadChar(0);
+                addStaticInvoke("isLineTerm", "(C)Z");
+                cfw.add(ByteCode.IFEQ, fail);
+                cfw.markLabel(matched);
+            }
+            break;
+          case REOP_WBDRY:
+          case REOP_WNONBDRY:
+            cfw.addALoad(INPUT);
+            cfw.addILoad(CP);
+            cfw.addILoad(END);
+            addStaticInvoke("isWordBoundary", "(Ljava/lang/String;II)Z");
+            cfw.add(op == REOP_WBDRY ? ByteCode.IFEQ : ByteCode.IFNE, fail);
+            break;
+          case REOP_DOT:
+            addCharTest("isLineTerm", false, fail);
+            break;
+          case REOP_DIGIT:
+            addCharTest("isDigit", true, fail);
+            break;
+          case REOP_NONDIGIT:
+            addCharTest("isDigit", false, fail);
+            break;
+          case REOP_ALNUM:
+            addCharTest("isWord", true, fail);
+            break;
+          case REOP_NONALNUM:
+            addCharTest("isWord", false, fail);
+            break;
+          case REOP_SPACE:
+            addCharTest("isREWhiteSpace", true, fail);
+            break;
+          case REOP_NONSPACE:
+            addCharTest("isREWhiteSpace", false, fail);
+            break;
+          case REOP_BACKREF:
+            cfw.addLoadThis();
+            cfw.addPush(getIndex(program, pc));
+            pc += INDEX_LEN;
+            cfw.addALoad(INPUT);
+            cfw.addILoad(CP);
+            cfw.addILoad(END);
+            addMatcherInvoke("backRef", "(ILjava/lang/String;II)I");
+            cfw.addIStore(SCRATCH);
+            cfw.addILoad(SCRATCH);
+            cfw.add(ByteCode.IFLT, fail);
+            cfw.addILoad(SCRATCH);
+            cfw.addIStore(CP);
+            break;
+          case REOP_FLAT:
+          case REOP_FLATi:
+            {
+                int offset = getIndex(program, pc);
+                pc += INDEX_LEN;
+                int length = getIndex(program, pc);
+                pc += INDEX_LEN;
+                addFlatMatch(offset, length, op == REOP_FLATi, fail);
+            }
+            break;
+          case REOP_FLAT1:
+          case REOP_FLAT1i:
+            addCharMatch((char)(program[pc++] & 0xFF), op == REOP_FLAT1i,
+                         fail);
+            break;
+          case REOP_UCFLAT1:
+          case REOP_UCFLAT1i:
+            addCharMatch((char)getIndex(program, pc), op == REOP_UCFLAT1i,
+                         fail);
+            pc += INDEX_LEN;
+            break;
+          case REOP_CLASS:
+          case REOP_NCLASS:
+            cfw.addILoad(CP);
+            cfw.addILoad(END);
+            cfw.add(ByteCode.IF_ICMPEQ, fail);
+            addLoadChar(0);
+            cfw.addIStore(CH);
+            addClassTest(getIndex(program, pc), fail);
+            pc += INDEX_LEN;
+            addIncrement(CP, 1);
+            break;
+          default:
+            throw new ClassLimitException("Unknown regexp opcode");
+        }
+        return pc;
+    }
+
+    /**
+     * Matches the character at cp with a static test of CompiledRegExp.
+     */
+    private void addCharTest(String test, boolean sense, int fail)
+    {
+        cfw.addILoad(CP);
+        cfw.addILoad(END);
+        cfw.add(ByteCode.IF_ICMPEQ, fail);
+        addLoadChar(0);
+        addStaticInvoke(test, test.equals("isREWhiteSpace") ? "(I)Z" : "(C)Z");
+        cfw.add(sense ? ByteCode.IFEQ : ByteCode.IFNE, fail);
+        addIncrement(CP, 1);
+    }
+
+    private void addCharMatch(char matchCh, boolean fold, int fail)
+    {
+        cfw.addILoad(CP);
+        cfw.addILoad(END);
+        cfw.add(ByteCode.IF_ICMPEQ, fail);
+        addLoadChar(0);
+        if (fold) {
+            cfw.addIStore(CH);
+            addFoldedCharTest(matchCh, fail);
+        } else {
+            cfw.addPush(matchCh);
+            cfw.add(ByteCode.IF_ICMPNE, fail);
+        }
+        addIncrement(CP, 1);
+    }
+
+    /**
+     * Tests the character in CH as the interpreter does with the 'i' flag:
+     * it matches if it is matchCh or has the same upper case.
+     */
+    private void addFoldedCharTest(char matchCh, int fail)
+    {
+        int matched = cfw.acquireLabel();
+        cfw.addILoad(CH);
+        cfw.addPush(matchCh);
+        cfw.add(ByteCode.IF_ICMPEQ, matched);
+        cfw.addILoad(CH);
+        addUpcase();
+        cfw.addPush(upcase(matchCh));
+        cfw.add(ByteCode.IF_ICMPNE, fail);
+        cfw.markLabel(matched);
+    }
+
+    private void addFlatMatch(int offset, int length, boolean fold, int fail)
+    {
+        if (length > MAX_INLINE_FLAT_LENGTH) {
+            cfw.addLoadThis();
+            cfw.addPush(offset);
+            cfw.addPush(length);
+            cfw.addPush(fold);
+            cfw.addALoad(INPUT);
+            cfw.addILoad(CP);
+            cfw.addILoad(END);
+            addMatcherInvoke("matchFlat", "(IIZLjava/lang/String;II)Z");
+            cfw.add(ByteCode.IFEQ, fail);
+        } else {
+            cfw.addILoad(CP);
+            cfw.addPush(length);
+            cfw.add(ByteCode.IADD);
+            cfw.addILoad(END);
+            cfw.add(ByteCode.IF_ICMPGT, fail);
+            for (int i = 0; i < length; i++) {
+                addLoadChar(i);
+                char matchCh = re.source[offset + i];
+                if (fold) {
+                    cfw.addIStore(CH);
+                    addFoldedCharTest(matchCh, fail);
+                } else {
+                    cfw.addPush(matchCh);
+                    cfw.add(ByteCode.IF_ICMPNE, fail);
+                }
+            }
+        }
+        addIncrement(CP, length);
+    }
+
+    /**
+     * Tests the character in CH against a character class as classMatcher
+     * does, comparing it with the ranges of the class if there are few.
+     */
+    private void addClassTest(int index, int fail)
+    {
+        RECharSet charSet = re.classList[index];
+        if (!charSet.converted) {
+            REGlobalData gData = new REGlobalData();
+            gData.regexp = re;
+            processCharSet(gData, charSet);
+        }
+        int[] ranges = getRanges(charSet);
+        if (ranges == null) {
+            cfw.addLoadThis();
+            cfw.addPush(index);
+            cfw.addILoad(CH);
+            addMatcherInvoke("matchClass", "(IC)Z");
+            cfw.add(ByteCode.IFEQ, fail);
+            return;
+        }
+        // A character in a range matches if the class is not negated
+        int inRange = charSet.sense ? cfw.acquireLabel() : fail;
+        for (int i = 0; i < ranges.length; i += 2) {
+            int lo = ranges[i], hi = ranges[i + 1];
+            cfw.addILoad(CH);
+            cfw.addPush(lo);
+            if (lo == hi) {
+                cfw.add(ByteCode.IF_ICMPEQ, inRange);
+            } else {
+                int below = cfw.acquireLabel();
+                cfw.add(ByteCode.IF_ICMPLT, below);
+                cfw.addILoad(CH);
+                cfw.addPush(hi);
+                cfw.add(ByteCode.IF_ICMPLE, inRange);
+                cfw.markLabel(below);
+            }
+        }
+        if (charSet.sense) {
+            cfw.add(ByteCode.GOTO, fail);
+            cfw.markLabel(inRange);
+        }
+    }
+
+    /**
+     * Returns the ranges of characters in the bitmap of the class as
+     * pairs of first and last character, or null if there are too many.
+     */
+    private static int[] getRanges(RECharSet charSet)
+    {
+        int[] ranges = new int[2 * MAX_INLINE_CLASS_RANGES];
+        int count = 0;
+        byte[] bits = charSet.bits;
+        int c = 0;
+        while (c < charSet.length) {
+            if ((bits[c >> 3] & (1 << (c & 0x7))) == 0) {
+                c++;
+                continue;
+            }
+            if (count == ranges.length) {
+                return null;
+            }
+            ranges[count++] = c;
+            while (c + 1 < charSet.length
+                   && (bits[(c + 1) >> 3] & (1 << ((c + 1) & 0x7))) != 0) {
+                c++;
+            }
+            ranges[count++] = c;
+            c++;
+        }
+        int[] result = new int[count];
+        System.arraycopy(ranges, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Pushes the character at cp plus offset.
+     */
+    private void addLoadChar(int offset)
+    {
+        cfw.addALoad(INPUT);
+        cfw.addILoad(CP);
+        if (offset != 0) {
+            cfw.addPush(offset);
+            cfw.add(ByteCode.IADD);
+        }
+        cfw.addInvoke(ByteCode.INVOKEVIRTUAL, "java/lang/String", "charAt",
+                      "(I)C");
+    }
+
+    private void addIncrement(short local, int increment)
+    {
+        if (0 <= increment && increment <= Byte.MAX_VALUE) {
+            cfw.add(ByteCode.IINC, local, increment);
+        } else {
+            cfw.addILoad(local);
+            cfw.addPush(increment);
+            cfw.add(ByteCode.IADD);
+            cfw.addIStore(local);
+        }
+    }
+
+    private void addLoadMultiline()
+    {
+        cfw.addLoadThis();
+        cfw.add(ByteCode.GETFIELD, SUPER_CLASS_NAME, "multiline", "Z");
+    }
+
+    private void addUpcase()
+    {
+        addStaticInvoke("upcase", "(C)C");
+    }
+
+    private void addLoadState(String field)
+    {
+        cfw.addLoadThis();
+        cfw.addILoad(STATE);
+        addMatcherInvoke(field, "(I)I");
+    }
+
+    private void addRestoreContinuation()
+    {
+        addLoadState("stateContinuation");
+        cfw.addIStore(CONTINUATION);
+    }
+
+    private void addSetResult(boolean result)
+    {
+        cfw.add(result ? ByteCode.ICONST_1 : ByteCode.ICONST_0);
+        cfw.addIStore(RESULT);
+    }
+
+    private void addPushBackTrack(Point target, short cpLocal,
+                                  short continuationLocal)
+    {
+        cfw.addLoadThis();
+        cfw.addPush(target.id);
+        cfw.addILoad(cpLocal);
+        cfw.addILoad(continuationLocal);
+        addMatcherInvoke("pushBackTrack", "(III)V");
+    }
+
+    /**
+     * Continues after an opcode the way the interpreter does after its
+     * switch: backtrack on failure, otherwise run the opcode at pc.
+     */
+    private void addBreak(int pc)
+    {
+        cfw.addILoad(RESULT);
+        cfw.add(ByteCode.IFEQ, fail);
+        addGoToOpAt(pc);
+    }
+
+    private void addGoToOpAt(int pc)
+    {
+        addGoTo(getPoint(program[pc], pc + 1));
+    }
+
+    private void addGoTo(Point point)
+    {
+        cfw.add(ByteCode.GOTO, point.label);
+    }
+
+    private void addReturn(boolean result)
+    {
+        cfw.addLoadThis();
+        cfw.addILoad(CP);
+        cfw.add(ByteCode.PUTFIELD, SUPER_CLASS_NAME, "cp", "I");
+        cfw.addLoadThis();
+        cfw.addILoad(SKIPPED);
+        cfw.add(ByteCode.PUTFIELD, SUPER_CLASS_NAME, "skipped", "I");
+        cfw.add(result ? ByteCode.ICONST_1 : ByteCode.ICONST_0);
+        cfw.add(ByteCode.IRETURN);
+    }
+
+    private void addMatcherInvoke(String name, String signature)
+    {
+        cfw.addInvoke(ByteCode.INVOKEVIRTUAL, SUPER_CLASS_NAME, name,
+                      signature);
+    }
+
+    private void addStaticInvoke(String name, String signature)
+    {
+        cfw.addInvoke(ByteCode.INVOKESTATIC, SUPER_CLASS_NAME, name,
+                      signature);
+    }
+
+    /**
+     * An opcode the interpreter can continue at, with the pc after the
+     * opcode, or at the paren count for REOP_REPEAT and
+     * REOP_MINIMALREPEAT.
+     */
+    private static final class Point
+    {
+        Point(int op, int pc, int id)
+        {
+            this.op = op;
+            this.pc = pc;
+            this.id = id;
+        }
+
+        final int op;
+        final int pc;
+        final int id;
+        int label;
+    }
+
+    /* pseudo opcode of the scan for the first simple opcode */
+    private static final byte SCAN = 0;
+
+    private final RECompiled re;
+    private final byte[] program;
+    private ClassFileWriter cfw;
+
+    private final List<Point> points = new ArrayList<Point>();
+    private final Map<Integer,Point> pointMap = new HashMap<Integer,Point>();
+    private Point entry;
+    private Point endContinuation;
+    /* pcs of the paren counts of quantifiers generateCharLoop generates */
+    private final Set<Integer> charLoops = new HashSet<Integer>();
+
+    private int dispatch;
+    private int fail;
+    private int returnFalse;
+}
@@ -32,6 +32,12 @@ public class RegExpImpl implements RegExpProxy {
                          Scriptable thisObj, Object[] args,
                          int actionType)
     {
+        Object literalResult = literalAction(cx, scope, thisObj, args,
+                                             actionType);
+        if (literalResult != Scriptable.NOT_FOUND) {
+            return literalResult;
+        }
+
         GlobData data = new GlobData();
         data.mode = actionType;
 
@@ -90,6 +96,110 @@ public class RegExpImpl implements RegExpProxy {
         }
     }
 
+    /**
+     * Performs match and search with a pattern string without special
+     * characters, and replace with a pattern string and a replacement
+     * string without '$', by searching the string for the pattern instead
+     * of compiling and executing a regular expression. Returns NOT_FOUND
+     * before converting any object if the regular expression is needed.
+     */
+    private Object literalAction(Context cx, Scriptable scope,
+                                 Scriptable thisObj, Object[] args,
+                                 int actionType)
+    {
+        int optarg = actionType == RA_REPLACE ? 2 : 1;
+        if (args.length == 0 || args.length > optarg
+            || args[0] instanceof Scriptable)
+        {
+            return Scriptable.NOT_FOUND;
+        }
+        String repstr = null;
+        if (actionType == RA_REPLACE) {
+            Object arg1 = args.length < 2 ? Undefined.instance : args[1];
+            if (arg1 instanceof Scriptable) {
+                return Scriptable.NOT_FOUND;
+            }
+            repstr = ScriptRuntime.toString(arg1);
+            if (repstr.indexOf('$') >= 0) {
+                return Scriptable.NOT_FOUND;
+            }
+        }
+        String pattern = ScriptRuntime.toString(args[0]);
+        if (actionType != RA_REPLACE && !isLiteralPattern(pattern)) {
+            return Scriptable.NOT_FOUND;
+        }
+
+        String str = ScriptRuntime.toString(thisObj);
+        int index = str.indexOf(pattern);
+        if (index < 0) {
+            switch (actionType) {
+              case RA_MATCH:
+                return null;
+              case RA_SEARCH:
+                return Integer.valueOf(-1);
+              default:
+                return str;
+            }
+        }
+        int end = index + pattern.length();
+        parens = null;
+        if (lastMatch == null) {
+            lastMatch = new SubString();
+            leftContext = new SubString();
+            rightContext = new SubString();
+        }
+        lastMatch.str = str;
+        lastMatch.index = index;
+        lastMatch.length = pattern.length();
+        leftContext.str = str;
+        leftContext.index = 0;
+        leftContext.length = index;
+        rightContext.str = str;
+        rightContext.index = end;
+        rightContext.length = str.length() - end;
+
+        switch (actionType) {
+          case RA_MATCH: {
+            Scriptable array = cx.newArray(scope, new Object[] { pattern });
+            array.put("index", array, Integer.valueOf(index));
+            array.put("input", array, str);
+            return array;
+          }
+          case RA_SEARCH:
+            return Integer.valueOf(index);
+          default: {
+            int length = str.length() - pattern.length() + repstr.length();
+            if (length > MAX_COPIED_REPLACE_LENGTH) {
+                return new ConsString(
+                    new ConsString(str.substring(0, index), repstr),
+                    str.substring(end));
+            }
+            StringBuilder b = new StringBuilder(length);
+            b.append(str, 0, index);
+            b.append(repstr);
+            b.append(str, end, str.length());
+            return b.toString();
+          }
+        }
+    }
+
+    private static final int MAX_COPIED_REPLACE_LENGTH = 4096;
+
+    // Returns true if the pattern contains no characters with a special
+    // meaning in regular expressions, so that it only matches itself.
+    private static boolean isLiteralPattern(String pattern)
+    {
+        for (int i = 0; i != pattern.length(); ++i) {
+            switch (pattern.charAt(i)) {
+              case '^': case '$': case '\\': case '.': case '*': case '+':
+              case '?': case '(': case ')': case '[': case ']': case '{':
+              case '}': case '|':
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Analog of C match_or_replace.
      */
@@ -229,15 +339,37 @@ public class RegExpImpl implements RegExpProxy {
             result = i - matchlen[0];
             break;
         }
-        int size = (parens == null) ? 0 : parens.length;
+        int size = getParenCount();
         parensp[0] = new String[size];
         for (int num = 0; num < size; num++) {
-            SubString parsub = getParenSubString(num);
-            parensp[0][num] = parsub.toString();
+            String parstr = getParen(num);
+            parensp[0][num] = parstr == null ? "" : parstr;
         }
         return result;
     }
 
+    /**
+     * Returns the number of parens of the last match.
+     */
+    int getParenCount()
+    {
+        return (parens == null) ? 0 : parens.length;
+    }
+
+    /**
+     * Returns the string paren i of the last match matched, or null if it
+     * did not take part in the match.
+     */
+    String getParen(int i)
+    {
+        int index = (int)parens[i];
+        if (index == -1) {
+            return null;
+        }
+        return lastMatch.str.substring(index,
+                                       index + (int)(parens[i] >>> 32));
+    }
+
     /**
      * Analog of REGEXP_PAREN_SUBSTRING in C jsregexp.h.
      * Assumes zero-based; i.e., for $3, i==2
@@ -245,14 +377,32 @@ public class RegExpImpl implements RegExpProxy {
     SubString getParenSubString(int i)
     {
         if (parens != null && i < parens.length) {
-            SubString parsub = parens[i];
-            if (parsub != null) {
-                return parsub;
+            int index = (int)parens[i];
+            if (index != -1) {
+                return new SubString(lastMatch.str, index,
+                                     (int)(parens[i] >>> 32));
             }
         }
         return SubString.emptySubString;
     }
 
+    /**
+     * Returns the last paren of the last match that took part in it (perl
+     * $+), or null if there are parens and none did.
+     */
+    SubString getLastParen()
+    {
+        if (parens == null) {
+            return SubString.emptySubString;
+        }
+        for (int i = parens.length - 1; i >= 0; i--) {
+            if ((int)parens[i] != -1) {
+                return getParenSubString(i);
+            }
+        }
+        return null;
+    }
+
     /*
      * Analog of match_glob() in jsstr.c
      */
@@ -280,14 +430,13 @@ public class RegExpImpl implements RegExpProxy {
         if (rdata.lambda != null) {
             // invoke lambda function with args lastMatch, $1, $2, ... $n,
             // leftContext.length, whole string.
-            SubString[] parens = reImpl.parens;
-            int parenCount = (parens == null) ? 0 : parens.length;
+            int parenCount = reImpl.getParenCount();
             Object[] args = new Object[parenCount + 3];
             args[0] = reImpl.lastMatch.toString();
             for (int i=0; i < parenCount; i++) {
-                SubString sub = parens[i];
-                if (sub != null) {
-                    args[i+1] = sub.toString();
+                String parstr = reImpl.getParen(i);
+                if (parstr != null) {
+                    args[i+1] = parstr;
                 } else {
                     args[i+1] = Undefined.instance;
                 }
@@ -388,7 +537,7 @@ public class RegExpImpl implements RegExpProxy {
                 }
             }
             else {  /* ECMA 3, 1-9 or 01-99 */
-                int parenCount = (res.parens == null) ? 0 : res.parens.length;
+                int parenCount = res.getParenCount();
                 num = dc - '0';
                 if (num > parenCount)
                     return null;
@@ -418,7 +567,7 @@ public class RegExpImpl implements RegExpProxy {
           case '&':
             return res.lastMatch;
           case '+':
-            return res.lastParen;
+            return res.getLastParen();
           case '`':
             if (version == Context.VERSION_1_2) {
                 /*
@@ -517,9 +666,16 @@ public class RegExpImpl implements RegExpProxy {
                 }
             }
         }
+        int version = cx.getLanguageVersion();
         if (re == null) {
             separator = ScriptRuntime.toString(args[0]);
             matchlen[0] = separator.length();
+            if (version == Context.VERSION_DEFAULT
+                || version >= Context.VERSION_1_3)
+            {
+                return splitLiteral(cx, scope, target, separator,
+                                    limited ? limit : Long.MAX_VALUE);
+            }
         }
 
         // split target with separator or re
@@ -528,7 +684,6 @@ public class RegExpImpl implements RegExpProxy {
         int len = 0;
         boolean[] matched = { false };
         String[][] parens = { null };
-        int version = cx.getLanguageVersion();
         while ((match = find_split(cx, scope, target, separator, version,
                                    reProxy, re, ip, matchlen, matched, parens))
                >= 0)
@@ -575,6 +730,54 @@ public class RegExpImpl implements RegExpProxy {
         return result;
     }
 
+    /**
+     * Splits target at the occurrences of a separator string, or into
+     * characters if the separator is empty, and returns an array of at
+     * most limit substrings. The substrings are collected in one Java
+     * array which becomes the elements of the result.
+     */
+    private static Scriptable splitLiteral(Context cx, Scriptable scope,
+                                           String target, String separator,
+                                           long limit)
+    {
+        int length = target.length();
+        int sepLength = separator.length();
+        Object[] elements;
+        int count = 0;
+        if (sepLength == 0) {
+            count = (int) Math.min(length, limit);
+            elements = new Object[count];
+            for (int i = 0; i != count; ++i) {
+                elements[i] = String.valueOf(target.charAt(i));
+            }
+            return cx.newArray(scope, elements);
+        }
+        elements = new Object[8];
+        char c = separator.charAt(0);
+        int start = 0;
+        while (count < limit) {
+            int i = sepLength == 1 ? target.indexOf(c, start)
+                                   : target.indexOf(separator, start);
+            if (count == elements.length) {
+                Object[] grown = new Object[count * 2];
+                System.arraycopy(elements, 0, grown, 0, count);
+                elements = grown;
+            }
+            if (i < 0) {
+                elements[count++] = target.substring(start);
+                break;
+            }
+            elements[count++] = target.substring(start, i);
+            start = i + sepLength;
+        }
+        if (count != elements.length) {
+            Object[] trimmed = new Object[count];
+            System.arraycopy(elements, 0, trimmed, 0, count);
+            elements = trimmed;
+        }
+        return cx.newArray(scope, elements);
+    }
+
     /*
      * Used by js_split to find the next split point in target,
      * starting at offset ip and looking either for the given
@@ -696,10 +899,11 @@ public class RegExpImpl implements RegExpProxy {
 
     protected String          input;         /* input string to match (perl $_, GC root) */
     protected boolean         multiline;     /* whether input contains newlines (perl $*) */
-    protected SubString[]     parens;        /* Vector of SubString; last set of parens
-                                      matched (perl $1, $2) */
+    protected long[]          parens;        /* last set of parens matched (perl $1,
+                                      $2), index | length << 32, index -1
+                                      if a paren did not match, in the
+                                      string of lastMatch */
     protected SubString       lastMatch;     /* last string matched (perl $&) */
-    protected SubString       lastParen;     /* last paren matched (perl $+) */
     protected SubString       leftContext;   /* input to left of last match (perl $`) */
     protected SubString       rightContext;  /* input to right of last match (perl $') */
 }
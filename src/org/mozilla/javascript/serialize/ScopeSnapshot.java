@@ -0,0 +1,207 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+// API class
+
+package org.mozilla.javascript.serialize;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.mozilla.javascript.*;
+
+/**
+ * Class ScopeSnapshot writes a fully initialized top-level scope to a
+ * binary snapshot and restores it, which is usually much faster than
+ * initializing the standard objects and evaluating bootstrap scripts
+ * again when a new scope is needed on startup.
+ * <p>
+ * Unlike {@link ScriptableOutputStream} the snapshot contains the scope
+ * itself and all objects reachable from it, so changes made to the
+ * standard objects by bootstrap scripts are restored as well. Functions
+ * must be interpreted, that is the bootstrap scripts must be evaluated
+ * with optimization level -1, as functions compiled to Java classes can
+ * not be restored. Standard objects that are still lazily loaded are
+ * written as such and are loaded in the restored scope on first use.
+ * <p>
+ * A snapshot can only be restored by the same Rhino version that wrote
+ * it. The objects are written with Java serialization, so the usual
+ * class version and field checks apply when they are read. Snapshot
+ * files are memory-mapped when they are read.
+ *
+ * @since 1.7 Release 5
+ */
+public final class ScopeSnapshot {
+
+    private static final int MAGIC = 0x52484e53; // "RHNS"
+    private static final int FORMAT_VERSION = 3;
+
+    private ScopeSnapshot() {
+    }
+
+    /**
+     * Writes a snapshot of the scope to the output stream. This must be
+     * called with a current Context.
+     *
+     * @param scope the top-level scope to write
+     * @param out the stream to write to, which is not closed
+     * @throws NotSerializableException if an object reachable from the
+     *         scope can not be serialized, for example a function that
+     *         was compiled to a Java class
+     */
+    public static void write(Scriptable scope, OutputStream out)
+        throws IOException
+    {
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.writeInt(FORMAT_VERSION);
+        header.writeUTF(getImplementationVersion());
+        header.flush();
+        ObjectOutputStream stream =
+            new SnapshotOutputStream(new BufferedOutputStream(out));
+        stream.writeObject(scope);
+        stream.flush();
+    }
+
+    /**
+     * Writes a snapshot of the scope to the file.
+     * @see #write(Scriptable, OutputStream)
+     */
+    public static void write(Scriptable scope, File file) throws IOException
+    {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            write(scope, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Restores a top-level scope from a snapshot read from the input
+     * stream. This must be called with a current Context; classes are
+     * loaded with its application class loader.
+     *
+     * @param in the stream to read from, which is not closed
+     * @return the restored scope
+     * @throws IOException if the snapshot is corrupt or was written by
+     *         a different Rhino version
+     */
+    public static Scriptable read(InputStream in)
+        throws IOException, ClassNotFoundException
+    {
+        DataInputStream header = new DataInputStream(in);
+        if (header.readInt() != MAGIC) {
+            throw new StreamCorruptedException("Not a scope snapshot");
+        }
+        int formatVersion = header.readInt();
+        String implementationVersion = header.readUTF();
+        if (formatVersion != FORMAT_VERSION ||
+            !implementationVersion.equals(getImplementationVersion()))
+        {
+            throw new InvalidClassException("Scope snapshot was written by " +
+                                            implementationVersion);
+        }
+        ObjectInputStream stream = new ScriptableInputStream(in, null);
+        return (Scriptable)stream.readObject();
+    }
+
+    /**
+     * Restores a top-level scope from a snapshot file, which is
+     * memory-mapped for reading.
+     * @see #read(InputStream)
+     */
+    public static Scriptable read(File file)
+        throws IOException, ClassNotFoundException
+    {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                                            0, channel.size());
+            return read(new ByteBufferInputStream(buffer));
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String getImplementationVersion()
+    {
+        Context cx = Context.getCurrentContext();
+        if (cx == null) {
+            throw new IllegalStateException(
+                "No Context associated with current Thread");
+        }
+        return cx.getImplementationVersion();
+    }
+
+    private static class SnapshotOutputStream extends ScriptableOutputStream
+    {
+        SnapshotOutputStream(OutputStream out) throws IOException
+        {
+            super(out);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) throws IOException
+        {
+            if (obj.getClass().getClassLoader()
+                instanceof GeneratedClassLoader)
+            {
+                throw new NotSerializableException(
+                    obj.getClass().getName() + " is a generated class");
+            }
+            return super.replaceObject(obj);
+        }
+    }
+
+    // Unlike ByteArrayInputStream this does not synchronize on every
+    // single byte read by ObjectInputStream.
+    private static class ByteBufferInputStream extends InputStream
+    {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read()
+        {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len)
+        {
+            if (len == 0) {
+                return 0;
+            }
+            int n = Math.min(len, buffer.remaining());
+            if (n == 0) {
+                return -1;
+            }
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n)
+        {
+            int skipped = (int)Math.min(Math.max(n, 0), buffer.remaining());
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available()
+        {
+            return buffer.remaining();
+        }
+    }
+}
@@ -52,6 +52,17 @@ public class ScriptableOutputStream extends ObjectOutputStream {
         excludeStandardObjectNames(); // XXX
     }
 
+    /**
+     * Creates a ScriptableOutputStream that writes out all objects,
+     * including the top-level scope and the standard objects.
+     */
+    ScriptableOutputStream(OutputStream out) throws IOException
+    {
+        super(out);
+        table = new HashMap<Object,String>();
+        enableReplaceObject(true);
+    }
+
     public void excludeAllIds(Object[] ids) {
         for (Object id: ids) {
             if (id instanceof String &&
@@ -0,0 +1,293 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.typedarrays;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.IdFunctionObject;
+import org.mozilla.javascript.IdScriptableObject;
+import org.mozilla.javascript.ScriptRuntime;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.Undefined;
+
+/**
+ * This class implements the ArrayBuffer native object, a fixed number of
+ * bytes that are read and written through typed arrays and DataViews.
+ * <p>
+ * The bytes are held in a {@link ByteBuffer}, which may be a direct buffer
+ * outside of the Java heap. An ArrayBuffer created from an existing buffer
+ * with {@link #NativeArrayBuffer(ByteBuffer)} or
+ * {@link Context#newArrayBuffer(Scriptable, ByteBuffer)} shares its
+ * contents, so Java code can hand binary data to scripts and read the
+ * results without copying. Typed arrays use little-endian byte order.
+ *
+ * @since 1.7 Release 5
+ */
+public class NativeArrayBuffer extends IdScriptableObject
+{
+    static final long serialVersionUID = -5487435467232151376L;
+
+    private static final Object ARRAY_BUFFER_TAG = "ArrayBuffer";
+
+    // Holds the bytes from index 0 to its limit in little-endian order.
+    // Views only use the absolute get and put methods, so the buffer can
+    // be shared by all views of this ArrayBuffer.
+    transient ByteBuffer buffer;
+
+    public static void init(Context cx, Scriptable scope, boolean sealed)
+    {
+        NativeArrayBuffer obj = new NativeArrayBuffer(0);
+        obj.exportAsJSClass(MAX_PROTOTYPE_ID, scope, sealed);
+    }
+
+    /**
+     * Creates an ArrayBuffer of the given number of bytes, which are
+     * initialized to zero.
+     */
+    public NativeArrayBuffer(int length)
+    {
+        this.buffer = ByteBuffer.allocate(length)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Creates an ArrayBuffer that shares the bytes between the position
+     * and the limit of the buffer. Changes made by scripts are visible in
+     * the buffer and vice versa. If the buffer is read-only, writing to
+     * the ArrayBuffer throws a {@link java.nio.ReadOnlyBufferException}.
+     */
+    public NativeArrayBuffer(ByteBuffer buffer)
+    {
+        this.buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public String getClassName()
+    {
+        return "ArrayBuffer";
+    }
+
+    /**
+     * Returns a buffer that shares the bytes of this ArrayBuffer. The
+     * returned buffer has its own position, limit and byte order.
+     */
+    public ByteBuffer getBuffer()
+    {
+        return buffer.duplicate();
+    }
+
+    /**
+     * Returns the number of bytes of this ArrayBuffer.
+     */
+    public int getByteLength()
+    {
+        return buffer.limit();
+    }
+
+    /**
+     * Returns a new ArrayBuffer with a copy of the bytes from begin to end.
+     * Negative indices count from the end.
+     */
+    public NativeArrayBuffer slice(double begin, double end)
+    {
+        int length = buffer.limit();
+        int from = (int)clampIndex(begin, length);
+        int to = (int)clampIndex(end, length);
+        NativeArrayBuffer result = new NativeArrayBuffer(Math.max(to - from, 0));
+        if (to > from) {
+            ByteBuffer source = buffer.duplicate();
+            source.position(from);
+            source.limit(to);
+            result.buffer.put(source);
+            result.buffer.clear();
+        }
+        return result;
+    }
+
+    // Converts a relative index as used by slice and subarray.
+    static double clampIndex(double index, int length)
+    {
+        if (index < 0) {
+            index += length;
+            return index < 0 ? 0 : index;
+        }
+        return index > length ? length : index;
+    }
+
+    static RuntimeException rangeError(String messageId, double value)
+    {
+        String msg = ScriptRuntime.getMessage1(messageId,
+                                               ScriptRuntime.toString(value));
+        throw ScriptRuntime.constructError("RangeError", msg);
+    }
+
+    static boolean isArg(Object[] args, int index)
+    {
+        return index < args.length && args[index] != Undefined.instance;
+    }
+
+    // The bytes are not written by default serialization as ByteBuffer is
+    // not serializable. They are restored to a heap buffer.
+    private void writeObject(ObjectOutputStream out) throws IOException
+    {
+        out.defaultWriteObject();
+        int length = buffer.limit();
+        out.writeInt(length);
+        if (buffer.hasArray()) {
+            out.write(buffer.array(), buffer.arrayOffset(), length);
+        } else {
+            ByteBuffer source = buffer.duplicate();
+            source.clear();
+            byte[] chunk = new byte[Math.min(length, 8192)];
+            while (source.hasRemaining()) {
+                int n = Math.min(chunk.length, source.remaining());
+                source.get(chunk, 0, n);
+                out.write(chunk, 0, n);
+            }
+        }
+    }
+
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static final int
+        Id_byteLength    = 1,
+        MAX_INSTANCE_ID  = 1;
+
+    @Override
+    protected int getMaxInstanceId()
+    {
+        return MAX_INSTANCE_ID;
+    }
+
+    @Override
+    protected int findInstanceIdInfo(String s)
+    {
+        if (s.equals("byteLength")) {
+            return instanceIdInfo(READONLY | PERMANENT | DONTENUM,
+                                  Id_byteLength);
+        }
+        return super.findInstanceIdInfo(s);
+    }
+
+    @Override
+    protected String getInstanceIdName(int id)
+    {
+        if (id == Id_byteLength) { return "byteLength"; }
+        return super.getInstanceIdName(id);
+    }
+
+    @Override
+    protected Object getInstanceIdValue(int id)
+    {
+        if (id == Id_byteLength) {
+            return ScriptRuntime.wrapInt(buffer.limit());
+        }
+        return super.getInstanceIdValue(id);
+    }
+
+    @Override
+    protected void fillConstructorProperties(IdFunctionObject ctor)
+    {
+        addIdFunctionProperty(ctor, ARRAY_BUFFER_TAG, ConstructorId_isView,
+                              "isView", 1);
+        super.fillConstructorProperties(ctor);
+    }
+
+    @Override
+    protected void initPrototypeId(int id)
+    {
+        String s;
+        int arity;
+        switch (id) {
+          case Id_constructor: arity=1; s="constructor"; break;
+          case Id_slice:       arity=2; s="slice";       break;
+          default: throw new IllegalArgumentException(String.valueOf(id));
+        }
+        initPrototypeMethod(ARRAY_BUFFER_TAG, id, s, arity);
+    }
+
+    @Override
+    public Object execIdCall(IdFunctionObject f, Context cx, Scriptable scope,
+                             Scriptable thisObj, Object[] args)
+    {
+        if (!f.hasTag(ARRAY_BUFFER_TAG)) {
+            return super.execIdCall(f, cx, scope, thisObj, args);
+        }
+        int id = f.methodId();
+        switch (id) {
+          case ConstructorId_isView:
+            return ScriptRuntime.wrapBoolean(args.length > 0 &&
+                    args[0] instanceof NativeArrayBufferView);
+
+          case Id_constructor: {
+            double length = ScriptRuntime.toInteger(args, 0);
+            if (length < 0 || length > Integer.MAX_VALUE) {
+                throw rangeError("msg.typed.array.length.bad", length);
+            }
+            return new NativeArrayBuffer((int)length);
+          }
+
+          case Id_slice: {
+            NativeArrayBuffer self = realThis(thisObj, f);
+            double end = isArg(args, 1) ? ScriptRuntime.toInteger(args[1])
+                                        : self.buffer.limit();
+            NativeArrayBuffer result =
+                self.slice(ScriptRuntime.toInteger(args, 0), end);
+            ScriptRuntime.setObjectProtoAndParent(result, scope);
+            return result;
+          }
+        }
+        throw new IllegalArgumentException(String.valueOf(id));
+    }
+
+    private static NativeArrayBuffer realThis(Scriptable thisObj,
+                                              IdFunctionObject f)
+    {
+        if (!(thisObj instanceof NativeArrayBuffer))
+            throw incompatibleCallError(f);
+        return (NativeArrayBuffer)thisObj;
+    }
+
+// #string_id_map#
+
+    @Override
+    protected int findPrototypeId(String s)
+    {
+        int id;
+// #generated# Last update: 2026-10-18 19:06:17 UTC
+        L0: { id = 0; String X = null;
+            int s_length = s.length();
+            if (s_length==5) { X="slice";id=Id_slice; }
+            else if (s_length==11) { X="constructor";id=Id_constructor; }
+            if (X!=null && X!=s && !X.equals(s)) id = 0;
+            break L0;
+        }
+// #/generated#
+        return id;
+    }
+
+    private static final int
+        ConstructorId_isView = -1,
+
+        Id_constructor       = 1,
+        Id_slice             = 2,
+        MAX_PROTOTYPE_ID     = 2;
+
+// #/string_id_map#
+}
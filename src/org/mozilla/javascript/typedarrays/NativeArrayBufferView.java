@@ -0,0 +1,140 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.typedarrays;
+
+import java.nio.ByteBuffer;
+
+import org.mozilla.javascript.IdScriptableObject;
+import org.mozilla.javascript.ScriptRuntime;
+
+/**
+ * Base class of typed arrays and DataViews, which read and write a range
+ * of the bytes of an ArrayBuffer.
+ *
+ * @since 1.7 Release 5
+ */
+public abstract class NativeArrayBufferView extends IdScriptableObject
+{
+    static final long serialVersionUID = 6884475582973958419L;
+
+    /** The ArrayBuffer whose bytes are viewed */
+    protected final NativeArrayBuffer arrayBuffer;
+    /** The index of the first byte of the view in the ArrayBuffer */
+    protected final int offset;
+    /** The number of bytes of the view */
+    protected final int byteLength;
+
+    protected NativeArrayBufferView()
+    {
+        this(new NativeArrayBuffer(0), 0, 0);
+    }
+
+    protected NativeArrayBufferView(NativeArrayBuffer arrayBuffer, int offset,
+                                    int byteLength)
+    {
+        this.arrayBuffer = arrayBuffer;
+        this.offset = offset;
+        this.byteLength = byteLength;
+    }
+
+    /**
+     * Returns the ArrayBuffer whose bytes are viewed.
+     */
+    public NativeArrayBuffer getBuffer()
+    {
+        return arrayBuffer;
+    }
+
+    /**
+     * Returns the index of the first byte of the view in the ArrayBuffer.
+     */
+    public int getByteOffset()
+    {
+        return offset;
+    }
+
+    /**
+     * Returns the number of bytes of the view.
+     */
+    public int getByteLength()
+    {
+        return byteLength;
+    }
+
+    /**
+     * Returns the little-endian buffer that holds the bytes of the
+     * ArrayBuffer. It is shared by all views and must only be accessed
+     * with absolute indices.
+     */
+    protected final ByteBuffer bytes()
+    {
+        return arrayBuffer.buffer;
+    }
+
+// #string_id_map#
+
+    @Override
+    protected int findInstanceIdInfo(String s)
+    {
+        int id;
+// #generated# Last update: 2026-10-18 19:06:18 UTC
+        L0: { id = 0; String X = null; int c;
+            int s_length = s.length();
+            if (s_length==6) { X="buffer";id=Id_buffer; }
+            else if (s_length==10) {
+                c=s.charAt(4);
+                if (c=='L') { X="byteLength";id=Id_byteLength; }
+                else if (c=='O') { X="byteOffset";id=Id_byteOffset; }
+            }
+            if (X!=null && X!=s && !X.equals(s)) id = 0;
+            break L0;
+        }
+// #/generated#
+        if (id == 0) {
+            return super.findInstanceIdInfo(s);
+        }
+        return instanceIdInfo(READONLY | PERMANENT | DONTENUM, id);
+    }
+
+    private static final int
+        Id_buffer        = 1,
+        Id_byteOffset    = 2,
+        Id_byteLength    = 3;
+
+// #/string_id_map#
+
+    /** Subclasses number their instance ids after this one */
+    protected static final int MAX_INSTANCE_ID = 3;
+
+    @Override
+    protected int getMaxInstanceId()
+    {
+        return MAX_INSTANCE_ID;
+    }
+
+    @Override
+    protected String getInstanceIdName(int id)
+    {
+        switch (id) {
+          case Id_buffer:     return "buffer";
+          case Id_byteOffset: return "byteOffset";
+          case Id_byteLength: return "byteLength";
+        }
+        return super.getInstanceIdName(id);
+    }
+
+    @Override
+    protected Object getInstanceIdValue(int id)
+    {
+        switch (id) {
+          case Id_buffer:     return arrayBuffer;
+          case Id_byteOffset: return ScriptRuntime.wrapInt(offset);
+          case Id_byteLength: return ScriptRuntime.wrapInt(byteLength);
+        }
+        return super.getInstanceIdValue(id);
+    }
+}
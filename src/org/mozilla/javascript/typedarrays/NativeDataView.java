@@ -0,0 +1,319 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.typedarrays;
+
+import java.nio.ByteBuffer;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.IdFunctionObject;
+import org.mozilla.javascript.ScriptRuntime;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.Undefined;
+
+/**
+ * This class implements the DataView native object, which reads and
+ * writes numbers of any type at any byte offset of an ArrayBuffer in
+ * big-endian or little-endian byte order. Big-endian is the default.
+ *
+ * @since 1.7 Release 5
+ */
+public class NativeDataView extends NativeArrayBufferView
+{
+    static final long serialVersionUID = 1427967607557438968L;
+
+    private static final Object DATA_VIEW_TAG = "DataView";
+
+    public static void init(Context cx, Scriptable scope, boolean sealed)
+    {
+        NativeDataView obj = new NativeDataView();
+        obj.exportAsJSClass(MAX_PROTOTYPE_ID, scope, sealed);
+    }
+
+    public NativeDataView()
+    {
+    }
+
+    /**
+     * Creates a DataView of the given number of bytes of the ArrayBuffer
+     * from the offset on.
+     */
+    public NativeDataView(NativeArrayBuffer arrayBuffer, int offset,
+                          int byteLength)
+    {
+        super(arrayBuffer, offset, byteLength);
+        if (offset < 0 || byteLength < 0 ||
+            offset + (long)byteLength > arrayBuffer.getByteLength())
+        {
+            throw new IllegalArgumentException();
+        }
+    }
+
+    @Override
+    public String getClassName()
+    {
+        return "DataView";
+    }
+
+    @Override
+    protected void initPrototypeId(int id)
+    {
+        String s;
+        int arity;
+        switch (id) {
+          case Id_constructor: arity=3; s="constructor"; break;
+          case Id_getInt8:     arity=1; s="getInt8";     break;
+          case Id_getUint8:    arity=1; s="getUint8";    break;
+          case Id_getInt16:    arity=2; s="getInt16";    break;
+          case Id_getUint16:   arity=2; s="getUint16";   break;
+          case Id_getInt32:    arity=2; s="getInt32";    break;
+          case Id_getUint32:   arity=2; s="getUint32";   break;
+          case Id_getFloat32:  arity=2; s="getFloat32";  break;
+          case Id_getFloat64:  arity=2; s="getFloat64";  break;
+          case Id_setInt8:     arity=2; s="setInt8";     break;
+          case Id_setUint8:    arity=2; s="setUint8";    break;
+          case Id_setInt16:    arity=3; s="setInt16";    break;
+          case Id_setUint16:   arity=3; s="setUint16";   break;
+          case Id_setInt32:    arity=3; s="setInt32";    break;
+          case Id_setUint32:   arity=3; s="setUint32";   break;
+          case Id_setFloat32:  arity=3; s="setFloat32";  break;
+          case Id_setFloat64:  arity=3; s="setFloat64";  break;
+          default: throw new IllegalArgumentException(String.valueOf(id));
+        }
+        initPrototypeMethod(DATA_VIEW_TAG, id, s, arity);
+    }
+
+    @Override
+    public Object execIdCall(IdFunctionObject f, Context cx, Scriptable scope,
+                             Scriptable thisObj, Object[] args)
+    {
+        if (!f.hasTag(DATA_VIEW_TAG)) {
+            return super.execIdCall(f, cx, scope, thisObj, args);
+        }
+        int id = f.methodId();
+        if (id == Id_constructor) {
+            return js_constructor(args);
+        }
+        if (!(thisObj instanceof NativeDataView))
+            throw incompatibleCallError(f);
+        NativeDataView self = (NativeDataView)thisObj;
+        ByteBuffer bytes = self.bytes();
+        // The buffer is little-endian
+        boolean swap;
+        int index;
+
+        switch (id) {
+          case Id_getInt8:
+            return ScriptRuntime.wrapInt(bytes.get(self.index(args, 1)));
+          case Id_getUint8:
+            return ScriptRuntime.wrapInt(bytes.get(self.index(args, 1)) & 0xff);
+
+          case Id_getInt16:
+          case Id_getUint16: {
+            index = self.index(args, 2);
+            short value = bytes.getShort(index);
+            if (!isLittleEndian(args, 1)) {
+                value = Short.reverseBytes(value);
+            }
+            return ScriptRuntime.wrapInt(id == Id_getInt16 ? value
+                                                           : value & 0xffff);
+          }
+
+          case Id_getInt32:
+          case Id_getUint32:
+          case Id_getFloat32: {
+            index = self.index(args, 4);
+            int value = bytes.getInt(index);
+            if (!isLittleEndian(args, 1)) {
+                value = Integer.reverseBytes(value);
+            }
+            if (id == Id_getInt32) {
+                return ScriptRuntime.wrapInt(value);
+            } else if (id == Id_getUint32) {
+                return ScriptRuntime.wrapNumber(value & 0xffffffffL);
+            }
+            return ScriptRuntime.wrapNumber(Float.intBitsToFloat(value));
+          }
+
+          case Id_getFloat64: {
+            index = self.index(args, 8);
+            long value = bytes.getLong(index);
+            if (!isLittleEndian(args, 1)) {
+                value = Long.reverseBytes(value);
+            }
+            return ScriptRuntime.wrapNumber(Double.longBitsToDouble(value));
+          }
+
+          case Id_setInt8:
+          case Id_setUint8:
+            index = self.index(args, 1);
+            bytes.put(index, (byte)ScriptRuntime.toInt32(args, 1));
+            return Undefined.instance;
+
+          case Id_setInt16:
+          case Id_setUint16: {
+            index = self.index(args, 2);
+            short value = (short)ScriptRuntime.toInt32(args, 1);
+            swap = !isLittleEndian(args, 2);
+            bytes.putShort(index, swap ? Short.reverseBytes(value) : value);
+            return Undefined.instance;
+          }
+
+          case Id_setInt32:
+          case Id_setUint32:
+          case Id_setFloat32: {
+            index = self.index(args, 4);
+            int value;
+            if (id == Id_setFloat32) {
+                value = Float.floatToRawIntBits(
+                    (float)ScriptRuntime.toNumber(args, 1));
+            } else {
+                value = ScriptRuntime.toInt32(args, 1);
+            }
+            swap = !isLittleEndian(args, 2);
+            bytes.putInt(index, swap ? Integer.reverseBytes(value) : value);
+            return Undefined.instance;
+          }
+
+          case Id_setFloat64: {
+            index = self.index(args, 8);
+            long value = Double.doubleToRawLongBits(
+                ScriptRuntime.toNumber(args, 1));
+            swap = !isLittleEndian(args, 2);
+            bytes.putLong(index, swap ? Long.reverseBytes(value) : value);
+            return Undefined.instance;
+          }
+        }
+        throw new IllegalArgumentException(String.valueOf(id));
+    }
+
+    private NativeDataView js_constructor(Object[] args)
+    {
+        if (args.length == 0 || !(args[0] instanceof NativeArrayBuffer)) {
+            throw ScriptRuntime.typeError1("msg.arg.not.object",
+                    ScriptRuntime.typeof(args.length > 0 ? args[0]
+                                                         : Undefined.instance));
+        }
+        NativeArrayBuffer arrayBuffer = (NativeArrayBuffer)args[0];
+        int bufferLength = arrayBuffer.getByteLength();
+        double offset = ScriptRuntime.toInteger(args, 1);
+        if (offset < 0 || offset > bufferLength) {
+            throw NativeArrayBuffer.rangeError("msg.typed.array.offset.bad",
+                                               offset);
+        }
+        double byteLength = bufferLength - offset;
+        if (NativeArrayBuffer.isArg(args, 2)) {
+            byteLength = ScriptRuntime.toInteger(args[2]);
+            if (byteLength < 0 || offset + byteLength > bufferLength) {
+                throw NativeArrayBuffer.rangeError(
+                    "msg.typed.array.length.bad", byteLength);
+            }
+        }
+        return new NativeDataView(arrayBuffer, (int)offset, (int)byteLength);
+    }
+
+    // Returns the index in the ArrayBuffer of the number of the given
+    // size at the byte offset that is the first argument.
+    private int index(Object[] args, int size)
+    {
+        double index = ScriptRuntime.toInteger(args, 0);
+        if (index < 0 || index + size > byteLength) {
+            throw NativeArrayBuffer.rangeError("msg.typed.array.offset.bad",
+                                               index);
+        }
+        return offset + (int)index;
+    }
+
+    private static boolean isLittleEndian(Object[] args, int index)
+    {
+        return index < args.length && ScriptRuntime.toBoolean(args[index]);
+    }
+
+// #string_id_map#
+
+    @Override
+    protected int findPrototypeId(String s)
+    {
+        int id;
+// #generated# Last update: 2026-10-18 19:06:18 UTC
+        L0: { id = 0; String X = null; int c;
+            L: switch (s.length()) {
+            case 7: c=s.charAt(0);
+                if (c=='g') { X="getInt8";id=Id_getInt8; }
+                else if (c=='s') { X="setInt8";id=Id_setInt8; }
+                break L;
+            case 8: c=s.charAt(6);
+                if (c=='1') {
+                    c=s.charAt(0);
+                    if (c=='g') { X="getInt16";id=Id_getInt16; }
+                    else if (c=='s') { X="setInt16";id=Id_setInt16; }
+                }
+                else if (c=='3') {
+                    c=s.charAt(0);
+                    if (c=='g') { X="getInt32";id=Id_getInt32; }
+                    else if (c=='s') { X="setInt32";id=Id_setInt32; }
+                }
+                else if (c=='t') {
+                    c=s.charAt(0);
+                    if (c=='g') { X="getUint8";id=Id_getUint8; }
+                    else if (c=='s') { X="setUint8";id=Id_setUint8; }
+                }
+                break L;
+            case 9: c=s.charAt(0);
+                if (c=='g') {
+                    c=s.charAt(8);
+                    if (c=='2') { X="getUint32";id=Id_getUint32; }
+                    else if (c=='6') { X="getUint16";id=Id_getUint16; }
+                }
+                else if (c=='s') {
+                    c=s.charAt(8);
+                    if (c=='2') { X="setUint32";id=Id_setUint32; }
+                    else if (c=='6') { X="setUint16";id=Id_setUint16; }
+                }
+                break L;
+            case 10: c=s.charAt(0);
+                if (c=='g') {
+                    c=s.charAt(9);
+                    if (c=='2') { X="getFloat32";id=Id_getFloat32; }
+                    else if (c=='4') { X="getFloat64";id=Id_getFloat64; }
+                }
+                else if (c=='s') {
+                    c=s.charAt(9);
+                    if (c=='2') { X="setFloat32";id=Id_setFloat32; }
+                    else if (c=='4') { X="setFloat64";id=Id_setFloat64; }
+                }
+                break L;
+            case 11: X="constructor";id=Id_constructor; break L;
+            }
+            if (X!=null && X!=s && !X.equals(s)) id = 0;
+            break L0;
+        }
+// #/generated#
+        return id;
+    }
+
+    private static final int
+        Id_constructor       = 1,
+        Id_getInt8           = 2,
+        Id_getUint8          = 3,
+        Id_getInt16          = 4,
+        Id_getUint16         = 5,
+        Id_getInt32          = 6,
+        Id_getUint32         = 7,
+        Id_getFloat32        = 8,
+        Id_getFloat64        = 9,
+        Id_setInt8           = 10,
+        Id_setUint8          = 11,
+        Id_setInt16          = 12,
+        Id_setUint16         = 13,
+        Id_setInt32          = 14,
+        Id_setUint32         = 15,
+        Id_setFloat32        = 16,
+        Id_setFloat64        = 17,
+        MAX_PROTOTYPE_ID     = 17;
+
+// #/string_id_map#
+}
@@ -0,0 +1,73 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.typedarrays;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * This class implements the Float64Array native object, a typed array of
+ * 64-bit floating point numbers.
+ *
+ * @since 1.7 Release 5
+ */
+public class NativeFloat64Array extends NativeTypedArrayView
+{
+    static final long serialVersionUID = 2161594418798037299L;
+
+    private static final int BYTES_PER_ELEMENT = 8;
+
+    public static void init(Context cx, Scriptable scope, boolean sealed)
+    {
+        NativeFloat64Array obj = new NativeFloat64Array();
+        obj.exportAsJSClass(MAX_PROTOTYPE_ID, scope, sealed);
+    }
+
+    public NativeFloat64Array()
+    {
+    }
+
+    /**
+     * Creates a typed array of the given number of elements that views
+     * the bytes of the ArrayBuffer from the offset on.
+     */
+    public NativeFloat64Array(NativeArrayBuffer arrayBuffer, int offset, int length)
+    {
+        super(arrayBuffer, offset, length, BYTES_PER_ELEMENT);
+    }
+
+    @Override
+    public String getClassName()
+    {
+        return "Float64Array";
+    }
+
+    @Override
+    public int getBytesPerElement()
+    {
+        return BYTES_PER_ELEMENT;
+    }
+
+    @Override
+    protected NativeTypedArrayView newView(NativeArrayBuffer arrayBuffer,
+                                           int offset, int length)
+    {
+        return new NativeFloat64Array(arrayBuffer, offset, length);
+    }
+
+    @Override
+    public double getNumberElement(int index)
+    {
+        return bytes().getDouble(offset + index * 8);
+    }
+
+    @Override
+    public void setNumberElement(int index, double value)
+    {
+        bytes().putDouble(offset + index * 8, value);
+    }
+}
@@ -0,0 +1,81 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.typedarrays;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ScriptRuntime;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * This class implements the Int16Array native object, a typed array of
+ * 16-bit signed integers.
+ *
+ * @since 1.7 Release 5
+ */
+public class NativeInt16Array extends NativeTypedArrayView
+{
+    static final long serialVersionUID = -3460117492906161727L;
+
+    private static final int BYTES_PER_ELEMENT = 2;
+
+    public static void init(Context cx, Scriptable scope, boolean sealed)
+    {
+        NativeInt16Array obj = new NativeInt16Array();
+        obj.exportAsJSClass(MAX_PROTOTYPE_ID, scope, sealed);
+    }
+
+    public NativeInt16Array()
+    {
+    }
+
+    /**
+     * Creates a typed array of the given number of elements that views
+     * the bytes of the ArrayBuffer from the offset on.
+     */
+    public NativeInt16Array(NativeArrayBuffer arrayBuffer, int offset, int length)
+    {
+        super(arrayBuffer, offset, length, BYTES_PER_ELEMENT);
+    }
+
+    @Override
+    public String getClassName()
+    {
+        return "Int16Array";
+    }
+
+    @Override
+    public int getBytesPerElement()
+    {
+        return BYTES_PER_ELEMENT;
+    }
+
+    @Override
+    protected NativeTypedArrayView newView(NativeArrayBuffer arrayBuffer,
+                                           int offset, int length)
+    {
+        return new NativeInt16Array(arrayBuffer, offset, length);
+    }
+
+    @Override
+    public double getNumberElement(int index)
+    {
+        return bytes().getShort(offset + index * 2);
+    }
+
+    @Override
+    public void setNumberElement(int index, double value)
+    {
+        bytes().putShort(offset + index * 2,
+                         (short)ScriptRuntime.toInt32(value));
+    }
+
+    @Override
+    protected Object getElement(int index)
+    {
+        return Integer.valueOf(bytes().getShort(offset + index * 2));
+    }
+}
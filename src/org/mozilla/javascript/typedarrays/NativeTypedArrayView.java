@@ -0,0 +1,420 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.typedarrays;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.IdFunctionObject;
+import org.mozilla.javascript.ScriptRuntime;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.Undefined;
+
+/**
+ * Base class of the typed arrays, which view the bytes of an ArrayBuffer
+ * as an array of numbers of one type. Each subclass implements one of the
+ * native objects Int8Array, Uint8Array, Uint8ClampedArray, Int16Array,
+ * Uint16Array, Int32Array, Uint32Array, Float32Array and Float64Array.
+ * <p>
+ * The elements are numbered from 0 to length - 1 and always exist;
+ * reading other indices returns undefined and writing them is ignored.
+ * Java code and the runtime can read and write elements without boxing
+ * them with {@link #getNumberElement(int)} and
+ * {@link #setNumberElement(int, double)}.
+ *
+ * @since 1.7 Release 5
+ */
+public abstract class NativeTypedArrayView extends NativeArrayBufferView
+{
+    static final long serialVersionUID = -4963053773152251274L;
+
+    /** The number of elements */
+    protected final int length;
+
+    protected NativeTypedArrayView()
+    {
+        length = 0;
+    }
+
+    protected NativeTypedArrayView(NativeArrayBuffer arrayBuffer, int offset,
+                                   int length, int bytesPerElement)
+    {
+        super(arrayBuffer, offset, length * bytesPerElement);
+        if (offset < 0 || length < 0 || offset % bytesPerElement != 0 ||
+            offset + (long)length * bytesPerElement >
+                arrayBuffer.getByteLength())
+        {
+            throw new IllegalArgumentException();
+        }
+        this.length = length;
+    }
+
+    /**
+     * Returns the number of bytes of each element.
+     */
+    public abstract int getBytesPerElement();
+
+    /**
+     * Returns a new typed array of the same type that views the given
+     * elements of the ArrayBuffer.
+     */
+    protected abstract NativeTypedArrayView newView(NativeArrayBuffer arrayBuffer,
+                                                    int offset, int length);
+
+    /**
+     * Returns the element at the index, which must be between 0 and
+     * length - 1.
+     */
+    public abstract double getNumberElement(int index);
+
+    /**
+     * Converts the value to the type of the elements and stores it at the
+     * index, which must be between 0 and length - 1.
+     */
+    public abstract void setNumberElement(int index, double value);
+
+    /**
+     * Returns the boxed element at the index, which must be between 0 and
+     * length - 1.
+     */
+    protected Object getElement(int index)
+    {
+        return ScriptRuntime.wrapNumber(getNumberElement(index));
+    }
+
+    /**
+     * Returns the number of elements.
+     */
+    public final int getArrayLength()
+    {
+        return length;
+    }
+
+    /**
+     * Returns true if the index is between 0 and length - 1.
+     */
+    public final boolean isNumberElement(int index)
+    {
+        return 0 <= index && index < length;
+    }
+
+    @Override
+    public Object get(int index, Scriptable start)
+    {
+        if (0 <= index) {
+            return index < length ? getElement(index) : Undefined.instance;
+        }
+        return super.get(index, start);
+    }
+
+    @Override
+    public boolean has(int index, Scriptable start)
+    {
+        if (0 <= index) {
+            return index < length;
+        }
+        return super.has(index, start);
+    }
+
+    @Override
+    public void put(int index, Scriptable start, Object value)
+    {
+        if (start == this && 0 <= index) {
+            if (index < length) {
+                setNumberElement(index, ScriptRuntime.toNumber(value));
+            }
+            return;
+        }
+        super.put(index, start, value);
+    }
+
+    @Override
+    public void delete(int index)
+    {
+        if (index < 0) {
+            super.delete(index);
+        }
+    }
+
+    @Override
+    public Object[] getIds()
+    {
+        return addIndices(super.getIds());
+    }
+
+    @Override
+    public Object[] getAllIds()
+    {
+        return addIndices(super.getAllIds());
+    }
+
+    private Object[] addIndices(Object[] ids)
+    {
+        Object[] result = new Object[length + ids.length];
+        for (int i = 0; i < length; i++) {
+            result[i] = Integer.valueOf(i);
+        }
+        System.arraycopy(ids, 0, result, length, ids.length);
+        return result;
+    }
+
+    private static final int
+        Id_length        = NativeArrayBufferView.MAX_INSTANCE_ID + 1,
+        MAX_INSTANCE_ID  = Id_length;
+
+    @Override
+    protected int getMaxInstanceId()
+    {
+        return MAX_INSTANCE_ID;
+    }
+
+    @Override
+    protected int findInstanceIdInfo(String s)
+    {
+        if (s.equals("length")) {
+            return instanceIdInfo(READONLY | PERMANENT | DONTENUM, Id_length);
+        }
+        return super.findInstanceIdInfo(s);
+    }
+
+    @Override
+    protected String getInstanceIdName(int id)
+    {
+        if (id == Id_length) { return "length"; }
+        return super.getInstanceIdName(id);
+    }
+
+    @Override
+    protected Object getInstanceIdValue(int id)
+    {
+        if (id == Id_length) {
+            return ScriptRuntime.wrapInt(length);
+        }
+        return super.getInstanceIdValue(id);
+    }
+
+    @Override
+    protected void fillConstructorProperties(IdFunctionObject ctor)
+    {
+        ctor.defineProperty("BYTES_PER_ELEMENT",
+                            ScriptRuntime.wrapInt(getBytesPerElement()),
+                            READONLY | PERMANENT | DONTENUM);
+        super.fillConstructorProperties(ctor);
+    }
+
+    @Override
+    protected void initPrototypeId(int id)
+    {
+        if (id == Id_BYTES_PER_ELEMENT) {
+            initPrototypeValue(id, "BYTES_PER_ELEMENT",
+                               ScriptRuntime.wrapInt(getBytesPerElement()),
+                               READONLY | PERMANENT | DONTENUM);
+            return;
+        }
+        String s;
+        int arity;
+        switch (id) {
+          case Id_constructor: arity=3; s="constructor"; break;
+          case Id_set:         arity=2; s="set";         break;
+          case Id_subarray:    arity=2; s="subarray";    break;
+          default: throw new IllegalArgumentException(String.valueOf(id));
+        }
+        initPrototypeMethod(getClassName(), id, s, arity);
+    }
+
+    @Override
+    public Object execIdCall(IdFunctionObject f, Context cx, Scriptable scope,
+                             Scriptable thisObj, Object[] args)
+    {
+        // The class name of each subclass is a string constant
+        if (!f.hasTag(getClassName())) {
+            return super.execIdCall(f, cx, scope, thisObj, args);
+        }
+        int id = f.methodId();
+        switch (id) {
+          case Id_constructor:
+            return js_constructor(args);
+
+          case Id_set:
+            realThis(thisObj, f).js_set(args);
+            return Undefined.instance;
+
+          case Id_subarray: {
+            NativeTypedArrayView self = realThis(thisObj, f);
+            NativeTypedArrayView result = self.js_subarray(args);
+            ScriptRuntime.setObjectProtoAndParent(result, scope);
+            return result;
+          }
+        }
+        throw new IllegalArgumentException(String.valueOf(id));
+    }
+
+    private NativeTypedArrayView realThis(Scriptable thisObj,
+                                          IdFunctionObject f)
+    {
+        if (thisObj == null || thisObj.getClass() != getClass())
+            throw incompatibleCallError(f);
+        return (NativeTypedArrayView)thisObj;
+    }
+
+    private NativeTypedArrayView js_constructor(Object[] args)
+    {
+        int bytesPerElement = getBytesPerElement();
+        Object arg0 = args.length > 0 ? args[0] : Undefined.instance;
+
+        if (arg0 instanceof NativeArrayBuffer) {
+            NativeArrayBuffer arrayBuffer = (NativeArrayBuffer)arg0;
+            int bufferLength = arrayBuffer.getByteLength();
+            double offset = ScriptRuntime.toInteger(args, 1);
+            if (offset < 0 || offset > bufferLength ||
+                offset % bytesPerElement != 0)
+            {
+                throw NativeArrayBuffer.rangeError("msg.typed.array.offset.bad",
+                                                   offset);
+            }
+            double byteLength;
+            if (NativeArrayBuffer.isArg(args, 2)) {
+                double length = ScriptRuntime.toInteger(args[2]);
+                byteLength = length * bytesPerElement;
+                if (length < 0 || offset + byteLength > bufferLength) {
+                    throw NativeArrayBuffer.rangeError(
+                        "msg.typed.array.length.bad", length);
+                }
+            } else {
+                byteLength = bufferLength - offset;
+                if (byteLength % bytesPerElement != 0) {
+                    throw NativeArrayBuffer.rangeError(
+                        "msg.typed.array.length.bad", bufferLength);
+                }
+            }
+            return newView(arrayBuffer, (int)offset,
+                           (int)byteLength / bytesPerElement);
+        }
+
+        if (arg0 instanceof Scriptable) {
+            // Copy the elements of a typed array or array-like object
+            Scriptable source = (Scriptable)arg0;
+            double length = source instanceof NativeTypedArrayView
+                ? ((NativeTypedArrayView)source).length
+                : ScriptRuntime.toUint32(
+                      ScriptableObject.getProperty(source, "length"));
+            NativeTypedArrayView result = allocate(length);
+            result.copyElements(source, 0, result.length);
+            return result;
+        }
+
+        return allocate(ScriptRuntime.toInteger(arg0));
+    }
+
+    private NativeTypedArrayView allocate(double length)
+    {
+        int bytesPerElement = getBytesPerElement();
+        if (length < 0 || length > Integer.MAX_VALUE / bytesPerElement) {
+            throw NativeArrayBuffer.rangeError("msg.typed.array.length.bad",
+                                               length);
+        }
+        NativeArrayBuffer arrayBuffer =
+            new NativeArrayBuffer((int)length * bytesPerElement);
+        return newView(arrayBuffer, 0, (int)length);
+    }
+
+    private void js_set(Object[] args)
+    {
+        if (args.length == 0 || !(args[0] instanceof Scriptable)) {
+            throw ScriptRuntime.typeError1("msg.arg.not.object",
+                    ScriptRuntime.typeof(args.length > 0 ? args[0]
+                                                         : Undefined.instance));
+        }
+        Scriptable source = (Scriptable)args[0];
+        double offset = ScriptRuntime.toInteger(args, 1);
+        double sourceLength = source instanceof NativeTypedArrayView
+            ? ((NativeTypedArrayView)source).length
+            : ScriptRuntime.toUint32(
+                  ScriptableObject.getProperty(source, "length"));
+        if (offset < 0 || offset + sourceLength > length) {
+            throw NativeArrayBuffer.rangeError("msg.typed.array.offset.bad",
+                                               offset);
+        }
+        if (source instanceof NativeTypedArrayView &&
+            ((NativeTypedArrayView)source).arrayBuffer == arrayBuffer)
+        {
+            // The elements may overlap, so read all of them first
+            NativeTypedArrayView view = (NativeTypedArrayView)source;
+            double[] values = new double[view.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = view.getNumberElement(i);
+            }
+            for (int i = 0; i < values.length; i++) {
+                setNumberElement((int)offset + i, values[i]);
+            }
+        } else {
+            copyElements(source, (int)offset, (int)sourceLength);
+        }
+    }
+
+    private void copyElements(Scriptable source, int offset, int count)
+    {
+        if (source instanceof NativeTypedArrayView) {
+            NativeTypedArrayView view = (NativeTypedArrayView)source;
+            for (int i = 0; i < count; i++) {
+                setNumberElement(offset + i, view.getNumberElement(i));
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                Object value = ScriptableObject.getProperty(source, i);
+                if (value == Scriptable.NOT_FOUND) {
+                    value = Undefined.instance;
+                }
+                setNumberElement(offset + i, ScriptRuntime.toNumber(value));
+            }
+        }
+    }
+
+    private NativeTypedArrayView js_subarray(Object[] args)
+    {
+        double begin = NativeArrayBuffer.clampIndex(
+            ScriptRuntime.toInteger(args, 0), length);
+        double end = NativeArrayBuffer.isArg(args, 1)
+            ? NativeArrayBuffer.clampIndex(ScriptRuntime.toInteger(args[1]),
+                                           length)
+            : length;
+        int count = (int)Math.max(end - begin, 0);
+        return newView(arrayBuffer,
+                       offset + (int)begin * getBytesPerElement(), count);
+    }
+
+// #string_id_map#
+
+    @Override
+    protected int findPrototypeId(String s)
+    {
+        int id;
+// #generated# Last update: 2026-10-18 19:06:18 UTC
+        L0: { id = 0; String X = null;
+            L: switch (s.length()) {
+            case 3: X="set";id=Id_set; break L;
+            case 8: X="subarray";id=Id_subarray; break L;
+            case 11: X="constructor";id=Id_constructor; break L;
+            case 17: X="BYTES_PER_ELEMENT";id=Id_BYTES_PER_ELEMENT; break L;
+            }
+            if (X!=null && X!=s && !X.equals(s)) id = 0;
+            break L0;
+        }
+// #/generated#
+        return id;
+    }
+
+    private static final int
+        Id_constructor       = 1,
+        Id_set               = 2,
+        Id_subarray          = 3,
+        Id_BYTES_PER_ELEMENT = 4;
+
+// #/string_id_map#
+
+    /** The number of prototype ids, which are shared by all subclasses */
+    protected static final int MAX_PROTOTYPE_ID = 4;
+}
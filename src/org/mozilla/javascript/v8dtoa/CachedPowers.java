@@ -60,6 +60,22 @@ public class CachedPowers {
         return cachedPower.decimalExponent;
     }
 
+    // Returns the cached power of ten with the greatest decimal exponent that
+    // is not greater than requested_exponent, which is less than
+    // CACHED_POWERS_SPACING below it. The significand of the cached power is
+    // normalized and its error is less than 0.5 ulp.
+    static int getCachedPowerForDecimalExponent(int requested_exponent,
+                                                DiyFp power) {
+        assert(kMinDecimalExponent <= requested_exponent);
+        assert(requested_exponent < kMaxDecimalExponent + CACHED_POWERS_SPACING);
+        int index = (requested_exponent + GRISU_CACHE_OFFSET) / CACHED_POWERS_SPACING;
+        CachedPower cachedPower = CACHED_POWERS[index];
+        power.setF(cachedPower.significand);
+        power.setE(cachedPower.binaryExponent);
+        assert(cachedPower.decimalExponent <= requested_exponent);
+        return cachedPower.decimalExponent;
+    }
+
     // Code below is converted from GRISU_CACHE_NAME(8) in file "powers-ten.h"
     // Regexp to convert this from original C++ source:
     // \{GRISU_UINT64_C\((\w+), (\w+)\), (\-?\d+), (\-?\d+)\}
@@ -157,5 +173,10 @@ public class CachedPowers {
 
     static final int GRISU_CACHE_OFFSET = 308;
 
+    // The range of the decimal exponents of the cached powers.
+    static final int kMinDecimalExponent = -GRISU_CACHE_OFFSET;
+    static final int kMaxDecimalExponent =
+            (CACHED_POWERS.length - 1) * CACHED_POWERS_SPACING - GRISU_CACHE_OFFSET;
+
 
 }
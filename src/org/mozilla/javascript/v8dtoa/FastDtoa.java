@@ -425,6 +425,162 @@ public class FastDtoa {
     }
 
 
+    // Rounds the buffer upwards if the result is closer to v by possibly adding
+    // 1 to the buffer. If the precision of the calculation is not sufficient to
+    // round correctly, return false.
+    // The rounding might shift the whole buffer in which case the decimal point
+    // is incremented.
+    //
+    // If 2*rest > ten_kappa then the buffer needs to be round up.
+    // rest can have an error of +/- 1 unit. This function accounts for the
+    // imprecision and returns false, if the rounding direction cannot be
+    // unambiguously determined.
+    //
+    // Precondition: rest < ten_kappa.
+    static boolean roundWeedCounted(FastDtoaBuilder buffer,
+                                    long rest,
+                                    long ten_kappa,
+                                    long unit) {
+        assert uint64_lte(rest + 1, ten_kappa);
+        // The following tests are done in a specific order to avoid overflows.
+        // They will work correctly with any uint64 values of rest < ten_kappa
+        // and unit.
+        //
+        // If the unit is too big, then we don't know which way to round. For
+        // example a unit of 50 means that the real number lies within rest +/- 50.
+        // If 10^kappa == 40 then there is no way to tell which way to round.
+        if (uint64_lte(ten_kappa, unit)) return false;
+        // Even if unit is just half the size of 10^kappa we are already
+        // completely lost. (And after the previous test we know that the
+        // expression will not over/underflow.)
+        if (uint64_lte(ten_kappa - unit, unit)) return false;
+        // If 2 * (rest + unit) <= 10^kappa we can safely round down.
+        if (!uint64_lte(ten_kappa - rest, rest) &&
+                uint64_lte(2 * unit, ten_kappa - 2 * rest)) {
+            return true;
+        }
+        // If 2 * (rest - unit) >= 10^kappa, then we can safely round up.
+        if (!uint64_lte(rest, unit) &&
+                uint64_lte(ten_kappa - (rest - unit), rest - unit)) {
+            // Increment the last digit recursively until we find a non '9' digit.
+            char[] chars = buffer.chars;
+            chars[buffer.end - 1]++;
+            for (int i = buffer.end - 1; i > 0; --i) {
+                if (chars[i] != '0' + 10) break;
+                chars[i] = '0';
+                chars[i - 1]++;
+            }
+            // If the first digit is now '0'+ 10 we had a buffer with all '9's.
+            // With the exception of the first digit all digits are now '0'.
+            // Simply switch the first digit to '1' and adjust the decimal point.
+            if (chars[0] == '0' + 10) {
+                chars[0] = '1';
+                buffer.point++;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // Generates (at most) requested_digits of input number w.
+    // w is a floating-point number (DiyFp), consisting of a significand and an
+    // exponent. Its exponent is bounded by minimal_target_exponent and
+    // maximal_target_exponent.
+    //       Hence -60 <= w.e() <= -32.
+    //
+    // Returns false if it fails, in which case the generated digits in the buffer
+    // should not be used.
+    // Preconditions:
+    //  * w is correct up to 1 ulp (unit in the last place). That
+    //    is, its error must be strictly less than a unit of its last digit.
+    //  * minimal_target_exponent <= w.e() <= maximal_target_exponent
+    //
+    // Postconditions: returns false if procedure fails.
+    //   otherwise:
+    //     * buffer is not null-terminated, but length contains the number of
+    //       digits.
+    //     * the representation in buffer is the most precise representation of
+    //       requested_digits digits.
+    //     * buffer contains requested_digits digits of w.
+    //     * buffer.point is set such that buffer * 10^(point - length) represents
+    //       w approximately.
+    // Remark: This procedure takes into account the imprecision of its input
+    //   numbers. If the precision is not enough to guarantee all the postconditions
+    //   then false is returned. This usually happens rarely, but the failure-rate
+    //   increases with higher requested_digits.
+    static boolean digitGenCounted(DiyFp w,
+                                   int requested_digits,
+                                   FastDtoaBuilder buffer,
+                                   int mk) {
+        assert(minimal_target_exponent <= w.e() && w.e() <= maximal_target_exponent);
+        // w is assumed to have an error less than 1 unit. Furthermore we assume
+        // that w is not zero.
+        long w_error = 1;
+        // We cut the input number into two parts: the integral digits and the
+        // fractional digits. We don't emit any decimal separator, but adapt kappa
+        // instead. Example: instead of writing "1.2" we put "12" into the buffer
+        // and increase kappa by 1.
+        DiyFp one = new DiyFp(1l << -w.e(), w.e());
+        // Division by one is a shift. The integrals are less than 2^32 and are
+        // kept in a long to stay unsigned.
+        long integrals = w.f() >>> -one.e();
+        // Modulo by one is an and.
+        long fractionals = w.f() & (one.f() - 1);
+        // Find the biggest power of ten that is not greater than integrals.
+        long divisor = 0;
+        int kappa = 0;
+        if (integrals != 0) {
+            divisor = 1;
+            kappa = 1;
+            while (divisor * 10 <= integrals) {
+                divisor *= 10;
+                kappa++;
+            }
+        }
+
+        // Loop invariant: buffer = w / 10^kappa  (integer division)
+        // The invariant holds for the first iteration: kappa has been initialized
+        // with the divisor exponent + 1. And the divisor is the biggest power of
+        // ten that is smaller than 'integrals'.
+        while (kappa > 0) {
+            int digit = (int) (integrals / divisor);
+            buffer.append((char) ('0' + digit));
+            requested_digits--;
+            integrals %= divisor;
+            kappa--;
+            if (requested_digits == 0) break;
+            divisor /= 10;
+        }
+
+        if (requested_digits == 0) {
+            long rest = (integrals << -one.e()) + fractionals;
+            buffer.point = buffer.end - mk + kappa;
+            return roundWeedCounted(buffer, rest, divisor << -one.e(), w_error);
+        }
+
+        // The integrals have been generated. We are at the point of the decimal
+        // separator. In the following loop we simply multiply the remaining
+        // digits by 10 and divide by one. We just need to pay attention to
+        // multiply associated data (the unit), too.
+        // Note that the multiplication by 10 does not overflow 64 unsigned bits,
+        // because w.e >= -60 and thus one.e >= -60.
+        assert(one.e() >= -60);
+        while (requested_digits > 0 && !uint64_lte(fractionals, w_error)) {
+            fractionals *= 10;
+            w_error *= 10;
+            // Integer division by one.
+            int digit = (int) (fractionals >>> -one.e());
+            buffer.append((char) ('0' + digit));
+            requested_digits--;
+            fractionals &= one.f() - 1;  // Modulo by one.
+            kappa--;
+        }
+        if (requested_digits != 0) return false;
+        buffer.point = buffer.end - mk + kappa;
+        return roundWeedCounted(buffer, fractionals, one.f(), w_error);
+    }
+
+
     // Provides a decimal representation of v.
     // Returns true if it succeeds, otherwise the result cannot be trusted.
     // There will be *length digits inside the buffer (not null-terminated).
@@ -492,6 +648,34 @@ public class FastDtoa {
         return grisu3(v, buffer);
     }
 
+    // Provides a decimal representation of v with requested_digits
+    // significant digits, rounded to the nearest representation.
+    // Returns true if it succeeds, otherwise the result cannot be trusted.
+    // In that case the caller has to fall back to a slower algorithm. This
+    // happens if the digits cannot be rounded reliably, which includes
+    // values that lie halfway between two representations.
+    // The buffer holds the digits and the position of their decimal point.
+    public static boolean dtoa(double v, int requested_digits,
+                               FastDtoaBuilder buffer) {
+        assert(v > 0);
+        assert(!Double.isNaN(v));
+        assert(!Double.isInfinite(v));
+        assert(requested_digits > 0);
+
+        // The buffer is not meant for more digits than a double can have.
+        if (requested_digits > kFastDtoaMaximalLength) {
+            return false;
+        }
+        buffer.reset();
+        DiyFp w = DoubleHelper.asNormalizedDiyFp(Double.doubleToLongBits(v));
+        DiyFp ten_mk = new DiyFp();  // Cached power of ten: 10^-k
+        int mk = CachedPowers.getCachedPower(w.e() + DiyFp.kSignificandSize,
+                minimal_target_exponent, maximal_target_exponent, ten_mk);
+        // As in grisu3 the scaled w is off by less than 1ulp.
+        DiyFp scaled_w = DiyFp.times(w, ten_mk);
+        return digitGenCounted(scaled_w, requested_digits, buffer, mk);
+    }
+
     public static String numberToString(double v) {
         FastDtoaBuilder buffer = new FastDtoaBuilder();
         return numberToString(v, buffer) ? buffer.format() : null;
@@ -10,8 +10,10 @@ import java.util.Arrays;
 
 public class FastDtoaBuilder {
 
-    // allocate buffer for generated digits + extra notation + padding zeroes
-    final char[] chars = new char[FastDtoa.kFastDtoaMaximalLength + 8];
+    // allocate buffer for generated digits + extra notation + padding zeroes,
+    // which also holds the digits generated by FastFixedDtoa
+    final char[] chars = new char[Math.max(FastDtoa.kFastDtoaMaximalLength + 8,
+            FastFixedDtoa.kFastFixedDtoaMaximalLength)];
     int end = 0;
     int point;
     boolean formatted = false;
@@ -29,6 +31,18 @@ public class FastDtoaBuilder {
         formatted = false;
     }
 
+    public int length() {
+        return end;
+    }
+
+    public int decimalPoint() {
+        return point;
+    }
+
+    public void appendTo(StringBuilder sb) {
+        sb.append(chars, 0, end);
+    }
+
     @Override
     public String toString() {
         return "[chars:" + new String(chars, 0, end) + ", point:" + point + "]";
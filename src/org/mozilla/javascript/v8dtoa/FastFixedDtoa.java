@@ -0,0 +1,422 @@
+// Copyright 2010 the V8 project authors. All rights reserved.
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+//       copyright notice, this list of conditions and the following
+//       disclaimer in the documentation and/or other materials provided
+//       with the distribution.
+//     * Neither the name of Google Inc. nor the names of its
+//       contributors may be used to endorse or promote products derived
+//       from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+// Ported to Java from the fixed-dtoa code of V8.
+
+package org.mozilla.javascript.v8dtoa;
+
+public class FastFixedDtoa {
+
+    // FastFixedDtoa produces at most this many digits: 22 digits for the
+    // integral part of values below 2^73 and 20 fractional digits.
+    static final int kFastFixedDtoaMaximalLength = 42;
+
+    static final int kDoubleSignificandSize = 53;  // Includes the hidden bit.
+
+    // Represents a 128bit type. All operations treat the two longs as
+    // unsigned values.
+    static class UInt128 {
+
+        private static final long kMask32 = 0xFFFFFFFFL;
+
+        // Value == (high_bits << 64) + low_bits
+        private long high_bits;
+        private long low_bits;
+
+        UInt128(long high, long low) {
+            high_bits = high;
+            low_bits = low;
+        }
+
+        void multiply(int multiplicand) {
+            long accumulator;
+
+            accumulator = (low_bits & kMask32) * multiplicand;
+            long part = accumulator & kMask32;
+            accumulator >>>= 32;
+            accumulator = accumulator + (low_bits >>> 32) * multiplicand;
+            low_bits = (accumulator << 32) + part;
+            accumulator >>>= 32;
+            accumulator = accumulator + (high_bits & kMask32) * multiplicand;
+            part = accumulator & kMask32;
+            accumulator >>>= 32;
+            accumulator = accumulator + (high_bits >>> 32) * multiplicand;
+            high_bits = (accumulator << 32) + part;
+            assert (accumulator >>> 32) == 0;
+        }
+
+        void shift(int shift_amount) {
+            assert -64 <= shift_amount && shift_amount <= 64;
+            if (shift_amount == 0) {
+                return;
+            } else if (shift_amount == -64) {
+                high_bits = low_bits;
+                low_bits = 0;
+            } else if (shift_amount == 64) {
+                low_bits = high_bits;
+                high_bits = 0;
+            } else if (shift_amount <= 0) {
+                high_bits <<= -shift_amount;
+                high_bits += low_bits >>> (64 + shift_amount);
+                low_bits <<= -shift_amount;
+            } else {
+                low_bits >>>= shift_amount;
+                low_bits += high_bits << (64 - shift_amount);
+                high_bits >>>= shift_amount;
+            }
+        }
+
+        // Modifies this to this MOD (2^power).
+        // Returns this DIV (2^power).
+        int divModPowerOf2(int power) {
+            if (power >= 64) {
+                int result = (int) (high_bits >>> (power - 64));
+                high_bits -= (long) result << (power - 64);
+                return result;
+            } else {
+                long part_low = low_bits >>> power;
+                long part_high = high_bits << (64 - power);
+                int result = (int) (part_low + part_high);
+                high_bits = 0;
+                low_bits -= part_low << power;
+                return result;
+            }
+        }
+
+        boolean isZero() {
+            return high_bits == 0 && low_bits == 0;
+        }
+
+        int bitAt(int position) {
+            if (position >= 64) {
+                return (int) (high_bits >>> (position - 64)) & 1;
+            } else {
+                return (int) (low_bits >>> position) & 1;
+            }
+        }
+    }
+
+
+    // Writes the requested_length last decimal digits of number, padded
+    // with leading zeros. The number must not be negative.
+    static void fillDigits32FixedLength(long number, int requested_length,
+                                        FastDtoaBuilder buffer) {
+        for (int i = requested_length - 1; i >= 0; --i) {
+            buffer.chars[buffer.end + i] = (char) ('0' + number % 10);
+            number /= 10;
+        }
+        buffer.end += requested_length;
+    }
+
+
+    // Writes the decimal digits of number without leading zeros.
+    // The number must be less than 2^32.
+    static void fillDigits32(long number, FastDtoaBuilder buffer) {
+        int number_length = 0;
+        // We fill the digits in reverse order and exchange them afterwards.
+        while (number != 0) {
+            int digit = (int) (number % 10);
+            number /= 10;
+            buffer.chars[buffer.end + number_length] = (char) ('0' + digit);
+            number_length++;
+        }
+        // Exchange the digits.
+        int i = buffer.end;
+        int j = buffer.end + number_length - 1;
+        while (i < j) {
+            char tmp = buffer.chars[i];
+            buffer.chars[i] = buffer.chars[j];
+            buffer.chars[j] = tmp;
+            i++;
+            j--;
+        }
+        buffer.end += number_length;
+    }
+
+
+    static void fillDigits64FixedLength(long number, int requested_length,
+                                        FastDtoaBuilder buffer) {
+        final long kTen7 = 10000000;
+        // For efficiency cut the number into 3 parts, and print those.
+        long part2 = number % kTen7;
+        number /= kTen7;
+        long part1 = number % kTen7;
+        long part0 = number / kTen7;
+
+        fillDigits32FixedLength(part0, 3, buffer);
+        fillDigits32FixedLength(part1, 7, buffer);
+        fillDigits32FixedLength(part2, 7, buffer);
+    }
+
+
+    // The number must not be negative, that is less than 2^63.
+    static void fillDigits64(long number, FastDtoaBuilder buffer) {
+        final long kTen7 = 10000000;
+        // For efficiency cut the number into 3 parts, and print those.
+        long part2 = number % kTen7;
+        number /= kTen7;
+        long part1 = number % kTen7;
+        long part0 = number / kTen7;
+
+        if (part0 != 0) {
+            fillDigits32(part0, buffer);
+            fillDigits32FixedLength(part1, 7, buffer);
+            fillDigits32FixedLength(part2, 7, buffer);
+        } else if (part1 != 0) {
+            fillDigits32(part1, buffer);
+            fillDigits32FixedLength(part2, 7, buffer);
+        } else {
+            fillDigits32(part2, buffer);
+        }
+    }
+
+
+    static void roundUp(FastDtoaBuilder buffer) {
+        // An empty buffer represents 0.
+        if (buffer.end == 0) {
+            buffer.chars[0] = '1';
+            buffer.point = 1;
+            buffer.end = 1;
+            return;
+        }
+        // Round the last digit until we either have a digit that was not '9' or
+        // until we reached the first digit.
+        buffer.chars[buffer.end - 1]++;
+        for (int i = buffer.end - 1; i > 0; --i) {
+            if (buffer.chars[i] != '0' + 10) {
+                return;
+            }
+            buffer.chars[i] = '0';
+            buffer.chars[i - 1]++;
+        }
+        // If the first digit is now '0' + 10, we would need to set it to '0' and
+        // add a '1' in front. However we reach the first digit only if all
+        // following digits had been '9' before rounding up. Now all trailing
+        // digits are '0' and we simply switch the first digit to '1' and update
+        // the decimal-point (indicating that the point is now one digit to the
+        // right).
+        if (buffer.chars[0] == '0' + 10) {
+            buffer.chars[0] = '1';
+            buffer.point++;
+        }
+    }
+
+
+    // The given fractionals number represents a fixed-point number with binary
+    // point at bit (-exponent).
+    // Preconditions:
+    //   -128 <= exponent <= 0.
+    //   0 <= fractionals * 2^exponent < 1
+    //   The buffer holds the result.
+    // The function will round its result. During the rounding-process digits not
+    // generated by this function might be updated, and the decimal-point variable
+    // might be updated. If this function generates the digits 99 and the buffer
+    // already contained "199" (thus yielding a buffer of "19999") then a
+    // rounding-up will change the contents of the buffer to "20000".
+    static void fillFractionals(long fractionals, int exponent,
+                                int fractional_count, FastDtoaBuilder buffer) {
+        assert -128 <= exponent && exponent <= 0;
+        // 'fractionals' is a fixed-point number, with binary point at bit
+        // (-exponent). Inside the function the non-converted remainder of
+        // fractionals is a fixed-point number, with binary point at bit 'point'.
+        if (-exponent <= 64) {
+            // One 64 bit number is sufficient.
+            assert fractionals >>> 56 == 0;
+            int point = -exponent;
+            for (int i = 0; i < fractional_count; ++i) {
+                if (fractionals == 0) break;
+                // Instead of multiplying by 10 we multiply by 5 and adjust the
+                // point location. This way the fractionals variable will not
+                // overflow 64 unsigned bits.
+                // Invariant at the beginning of the loop: fractionals < 2^point.
+                // Initially we have: point <= 64 and fractionals < 2^56
+                // After each iteration the point is decremented by one.
+                // Note that 5^3 = 125 < 128 = 2^7.
+                // Therefore three iterations of this loop will not overflow
+                // fractionals (even without the subtraction at the end of the
+                // loop body). At this time point will satisfy point <= 61 and
+                // therefore fractionals < 2^point and any further multiplication
+                // of fractionals by 5 will not overflow.
+                fractionals *= 5;
+                point--;
+                int digit = (int) (fractionals >>> point);
+                assert digit <= 9;
+                buffer.append((char) ('0' + digit));
+                fractionals -= (long) digit << point;
+            }
+            // If the first bit after the point is set we have to round up.
+            if (fractionals != 0 && ((fractionals >>> (point - 1)) & 1) == 1) {
+                roundUp(buffer);
+            }
+        } else {  // We need 128 bits.
+            assert 64 < -exponent && -exponent <= 128;
+            UInt128 fractionals128 = new UInt128(fractionals, 0);
+            fractionals128.shift(-exponent - 64);
+            int point = 128;
+            for (int i = 0; i < fractional_count; ++i) {
+                if (fractionals128.isZero()) break;
+                // As before: instead of multiplying by 10 we multiply by 5 and
+                // adjust the point location.
+                // This multiplication will not overflow for the same reasons as
+                // before.
+                fractionals128.multiply(5);
+                point--;
+                int digit = fractionals128.divModPowerOf2(point);
+                assert digit <= 9;
+                buffer.append((char) ('0' + digit));
+            }
+            if (fractionals128.bitAt(point - 1) == 1) {
+                roundUp(buffer);
+            }
+        }
+    }
+
+
+    // Removes leading and trailing zeros.
+    // If leading zeros are removed then the decimal point position is adjusted.
+    static void trimZeros(FastDtoaBuilder buffer) {
+        while (buffer.end > 0 && buffer.chars[buffer.end - 1] == '0') {
+            buffer.end--;
+        }
+        int first_non_zero = 0;
+        while (first_non_zero < buffer.end &&
+               buffer.chars[first_non_zero] == '0') {
+            first_non_zero++;
+        }
+        if (first_non_zero != 0) {
+            System.arraycopy(buffer.chars, first_non_zero, buffer.chars, 0,
+                             buffer.end - first_non_zero);
+            buffer.end -= first_non_zero;
+            buffer.point -= first_non_zero;
+        }
+    }
+
+
+    // Produces digits necessary to print a given number with
+    // 'fractional_count' digits after the decimal point.
+    // The buffer must be big enough to hold the result. The decimal point
+    // is not written to the buffer, instead its position relative to the
+    // first digit is stored in buffer.point.
+    //
+    // The digits are the exact value of v rounded to fractional_count digits,
+    // where ties are rounded up (away from zero). Trailing zeros are removed;
+    // if no digit remains the decimal point is -fractional_count.
+    //
+    // This method only works for some parameters. If it can't handle the input
+    // it returns false. The output is undefined in that case:
+    // v must be positive and less than 2^73, and fractional_count must not be
+    // greater than 20.
+    public static boolean dtoa(double v, int fractional_count,
+                               FastDtoaBuilder buffer) {
+        assert v > 0 && fractional_count >= 0;
+        final long kMaxUInt32 = 0xFFFFFFFFL;
+        long bits = Double.doubleToLongBits(v);
+        long significand = DoubleHelper.significand(bits);
+        int exponent = DoubleHelper.exponent(bits);
+        // v = significand * 2^exponent (with significand a 53bit integer).
+        // If the exponent is larger than 20 (i.e. we may have a 73bit number)
+        // then we don't know how to compute the representation. 2^73 ~= 9.5*10^21.
+        if (exponent > 20) return false;
+        if (fractional_count > 20) return false;
+        buffer.reset();
+        // At most kDoubleSignificandSize bits of the significand are non-zero.
+        // Given a signed 64 bit integer we have 10 0s followed by 53 potentially
+        // non-zero bits (Java has no unsigned division, so the original limit of
+        // 64 bits becomes 63 bits).
+        if (exponent + kDoubleSignificandSize > 63) {
+            // The exponent must be > 10.
+            //
+            // We know that v = significand * 2^exponent.
+            // And the exponent > 10.
+            // We simplify the task by dividing v by 10^17.
+            // The quotient delivers the first digits, and the remainder fits
+            // into a 64 bit number.
+            // Dividing by 10^17 is equivalent to dividing by 5^17*2^17.
+            final long kFive17 = 0xB1A2BC2EC5L;  // 5^17
+            long divisor = kFive17;
+            int divisor_power = 17;
+            long dividend = significand;
+            long quotient;
+            long remainder;
+            // Let v = f * 2^e with f == significand and e == exponent.
+            // Then need q (quotient) and r (remainder) as follows:
+            //   v            = q * 10^17       + r
+            //   f * 2^e      = q * 10^17       + r
+            //   f * 2^e      = q * 5^17 * 2^17 + r
+            // If e > 17 then
+            //   f * 2^(e-17) = q * 5^17        + r/2^17
+            // else
+            //   f  = q * 5^17 * 2^(17-e) + r/2^e
+            if (exponent > divisor_power) {
+                // We only allow exponents of up to 20 and therefore (e - 17) <= 3
+                dividend <<= exponent - divisor_power;
+                quotient = dividend / divisor;
+                remainder = (dividend % divisor) << divisor_power;
+            } else {
+                divisor <<= divisor_power - exponent;
+                quotient = dividend / divisor;
+                remainder = (dividend % divisor) << exponent;
+            }
+            fillDigits32(quotient, buffer);
+            fillDigits64FixedLength(remainder, divisor_power, buffer);
+            buffer.point = buffer.end;
+        } else if (exponent >= 0) {
+            // 0 <= exponent <= 10
+            significand <<= exponent;
+            fillDigits64(significand, buffer);
+            buffer.point = buffer.end;
+        } else if (exponent > -kDoubleSignificandSize) {
+            // We have to cut the number.
+            long integrals = significand >>> -exponent;
+            long fractionals = significand - (integrals << -exponent);
+            if (integrals > kMaxUInt32) {
+                fillDigits64(integrals, buffer);
+            } else {
+                fillDigits32(integrals, buffer);
+            }
+            buffer.point = buffer.end;
+            fillFractionals(fractionals, exponent, fractional_count, buffer);
+        } else if (exponent < -128) {
+            // This configuration (with at most 20 digits) means that all digits
+            // must be 0.
+            assert fractional_count <= 20;
+            buffer.end = 0;
+            buffer.point = -fractional_count;
+        } else {
+            buffer.point = 0;
+            fillFractionals(significand, exponent, fractional_count, buffer);
+        }
+        trimZeros(buffer);
+        if (buffer.end == 0) {
+            // The string is empty and the decimal_point thus has no importance.
+            // Mimick Gay's dtoa and and set it to -fractional_count.
+            buffer.point = -fractional_count;
+        }
+        return true;
+    }
+
+}
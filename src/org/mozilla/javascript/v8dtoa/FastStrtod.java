@@ -0,0 +1,323 @@
+// Copyright 2010 the V8 project authors. All rights reserved.
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+//       copyright notice, this list of conditions and the following
+//       disclaimer in the documentation and/or other materials provided
+//       with the distribution.
+//     * Neither the name of Google Inc. nor the names of its
+//       contributors may be used to endorse or promote products derived
+//       from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+// Ported to Java from the strtod code of V8.
+
+package org.mozilla.javascript.v8dtoa;
+
+public class FastStrtod {
+
+    // The significand keeps at most this many decimal digits, so that it fits
+    // into a long even after rounding it up.
+    static final int kMaxSignificandDigits = 18;
+    // 2^64 = 18446744073709551616 > 10^19
+    static final int kMaxUint64DecimalDigits = 19;
+    // 2^53 = 9007199254740992.
+    // Any integer with at most 15 decimal digits will hence fit into a double
+    // (which has a 53bit significand) without loss of precision.
+    static final int kMaxExactDoubleIntegerDecimalDigits = 15;
+
+    static final double[] exact_powers_of_ten = {
+        1.0,  // 10^0
+        10.0,
+        100.0,
+        1000.0,
+        10000.0,
+        100000.0,
+        1000000.0,
+        10000000.0,
+        100000000.0,
+        1000000000.0,
+        10000000000.0,  // 10^10
+        100000000000.0,
+        1000000000000.0,
+        10000000000000.0,
+        100000000000000.0,
+        1000000000000000.0,
+        10000000000000000.0,
+        100000000000000000.0,
+        1000000000000000000.0,
+        10000000000000000000.0,
+        100000000000000000000.0,  // 10^20
+        1000000000000000000000.0,
+        // 10^22 = 0x21e19e0c9bab2400000 = 0x878678326eac9 * 2^22
+        10000000000000000000000.0
+    };
+
+    // The errors are measured in 1/kDenominator of a unit.
+    static final int kDenominatorLog = 3;
+    static final int kDenominator = 1 << kDenominatorLog;
+
+    // Excludes the hidden bit.
+    static final int kSignificandSize = 52;
+    static final int kExponentBias = 0x3FF + kSignificandSize;
+
+    /**
+     * Parses the decimal number between start and end of s, which has the
+     * syntax [+-]digits[.digits][(e|E)[+-]digits], where either the integral
+     * or the fractional digits may be missing. The result is the correctly
+     * rounded double, which is computed with long arithmetic for most input.
+     * Other input, and input whose rounding can't be decided that way, is
+     * passed to {@link Double#parseDouble(String)}.
+     *
+     * @throws NumberFormatException if Double.parseDouble does not accept
+     *         the input either
+     */
+    public static double parseDouble(String s, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        char c = i < end ? s.charAt(i) : 0;
+        if (c == '+' || c == '-') {
+            negative = c == '-';
+            i++;
+        }
+        // The significand holds the first significant digits, without
+        // trailing zeros.
+        long significand = 0;
+        int digits = 0;
+        // Zeros which follow the digits of the significand.
+        int zeros = 0;
+        // Index of the last digit of the significand among all digits and
+        // the number of digits before the decimal point.
+        int digitIndex = 0;
+        int lastIndex = 0;
+        int pointIndex = -1;
+        // Whether significant digits were dropped and the significand was
+        // rounded up.
+        boolean truncated = false;
+        boolean roundUp = false;
+        for (; i < end; i++) {
+            c = s.charAt(i);
+            if ('0' <= c && c <= '9') {
+                if (c == '0') {
+                    // leading zeros are not significant
+                    if (digits > 0) {
+                        zeros++;
+                    }
+                } else if (!truncated) {
+                    while (zeros > 0 && digits < kMaxSignificandDigits) {
+                        significand *= 10;
+                        digits++;
+                        zeros--;
+                        lastIndex++;
+                    }
+                    if (zeros == 0 && digits < kMaxSignificandDigits) {
+                        significand = significand * 10 + (c - '0');
+                        digits++;
+                        lastIndex = digitIndex;
+                    } else {
+                        truncated = true;
+                        roundUp = zeros == 0 && c >= '5';
+                    }
+                }
+                digitIndex++;
+            } else if (c == '.' && pointIndex < 0) {
+                pointIndex = digitIndex;
+            } else {
+                break;
+            }
+        }
+        int exponent = 0;
+        if (i < end && (c == 'e' || c == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            c = i < end ? s.charAt(i) : 0;
+            if (c == '+' || c == '-') {
+                negativeExponent = c == '-';
+                i++;
+            }
+            int exponentStart = i;
+            for (; i < end; i++) {
+                c = s.charAt(i);
+                if (c < '0' || '9' < c) {
+                    break;
+                }
+                // larger exponents give zero or infinity anyway
+                if (exponent < 100000) {
+                    exponent = exponent * 10 + (c - '0');
+                }
+            }
+            if (i == exponentStart) {
+                return Double.parseDouble(s.substring(start, end));
+            }
+            if (negativeExponent) {
+                exponent = -exponent;
+            }
+        }
+        if (i != end || digitIndex == 0) {
+            return Double.parseDouble(s.substring(start, end));
+        }
+        if (significand == 0) {
+            return negative ? -0.0 : 0.0;
+        }
+        if (pointIndex < 0) {
+            pointIndex = digitIndex;
+        }
+        // The number is (significand + dropped digits) * 10^exponent.
+        exponent += pointIndex - 1 - lastIndex;
+
+        if (!truncated && digits <= kMaxExactDoubleIntegerDecimalDigits) {
+            double result = doubleStrtod(significand, digits, exponent);
+            if (result == result) {
+                return negative ? -result : result;
+            }
+        }
+        if (roundUp) {
+            significand++;
+        }
+        // The number is a normal double, which simplifies rounding.
+        if (exponent >= -307 && exponent + digits <= 308) {
+            double result = diyFpStrtod(significand, digits, exponent, truncated);
+            if (result == result) {
+                return negative ? -result : result;
+            }
+        }
+        return Double.parseDouble(s.substring(start, end));
+    }
+
+    // Returns significand * 10^exponent if both factors can be represented
+    // exactly by doubles, in which case IEEE guarantees that their product
+    // (resp. quotient) is the best possible approximation. Returns NaN
+    // otherwise.
+    static double doubleStrtod(long significand, int digits, int exponent) {
+        assert digits <= kMaxExactDoubleIntegerDecimalDigits;
+        int kExactPowersOfTenSize = exact_powers_of_ten.length;
+        if (exponent < 0 && -exponent < kExactPowersOfTenSize) {
+            // 10^-exponent fits into a double.
+            return significand / exact_powers_of_ten[-exponent];
+        }
+        if (0 <= exponent && exponent < kExactPowersOfTenSize) {
+            // 10^exponent fits into a double.
+            return significand * exact_powers_of_ten[exponent];
+        }
+        int remaining_digits = kMaxExactDoubleIntegerDecimalDigits - digits;
+        if (0 <= exponent && exponent - remaining_digits < kExactPowersOfTenSize) {
+            // The significand is short and we can multiply it with
+            // 10^remaining_digits. As a result the remaining exponent now fits
+            // into a double too.
+            double result = significand * exact_powers_of_ten[remaining_digits];
+            return result * exact_powers_of_ten[exponent - remaining_digits];
+        }
+        return Double.NaN;
+    }
+
+    // Returns 10^exponent as an exact DiyFp.
+    // The given exponent must be in the range [1; CACHED_POWERS_SPACING[.
+    static DiyFp adjustmentPowerOfTen(int exponent) {
+        // Simply hardcode the remaining powers for the given decimal exponent
+        // distance.
+        assert CachedPowers.CACHED_POWERS_SPACING == 8;
+        switch (exponent) {
+            case 1: return new DiyFp(0xa000000000000000L, -60);
+            case 2: return new DiyFp(0xc800000000000000L, -57);
+            case 3: return new DiyFp(0xfa00000000000000L, -54);
+            case 4: return new DiyFp(0x9c40000000000000L, -50);
+            case 5: return new DiyFp(0xc350000000000000L, -47);
+            case 6: return new DiyFp(0xf424000000000000L, -44);
+            case 7: return new DiyFp(0x9896800000000000L, -40);
+            default:
+                throw new IllegalArgumentException(String.valueOf(exponent));
+        }
+    }
+
+    // Returns the double nearest to significand * 10^exponent, which must be
+    // a normal double. If significant digits were dropped then the
+    // significand is off by less than half a unit. Returns NaN if the
+    // computation is too imprecise to round correctly.
+    static double diyFpStrtod(long significand, int digits, int exponent,
+                              boolean truncated) {
+        DiyFp input = new DiyFp(significand, 0);
+        // Since we may have dropped some digits the input is not accurate.
+        // If so the error is at most .5 ulp (unit in the last place).
+        // We don't want to deal with fractions and therefore keep a common
+        // denominator.
+        long error = truncated ? kDenominator / 2 : 0;
+
+        int old_e = input.e();
+        input.normalize();
+        error <<= old_e - input.e();
+
+        DiyFp cached_power = new DiyFp();
+        int cached_decimal_exponent =
+                CachedPowers.getCachedPowerForDecimalExponent(exponent, cached_power);
+
+        if (cached_decimal_exponent != exponent) {
+            int adjustment_exponent = exponent - cached_decimal_exponent;
+            DiyFp adjustment_power = adjustmentPowerOfTen(adjustment_exponent);
+            input.multiply(adjustment_power);
+            if (kMaxUint64DecimalDigits - digits < adjustment_exponent) {
+                // The product of input with the adjustment power does not fit
+                // into a 64 bit integer. The adjustment power is exact. There is
+                // hence only an error of 0.5.
+                error += kDenominator / 2;
+            }
+        }
+
+        input.multiply(cached_power);
+        // The error introduced by a multiplication of a*b equals
+        //   error_a + error_b + error_a*error_b/2^64 + 0.5
+        // Substituting a with 'input' and b with 'cached_power' we have
+        //   error_b = 0.5  (all cached powers have an error of less than 0.5 ulp),
+        //   error_ab = 0 or 1 / kDenominator > error_a*error_b/ 2^64
+        int error_b = kDenominator / 2;
+        int error_ab = (error == 0 ? 0 : 1);  // We round up to 1.
+        int fixed_error = kDenominator / 2;
+        error += error_b + error_ab + fixed_error;
+
+        old_e = input.e();
+        input.normalize();
+        error <<= old_e - input.e();
+
+        // See if the double's significand changes if we add/subtract the error.
+        // Normal doubles have 53 significant bits.
+        int precision_digits_count = DiyFp.kSignificandSize - kSignificandSize - 1;
+        long precision_bits_mask = (1L << precision_digits_count) - 1;
+        long precision_bits = input.f() & precision_bits_mask;
+        long half_way = 1L << (precision_digits_count - 1);
+        precision_bits *= kDenominator;
+        half_way *= kDenominator;
+        // If the last bits are too close to the half-way case then we are too
+        // inaccurate to decide the rounding.
+        if (half_way - error < precision_bits && precision_bits < half_way + error) {
+            return Double.NaN;
+        }
+        long f = input.f() >>> precision_digits_count;
+        int e = input.e() + precision_digits_count;
+        if (precision_bits >= half_way + error) {
+            f++;
+            if (f == DoubleHelper.kHiddenBit << 1) {
+                f >>>= 1;
+                e++;
+            }
+        }
+        assert (f & DoubleHelper.kHiddenBit) != 0;
+        long biased_e = e + kExponentBias;
+        return Double.longBitsToDouble((biased_e << kSignificandSize) |
+                                       (f & DoubleHelper.kSignificandMask));
+    }
+
+}
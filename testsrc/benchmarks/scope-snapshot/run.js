@@ -0,0 +1,77 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+// Compares restoring a scope snapshot with initializing the standard
+// objects and evaluating a bootstrap library, for libraries of several
+// sizes. Must run with -opt -1, as snapshots hold interpreted functions.
+//
+//   run.js write      writes the snapshots to the temp directory
+//   run.js init       times initialization
+//   run.js restore    times restoring the snapshots
+//
+// The first time of each size includes loading the classes involved, so
+// init and restore should run in separate JVMs to compare cold starts.
+
+var Context = Packages.org.mozilla.javascript.Context;
+var ScopeSnapshot = Packages.org.mozilla.javascript.serialize.ScopeSnapshot;
+
+var SIZES = [200, 1000, 3000];
+var ROUNDS = 20;
+
+function library(size) {
+    var s = ["var counter = 0; function next() { return ++counter; }"];
+    for (var i = 0; i < size; i++) {
+        s.push("function f" + i + "(a, b) { var x = a + b;" +
+               " for (var j = 0; j < 3; j++) x += j * " + i + ";" +
+               " return {value: x, name: 'f" + i + "'}; }");
+    }
+    return s.join("\n");
+}
+
+function snapshotFile(size) {
+    return new java.io.File(java.lang.System.getProperty("java.io.tmpdir"),
+                            "rhino-snapshot-" + size + ".bin");
+}
+
+function init(cx, source) {
+    var scope = cx.initStandardObjects();
+    cx.evaluateString(scope, source, "library", 1, null);
+    return scope;
+}
+
+function check(cx, scope) {
+    var r = cx.evaluateString(scope, "f0(1, 2).value + next()", "check", 1, null);
+    if (r != 4) {
+        throw new Error("unexpected result " + r);
+    }
+}
+
+function time(f) {
+    var start = java.lang.System.nanoTime();
+    f();
+    return (java.lang.System.nanoTime() - start) / 1e6;
+}
+
+var mode = arguments[0] || "init";
+var cx = Context.getCurrentContext();
+for (var i = 0; i < SIZES.length; i++) {
+    var size = SIZES[i];
+    var source = library(size);
+    var file = snapshotFile(size);
+    if (mode == "write") {
+        ScopeSnapshot.write(init(cx, source), file);
+        print("snapshot of " + size + " functions: " + file.length() + " bytes");
+        continue;
+    }
+    var run = mode == "restore"
+        ? function() { check(cx, ScopeSnapshot.read(file)); }
+        : function() { check(cx, init(cx, source)); };
+    var first = time(run);
+    var best = Infinity;
+    for (var r = 0; r < ROUNDS; r++) {
+        best = Math.min(best, time(run));
+    }
+    print(mode + " " + size + " functions: first " + first.toFixed(1) +
+          " ms, best " + best.toFixed(2) + " ms");
+}
@@ -0,0 +1,57 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+// Measures how property inserts into one shared object scale with the
+// number of threads. Each thread adds its own properties, so the object
+// grows its slot table while the other threads keep inserting.
+//
+//   run.js [maxThreads]
+//
+// maxThreads defaults to twice the number of available processors.
+
+var INSERTS = 200000;
+var ROUNDS = 5;
+
+function insertAll(obj, prefix, n) {
+    for (var i = 0; i < n; i++) {
+        obj[prefix + i] = i;
+    }
+}
+
+function run(threadCount) {
+    var obj = {};
+    var perThread = Math.floor(INSERTS / threadCount);
+    var threads = [];
+    for (var t = 0; t < threadCount; t++) {
+        (function(prefix) {
+            threads.push(new java.lang.Thread(function() {
+                insertAll(obj, prefix, perThread);
+            }));
+        })("t" + t + "_");
+    }
+    var start = java.lang.System.nanoTime();
+    for (var t = 0; t < threadCount; t++) threads[t].start();
+    for (var t = 0; t < threadCount; t++) threads[t].join();
+    var ms = (java.lang.System.nanoTime() - start) / 1e6;
+    var expected = perThread * threadCount;
+    if (Object.keys(obj).length != expected) {
+        throw new Error("expected " + expected + " properties, got " +
+                        Object.keys(obj).length);
+    }
+    return expected / ms;
+}
+
+var cpus = java.lang.Runtime.getRuntime().availableProcessors();
+var maxThreads = Number(arguments[0]) || 2 * cpus;
+print("available processors: " + cpus);
+// warm up
+run(1);
+run(Math.min(2, maxThreads));
+for (var n = 1; n <= maxThreads; n *= 2) {
+    var best = 0;
+    for (var r = 0; r < ROUNDS; r++) {
+        best = Math.max(best, run(n));
+    }
+    print(n + " threads: " + Math.round(best) + " inserts/ms");
+}
@@ -0,0 +1,81 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import org.junit.Test;
+
+/**
+ * Tests that arrays behave the same when their elements no longer start
+ * at the beginning of the dense storage, as after shift, unshift and
+ * splice at the front.
+ */
+public class ArrayQueueTest {
+
+    @Test
+    public void shiftAndPush() {
+        String shifted =
+                "var a = [1, 2, 3]; a.shift(); a.push(4, 5, 6); a.shift();";
+        Utils.assertEvaluates("3,4,5,6", shifted + "a.join()");
+        Utils.assertEvaluates("4", shifted + "a.length");
+        Utils.assertEvaluates("0,1,2,3",
+                shifted + "var ks = []; for (var k in a) ks.push(k); ks.join()");
+        Utils.assertEvaluates("true,false", shifted + "[3 in a, 4 in a].join()");
+        Utils.assertEvaluates("4999950000,0",
+                "var q = [], s = 0;" +
+                "for (var i = 0; i < 100000; i++) q.push(i);" +
+                "while (q.length) s += q.shift();" +
+                "[s, q.length].join()");
+    }
+
+    @Test
+    public void unshift() {
+        String unshifted = "var a = [1, 2]; a.unshift('a'); a.unshift('c', 'b');";
+        Utils.assertEvaluates("c,b,a,1,2", unshifted + "a.join()");
+        Utils.assertEvaluates("b,a,1,2", unshifted + "a.shift(); a.join()");
+        Utils.assertEvaluates("9,1.5,b,a,1,2",
+                unshifted + "a.shift(); a.unshift(9, 1.5); a.join()");
+        Utils.assertEvaluates("x,,y",
+                "var h = ['y']; h.unshift('x', undefined); delete h[1];" +
+                "h.join()");
+        Utils.assertEvaluates("99999,0,100000",
+                "var q = [];" +
+                "for (var i = 0; i < 100000; i++) q.unshift(i);" +
+                "[q[0], q[99999], q.length].join()");
+    }
+
+    @Test
+    public void numberElements() {
+        Utils.assertEvaluates("2,3.5,4",
+                "var d = [1, 2, 3.5, 4]; d.shift(); d.join()");
+        Utils.assertEvaluates("3,4,1.5",
+                "var i = [1, 2, 3, 4]; i.shift(); i.shift(); i.push(1.5);" +
+                "i.join()");
+        String unshifted =
+                "var s = [1, 2, 3, 4]; s.shift(); s.shift(); s.unshift(7);";
+        Utils.assertEvaluates("7,3,4", unshifted + "s.join()");
+        Utils.assertEvaluates("7,4,3",
+                unshifted + "s.sort(function(x, y) { return y - x; }); s.join()");
+    }
+
+    @Test
+    public void splice() {
+        String array = "var a = [1, 2, 3, 4, 5, 6, 7, 8];";
+        Utils.assertEvaluates("1,2", array + "a.splice(0, 2).join()");
+        Utils.assertEvaluates("3,4,5,6,7,8", array + "a.splice(0, 2); a.join()");
+        String inserted = array + "a.splice(0, 2); a.splice(0, 0, 'a', 'b');";
+        Utils.assertEvaluates("a,b,3,4,5,6,7,8", inserted + "a.join()");
+        Utils.assertEvaluates("3,b,a",
+                inserted + "a.splice(0, 3).reverse().join()");
+        Utils.assertEvaluates("4,5,6,7,8",
+                inserted + "a.splice(0, 3); a.join()");
+        Utils.assertEvaluates("5,x,8",
+                inserted + "a.splice(0, 3); a.shift(); a.splice(1, 2, 'x');" +
+                "a.join()");
+        Utils.assertEvaluates("0,4",
+                "var q = [1, 2, 3, 4];" +
+                "while (q.length > 1) q.splice(0, 1);" +
+                "[q.indexOf(4), q.length - 1 + q[0]].join()");
+    }
+}
@@ -0,0 +1,63 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import org.junit.Test;
+
+/**
+ * Tests that Array.prototype.sort sorts arrays of numbers and strings,
+ * which are sorted without the general algorithm, in the same order as
+ * other arrays.
+ */
+public class ArraySortTest {
+
+    @Test
+    public void ints() {
+        Utils.assertEvaluates("-1,-10,-2,-2147483648,0,1,10,100,2147483647,5,9",
+                "[10, 9, 1, -1, -10, -2, 0, 100, 2147483647, -2147483648, 5]" +
+                ".sort().join()");
+    }
+
+    @Test
+    public void doubles() {
+        Utils.assertEvaluates(
+                "-0.5,-Infinity,0,1.5,10,1e+21,1e-7,2,Infinity,NaN",
+                "[1.5, 10, NaN, Infinity, -Infinity, 2, 1e21, 1e-7, -0.5, 0]" +
+                ".sort().join()");
+        Utils.assertEvaluates("Infinity,-Infinity,1",
+                "[0, -0, 1].sort().map(function(x) { return 1 / x; }).join()");
+    }
+
+    @Test
+    public void strings() {
+        Utils.assertEvaluates("|B|a|ab|b|cd|\u00e9",
+                "var c = 'c'; ['b', '\\u00e9', 'a', c + 'd', 'ab', '', 'B']" +
+                ".sort().join('|')");
+    }
+
+    @Test
+    public void mixedElements() {
+        Utils.assertEvaluates("1,10,2,x,,",
+                "[10, undefined, 'x', , 2, 1].sort().join()");
+        Utils.assertEvaluates("1,3,4",
+                "Array.prototype[1] = 3; var b = [4, , 1]; b.sort();" +
+                "delete Array.prototype[1]; b.join()");
+    }
+
+    @Test
+    public void compareFunction() {
+        Utils.assertEvaluates("1,2,3,5",
+                "[5, 3, 1, 2].sort(function(a, b) { return a - b; }).join()");
+        Utils.assertEvaluates("0 3 6 9 1 4 7 2 5 8",
+                "var o = [];" +
+                "for (var i = 0; i < 10; i++) o.push({k: i % 3, i: i});" +
+                "o.sort(function(x, y) { return x.k - y.k; })" +
+                " .map(function(e) { return e.i; }).join(' ')");
+        Utils.assertEvaluates("1000",
+                "var c = [];" +
+                "for (var i = 0; i < 1000; i++) c.push(i % 7);" +
+                "c.sort(function() { return Math.random() - 0.5; }).length");
+    }
+}
@@ -0,0 +1,96 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import org.junit.Test;
+
+/**
+ * Tests regular expressions that are matched often enough to be compiled
+ * to JVM classes, comparing their first and last results.
+ */
+public class CompiledRegExpTest {
+
+    private static final String HOT =
+        "function run(re, s) {" +
+        "  var r = [], m;" +
+        "  re.lastIndex = 0;" +
+        "  do {" +
+        "    m = re.exec(s);" +
+        "    r.push(m ? m.join(',') + '@' + m.index : 'null');" +
+        "    if (m && m[0] === '') re.lastIndex++;" +
+        "  } while (m && re.global);" +
+        "  return r.join(';');" +
+        "}" +
+        "function hot(re, s) {" +
+        "  var first = run(re, s);" +
+        "  for (var i = 0; i < 150; i++) run(re, s);" +
+        "  var last = run(re, s);" +
+        "  return first == last ? last : first + ' != ' + last;" +
+        "}";
+
+    @Test
+    public void capturesAndBackReferences() {
+        Utils.assertEvaluates("ab cd ab,ab,cd@1",
+                HOT + "hot(/(\\w+)\\s(\\w+)\\s\\1/, ' ab cd ab')");
+        Utils.assertEvaluates("xyzxyz,xyz@0;null",
+                HOT + "hot(/(x.z)\\1/g, 'xyzxyz')");
+        Utils.assertEvaluates("aBa,a@0;null", HOT + "hot(/(a)B\\1/gi, 'aBa')");
+        Utils.assertEvaluates("b,,b@0;null", HOT + "hot(/(a)|(b)/g, 'b')");
+    }
+
+    @Test
+    public void lookaheads() {
+        Utils.assertEvaluates("12@0;4@5;null",
+                HOT + "hot(/\\d+(?=px)/g, '12px 4px 5em')");
+        Utils.assertEvaluates("ac@2;ad@5;null",
+                HOT + "hot(/a(?!b)\\w/g, 'abac ad')");
+        Utils.assertEvaluates("b,b@1;null", HOT + "hot(/(?=(b))\\1/g, 'abc')");
+        Utils.assertEvaluates("null", HOT + "hot(/x(?!y|z)/, 'xyxz')");
+    }
+
+    @Test
+    public void quantifiers() {
+        Utils.assertEvaluates("<a>@0;<b>@6;null",
+                HOT + "hot(/<.+?>/g, '<a> x <b>')");
+        Utils.assertEvaluates("<a> x <b>@0", HOT + "hot(/<.+>/, '<a> x <b>')");
+        Utils.assertEvaluates("xxx@0;xxx@3;xx@6;null",
+                HOT + "hot(/x{2,3}/g, 'xxxxxxxx')");
+        Utils.assertEvaluates("aab@0", HOT + "hot(/a{2,}?b/, 'aab')");
+        Utils.assertEvaluates("12345,123,45@0",
+                HOT + "hot(/(\\d+)(\\d{2})/, '12345')");
+        Utils.assertEvaluates("ab@0;abbb@2;null",
+                HOT + "hot(/ab*/g, 'ababbb')");
+        Utils.assertEvaluates(",@0", HOT + "hot(/(a)*?/, 'a')");
+    }
+
+    @Test
+    public void alternativesAndClasses() {
+        Utils.assertEvaluates("cat@2;bird@6;dog@11;null",
+                HOT + "hot(/cat|dog|bird/g, 'a cat bird dog')");
+        Utils.assertEvaluates("Fe0@1;c@6;null",
+                HOT + "hot(/[a-f0-9]+/gi, ' Fe0 xc')");
+        Utils.assertEvaluates("xyz@0;q@4;null",
+                HOT + "hot(/[^aeiou\\s]+/g, 'xyz q')");
+        Utils.assertEvaluates("ab@0", HOT + "hot(/(?:a|ab)(?:c|bcd)?$/, 'ab')");
+    }
+
+    @Test
+    public void flags() {
+        Utils.assertEvaluates("one@0;two@4;null",
+                HOT + "hot(/^\\w+$/gm, 'one\\ntwo')");
+        Utils.assertEvaluates("null", HOT + "hot(/^\\w+$/g, 'one\\ntwo')");
+        Utils.assertEvaluates("aBc@1", HOT + "hot(/ABC/i, 'xaBc')");
+        Utils.assertEvaluates("x@4;null", HOT + "hot(/\\bx/g, 'axb x')");
+    }
+
+    @Test
+    public void longInput() {
+        String input = "var s = new Array(2001).join('ab');";
+        Utils.assertEvaluates("2000", input + "s.replace(/a/g, '').length");
+        Utils.assertEvaluates("1", input + "s.split(/(?:ab)+/).length - 1");
+        Utils.assertEvaluates("b9a,9@3999",
+                HOT + input + "hot(/b(\\w)?a$/, s + '9a')");
+    }
+}
@@ -0,0 +1,146 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+import org.mozilla.javascript.CompiledScriptCache;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Tests that scripts and functions loaded from a CompiledScriptCache
+ * behave like the ones that were compiled, and that entries are only
+ * used for the same source and options.
+ */
+public class CompiledScriptCacheTest {
+
+    private static final String SOURCE =
+        "function fib(n) { return n < 2 ? n : fib(n - 1) + fib(n - 2); }" +
+        "var m = /(\\w+)=(\\d+)/.exec('x=42');" +
+        "[fib(15), m[1], m[2], /(a+)+b/.test('aaac'), typeof fib].join()";
+
+    private static final String EXPECTED = "610,x,42,false,function";
+
+    private static final long OLD = 1000000000000L;
+
+    private interface CacheTest {
+        void run(Context cx, File directory) throws Exception;
+    }
+
+    private static void runWithCache(final CacheTest test) {
+        Utils.runWithAllOptimizationLevels(new ContextAction() {
+            public Object run(Context cx) {
+                File directory = null;
+                try {
+                    directory = File.createTempFile("rhino", ".cache");
+                    directory.delete();
+                    test.run(cx, directory);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    if (directory != null) {
+                        File[] files = directory.listFiles();
+                        for (int i = 0; files != null && i < files.length; i++) {
+                            files[i].delete();
+                        }
+                        directory.delete();
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    private static String eval(Context cx, File directory) {
+        cx.setCompiledScriptCache(new CompiledScriptCache(directory));
+        Script script = cx.compileString(SOURCE, "test", 1, null);
+        return Context.toString(script.exec(cx, cx.initStandardObjects()));
+    }
+
+    private static File onlyEntry(File directory) {
+        File[] files = directory.listFiles();
+        assertEquals(1, files.length);
+        return files[0];
+    }
+
+    @Test
+    public void loadScript() {
+        runWithCache(new CacheTest() {
+            public void run(Context cx, File directory) {
+                assertEquals(EXPECTED, eval(cx, directory));
+                File entry = onlyEntry(directory);
+                // an entry that is loaded is not written again
+                entry.setLastModified(OLD);
+                assertEquals(EXPECTED, eval(cx, directory));
+                assertEquals(EXPECTED, eval(cx, directory));
+                assertEquals(OLD, onlyEntry(directory).lastModified());
+            }
+        });
+    }
+
+    @Test
+    public void loadFunction() {
+        runWithCache(new CacheTest() {
+            public void run(Context cx, File directory) {
+                cx.setCompiledScriptCache(new CompiledScriptCache(directory));
+                Scriptable scope = cx.initStandardObjects();
+                for (int i = 0; i < 2; i++) {
+                    Function f = cx.compileFunction(scope,
+                        "function twice(s) { return s + s; }", "f", 1, null);
+                    assertEquals("abab", Context.toString(
+                        f.call(cx, scope, scope, new Object[] { "ab" })));
+                    assertEquals(1, directory.listFiles().length);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void optionsAndSources() {
+        runWithCache(new CacheTest() {
+            public void run(Context cx, File directory) {
+                cx.setCompiledScriptCache(new CompiledScriptCache(directory));
+                cx.compileString("1 + 1", "a", 1, null);
+                cx.compileString("1 + 1", "b", 1, null);
+                cx.compileString("1 + 1", "a", 2, null);
+                cx.compileString("1 + 2", "a", 1, null);
+                cx.setLanguageVersion(Context.VERSION_1_8);
+                cx.compileString("1 + 1", "a", 1, null);
+                cx.compileString("1 + 1", "a", 1, null);
+                assertEquals(5, directory.listFiles().length);
+            }
+        });
+    }
+
+    @Test
+    public void invalidEntry() {
+        runWithCache(new CacheTest() {
+            public void run(Context cx, File directory) throws IOException {
+                assertEquals(EXPECTED, eval(cx, directory));
+                FileOutputStream out =
+                    new FileOutputStream(onlyEntry(directory));
+                try {
+                    out.write(new byte[] { 'R', 'H', 'N', 'C', 0, 0 });
+                } finally {
+                    out.close();
+                }
+                // the entry is compiled and written again, then loaded
+                assertEquals(EXPECTED, eval(cx, directory));
+                onlyEntry(directory).setLastModified(OLD);
+                assertEquals(EXPECTED, eval(cx, directory));
+                assertEquals(OLD, onlyEntry(directory).lastModified());
+            }
+        });
+    }
+}
@@ -0,0 +1,341 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.NativeObject;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Stress tests for the slot table of ScriptableObject when many threads
+ * add, read and remove properties of shared objects.
+ */
+public class ConcurrentSlotTableTest {
+
+    private static final int THREADS =
+        Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+
+    private interface Task {
+        void run(int thread) throws Exception;
+    }
+
+    /**
+     * Runs the task in the given number of threads that start at the same
+     * time and rethrows the first failure.
+     */
+    private static void runConcurrently(int threads, final Task task)
+        throws Exception
+    {
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure =
+            new AtomicReference<Throwable>();
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int thread = i;
+            workers[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        task.run(thread);
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        Throwable t = failure.get();
+        if (t instanceof Exception) {
+            throw (Exception) t;
+        } else if (t != null) {
+            throw (Error) t;
+        }
+    }
+
+    private static Set<Object> ids(ScriptableObject obj) {
+        Object[] ids = obj.getAllIds();
+        Set<Object> set = new HashSet<Object>();
+        for (Object id : ids) {
+            assertTrue("duplicate id " + id, set.add(id));
+        }
+        return set;
+    }
+
+    @Test
+    public void concurrentInserts() throws Exception {
+        final int perThread = 500;
+        final NativeObject obj = new NativeObject();
+        runConcurrently(THREADS, new Task() {
+            public void run(int thread) {
+                for (int j = 0; j < perThread; j++) {
+                    obj.put("t" + thread + "_" + j, obj, Integer.valueOf(j));
+                    // all threads race for the same names and indexes
+                    obj.put("shared" + j, obj, Integer.valueOf(j));
+                    obj.put(j, obj, Integer.valueOf(j));
+                }
+            }
+        });
+        Set<Object> ids = ids(obj);
+        assertEquals(THREADS * perThread + 2 * perThread, ids.size());
+        for (int i = 0; i < THREADS; i++) {
+            for (int j = 0; j < perThread; j++) {
+                assertEquals(Integer.valueOf(j), obj.get("t" + i + "_" + j, obj));
+            }
+        }
+        for (int j = 0; j < perThread; j++) {
+            assertTrue(ids.contains("shared" + j));
+            assertTrue(ids.contains(Integer.valueOf(j)));
+            assertEquals(Integer.valueOf(j), obj.get(j, obj));
+        }
+    }
+
+    @Test
+    public void concurrentInsertsAndDeletes() throws Exception {
+        final int perThread = 300;
+        final NativeObject obj = new NativeObject();
+        runConcurrently(THREADS, new Task() {
+            public void run(int thread) {
+                for (int j = 0; j < perThread; j++) {
+                    String name = "t" + thread + "_" + j;
+                    obj.put(name, obj, Integer.valueOf(j));
+                    if (j % 3 == 0) {
+                        obj.delete(name);
+                        assertFalse(obj.has(name, obj));
+                    } else if (j % 3 == 1) {
+                        // replaces the slot with an accessor slot
+                        obj.defineProperty(name, null, null, null, 0);
+                    }
+                }
+            }
+        });
+        Set<Object> ids = ids(obj);
+        int expected = 0;
+        for (int i = 0; i < THREADS; i++) {
+            for (int j = 0; j < perThread; j++) {
+                String name = "t" + i + "_" + j;
+                if (j % 3 == 0) {
+                    assertFalse(ids.contains(name));
+                } else {
+                    assertTrue(ids.contains(name));
+                    expected++;
+                }
+                if (j % 3 == 2) {
+                    assertEquals(Integer.valueOf(j), obj.get(name, obj));
+                }
+            }
+        }
+        assertEquals(expected, ids.size());
+    }
+
+    @Test
+    public void sharedSealedScope() throws Exception {
+        final ContextFactory factory = new ContextFactory();
+        final ScriptableObject shared = (ScriptableObject) factory.call(
+            new ContextAction() {
+                public Object run(Context cx) {
+                    ScriptableObject scope = cx.initStandardObjects(null, true);
+                    cx.evaluateString(scope,
+                            "function Point(x) { this.x = x; }", "init", 1, null);
+                    scope.sealObject();
+                    return scope;
+                }
+            });
+        final int iterations = 200;
+        runConcurrently(THREADS, new Task() {
+            public void run(final int thread) {
+                factory.call(new ContextAction() {
+                    public Object run(Context cx) {
+                        Scriptable scope = cx.newObject(shared);
+                        scope.setPrototype(shared);
+                        scope.setParentScope(null);
+                        // lazily add methods to a shared prototype
+                        Object result = cx.evaluateString(scope,
+                                "var sum = 0;" +
+                                "for (var i = 0; i < " + iterations + "; i++) {" +
+                                "  var name = 'm' + (i % 50);" +
+                                "  if (!Point.prototype[name]) {" +
+                                "    Point.prototype[name] = function() { return this.x; };" +
+                                "  }" +
+                                "  sum += new Point(1)[name]();" +
+                                "}" +
+                                "sum", "thread" + thread, 1, null);
+                        assertEquals(iterations, Context.toNumber(result), 0.0);
+                        return null;
+                    }
+                });
+            }
+        });
+    }
+
+    @Test
+    public void concurrentAssociatedValues() throws Exception {
+        final NativeObject obj = new NativeObject();
+        runConcurrently(THREADS, new Task() {
+            public void run(int thread) {
+                for (int j = 0; j < 100; j++) {
+                    String key = "k" + j;
+                    Object value = obj.associateValue(key, "v" + thread);
+                    assertEquals(value, obj.getAssociatedValue(key));
+                    obj.associateValue(thread + "_" + j, "v");
+                }
+            }
+        });
+        for (int i = 0; i < THREADS; i++) {
+            for (int j = 0; j < 100; j++) {
+                assertEquals("v", obj.getAssociatedValue(i + "_" + j));
+            }
+        }
+    }
+
+    /**
+     * Inserts from up to 32 threads, each of them growing the table
+     * several times.
+     */
+    @Test
+    public void insertsFromManyThreads() throws Exception {
+        final int inserts = 5000;
+        int maxThreads = Math.max(32, THREADS);
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            final NativeObject obj = new NativeObject();
+            runConcurrently(threads, new Task() {
+                public void run(int thread) {
+                    for (int j = 0; j < inserts; j++) {
+                        obj.put("p" + thread + "_" + j, obj, Integer.valueOf(j));
+                        assertEquals(Integer.valueOf(j / 2),
+                                     obj.get("p" + thread + "_" + (j / 2), obj));
+                    }
+                }
+            });
+            assertEquals(threads * inserts, ids(obj).size());
+            for (int i = 0; i < threads; i++) {
+                assertEquals(Integer.valueOf(inserts - 1),
+                             obj.get("p" + i + "_" + (inserts - 1), obj));
+            }
+        }
+    }
+
+    /**
+     * Inserts that grow the table and replacements of slots by accessor
+     * slots must not wait for the monitor of the object.
+     */
+    @Test
+    public void insertsDoNotLock() throws Exception {
+        final NativeObject obj = new NativeObject();
+        final int perThread = 2000;
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread() {
+            @Override
+            public void run() {
+                synchronized (obj) {
+                    locked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        // release the monitor
+                    }
+                }
+            }
+        };
+        holder.start();
+        locked.await();
+        final AtomicReference<Exception> failure =
+            new AtomicReference<Exception>();
+        Thread inserter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    runConcurrently(4, new Task() {
+                        public void run(int thread) {
+                            for (int j = 0; j < perThread; j++) {
+                                String name = "t" + thread + "_" + j;
+                                obj.put(name, obj, Integer.valueOf(j));
+                                if (j % 2 == 0) {
+                                    obj.defineProperty(name, null, null,
+                                                       null, 0);
+                                }
+                            }
+                        }
+                    });
+                } catch (Exception e) {
+                    failure.set(e);
+                }
+            }
+        };
+        try {
+            inserter.start();
+            inserter.join(60000);
+            assertFalse("inserts waited for the monitor", inserter.isAlive());
+        } finally {
+            release.countDown();
+            holder.join();
+            inserter.join();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        assertEquals(4 * perThread, ids(obj).size());
+        assertEquals(Integer.valueOf(1), obj.get("t3_1", obj));
+    }
+
+    /**
+     * Serialization must write a consistent copy of the properties while
+     * other threads add and replace slots.
+     */
+    @Test
+    public void serializeWhileInserting() throws Exception {
+        final NativeObject obj = new NativeObject();
+        final int perThread = 2000;
+        runConcurrently(4, new Task() {
+            public void run(int thread) throws Exception {
+                if (thread == 0) {
+                    for (int i = 0; i < 20; i++) {
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        ObjectOutputStream out = new ObjectOutputStream(bytes);
+                        out.writeObject(obj);
+                        out.close();
+                        ObjectInputStream in = new ObjectInputStream(
+                                new ByteArrayInputStream(bytes.toByteArray()));
+                        ScriptableObject copy = (ScriptableObject) in.readObject();
+                        for (Object id : ids(copy)) {
+                            assertTrue(obj.has((String) id, obj));
+                        }
+                    }
+                    return;
+                }
+                for (int j = 0; j < perThread; j++) {
+                    String name = "t" + thread + "_" + j;
+                    obj.put(name, obj, Integer.valueOf(j));
+                    if (j % 2 == 0) {
+                        obj.defineProperty(name, null, null, null, 0);
+                    }
+                }
+            }
+        });
+        assertEquals(3 * perThread, ids(obj).size());
+    }
+}
@@ -0,0 +1,104 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.mozilla.javascript.ConsString;
+
+/**
+ * Tests the string functions which read concatenated strings without
+ * flattening them.
+ */
+public class ConsStringTest {
+
+    @Test
+    public void charAtAndSubSequence() {
+        StringBuilder expected = new StringBuilder();
+        CharSequence s = "";
+        for (int i = 0; i < 5000; i++) {
+            String part = i % 7 == 0 ? "" : Integer.toString(i, 36);
+            s = i % 3 == 0 ? new ConsString(part, s) : new ConsString(s, part);
+            if (i % 3 == 0) {
+                expected.insert(0, part);
+            } else {
+                expected.append(part);
+            }
+        }
+        String e = expected.toString();
+        assertEquals(e.length(), s.length());
+        for (int i = 0; i < e.length(); i++) {
+            assertEquals(e.charAt(i), s.charAt(i));
+        }
+        for (int i = e.length() - 1; i >= 0; i -= 37) {
+            assertEquals(e.charAt(i), s.charAt(i));
+        }
+        for (int i = 0; i < e.length(); i += 97) {
+            int end = Math.min(e.length(), i + i % 3000);
+            CharSequence sub = s.subSequence(i, end);
+            assertEquals(e.substring(i, end), sub.toString());
+            assertEquals(e.substring(i, end), sub.subSequence(0, end - i).toString());
+        }
+        assertEquals(e, s.toString());
+        assertEquals(e.charAt(100), s.charAt(100));
+    }
+
+    @Test
+    public void sharedSubSequence() {
+        StringBuilder part = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            part.append((char)('a' + i % 26));
+        }
+        CharSequence s = "";
+        for (int i = 0; i < 100; i++) {
+            s = new ConsString(s, part.toString());
+        }
+        CharSequence sub = s.subSequence(150, 19950);
+        assertTrue(sub instanceof ConsString);
+        assertEquals(s.toString().substring(150, 19950), sub.toString());
+    }
+
+    @Test
+    public void indexOf() {
+        String s = "var s = 'ab' + 'c' + 'd' + '' + 'ef';";
+        Utils.assertEvaluates("0", s + "s.indexOf('abc')");
+        Utils.assertEvaluates("3", s + "s.indexOf('de')");
+        Utils.assertEvaluates("4", s + "s.indexOf('ef', 3)");
+        Utils.assertEvaluates("2", s + "s.indexOf('cdef')");
+        Utils.assertEvaluates("-1", s + "s.indexOf('cdeg')");
+        Utils.assertEvaluates("5", s + "s.indexOf('', 5)");
+        Utils.assertEvaluates("6", s + "s.indexOf('', 6)");
+        Utils.assertEvaluates("-1", s + "s.indexOf('', 7)");
+        Utils.assertEvaluates("-1", s + "s.indexOf('f', 7)");
+        Utils.assertEvaluates("-1", s + "s.indexOf('x')");
+        Utils.assertEvaluates("9",
+                "var t = ''; for (var i = 0; i < 10; i++) t += i % 10;" +
+                "t.indexOf('9')");
+        Utils.assertEvaluates("19999",
+                "var u = ''; for (var i = 0; i < 20000; i++) u += 'a';" +
+                "(u + 'b').indexOf('aab') + 1");
+    }
+
+    @Test
+    public void incrementalBuild() {
+        String build =
+                "var out = '', a = 0, b = 0, c = 0;" +
+                "for (var i = 0; i < 4000; i++) {" +
+                "  out += '<li>item ' + i + '</li>';" +
+                "  if (out.charAt(out.length - 1) === '>') a++;" +
+                "  if (out.indexOf('item ' + i, out.length - 30) >= 0 && i % 4) b++;" +
+                "  if (out.slice(-5) === '</li>' && out.substring(0, 4) === '<li>'" +
+                "      && out.substr(out.length - 5, 1) === '<' && i % 4) c++;" +
+                "}";
+        Utils.assertEvaluates("4000", build + "a");
+        Utils.assertEvaluates("3000", build + "b");
+        Utils.assertEvaluates("3000", build + "c");
+        Utils.assertEvaluates("70890", build + "out.length");
+        Utils.assertEvaluates("<li>item 3999</li>",
+                build + "out.slice(out.lastIndexOf('<li>'))");
+    }
+}
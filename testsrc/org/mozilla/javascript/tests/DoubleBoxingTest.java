@@ -0,0 +1,126 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptRuntime;
+
+/**
+ * Tests the shared Doubles of small integers and the paths that change
+ * and pass number elements of arrays without boxing them.
+ */
+public class DoubleBoxingTest {
+
+    @Test
+    public void sharedDoubles() {
+        assertSame(ScriptRuntime.wrapNumber(5), ScriptRuntime.wrapDouble(5));
+        assertSame(ScriptRuntime.wrapDouble(-128), ScriptRuntime.wrapDouble(-128));
+        assertSame(ScriptRuntime.NaNobj, ScriptRuntime.wrapDouble(Double.NaN));
+        assertSame(ScriptRuntime.negativeZeroObj, ScriptRuntime.wrapDouble(-0.0));
+        assertEquals(Double.valueOf(-0.0), ScriptRuntime.wrapDouble(-0.0));
+        assertEquals(Double.valueOf(0.0), ScriptRuntime.wrapDouble(0.0));
+        assertEquals(Double.valueOf(2.5), ScriptRuntime.wrapDouble(2.5));
+        assertNotSame(ScriptRuntime.wrapDouble(1e6), ScriptRuntime.wrapDouble(1e6));
+    }
+
+    @Test
+    public void scriptsShareDoubles() {
+        Utils.runWithAllOptimizationLevels(new ContextAction() {
+            public Object run(Context cx) {
+                Scriptable scope = cx.initStandardObjects();
+                Object r = cx.evaluateString(scope,
+                    "var h = [0, 0, 0, 0, 0, 0, 0, 0, 0, 0];" +
+                    "for (var i = 0; i < 1000; i++) h[i % 10]++;" +
+                    "h[3]", "test", 1, null);
+                assertSame(ScriptRuntime.wrapDouble(100), r);
+                r = cx.evaluateString(scope, "h[3] + 0.5", "test", 1, null);
+                assertEquals(Double.valueOf(100.5), r);
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void elementIncrementAndDecrement() {
+        String a = "var a = [1, 2, 3];";
+        Utils.assertEvaluates("1", a + "a[0]++");
+        Utils.assertEvaluates("3", a + "++a[1]");
+        Utils.assertEvaluates("3", a + "a[2]--");
+        Utils.assertEvaluates("1", a + "a[0]++; --a[0]");
+        Utils.assertEvaluates("1,3,2",
+                a + "a[0]++; ++a[1]; a[2]--; --a[0]; a.join()");
+        String d = "var d = [1.5, 2.5];";
+        Utils.assertEvaluates("1.5", d + "d[0]++");
+        Utils.assertEvaluates("3.5", d + "++d[1]");
+        Utils.assertEvaluates("2.5,3.5", d + "d[0]++; ++d[1]; d.join()");
+        String h = "var h = [1, , 3];";
+        Utils.assertEvaluates("NaN", h + "h[1]++");
+        Utils.assertEvaluates("1,NaN,3", h + "h[1]++; h.join()");
+    }
+
+    @Test
+    public void incrementHoleWithPrototypeElement() {
+        String p = "Array.prototype[5] = 10;" +
+                   "var p = [1, 2, 3, 4, 5]; p.length = 6;";
+        Utils.assertEvaluates("10", p + "p[5]++");
+        Utils.assertEvaluates("11", p + "p[5]++; p[5]");
+        Utils.assertEvaluates("true", p + "p[5]++; p.hasOwnProperty(5)");
+    }
+
+    @Test
+    public void incrementTypedArrayElements() {
+        String i8 = "var i8 = new Int8Array(2); i8[0] = 127;";
+        Utils.assertEvaluates("127", i8 + "i8[0]++");
+        Utils.assertEvaluates("-128", i8 + "i8[0]++; i8[0]");
+        Utils.assertEvaluates("1", i8 + "++i8[1]");
+        Utils.assertEvaluates("0", i8 + "++i8[1]; --i8[1]");
+        String u8 = "var u8 = new Uint8ClampedArray(1); u8[0] = 255;";
+        Utils.assertEvaluates("256", u8 + "++u8[0]");
+        Utils.assertEvaluates("255", u8 + "++u8[0]; u8[0]");
+    }
+
+    @Test
+    public void incrementSpecialElements() {
+        Utils.assertEvaluates("2147483648", "var m = [2147483647]; ++m[0]");
+        Utils.assertEvaluates("-1", "var z = [0]; 1 / --z[0]");
+        Utils.assertEvaluates("Infinity", "var z = [0]; --z[0]; 1 / ++z[0]");
+        String q = "var q = [1]; Object.freeze(q);";
+        Utils.assertEvaluates("1", q + "q[0]++");
+        Utils.assertEvaluates("1", q + "q[0]++; q[0]");
+        String k = "var k = [1, 2], idx = 1;";
+        Utils.assertEvaluates("2", k + "k[idx]++");
+        Utils.assertEvaluates("3", k + "k[idx]++; k['1']++");
+        Utils.assertEvaluates("4", k + "k[idx]++; k['1']++; k[1]");
+        Utils.assertEvaluates("100,100,100,100,100,100,100,100,100,100",
+                "var c = [0, 0, 0, 0, 0, 0, 0, 0, 0, 0];" +
+                "for (var j = 0; j < 1000; j++) c[j % 10]++;" +
+                "c.join()");
+    }
+
+    @Test
+    public void applyWithNumbers() {
+        String f = "function f(x, y, z) {" +
+                   "  return [x, y, z, arguments.length].join(':');" +
+                   "}";
+        Utils.assertEvaluates("1:2.5:3:3", f + "f.apply(null, [1, 2.5, 3])");
+        Utils.assertEvaluates("1::3:3", f + "f.apply(null, [1, , 3])");
+        Utils.assertEvaluates("1.5:::1", f + "f.apply(null, [1.5])");
+        Utils.assertEvaluates(":::0", f + "f.apply(null, [])");
+        Utils.assertEvaluates("a:1::2", f + "f.apply(null, ['a', 1])");
+        Utils.assertEvaluates("1:P:3:3",
+                f + "Array.prototype[1] = 'P';" +
+                "var r = f.apply(null, [1, , 3]);" +
+                "delete Array.prototype[1]; r");
+        Utils.assertEvaluates("0.75",
+                "function g(x, y) { return x + y; } g.apply(null, [0.5, 0.25])");
+    }
+}
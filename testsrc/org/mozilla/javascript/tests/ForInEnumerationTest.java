@@ -0,0 +1,114 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+
+/**
+ * Tests that for-in loops which reuse the cached ids of an object see
+ * all changes made to the object between the loops.
+ */
+public class ForInEnumerationTest {
+
+    private static final String KEYS =
+        "function keys(o) { var r = []; for (var k in o) r.push(k); return r.join(); }";
+
+    private static final ContextFactory SHAPES_FACTORY = new ContextFactory() {
+        @Override
+        protected boolean hasFeature(Context cx, int featureIndex) {
+            if (featureIndex == Context.FEATURE_OBJECT_SHAPES) {
+                return true;
+            }
+            return super.hasFeature(cx, featureIndex);
+        }
+    };
+
+    /**
+     * Checks the result of the source with and without object shapes.
+     */
+    private static void assertKeys(String expected, String source) {
+        Utils.assertEvaluates(expected, KEYS + source);
+        Utils.assertEvaluates(SHAPES_FACTORY, expected, KEYS + source);
+    }
+
+    // Each step repeats the loops before it, so that the last loop can
+    // reuse the ids they cached
+
+    @Test
+    public void objectChanges() {
+        String steps = "var o = {a: 1, b: 2};";
+        assertKeys("a,b", steps + "keys(o)");
+        steps += "keys(o);";
+        assertKeys("a,b", steps + "keys(o)");
+        steps += "keys(o); o.c = 3;";
+        assertKeys("a,b,c", steps + "keys(o)");
+        steps += "keys(o); delete o.a;";
+        assertKeys("b,c", steps + "keys(o)");
+        steps += "keys(o); o.a = 4;";
+        assertKeys("b,c,a", steps + "keys(o)");
+        steps += "keys(o); Object.defineProperty(o, 'b', {enumerable: false});";
+        assertKeys("c,a", steps + "keys(o)");
+        steps += "keys(o); o[5] = 5;";
+        assertKeys("c,a,5", steps + "keys(o)");
+        steps += "keys(o); Object.defineProperty(o, 'b', {enumerable: true});";
+        assertKeys("b,c,a,5", steps + "keys(o)");
+    }
+
+    @Test
+    public void sameKeysInDifferentObjects() {
+        String steps = "var a = {x: 1, y: 2}, b = {x: 3, y: 4}, c = {y: 5, x: 6};";
+        assertKeys("x,y", steps + "keys(a)");
+        steps += "keys(a);";
+        assertKeys("x,y", steps + "keys(b)");
+        steps += "keys(b);";
+        assertKeys("y,x", steps + "keys(c)");
+        steps += "keys(c); delete b.y;";
+        assertKeys("x", steps + "keys(b)");
+    }
+
+    @Test
+    public void arrayChanges() {
+        String steps = "var a = [1, 2, 3];";
+        assertKeys("0,1,2", steps + "keys(a)");
+        steps += "keys(a);";
+        assertKeys("0,1,2", steps + "keys(a)");
+        steps += "keys(a); a.push(4);";
+        assertKeys("0,1,2,3", steps + "keys(a)");
+        steps += "keys(a); a.p = 1;";
+        assertKeys("0,1,2,3,p", steps + "keys(a)");
+        steps += "keys(a); delete a[1];";
+        assertKeys("0,2,3,p", steps + "keys(a)");
+        steps += "keys(a); a[1] = 2;";
+        assertKeys("0,1,2,3,p", steps + "keys(a)");
+        steps += "keys(a); a.length = 1;";
+        assertKeys("0,p", steps + "keys(a)");
+    }
+
+    @Test
+    public void prototypeProperties() {
+        String steps = "function F() { this.own = 1; } var f = new F();";
+        assertKeys("own", steps + "keys(f)");
+        steps += "keys(f); F.prototype.inherited = 2;";
+        assertKeys("own,inherited", steps + "keys(f)");
+        steps += "keys(f); delete F.prototype.inherited;";
+        assertKeys("own", steps + "keys(f)");
+        steps += "keys(f); Object.prototype.shared = 3;";
+        assertKeys("own,shared", steps + "keys(f)");
+    }
+
+    @Test
+    public void changesDuringLoop() {
+        String deleted =
+                "var o = {a: 1, b: 2, c: 3}; var r = [];" +
+                "for (var k in o) { r.push(k); if (k == 'a') delete o.b; }";
+        assertKeys("a,c", deleted + "r.join()");
+        assertKeys("a,c,b",
+                deleted + "o.b = 2; r = [];" +
+                "for (var k in o) { r.push(k); o.d = 4; }" +
+                "r.join()");
+    }
+}
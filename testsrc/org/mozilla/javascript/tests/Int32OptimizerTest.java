@@ -0,0 +1,108 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import org.junit.Test;
+
+/**
+ * Tests local variables and expressions that the optimizer knows to be
+ * int32 values, which the compiled code keeps in ints.
+ */
+public class Int32OptimizerTest {
+
+    @Test
+    public void overflow() {
+        Utils.assertEvaluates(
+                "-2147483648,2147483648,-1,-2,-2147483648,-2147483648",
+                "function f() {" +
+                "  var a = 0x7fffffff | 0, b = 1 | 0;" +
+                "  var c = (a + b) | 0, d = a + b;" +
+                "  return [c, d, (a + b + a) | 0, (a - -a) | 0, ~a, ~~(1.5 + a)];" +
+                "}" +
+                "f()");
+        Utils.assertEvaluates("1,-2147483648,3221225472",
+                "function g() {" +
+                "  var a = 0x40000000 | 0, b = a;" +
+                "  var s = (a + a + a + a + a + a + a + a + 1) | 0;" +
+                "  return [s, (a - b - b - b) | 0, a + a + a];" +
+                "}" +
+                "g()");
+    }
+
+    @Test
+    public void shiftsAndNegativeZero() {
+        Utils.assertEvaluates("Infinity,-Infinity,-1,-2147483648,-4294967296,0",
+                "function f() {" +
+                "  var x = -0 | 0, y = -0, z = -1 >> 40;" +
+                "  return [1 / x, 1 / y, z, 1 << 31, (1 << 31) + (1 << 31)," +
+                "          ((1 << 31) + (1 << 31)) | 0];" +
+                "}" +
+                "f()");
+        Utils.assertEvaluates("1,2,4,-2147483648,1,2,4",
+                "function g() {" +
+                "  var a = 1 | 0, r = [];" +
+                "  for (var k = 0; k < 34; k++) {" +
+                "    a = (a << 1) | (a >>> 31);" +
+                "    if (k < 2 || k > 29) r.push(a);" +
+                "  }" +
+                "  return [1].concat(r);" +
+                "}" +
+                "g()");
+    }
+
+    @Test
+    public void comparisons() {
+        Utils.assertEvaluates("256,2",
+                "function f() {" +
+                "  var m = 1, c = 0;" +
+                "  while (m < 0x100) { if (5 & m) c++; m <<= 1; }" +
+                "  return [m, c];" +
+                "}" +
+                "f()");
+        Utils.assertEvaluates("1,8,true,false,9,number",
+                "function g() {" +
+                "  var a = 5 & 3, b = a > 2 ? 7 | 0 : 8 & 15;" +
+                "  var s = 0;" +
+                "  for (var i = 0; i < 10; i++) { var h = i ^ (i << 3); s = s ^ h; }" +
+                "  return [a, b, a < b, a >= b, s, typeof a];" +
+                "}" +
+                "g()");
+        String h = "function h(p) {" +
+                   "  var a = p | 0, b = ~p;" +
+                   "  return [a, b, a + b, a < p, b <= a];" +
+                   "}";
+        Utils.assertEvaluates("7,-8,-1,true,true", h + "h(7.9)");
+        Utils.assertEvaluates("0,-1,-1,false,true", h + "h('x')");
+    }
+
+    @Test
+    public void mixedAssignments() {
+        Utils.assertEvaluates("4.5",
+                "function f() { var a = 3 | 0; a = a * 1.5; return a; } f()");
+        Utils.assertEvaluates("16,17,17,3,16a,b17",
+                "function g() {" +
+                "  var x = 1 | 0, y = (x = x << 4, x | 1), o = {};" +
+                "  o[x] = y;" +
+                "  return [x, y, o[16], [1, 2, 3][x >> 3], x + 'a', 'b' + y];" +
+                "}" +
+                "g()");
+        Utils.assertEvaluates("1,1,0,3,-2,-3,-2,-1,-10",
+                "function h() {" +
+                "  var a = 1 | 0, b = a, c = b & 2 ? 1 : 0;" +
+                "  const k = 3 | 0;" +
+                "  return [a, b, c, k, ~(a + 0.5), ~(0.5 + 0.75 + a), ~a, ~'x'," +
+                "          ~{valueOf: function() { return 9; }}];" +
+                "}" +
+                "h()");
+        Utils.assertEvaluates("1794106052",
+                "function hash(s) {" +
+                "  var h = 0;" +
+                "  for (var i = 0; i < s.length; i++)" +
+                "    h = ((h << 5) - h + s.charCodeAt(i)) | 0;" +
+                "  return h;" +
+                "}" +
+                "hash('hello world')");
+    }
+}
@@ -0,0 +1,82 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import org.junit.Test;
+
+/**
+ * Tests split, replace, match and search with string patterns, which
+ * search the string for the pattern without a regular expression.
+ */
+public class LiteralPatternTest {
+
+    @Test
+    public void split() {
+        Utils.assertEvaluates("a|b||c", "'a,b,,c'.split(',').join('|')");
+        Utils.assertEvaluates("ab|", "'ab,'.split(',').join('|')");
+        Utils.assertEvaluates("a|b|", "'a::b::'.split('::').join('|')");
+        Utils.assertEvaluates("a|b|c", "'abc'.split('').join('|')");
+        Utils.assertEvaluates("0", "''.split('').length");
+        Utils.assertEvaluates("", "''.split(',').join('|')");
+        Utils.assertEvaluates("1", "''.split(',').length");
+        Utils.assertEvaluates("a", "'a,b,c'.split(',', 1).join('|')");
+        Utils.assertEvaluates("a-b", "'a-b'.split('-', 3).join('-')");
+        Utils.assertEvaluates("2", "'x1y'.split(1).length");
+        Utils.assertEvaluates("x1y", "'x1y'.split(2).join('|')");
+        Utils.assertEvaluates("ab,cd", "'ab,cd'.split().join('|')");
+    }
+
+    @Test
+    public void replace() {
+        Utils.assertEvaluates("xbab", "'abab'.replace('a', 'x')");
+        Utils.assertEvaluates("ab", "'ab'.replace('c', 'x')");
+        Utils.assertEvaluates("a$&b", "'a.b'.replace('.', '$$&')");
+        Utils.assertEvaluates("a7b", "'a.b'.replace('.', 7)");
+        Utils.assertEvaluates("aundefinedb", "'a.b'.replace('.', undefined)");
+        Utils.assertEvaluates("q-q", "'q.q'.replace('.', '-')");
+        Utils.assertEvaluates(".", "'q.q'.replace('.', '-'); RegExp.lastMatch");
+        Utils.assertEvaluates("bab", "'abab'.replace('a', '')");
+        Utils.assertEvaluates("bab",
+                "'abab'.replace('a', ''); RegExp.rightContext");
+        Utils.assertEvaluates("ab", "'ab'.replace('', '')");
+        Utils.assertEvaluates("a.b.c", "'a.b.c'.replace('x', 'y')");
+        String conversions =
+                "var log = [];" +
+                "var s = String.prototype.replace.call(" +
+                "  {toString: function() { log.push('T'); return 'q1q'; }}," +
+                "  {toString: function() { log.push('P'); return '1'; }}," +
+                "  {toString: function() { log.push('R'); return 'z'; }});";
+        Utils.assertEvaluates("qzq", conversions + "s");
+        Utils.assertEvaluates("R,T,P", conversions + "log.join()");
+    }
+
+    @Test
+    public void matchAndSearch() {
+        Utils.assertEvaluates("b,1,abc",
+                "var m = 'abc'.match('b'); [m[0], m.index, m.input].join()");
+        Utils.assertEvaluates("null", "String('abc'.match('x'))");
+        Utils.assertEvaluates("-1", "'abc'.search('x')");
+        Utils.assertEvaluates("2", "'abc'.search('c')");
+        Utils.assertEvaluates("c", "'abc'.search('c'); RegExp.lastMatch");
+        Utils.assertEvaluates("a.b", "'a.b'.match('.').input");
+        Utils.assertEvaluates("a,.b",
+                "'a.b'.match('.');" +
+                "[RegExp.lastMatch, RegExp.rightContext].join()");
+        Utils.assertEvaluates("1", "'axb'.search('x')");
+        Utils.assertEvaluates("1", "'abc'.match('b.').index");
+        Utils.assertEvaluates("4", "'abcab'.search(/b$/)");
+    }
+
+    @Test
+    public void longReplace() {
+        String replaced =
+                "var big = '';" +
+                "for (var i = 0; i < 2000; i++) big += 'abc,';" +
+                "var r = big.replace('c,a', '-');";
+        Utils.assertEvaluates("7998", replaced + "r.length");
+        Utils.assertEvaluates("ab-bc,ab", replaced + "r.slice(0, 8)");
+        Utils.assertEvaluates("abc,abc,", replaced + "r.slice(-8)");
+    }
+}
@@ -0,0 +1,178 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.serialize.ScopeSnapshot;
+
+/**
+ * Tests that arrays of numbers behave the same whether their elements are
+ * stored as ints, doubles or objects, and when they change between these
+ * kinds of elements.
+ */
+public class NativeArrayElementKindsTest {
+
+    @Test
+    public void changingElementKinds() {
+        String ints = "var a = []; for (var i = 0; i < 4; i++) a.push(i);";
+        Utils.assertEvaluates("0,1,2,3", ints + "a.join()");
+        Utils.assertEvaluates("0,1,2.5,3", ints + "a[2] = 2.5; a.join()");
+        Utils.assertEvaluates("0,1,2.5,x",
+                ints + "a[2] = 2.5; a[3] = 'x'; a.join()");
+        Utils.assertEvaluates("1,2.5,x,",
+                ints + "a[2] = 2.5; a[3] = 'x';" +
+                "a.shift(); a.push(undefined); a.join()");
+    }
+
+    @Test
+    public void specialNumbers() {
+        Utils.assertEvaluates("-Infinity,true,false,true,1,Infinity",
+                "var a = [1, 2, 3];" +
+                "a[0] = -0; a[1] = 0 / 0; a[2] = 1 / 0;" +
+                "var b = new Array(2); b[0] = NaN; b[1] = 1;" +
+                "[1 / a[0], isNaN(a[1]), 1 in b && isNaN(b[1]), 0 in b," +
+                " a.length - b.length, a[2]].join()");
+    }
+
+    @Test
+    public void holes() {
+        Utils.assertEvaluates("false,true,,1.5,",
+                "var a = new Array(3); a[1] = 1.5;" +
+                "[0 in a, 1 in a, a.join()].join()");
+        Utils.assertEvaluates("false,3",
+                "var b = [1, 2, 3]; delete b[1]; [1 in b, b.length].join()");
+        Utils.assertEvaluates("0,2",
+                "var b = [1, 2, 3]; delete b[1];" +
+                "var keys = []; for (var k in b) keys.push(k); keys.join()");
+        Utils.assertEvaluates("5", "var c = [1, 2]; c.length = 5; c.length");
+        Utils.assertEvaluates("0,1,4",
+                "var c = [1, 2]; c.length = 5; c[4] = 3;" +
+                "var keys = []; for (var k in c) keys.push(k); keys.join()");
+    }
+
+    @Test
+    public void holesSeePrototype() {
+        Utils.assertEvaluates("14,7,3,false",
+                "var log;" +
+                "Object.defineProperty(Array.prototype, '1', {" +
+                "  get: function() { return 7; }, configurable: true });" +
+                "Object.defineProperty(Array.prototype, '2', {" +
+                "  set: function(v) { log = v; }, configurable: true });" +
+                "var a = new Array(3); a[0] = 0.5;" +
+                "var r = [a[1] * 2, a[1]];" +
+                "a[2] = 1 + 2; r.push(log, a.hasOwnProperty(2));" +
+                "delete Array.prototype[1]; delete Array.prototype[2];" +
+                "r.join()");
+    }
+
+    @Test
+    public void arrayMethods() {
+        Utils.assertEvaluates("4,3,2.5,1", "[1, 2.5, 3, 4].reverse().join()");
+        Utils.assertEvaluates("2.5,1", "[4, 3, 2.5, 1].splice(2, 2).join()");
+        Utils.assertEvaluates("4,3",
+                "var a = [4, 3, 2.5, 1]; a.splice(2, 2); a.join()");
+        Utils.assertEvaluates("0,4,3,9",
+                "var a = [4, 3]; a.unshift(0); a.splice(3, 0, 9); a.join()");
+        Utils.assertEvaluates("4,3,9,x,1.5",
+                "var a = [0, 4, 3, 9]; a.shift(); a.concat(['x'], 1.5).join()");
+        Utils.assertEvaluates("1,-1,-1,0,2",
+                "var a = [4, 3, 9];" +
+                "[a.indexOf(3), a.indexOf('3'), [NaN].indexOf(NaN)," +
+                " [0].indexOf(-0), a.lastIndexOf(9)].join()");
+    }
+
+    @Test
+    public void numericLoops() {
+        String functions =
+                "function scale(a, f) {" +
+                "  for (var i = 0; i < a.length; i++) a[i] = a[i] * f;" +
+                "  return a;" +
+                "}" +
+                "function sum(a) {" +
+                "  var s = 0;" +
+                "  for (var i = 0; i < a.length; i++) s = s + a[i] * 1;" +
+                "  return s;" +
+                "}";
+        Utils.assertEvaluates("6,4.5,3,NaN",
+                functions + "scale(['2', 1.5, true, {}], 3).join()");
+        Utils.assertEvaluates("15.5",
+                functions + "sum(scale([1, 2, 3, 4.5], 1).concat(5))");
+    }
+
+    @Test
+    public void listView() {
+        ContextFactory.getGlobal().call(new ContextAction() {
+            public Object run(Context cx) {
+                Scriptable scope = cx.initStandardObjects();
+                List<?> list = (List<?>) cx.evaluateString(scope,
+                        "var a = [1, 2, 3]; a[1] = 2.5; a.push(NaN); a",
+                        "test", 1, null);
+                assertEquals(4, list.size());
+                assertEquals(1.0, ((Number) list.get(0)).doubleValue(), 0);
+                assertEquals(2.5, ((Number) list.get(1)).doubleValue(), 0);
+                assertEquals(Double.NaN,
+                             ((Number) list.get(3)).doubleValue(), 0);
+                assertEquals(2, list.indexOf(Double.valueOf(3)));
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void intElementsAreDoubles() {
+        Utils.runWithAllOptimizationLevels(new ContextAction() {
+            public Object run(Context cx) {
+                Scriptable scope = cx.initStandardObjects();
+                Scriptable array = (Scriptable) cx.evaluateString(scope,
+                        "[1, 2, 3]", "test", 1, null);
+                List<?> list = (List<?>) array;
+                assertTrue(list.contains(2.0));
+                assertEquals(2, list.indexOf(3.0));
+                assertEquals(0, list.lastIndexOf(1.0));
+                assertEquals(Double.valueOf(1), list.get(0));
+                assertEquals(Double.valueOf(2), list.toArray()[1]);
+                assertEquals(Double.valueOf(1), list.iterator().next());
+                assertEquals(Double.valueOf(3), array.get(2, array));
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void snapshotKeepsHoles() {
+        Utils.runWithOptimizationLevel(new ContextAction() {
+            public Object run(Context cx) {
+                try {
+                    Scriptable scope = cx.initStandardObjects();
+                    cx.evaluateString(scope,
+                            "var h = new Array(3); h[1] = 0.5; h[2] = NaN;",
+                            "test", 1, null);
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    ScopeSnapshot.write(scope, out);
+                    Scriptable restored = ScopeSnapshot.read(
+                            new ByteArrayInputStream(out.toByteArray()));
+                    assertEquals("false,0.5,true,3", Context.toString(
+                            cx.evaluateString(restored,
+                                    "[0 in h, h[1], isNaN(h[2]), h.length].join()",
+                                    "test", 1, null)));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                return null;
+            }
+        }, -1);
+    }
+}
@@ -0,0 +1,129 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import org.junit.Test;
+import org.mozilla.javascript.v8dtoa.FastStrtod;
+
+/**
+ * Tests the conversions of numbers to strings with a given number of
+ * digits or radix and of decimal strings to numbers, which mostly take
+ * the paths with long arithmetic.
+ */
+public class NumberConversionTest {
+
+    @Test
+    public void toFixed() {
+        Utils.assertEvaluates("1", "0.5.toFixed(0)");
+        Utils.assertEvaluates("3", "2.5.toFixed(0)");
+        Utils.assertEvaluates("1.13", "1.125.toFixed(2)");
+        Utils.assertEvaluates("-3", "(-2.5).toFixed(0)");
+        Utils.assertEvaluates("1.00", "1.005.toFixed(2)");
+        Utils.assertEvaluates("-0.00", "(-0.001).toFixed(2)");
+        Utils.assertEvaluates("0.0", "0.001.toFixed(1)");
+        Utils.assertEvaluates("123.45600000000000306954",
+                "123.456.toFixed(20)");
+        Utils.assertEvaluates("100000000000000000000.00", "1e20.toFixed(2)");
+        Utils.assertEvaluates("1e+21", "1e21.toFixed(2)");
+        Utils.assertEvaluates("0.000", "5e-324.toFixed(3)");
+        Utils.assertEvaluates("1200", "1234.5678.toFixed(-2)");
+        Utils.assertEvaluates("0.1000000000000000055511151", "0.1.toFixed(25)");
+    }
+
+    @Test
+    public void toPrecisionAndExponential() {
+        Utils.assertEvaluates("0.5", "0.5.toPrecision(1)");
+        Utils.assertEvaluates("3", "2.5.toPrecision(1)");
+        Utils.assertEvaluates("123.5", "123.456.toPrecision(4)");
+        Utils.assertEvaluates("0.00012", "0.000123.toPrecision(2)");
+        Utils.assertEvaluates("1.500000000", "1.5.toPrecision(10)");
+        Utils.assertEvaluates("0.100000000000000005551", "0.1.toPrecision(21)");
+        Utils.assertEvaluates("100", "99.99.toPrecision(3)");
+        Utils.assertEvaluates("1.2e+5", "(123456).toPrecision(2)");
+        Utils.assertEvaluates("4.94e-324", "5e-324.toPrecision(3)");
+        Utils.assertEvaluates("1.7977e+308",
+                "1.7976931348623157e308.toPrecision(5)");
+        Utils.assertEvaluates("5e-1", "0.5.toExponential()");
+        Utils.assertEvaluates("1.23e+2", "123.456.toExponential(2)");
+        Utils.assertEvaluates("9.99e+0", "9.995.toExponential(2)");
+        Utils.assertEvaluates("-1.000e-7", "(-1e-7).toExponential(3)");
+        Utils.assertEvaluates("1.3e+0", "1.25.toExponential(1)");
+        Utils.assertEvaluates("1e+4", "(12345).toExponential(0)");
+        Utils.assertEvaluates("1.00000000000000000000e+21",
+                "1e21.toExponential(20)");
+    }
+
+    @Test
+    public void radix() {
+        Utils.assertEvaluates("0.1", "(0.5).toString(2)");
+        Utils.assertEvaluates("3.c", "(3.75).toString(16)");
+        Utils.assertEvaluates("-3.3llllllllm", "(-3.1).toString(36)");
+        Utils.assertEvaluates("0.0022002200220022002200220022002201",
+                "(0.1).toString(3)");
+        Utils.assertEvaluates("0.000000000000000000000001101011010111111100" +
+                              "1010011010101111001010111101001",
+                "(1e-7).toString(2)");
+        Utils.assertEvaluates("ff.8", "(255.5).toString(16)");
+        Utils.assertEvaluates("0.asssssssssr", "(0.3).toString(36)");
+        Utils.assertEvaluates("0.4444444444444444444", "(2/3).toString(7)");
+    }
+
+    @Test
+    public void parse() {
+        Utils.assertEvaluates("1500", "Number('  1.5e3  ')");
+        Utils.assertEvaluates("-Infinity", "1 / Number('-0')");
+        Utils.assertEvaluates("NaN", "Number('1e')");
+        Utils.assertEvaluates("NaN", "Number('.')");
+        Utils.assertEvaluates("0.5", "Number('.5')");
+        Utils.assertEvaluates("5", "Number('5.')");
+        Utils.assertEvaluates("Infinity", "Number('1e400')");
+        Utils.assertEvaluates("0", "Number('0.1e-400')");
+        Utils.assertEvaluates("2.225073858507201e-308",
+                "Number('2.2250738585072011e-308')");
+        Utils.assertEvaluates("9007199254740992", "Number('9007199254740993')");
+        Utils.assertEvaluates("1",
+                "Number('1.00000000000000011102230246251565404236316680908203125')");
+        Utils.assertEvaluates("1.2345678901234568e+29",
+                "Number('123456789012345678901234567890')");
+        Utils.assertEvaluates("NaN", "Number('1.2.3')");
+        Utils.assertEvaluates("3.25", "parseFloat('3.25abc')");
+        Utils.assertEvaluates("-0.0005", "parseFloat('-.5e-3x')");
+        Utils.assertEvaluates("1", "parseFloat('1e+')");
+        Utils.assertEvaluates("NaN", "parseFloat('-')");
+        Utils.assertEvaluates("Infinity",
+                "parseFloat('1.7976931348623159e308')");
+        Utils.assertEvaluates("-Infinity", "1 / parseFloat('-0.0')");
+        Utils.assertEvaluates("0.30000000000000004,1e-7,-1250,4.35",
+                "JSON.parse('[0.30000000000000004, 1e-7, -12.5e2, 4.35]').join()");
+        Utils.assertEvaluates("10", "0.1e2");
+        Utils.assertEvaluates("1.5e-10", "1.5e-10");
+    }
+
+    @Test
+    public void parseRandom() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            double d = Double.longBitsToDouble(random.nextLong());
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                continue;
+            }
+            // the shortest digits, all digits, and a value between two doubles
+            String[] strings = {
+                Double.toString(d),
+                new BigDecimal(d).toString(),
+                new BigDecimal(d).add(new BigDecimal(Math.ulp(d) / 2)).toString()
+            };
+            for (String s : strings) {
+                assertEquals(s, Double.parseDouble(s),
+                             FastStrtod.parseDouble(s, 0, s.length()), 0.0);
+            }
+        }
+    }
+}
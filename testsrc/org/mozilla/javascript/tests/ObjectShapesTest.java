@@ -0,0 +1,124 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.NativeObject;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Tests for shape based property storage in ScriptableObject.
+ */
+public class ObjectShapesTest {
+
+    private static final ContextFactory SHAPES_FACTORY = new ContextFactory() {
+        @Override
+        protected boolean hasFeature(Context cx, int featureIndex) {
+            if (featureIndex == Context.FEATURE_OBJECT_SHAPES) {
+                return true;
+            }
+            return super.hasFeature(cx, featureIndex);
+        }
+    };
+
+    private static Object eval(final String source) {
+        final Object[] result = new Object[3];
+        final int[] optLevels = { -1, 0, 9 };
+        for (int i = 0; i < optLevels.length; i++) {
+            final int index = i;
+            Utils.runWithOptimizationLevel(SHAPES_FACTORY, new ContextAction() {
+                public Object run(Context cx) {
+                    Scriptable scope = cx.initStandardObjects();
+                    Object r = cx.evaluateString(scope, source, "test", 1, null);
+                    result[index] = Context.toString(r);
+                    return null;
+                }
+            }, optLevels[i]);
+        }
+        assertEquals(result[0], result[1]);
+        assertEquals(result[0], result[2]);
+        return result[0];
+    }
+
+    @Test
+    public void scriptObjectsUseShapes() {
+        Utils.runWithOptimizationLevel(SHAPES_FACTORY, new ContextAction() {
+            public Object run(Context cx) {
+                Scriptable scope = cx.initStandardObjects();
+                Object result = cx.evaluateString(scope,
+                        "function P(x) { this.x = x; this.y = 1; }" +
+                        "[new P(1), {a: 1}, new Object()]", "test", 1, null);
+                Scriptable array = (Scriptable) result;
+                for (int i = 0; i < 3; i++) {
+                    ScriptableObject obj = (ScriptableObject) array.get(i, array);
+                    assertTrue(obj.usesShapes());
+                }
+                return null;
+            }
+        }, -1);
+    }
+
+    @Test
+    public void enumerationKeepsInsertionOrder() {
+        assertEquals("c,a,b,d", eval(
+                "var o = {c: 1, a: 2}; o.b = 3; o.d = 4;" +
+                "var keys = []; for (var k in o) keys.push(k); keys.join()"));
+        assertEquals("c,b,d", eval(
+                "var o = {c: 1, a: 2}; o.b = 3; o.d = 4; delete o.a;" +
+                "Object.keys(o).join()"));
+    }
+
+    @Test
+    public void attributesAndAccessors() {
+        assertEquals("1,x", eval(
+                "var o = {x: 1};" +
+                "Object.defineProperty(o, 'h', {value: 1, enumerable: false});" +
+                "[o.h, Object.keys(o)].join()"));
+        assertEquals("2,true", eval(
+                "var o = {x: 1};" +
+                "o.__defineGetter__('g', function() { return this.x + 1; });" +
+                "[o.g, 'g' in o].join()"));
+        assertEquals("1,false", eval(
+                "var o = {x: 1}; Object.freeze(o); o.x = 2; o.y = 3;" +
+                "[o.x, 'y' in o].join()"));
+    }
+
+    @Test
+    public void manyPropertiesAndIndexes() {
+        assertEquals("100,77,five", eval(
+                "var o = {}; for (var i = 0; i < 100; i++) o['k' + i] = i;" +
+                "var p = {a: 1}; p[5] = 'five';" +
+                "[Object.keys(o).length, o.k77, p[5]].join()"));
+    }
+
+    @Test
+    public void sealedObject() {
+        NativeObject obj = new NativeObject();
+        obj.useShapes();
+        obj.put("a", obj, "1");
+        obj.defineProperty("b", "2", ScriptableObject.DONTENUM);
+        obj.sealObject();
+        assertTrue(obj.usesShapes());
+        assertTrue(obj.isSealed());
+        assertEquals(ScriptableObject.DONTENUM, obj.getAttributes("b"));
+        assertArrayEquals(new Object[] { "a" }, obj.getIds());
+        assertArrayEquals(new Object[] { "a", "b" }, obj.getAllIds());
+        try {
+            obj.put("c", obj, "3");
+            throw new AssertionError("sealed object was modified");
+        } catch (Exception expected) {
+            assertFalse(obj.has("c", obj));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.mozilla.javascript.CompilerEnvirons;
+import org.mozilla.javascript.optimizer.ClassCompiler;
+
+/**
+ * Tests scripts with enough functions for their methods to be generated
+ * in parallel and merged into one class, which must run like serially
+ * generated code and be the same on every compilation.
+ */
+public class ParallelCodegenTest {
+
+    private static final int FUNCTIONS = 60;
+
+    private static String functions() {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < FUNCTIONS; i++) {
+            s.append("function f").append(i).append("(o, n) {")
+             .append("  var r = n * ").append(i).append(".5 + o.a").append(i).append(";")
+             .append("  o.b = (o.b || 0) + 1;")
+             .append("  try { if (n < 0) throw 'x' + ").append(i).append("; }")
+             .append("  catch (e) { r = e; }")
+             .append("  switch (n) { case ").append(i).append(": r += 'c'; break; }")
+             .append("  function g(k) { return k + ").append(i).append("; }")
+             .append("  return ").append(i == 0 ? "r" : "f" + (i - 1) + "(o, g(0)) + ','")
+             .append("    + r + /x(\\d)/.exec('x").append(i % 10).append("')[1];")
+             .append("}");
+        }
+        return s.toString();
+    }
+
+    private static final String SOURCE = functions() +
+        "var o = {};" +
+        "for (var i = 0; i < " + FUNCTIONS + "; i++) o['a' + i] = i;";
+
+    @Test
+    public void results() {
+        String last = "f" + (FUNCTIONS - 1) + "(o, 1)";
+        Utils.assertEvaluates("375", SOURCE + last + ".length");
+        Utils.assertEvaluates("10,41,9.52,x33", SOURCE + "f3(o, -1)");
+        Utils.assertEvaluates("10,41,7c2", SOURCE + "f2(o, 2)");
+        Utils.assertEvaluates("67",
+                SOURCE + last + "; f3(o, -1); f2(o, 2); o.b");
+    }
+
+    @Test
+    public void staticConstants() {
+        // More distinct numbers and property accesses than the class
+        // keeps in static fields
+        StringBuilder s = new StringBuilder("var o = {}, sum = 0;");
+        for (int i = 0; i < 50; i++) {
+            s.append("function h").append(i).append("() { var t = 0;");
+            for (int j = 0; j < 60; j++) {
+                int k = i * 60 + j;
+                s.append("o.p").append(k).append(" = ").append(k).append(".25;")
+                 .append("t += o.p").append(k).append(";");
+            }
+            s.append("return t; }")
+             .append("sum += h").append(i).append("();");
+        }
+        s.append("sum");
+        Utils.assertEvaluates("4499250", s.toString());
+    }
+
+    @Test
+    public void deterministic() {
+        int[] optLevels = { 0, 9 };
+        for (int i = 0; i < optLevels.length; i++) {
+            CompilerEnvirons env = new CompilerEnvirons();
+            env.setOptimizationLevel(optLevels[i]);
+            Object[] first = new ClassCompiler(env)
+                .compileToClassFiles(SOURCE, "test.js", 1, "Test");
+            for (int j = 0; j < 3; j++) {
+                Object[] next = new ClassCompiler(env)
+                    .compileToClassFiles(SOURCE, "test.js", 1, "Test");
+                assertEquals(first.length, next.length);
+                for (int k = 1; k < first.length; k += 2) {
+                    assertArrayEquals((byte[])first[k], (byte[])next[k]);
+                }
+            }
+        }
+    }
+}
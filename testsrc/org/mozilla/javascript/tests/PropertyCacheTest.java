@@ -0,0 +1,190 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.mozilla.javascript.CompilerEnvirons;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.optimizer.ClassCompiler;
+
+/**
+ * Tests that the inline property caches of compiled and interpreted code
+ * observe changes to objects, their prototypes and scopes.
+ */
+public class PropertyCacheTest {
+
+    private static final ContextFactory SHAPES_FACTORY = new ContextFactory() {
+        @Override
+        protected boolean hasFeature(Context cx, int featureIndex) {
+            if (featureIndex == Context.FEATURE_OBJECT_SHAPES) {
+                return true;
+            }
+            return super.hasFeature(cx, featureIndex);
+        }
+    };
+
+    @Test
+    public void ownProperties() {
+        Utils.assertEvaluates(SHAPES_FACTORY, "1,2,3,4",
+                "function get(o) { return o.x; }" +
+                "var r = [];" +
+                "r.push(get({x: 1}));" +
+                "r.push(get({x: 2}));" +
+                "r.push(get({y: 0, x: 3}));" +
+                "var o = {x: 0}; delete o.x; o.x = 4; r.push(get(o));" +
+                "r.join()");
+    }
+
+    @Test
+    public void prototypeChanges() {
+        Utils.assertEvaluates(SHAPES_FACTORY, "1,2,3,own,4",
+                "function F() {} F.prototype.x = 1;" +
+                "function get(o) { return o.x; }" +
+                "var f = new F(); var r = [get(f)];" +
+                "F.prototype.x = 2; r.push(get(f));" +
+                "Object.getPrototypeOf(f).__proto__ = {};" +
+                "f.__proto__ = {x: 3}; r.push(get(f));" +
+                "f.x = 'own'; r.push(get(f));" +
+                "var g = new F(); F.prototype.x = 4; r.push(get(g));" +
+                "r.join()");
+    }
+
+    @Test
+    public void deletedAndShadowedPrototypeProperties() {
+        Utils.assertEvaluates(SHAPES_FACTORY, "1,,2,3",
+                "var base = {x: 1}; var mid = Object.create(base);" +
+                "var o = Object.create(mid);" +
+                "function get(o) { return o.x; }" +
+                "var r = [get(o)];" +
+                "delete base.x; r.push(get(o));" +
+                "base.x = 2; r.push(get(o));" +
+                "mid.x = 3; r.push(get(o));" +
+                "r.join()");
+    }
+
+    @Test
+    public void methodCalls() {
+        Utils.assertEvaluates(SHAPES_FACTORY, "a,b,c",
+                "var p = {m: function() { return 'a'; }};" +
+                "function call(o) { return o.m(); }" +
+                "var o = Object.create(p); var r = [call(o)];" +
+                "p.m = function() { return 'b'; }; r.push(call(o));" +
+                "o.m = function() { return 'c'; }; r.push(call(o));" +
+                "r.join()");
+    }
+
+    @Test
+    public void assignments() {
+        Utils.assertEvaluates(SHAPES_FACTORY, "2,1,3,1",
+                "function set(o, v) { o.x = v; return o.x; }" +
+                "var a = {x: 1}; var r = [set(a, 2)];" +
+                "var b = {x: 1}; Object.defineProperty(b, 'x', {writable: false});" +
+                "r.push(set(b, 2));" +
+                "var c = {x: 1}; c.x += 2; r.push(c.x);" +
+                "var d = {x: 1}; Object.freeze(d); r.push(set(d, 2));" +
+                "r.join()");
+    }
+
+    @Test
+    public void globalVariables() {
+        Utils.assertEvaluates(SHAPES_FACTORY, "1,2,3,4,5",
+                "this.g = 1; function get() { return g; }" +
+                "var r = [get()];" +
+                "g = 2; r.push(get());" +
+                "delete this.g; this.g = 3; r.push(get());" +
+                "Object.defineProperty(this, 'g', {get: function() { return 4; }});" +
+                "r.push(get());" +
+                "delete this.g; this.g = 5; r.push(get());" +
+                "r.join()");
+    }
+
+    @Test
+    public void globalsReadFromActivations() {
+        Utils.assertEvaluates(SHAPES_FACTORY, "1,1,1,1,1,1,1,1,1,1,1,1,2,3",
+                "var g = 1;" +
+                "function get() { var local = g; return function() { return local; }(); }" +
+                "var r = [];" +
+                "for (var i = 0; i < 12; i++) r.push(get());" +
+                "g = 2; r.push(get());" +
+                "delete g; this.g = 3; r.push(get());" +
+                "r.join()");
+    }
+
+    @Test
+    public void scriptInDifferentScopes() {
+        Utils.runWithOptimizationLevel(SHAPES_FACTORY, new ContextAction() {
+            public Object run(Context cx) {
+                Script script = cx.compileString(
+                        "var s = 0; for (var i = 0; i < 3; i++) s += o.x + v; s",
+                        "test", 1, null);
+                for (int i = 1; i <= 3; i++) {
+                    Scriptable scope = cx.initStandardObjects();
+                    cx.evaluateString(scope, "var v = " + i + "; var o = {x: "
+                            + (10 * i) + "};", "init", 1, null);
+                    Object r = script.exec(cx, scope);
+                    assertEquals(String.valueOf(33 * i), Context.toString(r));
+                }
+                return null;
+            }
+        }, -1);
+    }
+
+    @Test
+    public void megamorphicSites() {
+        Utils.assertEvaluates(SHAPES_FACTORY, "45",
+                "function get(o) { return o.x; }" +
+                "var s = 0;" +
+                "for (var i = 0; i < 10; i++) {" +
+                "  var o = {}; o['p' + i] = 0; o.x = i; s += get(o);" +
+                "}" +
+                "s");
+    }
+
+    private static boolean hasPropertyCaches(CompilerEnvirons env) {
+        Object[] classes = new ClassCompiler(env).compileToClassFiles(
+                "function get(o) { return o.x; } o.y = get(o).z()",
+                "test.js", 1, "Test");
+        byte[] bytes = (byte[])classes[1];
+        String name = "org/mozilla/javascript/PropertyCache";
+        for (int i = 0; i + name.length() <= bytes.length; i++) {
+            int j = 0;
+            while (j < name.length() && bytes[i + j] == name.charAt(j)) {
+                j++;
+            }
+            if (j == name.length()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void cachesOnlyWithShapes() {
+        Utils.runWithOptimizationLevel(new ContextAction() {
+            public Object run(Context cx) {
+                CompilerEnvirons env = new CompilerEnvirons();
+                env.initFromContext(cx);
+                assertFalse(hasPropertyCaches(env));
+                return null;
+            }
+        }, 9);
+        Utils.runWithOptimizationLevel(SHAPES_FACTORY, new ContextAction() {
+            public Object run(Context cx) {
+                CompilerEnvirons env = new CompilerEnvirons();
+                env.initFromContext(cx);
+                assertTrue(hasPropertyCaches(env));
+                return null;
+            }
+        }, 9);
+    }
+}
@@ -0,0 +1,63 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import org.junit.Test;
+
+/**
+ * Tests regular expressions with quantifiers nested in repeated
+ * quantifiers, which are matched by an automaton in linear time, and
+ * whose matches and captures must be the ones backtracking finds.
+ */
+public class RegExpAutomatonTest {
+
+    @Test
+    public void exponentialBacktracking() {
+        String strings =
+                "var s = new Array(50001).join('a') + 'c';" +
+                "var w = new Array(2001).join('word ') + '!';";
+        Utils.assertEvaluates("false", strings + "/(a+)+b/.test(s)");
+        Utils.assertEvaluates("false", strings + "/(a|aa)+$/.test(s + 'x')");
+        Utils.assertEvaluates("false", strings + "/^(\\w+\\s?)*$/.test(w)");
+        Utils.assertEvaluates("false", strings + "/(x+x+)+y/.test(s)");
+        Utils.assertEvaluates("true", strings + "/(a*)*ac/.test(s)");
+    }
+
+    @Test
+    public void captures() {
+        Utils.assertEvaluates("aaaaaaaaaaac,aaaaaaaaaaa",
+                "/(a+)+c/.exec('aaaaaaaaaaac')");
+        Utils.assertEvaluates("abab,b,", "/((a)|b)+/.exec('abab')");
+        Utils.assertEvaluates(",", "/(a*)+/.exec('b')");
+        Utils.assertEvaluates("aab,aa", "/(a*)*b/.exec('aab')");
+        Utils.assertEvaluates("aab,a", "/(a?)+?b/.exec('aab')");
+        Utils.assertEvaluates("ab,,b", "/(?:(a)|(b))+/.exec('ab')");
+        Utils.assertEvaluates("abcd,a,bcd,",
+                "/(a|ab)(c|bcd)+(d*)/.exec('abcd')");
+    }
+
+    @Test
+    public void quantifiers() {
+        Utils.assertEvaluates("aaaaaa,aaa", "/(a{2,3}){2}/.exec('aaaaaaa')");
+        Utils.assertEvaluates("aaab,a", "/(a+?){2,}?b/.exec('aaab')");
+        Utils.assertEvaluates("1.22.3X,3", "/(\\d+\\.?)+x/gi.exec('1.22.3X')");
+        Utils.assertEvaluates("aaa,a", "/(a|a)*?$/.exec('aaa')");
+        Utils.assertEvaluates("aaaaab", "/(?:a{0,2}){3}b/.exec('aaaaab')");
+        Utils.assertEvaluates("ababc,abab", "/((?:ab)*)*c/.exec('ababc')");
+        Utils.assertEvaluates("aa,a", "/(a|\\B)+/.exec('aa')");
+    }
+
+    @Test
+    public void anchorsAndFlags() {
+        Utils.assertEvaluates("a[X|][|b][x|]c[x|]",
+                "'aXbxcx'.replace(/(?:(x)|(b))+?/gi, '[$1|$2]')");
+        Utils.assertEvaluates("aabbc@2",
+                "var m = /^(?:a+|b+)*c/m.exec('d\\naabbc'); m[0] + '@' + m.index");
+        Utils.assertEvaluates("aabbc@0",
+                "var m = /^(?:a+|b+)*c/.exec('aabbc'); m[0] + '@' + m.index");
+        Utils.assertEvaluates("a b c,c", "/(\\b\\w+\\b\\s*)+$/.exec('a b c')");
+        Utils.assertEvaluates("false", "/^(?:a+|b+)*c/.test('d\\naabbc')");
+    }
+}
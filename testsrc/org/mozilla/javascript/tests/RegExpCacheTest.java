@@ -0,0 +1,168 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.ErrorReporter;
+import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.regexp.RegExpCache;
+
+/**
+ * Tests the cache of compiled regular expressions shared by RegExp
+ * objects.
+ */
+public class RegExpCacheTest {
+
+    @Before
+    public void setUp() {
+        RegExpCache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        RegExpCache.setMaxSize(RegExpCache.DEFAULT_MAX_SIZE);
+        RegExpCache.clear();
+    }
+
+    private static Object eval(final String source) {
+        return ContextFactory.getGlobal().call(new ContextAction() {
+            public Object run(Context cx) {
+                Scriptable scope = cx.initStandardObjects();
+                return Context.toString(
+                    cx.evaluateString(scope, source, "test", 1, null));
+            }
+        });
+    }
+
+    @Test
+    public void sharedCompiledRegExps() {
+        assertEquals("7,4,4|true|a-b",
+                eval("var r = [];" +
+                     "for (var i = 0; i < 3; i++) {" +
+                     "  var re = new RegExp('a+', 'g');" +
+                     "  re.lastIndex = 2 * (2 - i);" +
+                     "  re.test('xxaaxaa');" +
+                     "  r.push(re.lastIndex);" +
+                     "}" +
+                     "var a = /a+/g, b = new RegExp('a+', 'g');" +
+                     "a.exec('aaxa'); b.lastIndex = 0;" +
+                     "[r.join(), a.lastIndex == 2 && b.lastIndex == 0," +
+                     " 'a1b'.replace(new RegExp('\\\\d'), '-')].join('|')"));
+        // every regular expression was only compiled once
+        long misses = RegExpCache.getMissCount();
+        assertEquals(RegExpCache.size(), misses);
+        eval("new RegExp('a+', 'g'); new RegExp('a+', 'gi'); /a+/g;");
+        assertEquals(misses + 1, RegExpCache.getMissCount());
+    }
+
+    @Test
+    public void maxSize() {
+        RegExpCache.setMaxSize(4);
+        eval("for (var i = 0; i < 10; i++) new RegExp('x' + i);");
+        assertEquals(4, RegExpCache.size());
+        // initializing RegExp compiles the empty pattern of its prototype
+        eval("RegExp");
+        long misses = RegExpCache.getMissCount();
+        eval("new RegExp('x9');");
+        assertEquals(misses, RegExpCache.getMissCount());
+        eval("new RegExp('x0');");
+        assertEquals(misses + 1, RegExpCache.getMissCount());
+        RegExpCache.setMaxSize(1);
+        assertEquals(1, RegExpCache.size());
+        RegExpCache.setMaxSize(0);
+        eval("new RegExp('y'); new RegExp('y');");
+        assertEquals(0, RegExpCache.size());
+    }
+
+    @Test
+    public void errorsAreNotCached() {
+        for (int i = 0; i < 2; i++) {
+            assertEquals("SyntaxError|SyntaxError|ok",
+                    eval("var r = [];" +
+                         "try { new RegExp('(a'); } catch (e) { r.push(e.name); }" +
+                         "try { new RegExp('a', 'q'); } catch (e) { r.push(e.name); }" +
+                         "r.push(new RegExp('a', 'g').test('a') ? 'ok' : 'no');" +
+                         "r.join('|')"));
+        }
+    }
+
+    @Test
+    public void threads() throws InterruptedException {
+        final String[] results = new String[8];
+        Thread[] threads = new Thread[results.length];
+        for (int t = 0; t < threads.length; t++) {
+            final int index = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    results[index] = (String) eval(
+                        "var n = 0;" +
+                        "for (var i = 0; i < 2000; i++) {" +
+                        "  var re = new RegExp('[a-f]+([0-9]{2})', 'g');" +
+                        "  while (re.exec('ab12 cd34 xx ef56')) n++;" +
+                        "}" +
+                        "String(n)");
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (String result : results) {
+            assertEquals("6000", result);
+        }
+    }
+
+    @Test
+    public void strictModeWarnings() {
+        final int[] warnings = new int[1];
+        ContextFactory factory = new ContextFactory() {
+            @Override
+            protected boolean hasFeature(Context cx, int featureIndex) {
+                if (featureIndex == Context.FEATURE_STRICT_MODE) {
+                    return true;
+                }
+                return super.hasFeature(cx, featureIndex);
+            }
+        };
+        factory.call(new ContextAction() {
+            public Object run(Context cx) {
+                cx.setErrorReporter(new ErrorReporter() {
+                    public void warning(String message, String sourceName,
+                                        int line, String lineSource,
+                                        int lineOffset) {
+                        warnings[0]++;
+                    }
+                    public void error(String message, String sourceName,
+                                      int line, String lineSource,
+                                      int lineOffset) {
+                        throw new AssertionError(message);
+                    }
+                    public EvaluatorException runtimeError(String message,
+                            String sourceName, int line, String lineSource,
+                            int lineOffset) {
+                        return new EvaluatorException(message);
+                    }
+                });
+                Scriptable scope = cx.initStandardObjects();
+                cx.evaluateString(scope,
+                        "new RegExp('\\\\1a'); new RegExp('\\\\1a');",
+                        "test", 1, null);
+                return null;
+            }
+        });
+        assertEquals(2, warnings[0]);
+        assertEquals(0, RegExpCache.size());
+    }
+}
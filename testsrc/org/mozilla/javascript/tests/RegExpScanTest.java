@@ -0,0 +1,93 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import org.junit.Test;
+
+/**
+ * Tests regular expressions whose matches start with or contain literal
+ * strings, or start with one of a few chars, which are searched for
+ * before the regular expression is tried.
+ */
+public class RegExpScanTest {
+
+    private static final String ALL =
+        "function all(re, s) {" +
+        "  var r = [], m;" +
+        "  re.lastIndex = 0;" +
+        "  do {" +
+        "    m = re.exec(s);" +
+        "    r.push(m ? m.join(',') + '@' + m.index : 'null');" +
+        "    if (m && m[0] === '') re.lastIndex++;" +
+        "  } while (m && re.global);" +
+        "  return r.join(';');" +
+        "}";
+
+    @Test
+    public void prefixes() {
+        Utils.assertEvaluates("abc@1;abc@7;null",
+                ALL + "all(/abc/g, 'xabcabxabc')");
+        Utils.assertEvaluates("aBc@1;AbC@7;null",
+                ALL + "all(/ABC/gi, 'xaBcabxAbC')");
+        Utils.assertEvaluates("\u00c9T\u00c9@0",
+                ALL + "all(/\u00e9t\u00e9/i, '\u00c9T\u00c9')");
+        Utils.assertEvaluates("abc,ab@2", ALL + "all(/(ab)c/, 'ababc')");
+        Utils.assertEvaluates("abcde,bcd,cd@4;null",
+                ALL + "all(/a(b(cd))e/g, 'abcdabcde')");
+    }
+
+    @Test
+    public void requiredLiterals() {
+        Utils.assertEvaluates("22.com,22@5;3.com,3@12;null",
+                ALL + "all(/(\\d+)\\.com/g, '1.co 22.com 3.com')");
+        Utils.assertEvaluates("xababy@5;null",
+                ALL + "all(/x(?:ab){2}y/g, 'xaby xababy')");
+        Utils.assertEvaluates("color@0;colour@6;null",
+                ALL + "all(/colou?r/g, 'color colour')");
+        Utils.assertEvaluates("d@1;abcd@3;null",
+                ALL + "all(/(?:abc)?d/g, 'ad abcd')");
+        Utils.assertEvaluates("a@5;null", ALL + "all(/a(?!xyz)/g, 'axyz ab')");
+    }
+
+    @Test
+    public void multiline() {
+        Utils.assertEvaluates("abc@0;abc@9;null",
+                ALL + "all(/^abc/gm, 'abc\\nxabc\\nabc')");
+        Utils.assertEvaluates("null", ALL + "all(/^abc/g, 'xabc')");
+        Utils.assertEvaluates("an err here@3;null",
+                ALL + "all(/^.*err.*$/gm, 'ok\\nan err here\\nok')");
+        Utils.assertEvaluates("abc@0", ALL + "all(/abc$/m, 'abc\\nabc')");
+        Utils.assertEvaluates("b@4", ALL + "all(/b(?=cd)/, 'bcb bcd')");
+        Utils.assertEvaluates("abc@2",
+                ALL + "RegExp.multiline = true;" +
+                "all(/^abc/, 'x\\nabc')");
+        Utils.assertEvaluates("null",
+                ALL + "RegExp.multiline = true; RegExp.multiline = false;" +
+                "all(/^abc/, 'x\\nabc')");
+    }
+
+    @Test
+    public void alternatives() {
+        Utils.assertEvaluates("dog@2;cat@9;null",
+                ALL + "all(/cat|dog/g, 'a dog, a cat')");
+        Utils.assertEvaluates("9@2;a@4;null", ALL + "all(/a|[0-9]/g, 'xx9ya')");
+        Utils.assertEvaluates("b@1;a@3;null", ALL + "all(/A|B/gi, 'xbya')");
+        Utils.assertEvaluates("aab,a@0", ALL + "all(/(a)\\1b/, 'aab')");
+        Utils.assertEvaluates("foo@7", ALL + "all(/\\bfoo\\b/, 'foobar foo')");
+    }
+
+    @Test
+    public void longInput() {
+        String input = ALL + "var s = new Array(10000).join('e ');";
+        Utils.assertEvaluates("Error: disk,disk@19998",
+                input + "all(/Error: (\\w+)/, s + 'Error: disk')");
+        Utils.assertEvaluates("error: DISK,DISK@19998",
+                input + "all(/ERROR: (\\w+)/i, s + 'error: DISK')");
+        Utils.assertEvaluates("null", input + "all(/q|z/, s)");
+        Utils.assertEvaluates("xa[b]xc",
+                input + "'xaxbxc'.replace(/x(b)/g, '[$1]')");
+        Utils.assertEvaluates("a,b,c", input + "'a1b22c'.split(/\\d+/).join()");
+    }
+}
@@ -0,0 +1,65 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import org.junit.Test;
+
+/**
+ * Tests the RegExp statics and the parens of the last match, which are
+ * kept as indices into the input until they are read.
+ */
+public class RegExpStaticsTest {
+
+    private static final String STATICS =
+        "function st() {" +
+        "  return [RegExp.lastMatch, RegExp.lastParen, RegExp.leftContext," +
+        "          RegExp.rightContext, RegExp.$1, RegExp.$2, RegExp.$3," +
+        "          RegExp['$+'], RegExp['$&']];" +
+        "}";
+
+    @Test
+    public void statics() {
+        Utils.assertEvaluates("ab,b,x, y,a,b,,b,ab",
+                STATICS + "/(a)(b)?(c)?/.test('xab y'); st()");
+        Utils.assertEvaluates("b,b,z,,,b,,b,b",
+                STATICS + "/(a)|(b)/.exec('zb'); st()");
+        Utils.assertEvaluates("x,x,,,x,,,x,x",
+                STATICS + "/(x)(y)?/.exec('x'); st()");
+        Utils.assertEvaluates("q,,a,b,,,,,q",
+                STATICS + "/q/.test('aqb'); st()");
+        Utils.assertEvaluates("b,,a,c,,,,,b",
+                STATICS + "'abc'.replace('b', 'X'); st()");
+        Utils.assertEvaluates("b,b,a,c,b,,,b,b",
+                STATICS + "'abc'.search(/(b)/); st()");
+    }
+
+    @Test
+    public void replace() {
+        Utils.assertEvaluates("a[1,1,,1,a1b22c,]b[22,2,2,3,a1b22c,]c",
+                "'a1b22c'.replace(/(\\d)(\\d)?/g, function(m, p1, p2, i, s) {" +
+                "  return '[' + [m, p1, p2, i, s, RegExp.$1] + ']';" +
+                "})");
+        Utils.assertEvaluates("a<111ab22c$>b<22222a1bc$>c",
+                "'a1b22c'.replace(/(\\d)(\\d)?/g, '<$2$1$+$&$`$\\'$$>')");
+    }
+
+    @Test
+    public void results() {
+        String exec = "var m = /(a)(b)/.exec('xab');";
+        Utils.assertEvaluates("1,22", "'a1b22c'.match(/(\\d)(\\d)?/g)");
+        Utils.assertEvaluates("22,2,a1b,c,2,2,,2,22",
+                STATICS + "'a1b22c'.match(/(\\d)(\\d)?/g); st()");
+        Utils.assertEvaluates("[\"1\", \"1\", , ]",
+                "uneval('a1b22c'.match(/(\\d)(\\d)?/))");
+        Utils.assertEvaluates("[\"1\", , \"1\"]",
+                "uneval(/(z)?(1)/.exec('a1'))");
+        Utils.assertEvaluates("[\"a\", \"1\", \"\", \"b\", \"2\", \"\", \"c\"]",
+                "uneval('a1b2c'.split(/(\\d)(x)?/))");
+        Utils.assertEvaluates("3", exec + "m.length");
+        Utils.assertEvaluates("1", exec + "m.index");
+        Utils.assertEvaluates("xab", exec + "m.input");
+        Utils.assertEvaluates("[\"ab\", \"a\", \"b\"]", exec + "uneval(m)");
+    }
+}
@@ -0,0 +1,213 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.StreamCorruptedException;
+
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.serialize.ScopeSnapshot;
+import org.mozilla.javascript.serialize.ScriptableInputStream;
+import org.mozilla.javascript.serialize.ScriptableOutputStream;
+
+/**
+ * Tests that scopes restored from snapshots behave like the scopes they
+ * were written from.
+ */
+public class ScopeSnapshotTest {
+
+    private static final String BOOTSTRAP =
+        "var counter = 0;" +
+        "function next() { return ++counter; }" +
+        "var makeAdder = function(n) { return function(x) { return x + n; }; };" +
+        "var add5 = makeAdder(5);" +
+        "function Point(x, y) { this.x = x; this.y = y; }" +
+        "Point.prototype.norm = function() { return Math.sqrt(this.x * this.x + this.y * this.y); };" +
+        "Array.prototype.sum = function() {" +
+        "  var s = 0; for (var i = 0; i < this.length; i++) s += this[i]; return s;" +
+        "};" +
+        "var config = {name: 'worker', levels: [1, 2, 3], created: new Date(0)};" +
+        "Object.defineProperty(config, 'upper', {get: function() { return this.name.toUpperCase(); }});" +
+        "var pattern = /w(or)k/g;" +
+        "var sparse = []; sparse[1000] = 'x';" +
+        "next();";
+
+    private static final String CHECK =
+        "[next(), add5(2), new Point(3, 4).norm(), config.levels.sum()," +
+        " config.upper, 'network'.replace(pattern, '$1'), sparse.length," +
+        " config.created.getTime(), Object.getPrototypeOf([]) === Array.prototype," +
+        " new Point(0, 0) instanceof Point, JSON.stringify({a: [1]})].join()";
+
+    private static final String EXPECTED =
+        "2,7,5,6,WORKER,netor,1001,0,true,true,{\"a\":[1]}";
+
+    private static Scriptable createScope(Context cx) {
+        return createScope(cx, BOOTSTRAP);
+    }
+
+    private static Scriptable createScope(Context cx, String bootstrap) {
+        Scriptable scope = cx.initStandardObjects();
+        cx.evaluateString(scope, bootstrap, "bootstrap", 1, null);
+        return scope;
+    }
+
+    private static byte[] write(Scriptable scope) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ScopeSnapshot.write(scope, out);
+        return out.toByteArray();
+    }
+
+    private static Scriptable read(byte[] snapshot)
+        throws IOException, ClassNotFoundException
+    {
+        return ScopeSnapshot.read(new ByteArrayInputStream(snapshot));
+    }
+
+    private static String eval(Context cx, Scriptable scope, String source) {
+        return Context.toString(
+                cx.evaluateString(scope, source, "test", 1, null));
+    }
+
+    private static void runInterpreted(final SnapshotTest test) {
+        Utils.runWithOptimizationLevel(new ContextAction() {
+            public Object run(Context cx) {
+                try {
+                    test.run(cx);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                return null;
+            }
+        }, -1);
+    }
+
+    private interface SnapshotTest {
+        void run(Context cx) throws Exception;
+    }
+
+    @Test
+    public void restoreFromStream() {
+        runInterpreted(new SnapshotTest() {
+            public void run(Context cx) throws Exception {
+                byte[] snapshot = write(createScope(cx));
+                Scriptable a = read(snapshot);
+                Scriptable b = read(snapshot);
+                assertEquals(EXPECTED, eval(cx, a, CHECK));
+                assertEquals("3", eval(cx, a, "next()"));
+                assertEquals("2", eval(cx, b, "next()"));
+                assertEquals("undefined", eval(cx, b,
+                        "delete Array.prototype.sum; typeof [].sum"));
+                assertEquals("function", eval(cx, a, "typeof [].sum"));
+            }
+        });
+    }
+
+    @Test
+    public void restoreFromFile() {
+        runInterpreted(new SnapshotTest() {
+            public void run(Context cx) throws Exception {
+                File file = File.createTempFile("rhino", ".snapshot");
+                try {
+                    ScopeSnapshot.write(createScope(cx), file);
+                    Scriptable scope = ScopeSnapshot.read(file);
+                    assertEquals(EXPECTED, eval(cx, scope, CHECK));
+                } finally {
+                    file.delete();
+                }
+            }
+        });
+    }
+
+    @Test
+    public void compiledFunctionsAreRejected() {
+        Utils.runWithOptimizationLevel(new ContextAction() {
+            public Object run(Context cx) {
+                try {
+                    write(createScope(cx));
+                    fail();
+                } catch (NotSerializableException e) {
+                    // expected
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                return null;
+            }
+        }, 9);
+    }
+
+    @Test
+    public void corruptSnapshot() {
+        runInterpreted(new SnapshotTest() {
+            public void run(Context cx) throws Exception {
+                byte[] snapshot = write(createScope(cx));
+                snapshot[0] ^= 1;
+                try {
+                    read(snapshot);
+                    fail();
+                } catch (StreamCorruptedException e) {
+                    // expected
+                }
+            }
+        });
+    }
+
+    @Test
+    public void restoreLargeLibrary() {
+        final StringBuilder library = new StringBuilder(BOOTSTRAP);
+        for (int i = 0; i < 200; i++) {
+            library.append("function f").append(i).append("(a, b) {" +
+                           "  var x = a + b;" +
+                           "  for (var j = 0; j < 3; j++) x += j * ").append(i)
+                   .append(";  return {value: x, name: 'f").append(i)
+                   .append("'};}\n");
+        }
+        runInterpreted(new SnapshotTest() {
+            public void run(Context cx) throws Exception {
+                byte[] snapshot = write(createScope(cx, library.toString()));
+                String check = "[f199(1, 2).value, f0(1, 1).name, next()].join()";
+                assertEquals("600,f0,2", eval(cx, read(snapshot), check));
+                assertEquals("600,f0,2", eval(cx, read(snapshot), check));
+            }
+        });
+    }
+
+    @Test
+    public void accessorsWithScriptableStreams() {
+        runInterpreted(new SnapshotTest() {
+            public void run(Context cx) throws Exception {
+                Scriptable scope = cx.initStandardObjects();
+                Object obj = cx.evaluateString(scope,
+                        "var o = {a: 1, 0: 'x'};" +
+                        "Object.defineProperty(o, 'b', {get: function() { return this.a + 1; }," +
+                        "  enumerable: true});" +
+                        "o", "test", 1, null);
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                ScriptableOutputStream out =
+                    new ScriptableOutputStream(bytes, scope);
+                out.writeObject(obj);
+                out.close();
+                ScriptableInputStream in = new ScriptableInputStream(
+                    new ByteArrayInputStream(bytes.toByteArray()), scope);
+                Scriptable copy = (Scriptable)in.readObject();
+                in.close();
+                ScriptableObject.putProperty(scope, "c", copy);
+                assertEquals("a,0,b|1,2,x|a,0,b",
+                             eval(cx, scope, "[Object.keys(c), [c.a, c.b, c[0]]," +
+                                             " Object.keys(o)].join('|')"));
+            }
+        });
+    }
+}
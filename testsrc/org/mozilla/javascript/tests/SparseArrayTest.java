@@ -0,0 +1,92 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import org.junit.Test;
+
+/**
+ * Tests arrays whose elements are not all in the dense storage, which
+ * keeps elements far beyond the others in sorted sparse storage.
+ */
+public class SparseArrayTest {
+
+    @Test
+    public void elements() {
+        String array = "var a = ['a']; a[1000000] = 'c'; a[5] = 'b';";
+        Utils.assertEvaluates("1000001", array + "a.length");
+        Utils.assertEvaluates("a,b,c",
+                array + "[a[0], a[5], a[1000000]].join()");
+        Utils.assertEvaluates("0,5,1000000",
+                array + "var ks = []; for (var k in a) ks.push(k); ks.join()");
+        Utils.assertEvaluates("true,false", array + "[5 in a, 6 in a].join()");
+        Utils.assertEvaluates("undefined", array + "delete a[5]; String(a[5])");
+        Utils.assertEvaluates("0,1000000",
+                array + "delete a[5]; Object.keys(a).join()");
+    }
+
+    @Test
+    public void manyElements() {
+        String array =
+                "var a = [];" +
+                "for (var i = 200000; i >= 0; i--) a[i * 3 + 10] = i;";
+        Utils.assertEvaluates("200001",
+                array + "var n = 0; for (var k in a) n++; n");
+        Utils.assertEvaluates("20000100000",
+                array + "var s = 0; for (var k in a) s += a[k]; s");
+        Utils.assertEvaluates("200001", array + "Object.keys(a).length");
+        Utils.assertEvaluates("200000", array + "a[600010]");
+        Utils.assertEvaluates("99993",
+                "var b = new Array(300000);" +
+                "for (var i = 0; i < 100000; i++) b[(i * 7919) % 300000] = i;" +
+                "b.length = 150000;" +
+                "var m = 0; b.forEach(function(x) { if (x > m) m = x; }); m");
+    }
+
+    @Test
+    public void truncate() {
+        String array =
+                "var a = [1, 2]; a[5000000] = 3; a[3000000] = 4;" +
+                "a.length = 3000000;";
+        Utils.assertEvaluates("2", array + "Object.keys(a).length");
+        Utils.assertEvaluates("1,2,", array + "a.length = 3; a.join()");
+        Utils.assertEvaluates("3", array + "a.length = 3; a.length");
+        Utils.assertEvaluates("0,1,2000000",
+                "var b = [1, 2]; b[2000000] = 3;" +
+                "Object.defineProperty(b, 3000000, {value: 4, writable: true," +
+                "                                   enumerable: true, configurable: true});" +
+                "b.length = 2000001; Object.keys(b).join()");
+    }
+
+    @Test
+    public void attributes() {
+        String array =
+                "var a = [1]; a[100000] = 'x';" +
+                "Object.defineProperty(a, 100000, {writable: false});" +
+                "a[100000] = 'w';";
+        Utils.assertEvaluates("x", array + "a[100000]");
+        Utils.assertEvaluates("false",
+                array + "Object.getOwnPropertyDescriptor(a, 100000).writable");
+        Utils.assertEvaluates("y", array + "a[200000] = 'y'; a[200000]");
+        Utils.assertEvaluates("true",
+                array + "a[200000] = 'y';" +
+                "Object.getOwnPropertyDescriptor(a, 200000).writable");
+        Utils.assertEvaluates("g,z",
+                array +
+                "Object.defineProperty(a, 300000, {get: function() { return 'g'; }," +
+                "                                  configurable: true});" +
+                "a[300001] = 'z'; [a[300000], a[300001]].join()");
+        String frozen =
+                "var f = [1, 2]; f[100000] = 3; Object.freeze(f);" +
+                "f[100000] = 4; f[200000] = 5;";
+        Utils.assertEvaluates("3", frozen + "Object.keys(f).length");
+        Utils.assertEvaluates("3", frozen + "f[100000]");
+        Utils.assertEvaluates("false", frozen + "200000 in f");
+        String nonExtensible =
+                "var p = [1]; p[100000] = 2; Object.preventExtensions(p);" +
+                "p[100001] = 3;";
+        Utils.assertEvaluates("1,2", nonExtensible + "[p[0], p[100000]].join()");
+        Utils.assertEvaluates("false", nonExtensible + "100001 in p");
+    }
+}
@@ -0,0 +1,102 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import org.junit.Test;
+
+/**
+ * Tests chains of string additions, which the compiler generates as one
+ * concatenation, and strings built by appending in a loop.
+ */
+public class StringConcatenationTest {
+
+    private static final String MK =
+        "var log = [];" +
+        "function mk(n) {" +
+        "  return {valueOf: function() { log.push('v' + n); return n; }," +
+        "          toString: function() { log.push('s' + n); return 'S' + n; }};" +
+        "}";
+
+    // Returns a script that evaluates the expression in a function with
+    // the local variables a = 1, b = 2 and i = 3
+    private static String withLocals(String expression) {
+        return "function f() {" +
+               "  var a = 1, b = 2, i = 3;" +
+               "  return " + expression + ";" +
+               "}" +
+               "f()";
+    }
+
+    // Returns a script that evaluates the expression in a function with
+    // the local variables o1, o2 and o3 that log their conversions
+    private static String withObjects(String expression, String result) {
+        return MK +
+               "function f() {" +
+               "  var o1 = mk(1), o2 = mk(2), o3 = mk(3);" +
+               "  return " + expression + ";" +
+               "}" +
+               "var r = f();" + result;
+    }
+
+    @Test
+    public void operands() {
+        Utils.assertEvaluates("3c12", withLocals("a + b + 'c' + a + b"));
+        Utils.assertEvaluates("c121.5", withLocals("'c' + a + b + 1.5"));
+        Utils.assertEvaluates("6x12", withLocals("1 + 2 + 3 + 'x' + 1 + 2"));
+        Utils.assertEvaluates("1x2y", withLocals("a + 'x' + b + 'y'"));
+        Utils.assertEvaluates("31q2z",
+                withLocals("a + b + (a + 'q') + b + 'z'"));
+        Utils.assertEvaluates("[6]30.75",
+                withLocals("'[' + i * 2 + ']' + (i | 0) + (i / 4)"));
+        Utils.assertEvaluates("anullundefinedtrue[object Object]1,201e+21NaN",
+                withLocals("'a' + null + undefined + true + {} + [1, 2] + (-0) +" +
+                           "1e21 + NaN"));
+    }
+
+    @Test
+    public void conversionOrder() {
+        String first = "'p' + o1 + (log.push('e'), o2) + o3 + 'q'";
+        Utils.assertEvaluates("p123q", withObjects(first, "r"));
+        Utils.assertEvaluates("v1,e,v2,v3", withObjects(first, "log.join()"));
+        String second = "o1 + o2 + 'p' + o3 + o1";
+        Utils.assertEvaluates("3p31", withObjects(second, "r"));
+        Utils.assertEvaluates("v1,v2,v3,v1", withObjects(second, "log.join()"));
+        Utils.assertEvaluates("a1", withObjects("'a' + o1", "r"));
+        Utils.assertEvaluates("v1", withObjects("'a' + o1", "log.join()"));
+        Utils.assertEvaluates("1a", withObjects("o1 + 'a'", "r"));
+        Utils.assertEvaluates("v1", withObjects("o1 + 'a'", "log.join()"));
+    }
+
+    @Test
+    public void longResults() {
+        String result =
+                "function f() {" +
+                "  var big = '';" +
+                "  for (var k = 0; k < 3000; k++) big += 'ab';" +
+                "  return '<' + big + '|' + big + '>';" +
+                "}" +
+                "var y = f();";
+        Utils.assertEvaluates("12003", result + "y.length");
+        Utils.assertEvaluates("|", result + "y.charAt(6001)");
+        Utils.assertEvaluates("ab|a", result + "y.substring(5999, 6003)");
+        Utils.assertEvaluates("b>", result + "y.slice(-2)");
+    }
+
+    @Test
+    public void appendLoop() {
+        String items =
+                "var s = '';" +
+                "for (var k = 0; k < 50000; k++) s += 'item' + k + ',';";
+        Utils.assertEvaluates("488890", items + "s.length");
+        Utils.assertEvaluates("4", items + "s.charAt(123456)");
+        Utils.assertEvaluates("488880", items + "s.indexOf('item49999')");
+        Utils.assertEvaluates("em49999,", items + "s.slice(-8)");
+        String prepended =
+                "var t = '';" +
+                "for (var k = 0; k < 10000; k++) t = 'y' + t;";
+        Utils.assertEvaluates("10000", prepended + "t.length");
+        Utils.assertEvaluates("y", prepended + "t.charAt(5000)");
+    }
+}
@@ -0,0 +1,348 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.TopLevel;
+
+/**
+ * Tests that forks of a template scope share the template objects until
+ * they change them and stay isolated from each other.
+ */
+public class TemplateScopeTest {
+
+    private static final String LIBRARY =
+        "var counter = 0;" +
+        "function next() { return ++counter; }" +
+        "function Point(x) { this.x = x; }" +
+        "Point.prototype.getX = function() { return this.x; };" +
+        "var config = {debug: false, levels: [1, 2]};";
+
+    private static TopLevel createTemplate(Context cx) {
+        TopLevel template = new TopLevel();
+        cx.initStandardObjects(template);
+        cx.evaluateString(template, LIBRARY, "library", 1, null);
+        template.sealTemplate();
+        return template;
+    }
+
+    private static void runWithTemplate(final TemplateTest test) {
+        Utils.runWithAllOptimizationLevels(new ContextAction() {
+            public Object run(Context cx) {
+                test.run(cx, createTemplate(cx));
+                return null;
+            }
+        });
+    }
+
+    private interface TemplateTest {
+        void run(Context cx, TopLevel template);
+    }
+
+    private static String eval(Context cx, TopLevel scope, String source) {
+        return Context.toString(
+                cx.evaluateString(scope, source, "test", 1, null));
+    }
+
+    @Test
+    public void globalVariables() {
+        runWithTemplate(new TemplateTest() {
+            public void run(Context cx, TopLevel template) {
+                TopLevel a = template.fork();
+                TopLevel b = template.fork();
+                assertSame(template, a.getTemplate());
+                assertEquals("1", eval(cx, a, "var x = 1; x"));
+                assertEquals("undefined", eval(cx, b, "typeof x"));
+                assertEquals("2", eval(cx, b, "Array = 2; Array"));
+                assertEquals("function", eval(cx, a, "typeof Array"));
+            }
+        });
+    }
+
+    @Test
+    public void builtinPrototypes() {
+        runWithTemplate(new TemplateTest() {
+            public void run(Context cx, TopLevel template) {
+                TopLevel a = template.fork();
+                TopLevel b = template.fork();
+                eval(cx, a, "var before = [1, 2];");
+                eval(cx, a, "Array.prototype.sum = function() {" +
+                            "  var s = 0;" +
+                            "  for (var i = 0; i < this.length; i++) s += this[i];" +
+                            "  return s;" +
+                            "};" +
+                            "Math.max = function() { return 42; };");
+                assertEquals("3,7,42", eval(cx, a,
+                        "[before.sum(), [3, 4].sum(), Math.max(1, 2)].join()"));
+                assertEquals("true", eval(cx, a,
+                        "Object.getPrototypeOf([]) === Array.prototype"));
+                assertEquals("true", eval(cx, a,
+                        "Object.getOwnPropertyNames(Array.prototype)" +
+                        ".indexOf('sum') >= 0"));
+                assertEquals("undefined,2", eval(cx, b,
+                        "[typeof [].sum, Math.max(1, 2)].join()"));
+                assertEquals("false", eval(cx, b,
+                        "Object.getOwnPropertyNames(Array.prototype)" +
+                        ".indexOf('sum') >= 0"));
+                assertEquals("undefined", eval(cx, template.fork(),
+                        "typeof Array.prototype.sum"));
+            }
+        });
+    }
+
+    @Test
+    public void definePropertiesAndFreeze() {
+        runWithTemplate(new TemplateTest() {
+            public void run(Context cx, TopLevel template) {
+                TopLevel a = template.fork();
+                TopLevel b = template.fork();
+                eval(cx, a, "Object.defineProperty(Object.prototype, 'hidden'," +
+                            "  {value: 1, enumerable: false});" +
+                            "Object.freeze(config);" +
+                            "delete String.prototype.trim;");
+                assertEquals("1,false,undefined,false", eval(cx, a,
+                        "[({}).hidden, Object.isExtensible(config)," +
+                        " typeof ''.trim, Object.isFrozen(Object)].join()"));
+                assertEquals("undefined,true,function", eval(cx, b,
+                        "[typeof ({}).hidden, Object.isExtensible(config)," +
+                        " typeof ''.trim].join()"));
+            }
+        });
+    }
+
+    @Test
+    public void freezeSealAndDefineInTwoForks() {
+        runWithTemplate(new TemplateTest() {
+            public void run(Context cx, TopLevel template) {
+                TopLevel a = template.fork();
+                TopLevel b = template.fork();
+                eval(cx, a, "config.debug = true; Object.freeze(config);" +
+                            "Object.seal(config.levels);" +
+                            "Object.defineProperty(Point, 'origin', {value: 0});" +
+                            "Object.defineProperty(Point.prototype, 'getX'," +
+                            "  {writable: false});");
+                assertEquals("true", eval(cx, a, "Object.isFrozen(config)"));
+                assertEquals("true", eval(cx, a, "config.debug"));
+                assertEquals("true", eval(cx, a, "Object.isSealed(config.levels)"));
+                assertEquals("0", eval(cx, a, "Point.origin"));
+                assertEquals("false", eval(cx, a,
+                        "Object.getOwnPropertyDescriptor(Point.prototype, 'getX').writable"));
+
+                assertEquals("false", eval(cx, b, "Object.isFrozen(config)"));
+                assertEquals("false", eval(cx, b, "config.debug"));
+                assertEquals("true", eval(cx, b,
+                        "Object.getOwnPropertyDescriptor(config, 'debug').writable"));
+                assertEquals("false", eval(cx, b, "Object.isSealed(config.levels)"));
+                assertEquals("3", eval(cx, b, "config.levels.push(3)"));
+                assertEquals("undefined", eval(cx, b, "typeof Point.origin"));
+                assertEquals("true", eval(cx, b,
+                        "Object.getOwnPropertyDescriptor(Point.prototype, 'getX').writable"));
+
+                assertEquals("false", eval(cx, template, "config.debug"));
+                assertEquals("2", eval(cx, template, "config.levels.length"));
+            }
+        });
+    }
+
+    @Test
+    public void arrayMethodsSeeForkCopy() {
+        runWithTemplate(new TemplateTest() {
+            public void run(Context cx, TopLevel template) {
+                TopLevel a = template.fork();
+                eval(cx, a, "var l = config.levels; l.push(3);");
+                assertEquals("3", eval(cx, a, "l.length"));
+                assertEquals("1,2,3", eval(cx, a, "l.join()"));
+                assertEquals("2,3", eval(cx, a, "l.slice(1).join()"));
+                assertEquals("2", eval(cx, a, "l.indexOf(3)"));
+                assertEquals("1,2,3,4", eval(cx, a, "l.concat([4]).join()"));
+                assertEquals("[1,2,3]", eval(cx, a, "JSON.stringify(l)"));
+                assertEquals("true", eval(cx, a, "l.reverse() === l"));
+                assertEquals("3,2,1", eval(cx, a, "l.join()"));
+                assertEquals("1,2", eval(cx, template.fork(),
+                        "config.levels.join()"));
+            }
+        });
+    }
+
+    @Test
+    public void lazyConstructorsInGlobalCopy() {
+        runWithTemplate(new TemplateTest() {
+            public void run(Context cx, TopLevel template) {
+                TopLevel a = template.fork();
+                // next() changes the template global, which gets copied
+                eval(cx, a, "next(); RegExp.prototype.x = 1;");
+                assertEquals("function", eval(cx, a, "typeof RegExp"));
+                assertEquals("1", eval(cx, a, "RegExp.prototype.x"));
+                assertEquals("true", eval(cx, a, "/a/.test('a')"));
+                assertEquals("undefined", eval(cx, template.fork(),
+                        "typeof RegExp.prototype.x"));
+            }
+        });
+    }
+
+    @Test
+    public void javaReadsSeeTemplate() {
+        runWithTemplate(new TemplateTest() {
+            public void run(Context cx, TopLevel template) {
+                TopLevel a = template.fork();
+                eval(cx, a, "config.debug = true;");
+                Scriptable config = (Scriptable)
+                    ScriptableObject.getProperty(a, "config");
+                assertEquals(Boolean.FALSE,
+                             ScriptableObject.getProperty(config, "debug"));
+                assertEquals("true", eval(cx, a, "config.debug"));
+            }
+        });
+    }
+
+    @Test
+    public void templateFunctionState() {
+        runWithTemplate(new TemplateTest() {
+            public void run(Context cx, TopLevel template) {
+                TopLevel a = template.fork();
+                TopLevel b = template.fork();
+                assertEquals("1,2,3", eval(cx, a, "[next(), next(), next()].join()"));
+                assertEquals("1", eval(cx, b, "next()"));
+                assertEquals("4", eval(cx, a, "next()"));
+                eval(cx, a, "config.debug = true; config.levels.push(3);");
+                assertEquals("true,3", eval(cx, a,
+                        "[config.debug, config.levels.length].join()"));
+                assertEquals("false,2", eval(cx, b,
+                        "[config.debug, config.levels.length].join()"));
+            }
+        });
+    }
+
+    @Test
+    public void replacedFunctionPrototype() {
+        runWithTemplate(new TemplateTest() {
+            public void run(Context cx, TopLevel template) {
+                TopLevel a = template.fork();
+                TopLevel b = template.fork();
+                eval(cx, a, "Point.prototype = {getX: function() { return -1; }};");
+                assertEquals("-1,true", eval(cx, a,
+                        "var p = new Point(5);" +
+                        "[p.getX(), p instanceof Point].join()"));
+                assertEquals("5,true", eval(cx, b,
+                        "var p = new Point(5);" +
+                        "[p.getX(), p instanceof Point].join()"));
+            }
+        });
+    }
+
+    @Test
+    public void compiledScriptInManyForks() {
+        runWithTemplate(new TemplateTest() {
+            public void run(Context cx, TopLevel template) {
+                Script script = cx.compileString(
+                        "if (!Array.prototype.first) {" +
+                        "  Array.prototype.first = function() { return this[0]; };" +
+                        "}" +
+                        "next() + ':' + [7].first() + ':' + config.levels.length",
+                        "test", 1, null);
+                for (int i = 0; i < 3; i++) {
+                    TopLevel fork = template.fork();
+                    assertEquals("1:7:2",
+                            Context.toString(script.exec(cx, fork)));
+                    assertEquals("2:7:2",
+                            Context.toString(script.exec(cx, fork)));
+                }
+            }
+        });
+    }
+
+    @Test
+    public void cachedTemplateProperties() {
+        ContextFactory shapesFactory = new ContextFactory() {
+            @Override
+            protected boolean hasFeature(Context cx, int featureIndex) {
+                if (featureIndex == Context.FEATURE_OBJECT_SHAPES) {
+                    return true;
+                }
+                return super.hasFeature(cx, featureIndex);
+            }
+        };
+        Utils.runWithAllOptimizationLevels(shapesFactory, new ContextAction() {
+            public Object run(Context cx) {
+                TopLevel template = createTemplate(cx);
+                Script script = cx.compileString(
+                        "function get(o) { return o.debug; }" +
+                        "var r = [];" +
+                        "for (var i = 0; i < 3; i++) r.push(get(config), counter);" +
+                        "r.join()", "test", 1, null);
+                TopLevel a = template.fork();
+                TopLevel b = template.fork();
+                assertEquals("false,0,false,0,false,0",
+                        Context.toString(script.exec(cx, b)));
+                eval(cx, a, "config.debug = true; next();");
+                assertEquals("true,1,true,1,true,1",
+                        Context.toString(script.exec(cx, a)));
+                assertEquals("false,0,false,0,false,0",
+                        Context.toString(script.exec(cx, b)));
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void templateIsSealed() {
+        ContextFactory.getGlobal().call(new ContextAction() {
+            public Object run(Context cx) {
+                TopLevel template = createTemplate(cx);
+                assertTrue(template.isTemplate());
+                ScriptableObject arrayProto = (ScriptableObject)
+                    ScriptableObject.getArrayPrototype(template);
+                assertTrue(arrayProto.isSealed());
+                try {
+                    arrayProto.put("foo", arrayProto, "bar");
+                    fail();
+                } catch (EvaluatorException e) {
+                    // expected
+                }
+                try {
+                    template.fork().fork();
+                    fail();
+                } catch (IllegalStateException e) {
+                    // expected
+                }
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void sealedArraysOutsideTemplates() {
+        Utils.runWithAllOptimizationLevels(new ContextAction() {
+            public Object run(Context cx) {
+                ScriptableObject scope = cx.initStandardObjects();
+                ScriptableObject array = (ScriptableObject) cx.evaluateString(
+                        scope, "var a = [1, 2, 3]; a", "test", 1, null);
+                array.sealObject();
+                assertEquals("6,1,3", Context.toString(cx.evaluateString(scope,
+                        "[a[0] + a[1] + a[2], a.indexOf(2), a.length].join()",
+                        "test", 1, null)));
+                try {
+                    array.put(0, array, "x");
+                    fail();
+                } catch (EvaluatorException e) {
+                    // expected
+                }
+                return null;
+            }
+        });
+    }
+}
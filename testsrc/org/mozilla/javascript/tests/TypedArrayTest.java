@@ -0,0 +1,174 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.serialize.ScopeSnapshot;
+import org.mozilla.javascript.typedarrays.NativeArrayBuffer;
+import org.mozilla.javascript.typedarrays.NativeFloat32Array;
+
+/**
+ * Tests the ArrayBuffer, DataView and typed array native objects, and
+ * that ArrayBuffers share the bytes of the ByteBuffers they are created
+ * from.
+ */
+public class TypedArrayTest {
+
+    @Test
+    public void elementConversions() {
+        Utils.assertEvaluates("-128,255,0,255,2,4,-32768,65535,-1,4294967295,0.5,-0",
+                "var r = [new Int8Array([128])[0], new Uint8Array([-1])[0]];" +
+                "var c = new Uint8ClampedArray(4);" +
+                "c[0] = -3; c[1] = 300; c[2] = 2.5; c[3] = 3.5;" +
+                "r.push(c[0], c[1], c[2], c[3]);" +
+                "r.push(new Int16Array([32768])[0], new Uint16Array([-1])[0]);" +
+                "r.push(new Int32Array([4294967295])[0], new Uint32Array([-1])[0]);" +
+                "var f = new Float32Array([0.5, -0]);" +
+                "r.push(f[0], 1 / f[1] < 0 ? '-0' : '0');" +
+                "r.join()");
+    }
+
+    @Test
+    public void outOfRangeElements() {
+        Utils.assertEvaluates("undefined,false,true,3,a",
+                "var a = new Float64Array(3); a[3] = 1; a[-1] = 'a';" +
+                "[String(a[3]), 3 in a, 2 in a, a.length, a[-1]].join()");
+    }
+
+    @Test
+    public void sharedBuffer() {
+        String view =
+                "var b = new ArrayBuffer(16);" +
+                "var f = new Float32Array(b, 4, 2);";
+        Utils.assertEvaluates("16", view + "b.byteLength");
+        Utils.assertEvaluates("4", view + "f.byteOffset");
+        Utils.assertEvaluates("8", view + "f.byteLength");
+        Utils.assertEvaluates("2", view + "f.length");
+        Utils.assertEvaluates("0,0,0,64",
+                view + "f[0] = 2;" +
+                "Array.prototype.join.call(new Uint8Array(b, 4, 4))");
+        String subarray = "var s = new Int16Array([1, 2, 3, 4]).subarray(1, 3);";
+        Utils.assertEvaluates("2", subarray + "s.byteOffset");
+        Utils.assertEvaluates("8", subarray + "s.buffer.byteLength");
+        Utils.assertEvaluates("2", subarray + "s.length");
+        Utils.assertEvaluates("1,0,2,0,0,0",
+                "var i16 = new Int16Array(6); i16.set([1, 2], 0);" +
+                "i16.set(i16.subarray(0, 2), 1); i16[1] = 0;" +
+                "Array.prototype.join.call(i16)");
+    }
+
+    @Test
+    public void dataView() {
+        Utils.assertEvaluates("258,513,-2,4294967294,1.5,3.25,1,2",
+                "var b = new ArrayBuffer(16), v = new DataView(b, 2);" +
+                "v.setUint16(0, 258);" +
+                "var r = [v.getInt16(0), v.getInt16(0, true)];" +
+                "v.setInt32(2, -2, true);" +
+                "r.push(v.getInt32(2, true), v.getUint32(2, true));" +
+                "v.setFloat32(6, 1.5); r.push(new DataView(b, 8, 4).getFloat32(0));" +
+                "v.setFloat64(6, 3.25, true); r.push(v.getFloat64(6, true));" +
+                "r.push(new Uint8Array(b)[2], new Uint8Array(b)[3]);" +
+                "r.join()");
+    }
+
+    @Test
+    public void errors() {
+        Utils.assertEvaluates("RangeError,RangeError,RangeError,RangeError,TypeError",
+                "var r = [];" +
+                "function t(f) { try { f(); r.push('none'); }" +
+                "                catch (e) { r.push(e.name); } }" +
+                "t(function() { new ArrayBuffer(-1); });" +
+                "t(function() { new Int32Array(new ArrayBuffer(8), 2); });" +
+                "t(function() { new Int32Array(new ArrayBuffer(6)); });" +
+                "t(function() { new DataView(new ArrayBuffer(4)).getInt32(1); });" +
+                "t(function() { Int8Array.prototype.set.call({}, [1]); });" +
+                "r.join()");
+    }
+
+    @Test
+    public void numericLoops() {
+        Utils.assertEvaluates("338350,2.5,0",
+                "function sum(a) {" +
+                "  var s = 0;" +
+                "  for (var i = 0; i < a.length; i++) s = s + a[i] * a[i];" +
+                "  return s;" +
+                "}" +
+                "var a = new Int32Array(100);" +
+                "for (var i = 0; i < a.length; i++) a[i] = i + 1;" +
+                "var f = new Float64Array(2); f[0] = 1.5; f[1] = f[0] + 1;" +
+                "var u = new Uint8Array(1); u[0] = u[0] - 256;" +
+                "[sum(a), f[1], u[0]].join()");
+    }
+
+    @Test
+    public void directBuffer() {
+        Utils.runWithAllOptimizationLevels(new ContextAction() {
+            public Object run(Context cx) {
+                Scriptable scope = cx.initStandardObjects();
+                ByteBuffer buffer = ByteBuffer.allocateDirect(12)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(4, 7);
+                buffer.position(4);
+                ScriptableObject.putProperty(scope, "data",
+                        cx.newArrayBuffer(scope, buffer));
+                Object r = cx.evaluateString(scope,
+                        "var a = new Int32Array(data); a[1] = a[0] * 6;" +
+                        "[data.byteLength, a.length, a[0]].join()",
+                        "test", 1, null);
+                assertEquals("8,2,7", Context.toString(r));
+                assertEquals(42, buffer.getInt(8));
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void javaViews() {
+        NativeArrayBuffer buffer = new NativeArrayBuffer(8);
+        NativeFloat32Array view = new NativeFloat32Array(buffer, 4, 1);
+        view.setNumberElement(0, 0.25);
+        assertEquals(0.25f, buffer.getBuffer().order(ByteOrder.LITTLE_ENDIAN)
+                                  .getFloat(4), 0);
+        assertEquals(0.25, view.getNumberElement(0), 0);
+    }
+
+    @Test
+    public void snapshot() {
+        Utils.runWithOptimizationLevel(new ContextAction() {
+            public Object run(Context cx) {
+                try {
+                    Scriptable scope = cx.initStandardObjects();
+                    cx.evaluateString(scope,
+                            "var b = new ArrayBuffer(8);" +
+                            "var a = new Uint16Array(b, 2, 2); a[1] = 513;",
+                            "test", 1, null);
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    ScopeSnapshot.write(scope, out);
+                    Scriptable restored = ScopeSnapshot.read(
+                            new ByteArrayInputStream(out.toByteArray()));
+                    assertEquals("513,1,2,true", Context.toString(
+                            cx.evaluateString(restored,
+                                    "[a[1], new Uint8Array(b)[4]," +
+                                    " new Uint8Array(b)[5], a.buffer === b].join()",
+                                    "test", 1, null)));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                return null;
+            }
+        }, -1);
+    }
+}
@@ -4,6 +4,8 @@
 
 package org.mozilla.javascript.tests;
 
+import static org.junit.Assert.assertEquals;
+
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ContextAction;
 import org.mozilla.javascript.ContextFactory;
@@ -61,6 +63,34 @@ public class Utils
     	}
 	}
 
+	/**
+	 * Evaluates the source in a fresh scope with all available optimization
+	 * levels and checks that the result converts to the expected string
+	 */
+	public static void assertEvaluates(final String expected, final String source)
+	{
+		assertEvaluates(new ContextFactory(), expected, source);
+	}
+
+	/**
+	 * Evaluates the source in a fresh scope with all available optimization
+	 * levels, using contexts of the given factory, and checks that the
+	 * result converts to the expected string
+	 */
+	public static void assertEvaluates(final ContextFactory contextFactory,
+			final String expected, final String source)
+	{
+		runWithAllOptimizationLevels(contextFactory, new ContextAction()
+		{
+			public Object run(Context cx) {
+				final Scriptable scope = cx.initStandardObjects();
+				final Object result = cx.evaluateString(scope, source, "test", 1, null);
+				assertEquals(expected, Context.toString(result));
+				return null;
+			}
+		});
+	}
+
 	/**
 	 * Execute the provided script in a fresh context as "myScript.js".
 	 * @param script the script code